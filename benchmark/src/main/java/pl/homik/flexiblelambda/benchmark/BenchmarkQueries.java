@@ -0,0 +1,57 @@
+package pl.homik.flexiblelambda.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import de.hybris.platform.core.model.order.OrderModel;
+import de.hybris.platform.core.model.test.TestItemModel;
+import de.hybris.platform.servicelayer.model.ModelService;
+
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+
+/**
+ * Lambda shapes used by benchmarks. Values are passed as arguments, so lambdas capture them like in real code.
+ */
+final class BenchmarkQueries {
+
+	private BenchmarkQueries() {
+	}
+
+	static SerializablePredicate<TestItemModel> simpleEquality(final String value) {
+		return e -> e.getString().equals(value);
+	}
+
+	static SerializablePredicate<TestItemModel> stringLike(final String prefix) {
+		return e -> e.getString().startsWith(prefix);
+	}
+
+	static SerializablePredicate<OrderModel> relationJoin(final String isocode) {
+		return e -> e.getDeliveryAddress().getCountry().getIsocode().equals(isocode);
+	}
+
+	static SerializablePredicate<TestItemModel> capturedExpression(final Map<String, String> values) {
+		return e -> e.getString().equals(values.get("key"));
+	}
+
+	static LambdaFlexibleSearchQuery<TestItemModel> multiFilter(final int min, final String value) {
+		return new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> e.getInteger() > min)
+						.filter(e -> e.getString().equals(value) || e.getString().endsWith(value))
+						.filter(e -> e.getBoolean());
+	}
+
+	/**
+	 * Model service mock which answers only type lookups. Unlike mocking frameworks it does not record invocations,
+	 * so it does not allocate memory and does not disturb measurements.
+	 */
+	static ModelService modelService() {
+		return (ModelService) Proxy.newProxyInstance(ModelService.class.getClassLoader(),
+						new Class<?>[] { ModelService.class }, (proxy, method, args) -> {
+							if ("getModelType".equals(method.getName())) {
+								final Class<?> modelClass = args[0] instanceof Class ? (Class<?>) args[0] : args[0].getClass();
+								return modelClass.getSimpleName().replace("Model", "");
+							}
+							throw new UnsupportedOperationException(method.getName());
+						});
+	}
+}
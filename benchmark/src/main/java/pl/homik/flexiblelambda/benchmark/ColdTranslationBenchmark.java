@@ -0,0 +1,74 @@
+package pl.homik.flexiblelambda.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import de.hybris.platform.core.model.order.OrderModel;
+import de.hybris.platform.core.model.test.TestItemModel;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.homik.flexiblelambda.cache.TranslationPlanCache;
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.service.impl.LambdaFlexibleSearchTranslationServiceImpl;
+
+/**
+ * Time of the first translation of each lambda shape in a fresh JVM (class loading, bytecode parsing, interpreted
+ * code), which is paid by the first request after server start
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class ColdTranslationBenchmark {
+
+	private LambdaFlexibleSearchTranslationServiceImpl translationService;
+
+	@Setup
+	public void setUp() {
+		translationService = new LambdaFlexibleSearchTranslationServiceImpl();
+		translationService.setModelService(BenchmarkQueries.modelService());
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery simpleEquality() {
+		return translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(BenchmarkQueries.simpleEquality("abc")));
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery multiFilter() {
+		return translationService.translate(BenchmarkQueries.multiFilter(1, "abc"));
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery relationJoin() {
+		return translationService.translate(
+						new LambdaFlexibleSearchQuery<>(OrderModel.class).filter(BenchmarkQueries.relationJoin("pl")));
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery stringLike() {
+		return translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(BenchmarkQueries.stringLike("abc")));
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery capturedExpression() {
+		return translationService.translate(new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(BenchmarkQueries.capturedExpression(Collections.singletonMap("key", "abc"))));
+	}
+}
@@ -0,0 +1,83 @@
+package pl.homik.flexiblelambda.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import de.hybris.platform.core.model.order.OrderModel;
+import de.hybris.platform.core.model.test.TestItemModel;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.homik.flexiblelambda.cache.TranslationPlanCache;
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.service.impl.LambdaFlexibleSearchTranslationServiceImpl;
+
+/**
+ * Warm throughput of whole translation, with translation plan cache (repeated queries) and without it (visiting lambdas
+ * on every call). JaQue caches parsed lambdas per lambda class, so bytecode parsing is done only in the first calls and
+ * it is not measured here, see {@link ColdTranslationBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TranslationBenchmark {
+
+	@Param({ "true", "false" })
+	private boolean planCache;
+
+	private LambdaFlexibleSearchTranslationServiceImpl translationService;
+	private String value;
+
+	@Setup
+	public void setUp() {
+		translationService = new LambdaFlexibleSearchTranslationServiceImpl();
+		translationService.setModelService(BenchmarkQueries.modelService());
+		if (planCache) {
+			translationService.setTranslationPlanCache(new TranslationPlanCache());
+		}
+		value = "abc";
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery simpleEquality() {
+		return translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(BenchmarkQueries.simpleEquality(value)));
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery multiFilter() {
+		return translationService.translate(BenchmarkQueries.multiFilter(1, value));
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery relationJoin() {
+		return translationService.translate(
+						new LambdaFlexibleSearchQuery<>(OrderModel.class).filter(BenchmarkQueries.relationJoin(value)));
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery stringLike() {
+		return translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(BenchmarkQueries.stringLike(value)));
+	}
+
+	@Benchmark
+	public FlexibleSearchQuery capturedExpression() {
+		return translationService.translate(new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(BenchmarkQueries.capturedExpression(Collections.singletonMap("key", value))));
+	}
+}
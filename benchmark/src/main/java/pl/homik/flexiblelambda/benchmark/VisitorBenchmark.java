@@ -0,0 +1,83 @@
+package pl.homik.flexiblelambda.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import de.hybris.platform.servicelayer.model.ModelService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.trigersoft.jaque.expression.LambdaExpression;
+
+import pl.homik.flexiblelambda.pojo.PredicateTranslationResult;
+import pl.homik.flexiblelambda.tools.ParametersNameGenerator;
+import pl.homik.flexiblelambda.visitor.ToFlexibleSearchVisitor;
+
+/**
+ * Throughput of expression tree traversal alone (ToFlexibleSearchVisitor with ArgumentsFixVisitor,
+ * ToConstantExpressionVisitor and ParametersNameGenerator), lambdas are parsed once in setup
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class VisitorBenchmark {
+
+	private static final int GENERATED_NAMES = 30;
+
+	private ModelService modelService;
+	private LambdaExpression<?> simpleEquality;
+	private LambdaExpression<?> relationJoin;
+	private LambdaExpression<?> stringLike;
+	private LambdaExpression<?> capturedExpression;
+
+	@Setup
+	public void setUp() {
+		modelService = BenchmarkQueries.modelService();
+		simpleEquality = LambdaExpression.parse(BenchmarkQueries.simpleEquality("abc"));
+		relationJoin = LambdaExpression.parse(BenchmarkQueries.relationJoin("pl"));
+		stringLike = LambdaExpression.parse(BenchmarkQueries.stringLike("abc"));
+		capturedExpression = LambdaExpression
+						.parse(BenchmarkQueries.capturedExpression(Collections.singletonMap("key", "abc")));
+	}
+
+	@Benchmark
+	public PredicateTranslationResult simpleEquality() {
+		return simpleEquality.accept(new ToFlexibleSearchVisitor(new ParametersNameGenerator(), modelService));
+	}
+
+	@Benchmark
+	public PredicateTranslationResult relationJoin() {
+		return relationJoin.accept(new ToFlexibleSearchVisitor(new ParametersNameGenerator(), modelService));
+	}
+
+	@Benchmark
+	public PredicateTranslationResult stringLike() {
+		return stringLike.accept(new ToFlexibleSearchVisitor(new ParametersNameGenerator(), modelService));
+	}
+
+	@Benchmark
+	public PredicateTranslationResult capturedExpression() {
+		return capturedExpression.accept(new ToFlexibleSearchVisitor(new ParametersNameGenerator(), modelService));
+	}
+
+	@Benchmark
+	public void parameterNames(final Blackhole blackhole) {
+		final ParametersNameGenerator generator = new ParametersNameGenerator();
+		for (int i = 0; i < GENERATED_NAMES; i++) {
+			blackhole.consume(generator.next());
+		}
+	}
+}
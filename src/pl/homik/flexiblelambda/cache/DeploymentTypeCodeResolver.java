@@ -0,0 +1,37 @@
+package pl.homik.flexiblelambda.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.hybris.platform.jalo.type.ComposedType;
+import de.hybris.platform.jalo.type.TypeManager;
+
+/**
+ * Resolves deployment type codes (type codes stored in PKs) of items of given type. Query of a type returns also
+ * items of its subtypes, so their type codes are included. Resolved type codes are memoized.
+ */
+public class DeploymentTypeCodeResolver {
+
+	private final Map<String, Set<Integer>> typeCodes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param type composed type code, e.g. Product
+	 * @return deployment type codes of the type and all its subtypes
+	 */
+	public Set<Integer> resolve(final String type) {
+		return typeCodes.computeIfAbsent(type, this::lookup);
+	}
+
+	protected Set<Integer> lookup(final String type) {
+		final ComposedType composedType = TypeManager.getInstance().getComposedType(type);
+		final Set<Integer> result = new HashSet<>();
+		result.add(composedType.getItemTypeCode());
+		for (final ComposedType subType : composedType.getAllSubTypes()) {
+			result.add(subType.getItemTypeCode());
+		}
+		return Collections.unmodifiableSet(result);
+	}
+}
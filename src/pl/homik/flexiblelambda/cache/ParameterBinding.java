@@ -0,0 +1,68 @@
+package pl.homik.flexiblelambda.cache;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+
+import com.trigersoft.jaque.expression.Expression;
+
+import pl.homik.flexiblelambda.visitor.CapturedArgumentsVisitor;
+import pl.homik.flexiblelambda.visitor.CapturedExpressionCompiler;
+import pl.homik.flexiblelambda.visitor.ToConstantExpressionVisitor;
+
+/**
+ * Recipe for value of single flexible search parameter of {@link TranslationPlan}
+ */
+@FunctionalInterface
+public interface ParameterBinding {
+
+	/**
+	 * Computes parameter value
+	 *
+	 * @param capturedArgs values captured by each filter of the query (in filters order)
+	 * @return parameter value
+	 */
+	Object bind(List<Object[]> capturedArgs);
+
+	/**
+	 * @param value value which does not depend on captured arguments (e.g. literal used in lambda)
+	 * @return binding always returning given value
+	 */
+	static ParameterBinding constant(final Object value) {
+		return capturedArgs -> value;
+	}
+
+	/**
+	 * @param filterIndex index of filter which captured the value
+	 * @param argIndex index of captured argument
+	 * @param modifier modifier applied on captured value
+	 * @return binding returning captured argument directly
+	 */
+	static ParameterBinding capturedArgument(final int filterIndex, final int argIndex,
+					final UnaryOperator<Object> modifier) {
+		return capturedArgs -> modifier.apply(capturedArgs.get(filterIndex)[argIndex]);
+	}
+
+	/**
+	 * @param filterIndex index of filter which contains the expression
+	 * @param template expression with captured arguments replaced by
+	 * {@link CapturedArgumentsVisitor#toTemplate(Expression, java.util.Map)}
+	 * @param modifier modifier applied on evaluated value
+	 * @return binding evaluating given expression for current captured arguments, the expression is compiled by
+	 * {@link CapturedExpressionCompiler} when possible
+	 */
+	static ParameterBinding expression(final int filterIndex, final Expression template,
+					final UnaryOperator<Object> modifier) {
+		final Optional<MethodHandle> evaluator = CapturedExpressionCompiler.compile(template);
+		if (evaluator.isPresent()) {
+			final MethodHandle handle = evaluator.get();
+			return capturedArgs -> modifier.apply(
+							CapturedExpressionCompiler.evaluate(handle, capturedArgs.get(filterIndex)));
+		}
+		return capturedArgs -> {
+			final Expression bound = CapturedArgumentsVisitor.bind(template, capturedArgs.get(filterIndex));
+			return modifier.apply(bound.accept(new ToConstantExpressionVisitor()).getValue());
+		};
+	}
+}
@@ -0,0 +1,267 @@
+package pl.homik.flexiblelambda.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.hybris.platform.core.PK;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+
+import org.springframework.beans.factory.annotation.Required;
+
+/**
+ * Bounded, thread safe cache of PKs returned by flexible search queries. Results are keyed by query text, parameters,
+ * count and search context of the session (user, language, catalog versions, search restrictions), so results
+ * filtered by search restrictions are not served to other sessions. They are evicted when they are older than time
+ * to live, when cache is full (the oldest first) or when item of any type read by the query is saved or removed (see
+ * {@link QueryResultCacheInvalidationListener}).
+ * Reads are lock free, modifications of the cache are synchronized.
+ */
+public class QueryResultCache {
+
+	private static final int DEFAULT_MAX_SIZE = 1000;
+	private static final long DEFAULT_TTL_SECONDS = 300;
+
+	private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+	private final Set<Key> insertionOrder = new LinkedHashSet<>();
+	private final Map<Integer, Set<Key>> keysByTypeCode = new HashMap<>();
+	private final AtomicLong version = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+	private DeploymentTypeCodeResolver typeCodeResolver;
+	private int maxSize = DEFAULT_MAX_SIZE;
+	private long ttlSeconds = DEFAULT_TTL_SECONDS;
+
+	/**
+	 * @param query translated query
+	 * @param searchContext values of the session which may change results of the query
+	 * @return cached PKs or null if not found or expired
+	 */
+	public List<PK> get(final FlexibleSearchQuery query, final List<?> searchContext) {
+		final Key key = new Key(query, searchContext);
+		final Entry entry = entries.get(key);
+		if (entry == null || isExpired(entry)) {
+			if (entry != null) {
+				remove(key, entry);
+			}
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.pks;
+	}
+
+	/**
+	 * @return current invalidation version, it has to be read before the query is executed and passed to
+	 * {@link #put(FlexibleSearchQuery, List, Collection, List, long)}
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Stores result of given query. Result is not stored if any item was invalidated since given version was read,
+	 * because the query could have read data from before the modification.
+	 *
+	 * @param query translated query
+	 * @param searchContext values of the session which may change results of the query
+	 * @param queriedTypes type codes of all types read by the query
+	 * @param pks query result
+	 * @param readVersion version read before the query was executed
+	 */
+	public void put(final FlexibleSearchQuery query, final List<?> searchContext, final Collection<String> queriedTypes,
+					final List<PK> pks, final long readVersion) {
+		if (maxSize <= 0) {
+			return;
+		}
+		final Set<Integer> typeCodes = new HashSet<>();
+		for (final String type : queriedTypes) {
+			typeCodes.addAll(typeCodeResolver.resolve(type));
+		}
+		final Key key = new Key(query, searchContext);
+		final Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<>(pks)), typeCodes,
+						System.nanoTime());
+		synchronized (this) {
+			if (version.get() != readVersion) {
+				return;
+			}
+			final Entry previous = entries.put(key, entry);
+			if (previous != null) {
+				unindex(key, previous.typeCodes);
+			}
+			insertionOrder.add(key);
+			for (final Integer typeCode : typeCodes) {
+				keysByTypeCode.computeIfAbsent(typeCode, t -> new HashSet<>()).add(key);
+			}
+			final Iterator<Key> eldest = insertionOrder.iterator();
+			while (entries.size() > maxSize && eldest.hasNext()) {
+				final Key evicted = eldest.next();
+				eldest.remove();
+				final Entry evictedEntry = entries.remove(evicted);
+				if (evictedEntry != null) {
+					unindex(evicted, evictedEntry.typeCodes);
+					evictions.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all results of queries reading items of given deployment type code
+	 *
+	 * @param typeCode deployment type code of modified item (see {@link PK#getTypeCode()})
+	 */
+	public synchronized void invalidate(final int typeCode) {
+		version.incrementAndGet();
+		final Set<Key> keys = keysByTypeCode.remove(typeCode);
+		if (keys != null) {
+			for (final Key key : keys) {
+				final Entry entry = entries.get(key);
+				if (entry != null && remove(key, entry)) {
+					invalidations.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all results from the cache (statistics are kept)
+	 */
+	public synchronized void clear() {
+		version.incrementAndGet();
+		entries.clear();
+		insertionOrder.clear();
+		keysByTypeCode.clear();
+	}
+
+	private boolean isExpired(final Entry entry) {
+		return ttlSeconds > 0 && System.nanoTime() - entry.created > TimeUnit.SECONDS.toNanos(ttlSeconds);
+	}
+
+	private synchronized boolean remove(final Key key, final Entry entry) {
+		if (!entries.remove(key, entry)) {
+			return false;
+		}
+		insertionOrder.remove(key);
+		unindex(key, entry.typeCodes);
+		return true;
+	}
+
+	private void unindex(final Key key, final Set<Integer> typeCodes) {
+		for (final Integer typeCode : typeCodes) {
+			final Set<Key> keys = keysByTypeCode.get(typeCode);
+			if (keys != null && keys.remove(key) && keys.isEmpty()) {
+				keysByTypeCode.remove(typeCode);
+			}
+		}
+	}
+
+	public int getSize() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	public long getInvalidationCount() {
+		return invalidations.sum();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize maximal number of cached results, 0 disables caching
+	 */
+	public void setMaxSize(final int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getTtlSeconds() {
+		return ttlSeconds;
+	}
+
+	/**
+	 * @param ttlSeconds time after which cached result expires, 0 means results expire only on invalidation
+	 */
+	public void setTtlSeconds(final long ttlSeconds) {
+		this.ttlSeconds = ttlSeconds;
+	}
+
+	@Required
+	public void setTypeCodeResolver(final DeploymentTypeCodeResolver typeCodeResolver) {
+		this.typeCodeResolver = typeCodeResolver;
+	}
+
+	private static final class Key {
+
+		private final String query;
+		private final Map<String, Object> parameters;
+		private final int count;
+		private final List<?> searchContext;
+		private final int hash;
+
+		private Key(final FlexibleSearchQuery query, final List<?> searchContext) {
+			this.query = query.getQuery();
+			this.parameters = new HashMap<>(query.getQueryParameters());
+			this.count = query.getCount();
+			this.searchContext = new ArrayList<>(searchContext);
+			this.hash = Objects.hash(this.query, parameters, count, this.searchContext);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) o;
+			return count == other.count && query.equals(other.query) && parameters.equals(other.parameters)
+							&& searchContext.equals(other.searchContext);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Entry {
+
+		private final List<PK> pks;
+		private final Set<Integer> typeCodes;
+		private final long created;
+
+		private Entry(final List<PK> pks, final Set<Integer> typeCodes, final long created) {
+			this.pks = pks;
+			this.typeCodes = typeCodes;
+			this.created = created;
+		}
+	}
+}
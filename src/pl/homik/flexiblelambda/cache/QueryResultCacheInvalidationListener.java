@@ -0,0 +1,59 @@
+package pl.homik.flexiblelambda.cache;
+
+import de.hybris.platform.cache.Cache;
+import de.hybris.platform.cache.InvalidationListener;
+import de.hybris.platform.cache.InvalidationManager;
+import de.hybris.platform.cache.InvalidationTarget;
+import de.hybris.platform.cache.InvalidationTopic;
+import de.hybris.platform.cache.RemoteInvalidationSource;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Required;
+
+/**
+ * Invalidates cached results of queries reading type of every created, modified or removed item. It listens to
+ * invalidations of the entity cache, which platform sends to all nodes of the cluster after the transaction is
+ * committed, so results cached by other nodes are invalidated as well.
+ */
+public class QueryResultCacheInvalidationListener implements InvalidationListener, InitializingBean, DisposableBean {
+
+	/**
+	 * Entity cache keys are [{@link Cache#CACHEKEY_HJMP}, {@link Cache#CACHEKEY_ENTITY}, type code, PK]
+	 */
+	private static final int TYPE_CODE_INDEX = 2;
+
+	private QueryResultCache queryResultCache;
+
+	@Override
+	public void afterPropertiesSet() {
+		getEntityTopic().addInvalidationListener(this);
+	}
+
+	@Override
+	public void destroy() {
+		getEntityTopic().removeInvalidationListener(this);
+	}
+
+	@Override
+	public void keyInvalidated(final Object[] key, final int invalidationType, final InvalidationTarget target,
+					final RemoteInvalidationSource remoteSrc) {
+		if (key.length > TYPE_CODE_INDEX && key[TYPE_CODE_INDEX] != null) {
+			final String typeCode = key[TYPE_CODE_INDEX].toString();
+			if (StringUtils.isNumeric(typeCode)) {
+				queryResultCache.invalidate(Integer.parseInt(typeCode));
+			}
+		}
+	}
+
+	private static InvalidationTopic getEntityTopic() {
+		return InvalidationManager.getInstance()
+						.getInvalidationTopic(new String[] { Cache.CACHEKEY_HJMP, Cache.CACHEKEY_ENTITY });
+	}
+
+	@Required
+	public void setQueryResultCache(final QueryResultCache queryResultCache) {
+		this.queryResultCache = queryResultCache;
+	}
+}
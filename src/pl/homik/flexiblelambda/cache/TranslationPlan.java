@@ -0,0 +1,114 @@
+package pl.homik.flexiblelambda.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of translation of lambda query which is independent of values captured by its lambdas. Contains generated
+ * flexible search and recipes for its parameters.
+ */
+public class TranslationPlan {
+
+	private final String query;
+	private final String fromClause;
+	private final String groupByClause;
+	private final String orderByClause;
+	private final Set<String> joins;
+	private final Map<String, ParameterBinding> bindings;
+	private final List<Class<?>> resultClasses;
+	private final Set<String> queriedTypes;
+	private final List<Integer> residualFilters;
+
+	/**
+	 * @param selectClause selected columns
+	 * @param fromClause from and where part of the query (starting with 'from')
+	 * @param groupByClause group by part of the query (starting with ' GROUP BY') or empty string
+	 * @param orderByClause order by part of the query (starting with ' ORDER BY') or empty string
+	 * @param joins joins used in from clause
+	 * @param bindings recipes of query parameters
+	 * @param resultClasses result classes of selected columns, empty if models are selected
+	 * @param queriedTypes type codes of the queried type and all joined types
+	 * @param residualFilters indexes of filters which are not translated and have to be evaluated in memory
+	 */
+	public TranslationPlan(final String selectClause, final String fromClause, final String groupByClause,
+					final String orderByClause,
+					final Set<String> joins, final Map<String, ParameterBinding> bindings, final List<Class<?>> resultClasses,
+					final Set<String> queriedTypes, final List<Integer> residualFilters) {
+		this.query = "SELECT " + selectClause + " " + fromClause + groupByClause + orderByClause;
+		this.fromClause = fromClause;
+		this.groupByClause = groupByClause;
+		this.orderByClause = orderByClause;
+		this.joins = Collections.unmodifiableSet(joins);
+		this.bindings = Collections.unmodifiableMap(bindings);
+		this.resultClasses = Collections.unmodifiableList(resultClasses);
+		this.queriedTypes = Collections.unmodifiableSet(queriedTypes);
+		this.residualFilters = Collections.unmodifiableList(residualFilters);
+	}
+
+	/**
+	 * Computes query parameters for given captured arguments
+	 *
+	 * @param capturedArgs values captured by each filter of the query (in filters order)
+	 * @return query parameters
+	 */
+	public Map<String, Object> bind(final List<Object[]> capturedArgs) {
+		final Map<String, Object> parameters = new HashMap<>(bindings.size() * 2);
+		for (final Map.Entry<String, ParameterBinding> binding : bindings.entrySet()) {
+			parameters.put(binding.getKey(), binding.getValue().bind(capturedArgs));
+		}
+		return parameters;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return from and where part of the query, allows reusing the plan with different select clause
+	 */
+	public String getFromClause() {
+		return fromClause;
+	}
+
+	public String getGroupByClause() {
+		return groupByClause;
+	}
+
+	public String getOrderByClause() {
+		return orderByClause;
+	}
+
+	public Set<String> getJoins() {
+		return joins;
+	}
+
+	public Map<String, ParameterBinding> getBindings() {
+		return bindings;
+	}
+
+	/**
+	 * @return flexible search result classes of selected columns or empty if query returns models
+	 */
+	public List<Class<?>> getResultClasses() {
+		return resultClasses;
+	}
+
+	/**
+	 * @return type codes of the queried type and all joined types, results of the query may change when item of any
+	 * of these types is modified
+	 */
+	public Set<String> getQueriedTypes() {
+		return queriedTypes;
+	}
+
+	/**
+	 * @return indexes of filters which are not part of the query and have to be evaluated in memory (only in hybrid
+	 * mode)
+	 */
+	public List<Integer> getResidualFilters() {
+		return residualFilters;
+	}
+}
@@ -0,0 +1,95 @@
+package pl.homik.flexiblelambda.cache;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread safe cache of {@link TranslationPlan}s. When cache is full the oldest plans are evicted.
+ */
+public class TranslationPlanCache {
+
+	private static final int DEFAULT_MAX_SIZE = 1000;
+
+	private final Map<TranslationPlanKey, TranslationPlan> plans = new ConcurrentHashMap<>();
+	private final Queue<TranslationPlanKey> insertionOrder = new ConcurrentLinkedQueue<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private int maxSize = DEFAULT_MAX_SIZE;
+
+	/**
+	 * @param key plan key
+	 * @return cached plan or null if not found
+	 */
+	public TranslationPlan get(final TranslationPlanKey key) {
+		final TranslationPlan plan = plans.get(key);
+		if (plan == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return plan;
+	}
+
+	/**
+	 * Stores given plan. If cache size exceeds its maximal size the oldest plans are evicted.
+	 *
+	 * @param key plan key
+	 * @param plan plan to store
+	 */
+	public void put(final TranslationPlanKey key, final TranslationPlan plan) {
+		if (maxSize <= 0) {
+			return;
+		}
+		if (plans.putIfAbsent(key, plan) == null) {
+			insertionOrder.add(key);
+			while (plans.size() > maxSize) {
+				final TranslationPlanKey eldest = insertionOrder.poll();
+				if (eldest == null) {
+					break;
+				}
+				if (plans.remove(eldest) != null) {
+					evictions.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all plans from the cache (statistics are kept)
+	 */
+	public void clear() {
+		plans.clear();
+		insertionOrder.clear();
+	}
+
+	public int getSize() {
+		return plans.size();
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize maximal number of cached plans, 0 disables caching
+	 */
+	public void setMaxSize(final int maxSize) {
+		this.maxSize = maxSize;
+	}
+}
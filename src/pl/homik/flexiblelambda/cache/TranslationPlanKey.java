@@ -0,0 +1,134 @@
+package pl.homik.flexiblelambda.cache;
+
+import java.lang.invoke.SerializedLambda;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import pl.homik.flexiblelambda.pojo.RelationMatch;
+import pl.homik.flexiblelambda.tools.SerializedLambdas;
+
+/**
+ * Key of {@link TranslationPlanCache}. Identifies query by its item type and implementation methods of its filters.
+ *
+ * Types of captured arguments are also part of the key because they can change shape of translated expression. So are
+ * captured booleans (and null-ness of captured values), which are folded when the predicate is optimized.
+ */
+public final class TranslationPlanKey {
+
+	private static final Object NULL_TYPE = new Object();
+
+	private final Object[] components;
+	private final int hash;
+
+	private TranslationPlanKey(final Object[] components) {
+		this.components = components;
+		this.hash = Arrays.hashCode(components);
+	}
+
+	/**
+	 * Creates key for given query
+	 *
+	 * @param itemClass queried type
+	 * @param columns getters of selected columns (empty if query returns models)
+	 * @param aggregates aggregate functions of selected columns, null for not aggregated column
+	 * @param orderBy sort keys of the query
+	 * @param orderDescending directions of sort keys, true for descending
+	 * @param seek true if query continues from a keyset pagination token
+	 * @param batched true if query is fetched in keyset batches, so it is ordered at least by PK
+	 * @param hybrid true if filters which can't be translated are evaluated in memory
+	 * @param filters filters of the query, for {@link RelationMatch} arguments captured by its predicate are returned
+	 * @param capturedArgs list which will be filled with captured arguments of each filter
+	 * @return key or empty if any of lambdas is not a serializable lambda
+	 */
+	public static Optional<TranslationPlanKey> of(final Class<?> itemClass, final List<?> columns,
+					final List<?> aggregates, final List<?> orderBy, final List<Boolean> orderDescending,
+					final boolean seek, final boolean batched, final boolean hybrid, final List<?> filters,
+					final List<Object[]> capturedArgs) {
+		final List<Object> components = new ArrayList<>(4 + (columns.size() + orderBy.size() + filters.size()) * 5);
+		components.add(itemClass);
+		components.add(columns.size());
+		for (int i = 0; i < columns.size(); i++) {
+			if (addLambda(components, columns.get(i)) == null) {
+				return Optional.empty();
+			}
+			components.add(aggregates.get(i) == null ? NULL_TYPE : aggregates.get(i));
+		}
+		components.add(orderBy.size());
+		for (int i = 0; i < orderBy.size(); i++) {
+			if (addLambda(components, orderBy.get(i)) == null) {
+				return Optional.empty();
+			}
+			components.add(orderDescending.get(i));
+		}
+		components.add(seek);
+		components.add(batched);
+		components.add(hybrid);
+		for (final Object filter : filters) {
+			final Object[] args = filter instanceof RelationMatch ?
+							addRelationMatch(components, (RelationMatch<?, ?>) filter) :
+							addLambda(components, filter);
+			if (args == null) {
+				return Optional.empty();
+			}
+			capturedArgs.add(args);
+		}
+		return Optional.of(new TranslationPlanKey(components.toArray()));
+	}
+
+	/**
+	 * Relation getter only selects the relation, so only arguments captured by the predicate are bound
+	 *
+	 * @return arguments captured by the predicate or null if any of lambdas is not a serializable lambda
+	 */
+	private static Object[] addRelationMatch(final List<Object> components, final RelationMatch<?, ?> match) {
+		components.add(match.getQuantifier());
+		return addLambda(components, match.getRelation()) == null ? null : addLambda(components, match.getPredicate());
+	}
+
+	/**
+	 * Adds components identifying given lambda
+	 *
+	 * @return arguments captured by lambda or null if it is not a serializable lambda
+	 */
+	private static Object[] addLambda(final List<Object> components, final Object lambda) {
+		final Optional<SerializedLambda> serialized = SerializedLambdas.extract(lambda);
+		if (!serialized.isPresent()) {
+			return null;
+		}
+		final SerializedLambda serializedLambda = serialized.get();
+		final Object[] args = SerializedLambdas.getCapturedArgs(serializedLambda);
+
+		components.add(serializedLambda.getImplClass());
+		components.add(serializedLambda.getImplMethodName());
+		components.add(serializedLambda.getImplMethodSignature());
+		components.add(args.length);
+		for (final Object arg : args) {
+			components.add(arg == null ? NULL_TYPE : arg instanceof Boolean ? arg : arg.getClass());
+		}
+		return args;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		final TranslationPlanKey that = (TranslationPlanKey) o;
+		return hash == that.hash && Arrays.equals(components, that.components);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(components);
+	}
+}
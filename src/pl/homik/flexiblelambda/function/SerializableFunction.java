@@ -0,0 +1,7 @@
+package pl.homik.flexiblelambda.function;
+
+import java.io.Serializable;
+import java.util.function.Function;
+
+public interface SerializableFunction<T, R> extends Function<T, R>, Serializable {
+}
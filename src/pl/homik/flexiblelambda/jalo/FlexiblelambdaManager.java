@@ -19,6 +19,7 @@ import java.util.Map;
 import org.apache.log4j.Logger;
 
 import pl.homik.flexiblelambda.constants.FlexiblelambdaConstants;
+import pl.homik.flexiblelambda.service.LambdaQueryWarmUpService;
 
 
 
@@ -30,6 +31,8 @@ public class FlexiblelambdaManager extends GeneratedFlexiblelambdaManager
 	/** Edit the local|project.properties to change logging behavior (properties 'log4j.*'). */
 	private static final Logger LOG = Logger.getLogger(FlexiblelambdaManager.class.getName());
 
+	private static final String WARM_UP_SERVICE = "lambdaQueryWarmUpService";
+
 	/*
 	 * Some important tips for development:
 	 * 
@@ -77,6 +80,15 @@ public class FlexiblelambdaManager extends GeneratedFlexiblelambdaManager
 		{
 			LOG.debug("init() of FlexiblelambdaManager called. " + getTenant().getTenantID());
 		}
+		// queries are warmed up before the tenant takes traffic, failed warm-up must not stop the startup
+		try
+		{
+			Registry.getApplicationContext().getBean(WARM_UP_SERVICE, LambdaQueryWarmUpService.class).warmUp();
+		}
+		catch (final RuntimeException e)
+		{
+			LOG.warn("Warm-up of lambda queries failed", e);
+		}
 	}
 
 	/**
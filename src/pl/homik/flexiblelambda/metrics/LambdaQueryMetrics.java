@@ -0,0 +1,165 @@
+package pl.homik.flexiblelambda.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Lock free metrics of lambda queries aggregated per query fingerprint (generated flexible search). Measurements are
+ * passed to registered {@link MetricsRegistryAdapter}s and exposed over JMX.
+ */
+public class LambdaQueryMetrics implements LambdaQueryMetricsMXBean {
+
+	/**
+	 * Fingerprint of queries measured when the number of distinct fingerprints exceeds its maximum
+	 */
+	public static final String OTHER_QUERIES = "<other>";
+
+	private static final int DEFAULT_MAX_FINGERPRINTS = 1000;
+	private static final int DEFAULT_REPORTED_QUERIES = 10;
+
+	private final Map<String, QueryMetrics> queries = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> translationFailures = new ConcurrentHashMap<>();
+	private List<MetricsRegistryAdapter> adapters = Collections.emptyList();
+	private int maxFingerprints = DEFAULT_MAX_FINGERPRINTS;
+	private int reportedQueries = DEFAULT_REPORTED_QUERIES;
+
+	/**
+	 * Records all measured phases of given timings
+	 */
+	public void record(final String fingerprint, final QueryTimings timings) {
+		for (final QueryPhase phase : QueryPhase.values()) {
+			if (timings.isMeasured(phase)) {
+				recordPhase(fingerprint, phase, timings.getNanos(phase));
+			}
+		}
+	}
+
+	public void recordPhase(final String fingerprint, final QueryPhase phase, final long durationNanos) {
+		getQueryMetrics(fingerprint).getHistogram(phase).record(durationNanos);
+		for (final MetricsRegistryAdapter adapter : adapters) {
+			adapter.recordPhase(fingerprint, phase, durationNanos);
+		}
+	}
+
+	/**
+	 * @param rows number of rows returned by single execution
+	 */
+	public void recordRows(final String fingerprint, final int rows) {
+		getQueryMetrics(fingerprint).addRows(rows);
+		for (final MetricsRegistryAdapter adapter : adapters) {
+			adapter.recordRows(fingerprint, rows);
+		}
+	}
+
+	public void recordTranslationFailure(final String expressionType) {
+		translationFailures.computeIfAbsent(expressionType, t -> new LongAdder()).increment();
+		for (final MetricsRegistryAdapter adapter : adapters) {
+			adapter.recordTranslationFailure(expressionType);
+		}
+	}
+
+	/**
+	 * Number of fingerprints is bounded, so queries generated with unbounded number of shapes do not exhaust memory
+	 */
+	private QueryMetrics getQueryMetrics(final String fingerprint) {
+		final QueryMetrics metrics = queries.get(fingerprint);
+		if (metrics != null) {
+			return metrics;
+		}
+		final String key = queries.size() < maxFingerprints ? fingerprint : OTHER_QUERIES;
+		return queries.computeIfAbsent(key, QueryMetrics::new);
+	}
+
+	/**
+	 * @return metrics of all measured queries
+	 */
+	public Collection<QueryMetrics> getQueries() {
+		return Collections.unmodifiableCollection(queries.values());
+	}
+
+	public QueryMetrics getQuery(final String fingerprint) {
+		return queries.get(fingerprint);
+	}
+
+	@Override
+	public int getQueryCount() {
+		return queries.size();
+	}
+
+	@Override
+	public List<String> getSlowestQueries() {
+		return describeTop(QueryMetrics::getTotalNanos);
+	}
+
+	@Override
+	public List<String> getSlowestExecutions() {
+		return describeTop(query -> query.getHistogram(QueryPhase.EXECUTION).getPercentileNanos(99));
+	}
+
+	private List<String> describeTop(final ToLongFunction<QueryMetrics> order) {
+		return queries.values().stream().sorted(Comparator.comparingLong(order).reversed()).limit(reportedQueries)
+						.map(this::describe).collect(Collectors.toList());
+	}
+
+	private String describe(final QueryMetrics query) {
+		final List<String> phases = new ArrayList<>();
+		for (final QueryPhase phase : QueryPhase.values()) {
+			final LatencyHistogram histogram = query.getHistogram(phase);
+			if (histogram.getCount() > 0) {
+				phases.add(phase.name().toLowerCase() + "[count=" + histogram.getCount() + ", total=" + toMillis(
+								histogram.getTotalNanos()) + "ms, p99=" + toMillis(histogram.getPercentileNanos(99)) + "ms, max="
+								+ toMillis(histogram.getMaxNanos()) + "ms]");
+			}
+		}
+		return query.getFingerprint() + " total=" + toMillis(query.getTotalNanos()) + "ms rows=" + query.getRowCount()
+						+ " " + String.join(" ", phases);
+	}
+
+	private static double toMillis(final long nanos) {
+		return Math.round(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1) * 1000) / 1000.0;
+	}
+
+	@Override
+	public Map<String, Long> getTranslationFailures() {
+		final Map<String, Long> result = new TreeMap<>();
+		translationFailures.forEach((type, count) -> result.put(type, count.sum()));
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		queries.clear();
+		translationFailures.clear();
+	}
+
+	/**
+	 * @param adapters adapters publishing metrics to external registries
+	 */
+	public void setAdapters(final List<MetricsRegistryAdapter> adapters) {
+		this.adapters = new ArrayList<>(adapters);
+	}
+
+	/**
+	 * @param maxFingerprints maximal number of distinct measured queries, other queries are measured together
+	 */
+	public void setMaxFingerprints(final int maxFingerprints) {
+		this.maxFingerprints = maxFingerprints;
+	}
+
+	/**
+	 * @param reportedQueries number of queries listed by JMX attributes
+	 */
+	public void setReportedQueries(final int reportedQueries) {
+		this.reportedQueries = reportedQueries;
+	}
+}
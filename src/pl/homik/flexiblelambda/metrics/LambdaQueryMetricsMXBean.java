@@ -0,0 +1,35 @@
+package pl.homik.flexiblelambda.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX view of {@link LambdaQueryMetrics}
+ */
+public interface LambdaQueryMetricsMXBean {
+
+	/**
+	 * @return number of distinct measured queries
+	 */
+	int getQueryCount();
+
+	/**
+	 * @return queries with the highest total time (translation, execution and model loading), with their statistics
+	 */
+	List<String> getSlowestQueries();
+
+	/**
+	 * @return queries with the highest 99th percentile of execution time, with their statistics
+	 */
+	List<String> getSlowestExecutions();
+
+	/**
+	 * @return number of translation failures by type of unsupported lambda expression
+	 */
+	Map<String, Long> getTranslationFailures();
+
+	/**
+	 * Removes all collected metrics
+	 */
+	void reset();
+}
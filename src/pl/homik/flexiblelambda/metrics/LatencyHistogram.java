@@ -0,0 +1,66 @@
+package pl.homik.flexiblelambda.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations. Bucket i counts durations shorter than 2^i microseconds (and not shorter than
+ * 2^(i-1)), so percentiles are approximated by upper bounds of buckets.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 32;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(final long durationNanos) {
+		final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(durationNanos));
+		final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets[bucket].increment();
+		count.increment();
+		totalNanos.add(durationNanos);
+		maxNanos.accumulate(durationNanos);
+	}
+
+	/**
+	 * @param percentile percentile from range (0, 100]
+	 * @return upper bound of the bucket containing given percentile (in nanoseconds) or 0 if nothing was recorded
+	 */
+	public long getPercentileNanos(final double percentile) {
+		final long total = count.sum();
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i].sum();
+			if (seen >= rank) {
+				return Math.min(TimeUnit.MICROSECONDS.toNanos(1L << i), getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+}
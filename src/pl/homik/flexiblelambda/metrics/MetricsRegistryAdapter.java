@@ -0,0 +1,26 @@
+package pl.homik.flexiblelambda.metrics;
+
+/**
+ * Publishes lambda query metrics to external metrics registry (e.g. Micrometer or Dropwizard). Implementations are
+ * called on the query thread, so they should not block.
+ */
+public interface MetricsRegistryAdapter {
+
+	/**
+	 * @param fingerprint generated flexible search
+	 * @param phase measured phase
+	 * @param durationNanos duration of the phase
+	 */
+	void recordPhase(String fingerprint, QueryPhase phase, long durationNanos);
+
+	/**
+	 * @param fingerprint generated flexible search
+	 * @param rows number of rows returned by single execution
+	 */
+	void recordRows(String fingerprint, int rows);
+
+	/**
+	 * @param expressionType type of lambda expression which could not be translated
+	 */
+	void recordTranslationFailure(String expressionType);
+}
@@ -0,0 +1,50 @@
+package pl.homik.flexiblelambda.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of single query fingerprint (generated flexible search)
+ */
+public class QueryMetrics {
+
+	private final String fingerprint;
+	private final Map<QueryPhase, LatencyHistogram> phases = new EnumMap<>(QueryPhase.class);
+	private final LongAdder rows = new LongAdder();
+
+	public QueryMetrics(final String fingerprint) {
+		this.fingerprint = fingerprint;
+		// map is never modified later, so it can be read concurrently
+		for (final QueryPhase phase : QueryPhase.values()) {
+			phases.put(phase, new LatencyHistogram());
+		}
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public LatencyHistogram getHistogram(final QueryPhase phase) {
+		return phases.get(phase);
+	}
+
+	/**
+	 * @return total number of rows returned by all executions
+	 */
+	public long getRowCount() {
+		return rows.sum();
+	}
+
+	/**
+	 * @return time spent in translation, execution and model loading of the query
+	 */
+	public long getTotalNanos() {
+		return phases.get(QueryPhase.TRANSLATION).getTotalNanos() + phases.get(QueryPhase.EXECUTION).getTotalNanos()
+						+ phases.get(QueryPhase.MODEL_LOADING).getTotalNanos();
+	}
+
+	void addRows(final int count) {
+		rows.add(count);
+	}
+}
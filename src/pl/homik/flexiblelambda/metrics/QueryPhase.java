@@ -0,0 +1,37 @@
+package pl.homik.flexiblelambda.metrics;
+
+/**
+ * Measured phases of lambda query processing
+ */
+public enum QueryPhase {
+
+	/**
+	 * Whole translation of lambda query to flexible search (includes parsing, traversal and type lookups)
+	 */
+	TRANSLATION,
+
+	/**
+	 * Parsing of lambda bytecode to expression tree, only when translation plan is not cached
+	 */
+	PARSING,
+
+	/**
+	 * Translation of expression trees to flexible search (without type lookups)
+	 */
+	TRAVERSAL,
+
+	/**
+	 * Lookups of type codes of queried and joined models
+	 */
+	TYPE_LOOKUP,
+
+	/**
+	 * Execution of flexible search query
+	 */
+	EXECUTION,
+
+	/**
+	 * Loading models of fetched PKs
+	 */
+	MODEL_LOADING
+}
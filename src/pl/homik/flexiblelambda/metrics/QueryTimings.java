@@ -0,0 +1,26 @@
+package pl.homik.flexiblelambda.metrics;
+
+/**
+ * Durations of phases measured during processing of single query, not thread safe
+ */
+public class QueryTimings {
+
+	private final long[] nanos = new long[QueryPhase.values().length];
+	private final boolean[] measured = new boolean[nanos.length];
+
+	/**
+	 * Adds duration to given phase (phase can be measured in parts)
+	 */
+	public void add(final QueryPhase phase, final long durationNanos) {
+		nanos[phase.ordinal()] += durationNanos;
+		measured[phase.ordinal()] = true;
+	}
+
+	public boolean isMeasured(final QueryPhase phase) {
+		return measured[phase.ordinal()];
+	}
+
+	public long getNanos(final QueryPhase phase) {
+		return nanos[phase.ordinal()];
+	}
+}
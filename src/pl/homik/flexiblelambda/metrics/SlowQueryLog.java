@@ -0,0 +1,179 @@
+package pl.homik.flexiblelambda.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.hybris.platform.core.model.ItemModel;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import pl.homik.flexiblelambda.tools.LambdaCallSites;
+
+/**
+ * Logs lambda queries slower than the threshold with generated flexible search, parameters, times, number of rows and
+ * source location of query lambdas. Slow queries are only queued on the query thread, they are formatted and written
+ * by a background thread. When the queue is full entries are dropped, so logging never blocks queries.
+ */
+public class SlowQueryLog implements InitializingBean, DisposableBean {
+
+	private static final Logger LOG = Logger.getLogger(SlowQueryLog.class.getName());
+	private static final String WRITER_THREAD_NAME = "flexiblelambda-slow-query-log";
+	private static final long DEFAULT_THRESHOLD_MILLIS = 1000;
+	private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	private final LongAdder dropped = new LongAdder();
+	private long thresholdMillis = DEFAULT_THRESHOLD_MILLIS;
+	private boolean redactParameters = true;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private BlockingQueue<SlowQuery> queue;
+	private Thread writer;
+
+	@Override
+	public void afterPropertiesSet() {
+		queue = new ArrayBlockingQueue<>(queueCapacity);
+		writer = new Thread(this::writeLoop, WRITER_THREAD_NAME);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+		if (writer != null) {
+			writer.interrupt();
+			writer.join(TimeUnit.SECONDS.toMillis(1));
+		}
+	}
+
+	/**
+	 * Queues the query if it is slower than the threshold, never blocks
+	 *
+	 * @param lambdas filters of the query (used to find its source location)
+	 * @param query executed flexible search
+	 * @param translationNanos time of translation to flexible search
+	 * @param executionNanos time of execution
+	 * @param rows number of returned rows
+	 */
+	public void record(final List<?> lambdas, final FlexibleSearchQuery query, final long translationNanos,
+					final long executionNanos, final int rows) {
+		if (thresholdMillis <= 0 || translationNanos + executionNanos < TimeUnit.MILLISECONDS.toNanos(thresholdMillis)) {
+			return;
+		}
+		final SlowQuery slowQuery = new SlowQuery(new ArrayList<>(lambdas), query.getQuery(),
+						describeParameters(query.getQueryParameters()), translationNanos, executionNanos, rows);
+		if (queue == null || !queue.offer(slowQuery)) {
+			dropped.increment();
+		}
+	}
+
+	/**
+	 * Values are described on the query thread, because models cannot be safely used by another thread
+	 */
+	private Map<String, String> describeParameters(final Map<String, Object> parameters) {
+		final Map<String, String> result = new TreeMap<>();
+		for (final Map.Entry<String, Object> parameter : parameters.entrySet()) {
+			final Object value = parameter.getValue();
+			final String description;
+			if (value == null) {
+				description = "null";
+			} else if (redactParameters) {
+				description = "<" + value.getClass().getSimpleName() + ">";
+			} else {
+				description = String.valueOf(value instanceof ItemModel ? ((ItemModel) value).getPk() : value);
+			}
+			result.put(parameter.getKey(), description);
+		}
+		return result;
+	}
+
+	private void writeLoop() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				final SlowQuery slowQuery = queue.take();
+				try {
+					write(format(slowQuery));
+					final long droppedCount = dropped.sumThenReset();
+					if (droppedCount > 0) {
+						write(droppedCount + " slow lambda queries were not logged because the queue was full");
+					}
+				} catch (final RuntimeException e) {
+					LOG.error("cant log slow lambda query " + slowQuery.query, e);
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private String format(final SlowQuery slowQuery) {
+		final List<String> callSites = new ArrayList<>(slowQuery.lambdas.size());
+		for (final Object lambda : slowQuery.lambdas) {
+			final Optional<String> callSite = LambdaCallSites.describe(lambda);
+			if (callSite.isPresent() && !callSites.contains(callSite.get())) {
+				callSites.add(callSite.get());
+			}
+		}
+		return "Slow lambda query (translation " + toMillis(slowQuery.translationNanos) + " ms, execution " + toMillis(
+						slowQuery.executionNanos) + " ms, " + slowQuery.rows + " rows) from " + (callSites.isEmpty() ?
+						"unknown location" :
+						String.join(", ", callSites)) + ": " + slowQuery.query + " " + slowQuery.parameters;
+	}
+
+	private static double toMillis(final long nanos) {
+		return Math.round(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1) * 10) / 10.0;
+	}
+
+	protected void write(final String message) {
+		LOG.warn(message);
+	}
+
+	/**
+	 * @param thresholdMillis queries with longer translation and execution are logged, 0 disables the log
+	 */
+	public void setThresholdMillis(final long thresholdMillis) {
+		this.thresholdMillis = thresholdMillis;
+	}
+
+	/**
+	 * @param redactParameters when true only types of parameter values are logged
+	 */
+	public void setRedactParameters(final boolean redactParameters) {
+		this.redactParameters = redactParameters;
+	}
+
+	/**
+	 * @param queueCapacity maximal number of slow queries waiting to be written
+	 */
+	public void setQueueCapacity(final int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	private static final class SlowQuery {
+
+		private final List<Object> lambdas;
+		private final String query;
+		private final Map<String, String> parameters;
+		private final long translationNanos;
+		private final long executionNanos;
+		private final int rows;
+
+		private SlowQuery(final List<Object> lambdas, final String query, final Map<String, String> parameters,
+						final long translationNanos, final long executionNanos, final int rows) {
+			this.lambdas = lambdas;
+			this.query = query;
+			this.parameters = parameters;
+			this.translationNanos = translationNanos;
+			this.executionNanos = executionNanos;
+			this.rows = rows;
+		}
+	}
+}
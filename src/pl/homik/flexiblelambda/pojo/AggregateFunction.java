@@ -0,0 +1,9 @@
+package pl.homik.flexiblelambda.pojo;
+
+/**
+ * Aggregate function applied on selected column of {@link LambdaProjectionQuery}, not aggregated columns of such query
+ * are grouped by
+ */
+public enum AggregateFunction {
+	COUNT, SUM, MIN, MAX, AVG
+}
@@ -0,0 +1,66 @@
+package pl.homik.flexiblelambda.pojo;
+
+/**
+ * Storage of collection attribute: either a reference column of related items (one to many relation) or a link table
+ * (many to many relation)
+ */
+public final class CollectionRelation {
+
+	private final String elementType;
+	private final String backReference;
+	private final String linkType;
+	private final String ownerEnd;
+	private final String elementEnd;
+
+	private CollectionRelation(final String elementType, final String backReference, final String linkType,
+					final String ownerEnd, final String elementEnd) {
+		this.elementType = elementType;
+		this.backReference = backReference;
+		this.linkType = linkType;
+		this.ownerEnd = ownerEnd;
+		this.elementEnd = elementEnd;
+	}
+
+	/**
+	 * @param elementType type code of related items
+	 * @param backReference qualifier of attribute of related item referencing the owner
+	 */
+	public static CollectionRelation oneToMany(final String elementType, final String backReference) {
+		return new CollectionRelation(elementType, backReference, null, null, null);
+	}
+
+	/**
+	 * @param elementType type code of related items
+	 * @param linkType type code of the relation
+	 * @param ownerEnd attribute of link referencing the owner (source or target)
+	 * @param elementEnd attribute of link referencing related item
+	 */
+	public static CollectionRelation manyToMany(final String elementType, final String linkType, final String ownerEnd,
+					final String elementEnd) {
+		return new CollectionRelation(elementType, null, linkType, ownerEnd, elementEnd);
+	}
+
+	public boolean isManyToMany() {
+		return linkType != null;
+	}
+
+	public String getElementType() {
+		return elementType;
+	}
+
+	public String getBackReference() {
+		return backReference;
+	}
+
+	public String getLinkType() {
+		return linkType;
+	}
+
+	public String getOwnerEnd() {
+		return ownerEnd;
+	}
+
+	public String getElementEnd() {
+		return elementEnd;
+	}
+}
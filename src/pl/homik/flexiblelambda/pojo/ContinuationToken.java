@@ -0,0 +1,44 @@
+package pl.homik.flexiblelambda.pojo;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.hybris.platform.core.PK;
+
+/**
+ * Position of the last item of a page returned by keyset pagination. Holds values of sort keys (items are stored as
+ * their PKs) and PK of the item, so the next page can be found with a seek predicate instead of an offset.
+ */
+public final class ContinuationToken implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<Object> keyValues;
+	private final PK pk;
+
+	public ContinuationToken(final List<Object> keyValues, final PK pk) {
+		this.keyValues = Collections.unmodifiableList(new ArrayList<>(keyValues));
+		this.pk = pk;
+	}
+
+	/**
+	 * @return values of sort keys of the last item (in orderBy order)
+	 */
+	public List<Object> getKeyValues() {
+		return keyValues;
+	}
+
+	/**
+	 * @return PK of the last item, used as a tie breaker of equal sort keys
+	 */
+	public PK getPk() {
+		return pk;
+	}
+
+	@Override
+	public String toString() {
+		return "ContinuationToken" + keyValues + "/" + pk;
+	}
+}
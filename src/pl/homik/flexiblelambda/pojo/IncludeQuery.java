@@ -0,0 +1,31 @@
+package pl.homik.flexiblelambda.pojo;
+
+import java.util.List;
+
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+
+/**
+ * Query selecting PKs of items referenced on include path (see {@link LambdaFlexibleSearchQuery#include}), one column
+ * per relation on the path
+ */
+public final class IncludeQuery {
+
+	private final FlexibleSearchQuery query;
+	private final List<String> types;
+
+	public IncludeQuery(final FlexibleSearchQuery query, final List<String> types) {
+		this.query = query;
+		this.types = types;
+	}
+
+	public FlexibleSearchQuery getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return type codes of items referenced by selected columns, in column order
+	 */
+	public List<String> getTypes() {
+		return types;
+	}
+}
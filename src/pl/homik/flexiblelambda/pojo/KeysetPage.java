@@ -0,0 +1,38 @@
+package pl.homik.flexiblelambda.pojo;
+
+import java.util.Collections;
+import java.util.List;
+
+import de.hybris.platform.core.model.ItemModel;
+
+/**
+ * Single page of results returned by keyset pagination
+ *
+ * @param <T> queried type
+ */
+public class KeysetPage<T extends ItemModel> {
+
+	private final List<T> items;
+	private final ContinuationToken nextToken;
+
+	public KeysetPage(final List<T> items, final ContinuationToken nextToken) {
+		this.items = Collections.unmodifiableList(items);
+		this.nextToken = nextToken;
+	}
+
+	public List<T> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return token which should be passed to {@link LambdaFlexibleSearchQuery#after(ContinuationToken)} to get the
+	 * next page or null if this is the last page
+	 */
+	public ContinuationToken getNextToken() {
+		return nextToken;
+	}
+
+	public boolean hasNext() {
+		return nextToken != null;
+	}
+}
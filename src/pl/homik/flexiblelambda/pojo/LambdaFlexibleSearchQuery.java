@@ -1,18 +1,32 @@
 package pl.homik.flexiblelambda.pojo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import de.hybris.platform.core.model.ItemModel;
 
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+
+import pl.homik.flexiblelambda.function.SerializableFunction;
 import pl.homik.flexiblelambda.function.SerializablePredicate;
 
 public class LambdaFlexibleSearchQuery<T extends ItemModel> {
 
 	private final List<SerializablePredicate<T>> filters = new ArrayList<>();
+	private final List<SerializableFunction<T, ?>> orderBy = new ArrayList<>();
+	private final List<Boolean> orderDescending = new ArrayList<>();
+	private final List<SerializableFunction<T, ? extends ItemModel>> includes = new ArrayList<>();
 	private final Class<T> itemClass;
 	private int limit=0;
+	private ContinuationToken after;
+	private boolean cacheable;
+	private boolean hybrid;
 
 	public LambdaFlexibleSearchQuery(final Class<T> itemClass) {
 		this.itemClass = itemClass;
@@ -23,15 +37,224 @@ public class LambdaFlexibleSearchQuery<T extends ItemModel> {
 		return this;
 	}
 
+	/**
+	 * Restricts results to items with any related item matching given predicate, e.g.
+	 * anyMatch(o -> o.getEntries(), e -> e.getQuantity() > 10) which is translated to correlated EXISTS subquery
+	 *
+	 * @param relation getter of collection relation of queried item
+	 * @param predicate predicate on related items
+	 */
+	public <E extends ItemModel> LambdaFlexibleSearchQuery<T> anyMatch(
+					final SerializableFunction<T, ? extends Collection<E>> relation, final SerializablePredicate<E> predicate) {
+		return filter(new RelationMatch<>(RelationMatch.Quantifier.ANY, relation, predicate));
+	}
+
+	/**
+	 * Restricts results to items whose all related items match given predicate (items without related items match
+	 * too), translated to NOT EXISTS subquery with negated predicate
+	 *
+	 * @see #anyMatch(SerializableFunction, SerializablePredicate)
+	 */
+	public <E extends ItemModel> LambdaFlexibleSearchQuery<T> allMatch(
+					final SerializableFunction<T, ? extends Collection<E>> relation, final SerializablePredicate<E> predicate) {
+		return filter(new RelationMatch<>(RelationMatch.Quantifier.ALL, relation, predicate));
+	}
+
+	/**
+	 * Restricts results to items without related item matching given predicate, translated to NOT EXISTS subquery
+	 *
+	 * @see #anyMatch(SerializableFunction, SerializablePredicate)
+	 */
+	public <E extends ItemModel> LambdaFlexibleSearchQuery<T> noneMatch(
+					final SerializableFunction<T, ? extends Collection<E>> relation, final SerializablePredicate<E> predicate) {
+		return filter(new RelationMatch<>(RelationMatch.Quantifier.NONE, relation, predicate));
+	}
+
 	public LambdaFlexibleSearchQuery<T> limit(final int limit) {
 		this.limit = limit;
 		return this;
 	}
 
+	/**
+	 * Adds ascending sort key. Results are additionally ordered by PK, so the order is always deterministic.
+	 *
+	 * @param key getter of attribute (e.g. e -> e.getCreationtime()), relations are joined like in filters
+	 */
+	public LambdaFlexibleSearchQuery<T> orderBy(final SerializableFunction<T, ?> key) {
+		orderBy.add(key);
+		orderDescending.add(Boolean.FALSE);
+		return this;
+	}
+
+	/**
+	 * Adds descending sort key. Together with {@link #limit(int)} it selects top N items in the database, e.g.
+	 * orderByDesc(e -> e.getCreationtime()).limit(20) returns 20 newest items. Items with equal keys are ordered by
+	 * ascending PK.
+	 *
+	 * @param key getter of attribute, relations are joined like in filters
+	 */
+	public LambdaFlexibleSearchQuery<T> orderByDesc(final SerializableFunction<T, ?> key) {
+		orderBy.add(key);
+		orderDescending.add(Boolean.TRUE);
+		return this;
+	}
+
+	/**
+	 * Restricts results to items placed after given position (keyset pagination). Sort keys have to be the same as
+	 * when the token was created.
+	 *
+	 * @param token token of previous page or null to start from the first page
+	 */
+	public LambdaFlexibleSearchQuery<T> after(final ContinuationToken token) {
+		this.after = token;
+		return this;
+	}
+
+	/**
+	 * Prefetches items referenced by returned items, e.g. include(e -> e.getDeliveryAddress().getCountry()) loads
+	 * addresses and countries of all returned orders with a few queries instead of one query per order. Each page of
+	 * streamed results is prefetched separately.
+	 *
+	 * @param path getter of related item, nested getters prefetch every item on the path
+	 */
+	public LambdaFlexibleSearchQuery<T> include(final SerializableFunction<T, ? extends ItemModel> path) {
+		includes.add(path);
+		return this;
+	}
+
+	/**
+	 * Marks query as cacheable. PKs of its results are cached and reused until any item of queried or joined type is
+	 * saved or removed (or cached result expires). Designed for rarely modified data, e.g. countries or base stores.
+	 */
+	public LambdaFlexibleSearchQuery<T> cacheable() {
+		this.cacheable = true;
+		return this;
+	}
+
+	/**
+	 * Enables hybrid execution. Filters which cannot be translated to flexible search are not rejected but evaluated in
+	 * memory on models returned by the translated filters, limit is then applied after in memory filtering. Separate
+	 * conditions with filter() calls instead of && so as many of them as possible are executed by the database.
+	 * Projection queries are always translated as a whole.
+	 */
+	public LambdaFlexibleSearchQuery<T> hybrid() {
+		this.hybrid = true;
+		return this;
+	}
+
+	/**
+	 * Groups query by given key, aggregated values are computed by the database, e.g.
+	 * groupBy(e -> e.getUser()).sum(e -> e.getTotalPrice()) returns total price of orders of each user
+	 *
+	 * @param key getter of attribute (relations are joined like in filters)
+	 * @return grouped query
+	 */
+	public <K> LambdaGroupByQuery<T, K> groupBy(final SerializableFunction<T, K> key) {
+		return new LambdaGroupByQuery<>(this, key);
+	}
+
+	/**
+	 * Creates query returning values of single attribute
+	 *
+	 * @param column getter of selected attribute (e.g. e -> e.getCode())
+	 * @return projection query
+	 */
+	@SuppressWarnings("unchecked")
+	public <A> LambdaProjectionQuery<T, A> select(final SerializableFunction<T, A> column) {
+		return new LambdaProjectionQuery<>(this, Collections.singletonList(column), row -> (A) row.get(0));
+	}
+
+	/**
+	 * Creates query returning pairs of attribute values
+	 */
+	@SuppressWarnings("unchecked")
+	public <A, B> LambdaProjectionQuery<T, Pair<A, B>> select(final SerializableFunction<T, A> first,
+					final SerializableFunction<T, B> second) {
+		return new LambdaProjectionQuery<>(this, Arrays.asList(first, second),
+						row -> Pair.of((A) row.get(0), (B) row.get(1)));
+	}
+
+	/**
+	 * Creates query returning triples of attribute values
+	 */
+	@SuppressWarnings("unchecked")
+	public <A, B, C> LambdaProjectionQuery<T, Triple<A, B, C>> select(final SerializableFunction<T, A> first,
+					final SerializableFunction<T, B> second, final SerializableFunction<T, C> third) {
+		return new LambdaProjectionQuery<>(this, Arrays.asList(first, second, third),
+						row -> Triple.of((A) row.get(0), (B) row.get(1), (C) row.get(2)));
+	}
+
+	/**
+	 * Creates query returning objects created from two attribute values
+	 *
+	 * @param constructor creates result from attribute values (e.g. constructor reference OrderRow::new)
+	 */
+	@SuppressWarnings("unchecked")
+	public <A, B, R> LambdaProjectionQuery<T, R> selectAs(final BiFunction<A, B, R> constructor,
+					final SerializableFunction<T, A> first, final SerializableFunction<T, B> second) {
+		return new LambdaProjectionQuery<>(this, Arrays.asList(first, second),
+						row -> constructor.apply((A) row.get(0), (B) row.get(1)));
+	}
+
+	/**
+	 * Creates query returning objects created from any number of attribute values
+	 *
+	 * @param rowMapper creates result from list of attribute values (in columns order)
+	 * @param columns getters of selected attributes
+	 */
+	public <R> LambdaProjectionQuery<T, R> selectAs(final Function<List<Object>, R> rowMapper,
+					final List<SerializableFunction<T, ?>> columns) {
+		return new LambdaProjectionQuery<>(this, new ArrayList<>(columns), rowMapper);
+	}
+
+	/**
+	 * @return new query with the same filters, sort keys, includes, limit, position and flags, modifications of the copy
+	 * do not affect this query
+	 */
+	public LambdaFlexibleSearchQuery<T> copy() {
+		final LambdaFlexibleSearchQuery<T> copy = new LambdaFlexibleSearchQuery<>(itemClass);
+		copy.filters.addAll(filters);
+		copy.orderBy.addAll(orderBy);
+		copy.orderDescending.addAll(orderDescending);
+		copy.includes.addAll(includes);
+		copy.limit = limit;
+		copy.after = after;
+		copy.cacheable = cacheable;
+		copy.hybrid = hybrid;
+		return copy;
+	}
+
 	public List<SerializablePredicate<T>> getFilters() {
 		return Collections.unmodifiableList(filters);
 	}
 
+	public List<SerializableFunction<T, ?>> getOrderBy() {
+		return Collections.unmodifiableList(orderBy);
+	}
+
+	/**
+	 * @return directions of sort keys returned by {@link #getOrderBy()}, true for descending key
+	 */
+	public List<Boolean> getOrderDescending() {
+		return Collections.unmodifiableList(orderDescending);
+	}
+
+	public List<SerializableFunction<T, ? extends ItemModel>> getIncludes() {
+		return Collections.unmodifiableList(includes);
+	}
+
+	public ContinuationToken getAfter() {
+		return after;
+	}
+
+	public boolean isCacheable() {
+		return cacheable;
+	}
+
+	public boolean isHybrid() {
+		return hybrid;
+	}
+
 	public int getLimit() {
 		return limit;
 	}
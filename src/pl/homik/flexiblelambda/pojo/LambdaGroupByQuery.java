@@ -0,0 +1,83 @@
+package pl.homik.flexiblelambda.pojo;
+
+import java.util.Arrays;
+
+import de.hybris.platform.core.PK;
+import de.hybris.platform.core.model.ItemModel;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import pl.homik.flexiblelambda.function.SerializableFunction;
+
+/**
+ * Query grouped by single key, created by {@link LambdaFlexibleSearchQuery#groupBy(SerializableFunction)}. Each
+ * aggregate method creates projection query returning pairs of key and aggregated value, computed by the database
+ * with GROUP BY.
+ *
+ * @param <T> queried type
+ * @param <K> type of group key
+ */
+public class LambdaGroupByQuery<T extends ItemModel, K> {
+
+	private final LambdaFlexibleSearchQuery<T> query;
+	private final SerializableFunction<T, K> key;
+
+	LambdaGroupByQuery(final LambdaFlexibleSearchQuery<T> query, final SerializableFunction<T, K> key) {
+		this.query = query;
+		this.key = key;
+	}
+
+	/**
+	 * @return query returning number of items in each group
+	 */
+	public LambdaProjectionQuery<T, Pair<K, Long>> count() {
+		return aggregate(AggregateFunction.COUNT, pk());
+	}
+
+	/**
+	 * @param value getter of summed attribute
+	 * @return query returning sum of attribute values in each group, Long for integral attributes, Double for float and
+	 * double attributes and BigDecimal for BigDecimal attributes
+	 */
+	public LambdaProjectionQuery<T, Pair<K, Number>> sum(final SerializableFunction<T, ? extends Number> value) {
+		return aggregate(AggregateFunction.SUM, value);
+	}
+
+	/**
+	 * @param value getter of attribute
+	 * @return query returning average of attribute values in each group
+	 */
+	public LambdaProjectionQuery<T, Pair<K, Double>> avg(final SerializableFunction<T, ? extends Number> value) {
+		return aggregate(AggregateFunction.AVG, value);
+	}
+
+	/**
+	 * @param value getter of attribute
+	 * @return query returning minimal attribute value in each group
+	 */
+	public <V> LambdaProjectionQuery<T, Pair<K, V>> min(final SerializableFunction<T, V> value) {
+		return aggregate(AggregateFunction.MIN, value);
+	}
+
+	/**
+	 * @param value getter of attribute
+	 * @return query returning maximal attribute value in each group
+	 */
+	public <V> LambdaProjectionQuery<T, Pair<K, V>> max(final SerializableFunction<T, V> value) {
+		return aggregate(AggregateFunction.MAX, value);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <V> LambdaProjectionQuery<T, Pair<K, V>> aggregate(final AggregateFunction function,
+					final SerializableFunction<T, ?> value) {
+		return new LambdaProjectionQuery<>(query, Arrays.asList(key, value), Arrays.asList(null, function),
+						row -> Pair.of((K) row.get(0), (V) row.get(1)));
+	}
+
+	/**
+	 * Items are counted by PK, so null values of any attribute do not matter
+	 */
+	private static <T extends ItemModel> SerializableFunction<T, PK> pk() {
+		return e -> e.getPk();
+	}
+}
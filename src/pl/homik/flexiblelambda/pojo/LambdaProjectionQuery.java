@@ -0,0 +1,69 @@
+package pl.homik.flexiblelambda.pojo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import de.hybris.platform.core.model.ItemModel;
+
+import pl.homik.flexiblelambda.function.SerializableFunction;
+
+/**
+ * Query which returns values of selected attributes instead of models. Created by
+ * {@link LambdaFlexibleSearchQuery#select(SerializableFunction)} and its overloads or by aggregate methods of
+ * {@link LambdaGroupByQuery}.
+ *
+ * @param <T> queried type
+ * @param <R> type of single result row
+ */
+public class LambdaProjectionQuery<T extends ItemModel, R> {
+
+	private final LambdaFlexibleSearchQuery<T> query;
+	private final List<SerializableFunction<T, ?>> columns;
+	private final List<AggregateFunction> aggregates;
+	private final Function<List<Object>, R> rowMapper;
+
+	LambdaProjectionQuery(final LambdaFlexibleSearchQuery<T> query, final List<SerializableFunction<T, ?>> columns,
+					final Function<List<Object>, R> rowMapper) {
+		this(query, columns, Collections.nCopies(columns.size(), null), rowMapper);
+	}
+
+	/**
+	 * @param aggregates aggregate function of each column, null for columns which are grouped by
+	 */
+	LambdaProjectionQuery(final LambdaFlexibleSearchQuery<T> query, final List<SerializableFunction<T, ?>> columns,
+					final List<AggregateFunction> aggregates, final Function<List<Object>, R> rowMapper) {
+		if (columns.isEmpty()) {
+			throw new IllegalArgumentException("At least one column has to be selected");
+		}
+		this.query = query;
+		this.columns = Collections.unmodifiableList(columns);
+		this.aggregates = Collections.unmodifiableList(aggregates);
+		this.rowMapper = rowMapper;
+	}
+
+	/**
+	 * @return query which defines type, filters and limit
+	 */
+	public LambdaFlexibleSearchQuery<T> getQuery() {
+		return query;
+	}
+
+	public List<SerializableFunction<T, ?>> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return aggregate functions of columns (in columns order), null for not aggregated column
+	 */
+	public List<AggregateFunction> getAggregates() {
+		return aggregates;
+	}
+
+	/**
+	 * @return function which creates result from values of selected columns (in columns order)
+	 */
+	public Function<List<Object>, R> getRowMapper() {
+		return rowMapper;
+	}
+}
@@ -0,0 +1,31 @@
+package pl.homik.flexiblelambda.pojo;
+
+import java.util.function.UnaryOperator;
+
+import com.trigersoft.jaque.expression.Expression;
+
+/**
+ * Describes where value of flexible search parameter came from - the lambda expression which produced it and modifier
+ * applied on its value (e.g. '%' added for LIKE)
+ */
+public class ParameterSource {
+
+	private final Expression expression;
+	private final UnaryOperator<Object> modifier;
+
+	public ParameterSource(final Expression expression, final UnaryOperator<Object> modifier) {
+		this.expression = expression;
+		this.modifier = modifier == null ? UnaryOperator.identity() : modifier;
+	}
+
+	/**
+	 * @return expression evaluated to parameter value or null if value was generated by translator itself
+	 */
+	public Expression getExpression() {
+		return expression;
+	}
+
+	public UnaryOperator<Object> getModifier() {
+		return modifier;
+	}
+}
@@ -1,6 +1,8 @@
 package pl.homik.flexiblelambda.pojo;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -10,6 +12,10 @@ public class PredicateTranslationResult {
 	private final Set<String> joins = new LinkedHashSet<>();
 	private final StringBuilder where = new StringBuilder();
 	private final Map<String, Object> parameters = new HashMap<>();
+	private final Map<String, ParameterSource> parameterSources = new HashMap<>();
+	private final Set<String> nullRejectedTables = new HashSet<>();
+	private final Set<String> joinedTypes = new HashSet<>();
+	private final Map<String, String> relationColumns = new LinkedHashMap<>();
 
 	public Set<String> getJoins() {
 		return joins;
@@ -22,4 +28,30 @@ public class PredicateTranslationResult {
 	public Map<String, Object> getParameters() {
 		return parameters;
 	}
+
+	public Map<String, ParameterSource> getParameterSources() {
+		return parameterSources;
+	}
+
+	/**
+	 * @return aliases of joined tables whose missing rows are always rejected by the where clause, such tables can be
+	 * joined with inner join
+	 */
+	public Set<String> getNullRejectedTables() {
+		return nullRejectedTables;
+	}
+
+	/**
+	 * @return type codes of items joined by the query
+	 */
+	public Set<String> getJoinedTypes() {
+		return joinedTypes;
+	}
+
+	/**
+	 * @return columns referencing joined items (e.g. {this.user}) mapped to type codes of the items, in join order
+	 */
+	public Map<String, String> getRelationColumns() {
+		return relationColumns;
+	}
 }
@@ -0,0 +1,69 @@
+package pl.homik.flexiblelambda.pojo;
+
+import java.util.Collection;
+import java.util.stream.Stream;
+
+import de.hybris.platform.core.model.ItemModel;
+
+import pl.homik.flexiblelambda.function.SerializableFunction;
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+
+/**
+ * Filter matching items whose related items (any, all or none of them) match given predicate, e.g. orders with any
+ * entry of quantity greater than 10. It is translated to correlated EXISTS subquery, in memory (when it is a residual
+ * filter of hybrid query) it is evaluated on loaded relation.
+ */
+public final class RelationMatch<T extends ItemModel, E extends ItemModel> implements SerializablePredicate<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * How many related items have to match the predicate
+	 */
+	public enum Quantifier {
+		ANY, ALL, NONE
+	}
+
+	private final Quantifier quantifier;
+	private final SerializableFunction<T, ? extends Collection<E>> relation;
+	private final SerializablePredicate<E> predicate;
+
+	public RelationMatch(final Quantifier quantifier, final SerializableFunction<T, ? extends Collection<E>> relation,
+					final SerializablePredicate<E> predicate) {
+		this.quantifier = quantifier;
+		this.relation = relation;
+		this.predicate = predicate;
+	}
+
+	@Override
+	public boolean test(final T item) {
+		final Collection<E> related = relation.apply(item);
+		final Stream<E> elements = related == null ? Stream.empty() : related.stream();
+		switch (quantifier) {
+		case ANY:
+			return elements.anyMatch(predicate);
+		case ALL:
+			return elements.allMatch(predicate);
+		default:
+			return elements.noneMatch(predicate);
+		}
+	}
+
+	public Quantifier getQuantifier() {
+		return quantifier;
+	}
+
+	/**
+	 * @return getter of collection attribute of queried item
+	 */
+	public SerializableFunction<T, ? extends Collection<E>> getRelation() {
+		return relation;
+	}
+
+	/**
+	 * @return predicate on related items
+	 */
+	public SerializablePredicate<E> getPredicate() {
+		return predicate;
+	}
+}
@@ -0,0 +1,45 @@
+package pl.homik.flexiblelambda.pojo;
+
+import java.util.List;
+import java.util.Set;
+
+import de.hybris.platform.core.model.ItemModel;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+
+/**
+ * Flexible search translated from {@link LambdaFlexibleSearchQuery} with details of the same translation, so the
+ * query is translated only once
+ */
+public final class TranslatedQuery<T extends ItemModel> {
+
+	private final FlexibleSearchQuery query;
+	private final List<SerializablePredicate<T>> residualFilters;
+	private final Set<String> queriedTypes;
+
+	public TranslatedQuery(final FlexibleSearchQuery query, final List<SerializablePredicate<T>> residualFilters,
+					final Set<String> queriedTypes) {
+		this.query = query;
+		this.residualFilters = residualFilters;
+		this.queriedTypes = queriedTypes;
+	}
+
+	public FlexibleSearchQuery getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return filters of hybrid query which are evaluated in memory, empty if whole query was translated
+	 */
+	public List<SerializablePredicate<T>> getResidualFilters() {
+		return residualFilters;
+	}
+
+	/**
+	 * @return type codes of the queried type and all types joined by the query
+	 */
+	public Set<String> getQueriedTypes() {
+		return queriedTypes;
+	}
+}
@@ -0,0 +1,40 @@
+package pl.homik.flexiblelambda.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import de.hybris.platform.core.model.ItemModel;
+
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+
+/**
+ * Service which executes many similar lambda queries at once (DataLoader pattern)
+ */
+public interface LambdaBatchLookupService {
+
+	/**
+	 * Opens new batch. Queries registered in it are executed when the batch is dispatched or closed, e.g.
+	 *
+	 * <pre>
+	 * try (LambdaLookupBatch batch = lambdaBatchLookupService.newBatch()) {
+	 * 	codes.forEach(code -> futures.put(code, batch.getFirst(productByCode(code))));
+	 * }
+	 * </pre>
+	 *
+	 * @return new batch
+	 */
+	LambdaLookupBatch newBatch();
+
+	/**
+	 * Executes query created for each of given keys in single batch
+	 *
+	 * @param keys lookup keys
+	 * @param queryFactory creates query for single key (e.g. user -> query with filter c -> c.getUser().equals(user)),
+	 * text keys are not combined into one query
+	 * @return first result found for each key
+	 */
+	<K, T extends ItemModel> Map<K, Optional<T>> getFirstByKeys(Collection<K> keys,
+					Function<K, LambdaFlexibleSearchQuery<T>> queryFactory);
+}
@@ -0,0 +1,48 @@
+package pl.homik.flexiblelambda.service;
+
+import de.hybris.platform.core.model.ItemModel;
+
+import pl.homik.flexiblelambda.function.SerializableFunction;
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+
+/**
+ * Service which modifies items matching lambda query without loading their models. Statements are executed directly
+ * on deployment tables, so interceptors, validation and model events are skipped, use it only for plain attributes
+ * of items without part-of attributes and collection relations.
+ */
+public interface LambdaBulkOperationService {
+
+	/**
+	 * Removes items matching given query, e.g.
+	 *
+	 * <pre>
+	 * lambdaBulkOperationService.deleteWhere(new LambdaFlexibleSearchQuery<>(JobLogModel.class)
+	 * 				.filter(l -> l.getCreationtime().before(threshold)));
+	 * </pre>
+	 *
+	 * Part-of items, relation links and localized values are not removed, so types (including subtypes) with part-of
+	 * attributes or collection relations are rejected.
+	 *
+	 * @param query query without ordering and residual filters, its limit restricts number of removed items
+	 * @return number of removed items
+	 * @throws IllegalArgumentException if queried type or any of its subtypes has part-of attribute or collection
+	 * relation
+	 */
+	<T extends ItemModel> long deleteWhere(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Sets value of given attribute of items matching given query, e.g.
+	 *
+	 * <pre>
+	 * lambdaBulkOperationService.updateWhere(new LambdaFlexibleSearchQuery<>(OrderModel.class)
+	 * 				.filter(o -> o.getStatus() == OrderStatus.CREATED), OrderModel::getStatus, OrderStatus.CANCELLED);
+	 * </pre>
+	 *
+	 * @param query query without ordering and residual filters, its limit restricts number of updated items
+	 * @param attribute getter of not localized attribute of the queried item
+	 * @param value new value of the attribute (items and enum values are stored as their PKs)
+	 * @return number of updated items
+	 */
+	<T extends ItemModel, V> long updateWhere(LambdaFlexibleSearchQuery<T> query, SerializableFunction<T, V> attribute,
+					V value);
+}
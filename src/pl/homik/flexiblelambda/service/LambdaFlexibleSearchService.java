@@ -2,12 +2,18 @@ package pl.homik.flexiblelambda.service;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import de.hybris.platform.core.model.ItemModel;
 import de.hybris.platform.servicelayer.exceptions.AmbiguousIdentifierException;
 import de.hybris.platform.servicelayer.exceptions.UnknownIdentifierException;
 
+import pl.homik.flexiblelambda.pojo.ContinuationToken;
+import pl.homik.flexiblelambda.pojo.KeysetPage;
 import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.pojo.LambdaProjectionQuery;
 
 /**
  * Service which is capable of executing {@link LambdaFlexibleSearchQuery}
@@ -22,6 +28,15 @@ public interface LambdaFlexibleSearchService {
 	 */
 	<T extends ItemModel> List<T> getList(LambdaFlexibleSearchQuery<T> query);
 
+	/**
+	 * Executes given projection query and returns list of rows built from selected attribute values. Models of queried
+	 * type are not loaded (only models referenced by selected item attributes are).
+	 *
+	 * @param query the query
+	 * @return list of result or empty if not found
+	 */
+	<T extends ItemModel, R> List<R> getList(LambdaProjectionQuery<T, R> query);
+
 	/**
 	 * Executes given query and return first found result
 	 *
@@ -39,4 +54,79 @@ public interface LambdaFlexibleSearchService {
 	 * @throws AmbiguousIdentifierException if query returned more than 1 result
 	 */
 	<T extends ItemModel> T getSingleResult(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Executes given query asynchronously. Tenant, session user, search restrictions and catalog versions of the
+	 * calling thread are used by the query.
+	 *
+	 * @param query the query
+	 * @return future list of results
+	 */
+	<T extends ItemModel> CompletableFuture<List<T>> getListAsync(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Asynchronous version of {@link #getFirst(LambdaFlexibleSearchQuery)}, executed in the context of calling thread
+	 *
+	 * @param query the query
+	 * @return future first found result or empty
+	 */
+	<T extends ItemModel> CompletableFuture<Optional<T>> getFirstAsync(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Counts items matching given query without loading them
+	 *
+	 * @param query the query
+	 * @return number of matching items (not greater than query limit if it is set)
+	 */
+	<T extends ItemModel> long count(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Checks if any item matches given query without loading it
+	 *
+	 * @param query the query
+	 * @return true if at least one item matches the query
+	 */
+	<T extends ItemModel> boolean exists(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Executes given query and returns single page of results using keyset pagination. Next page is requested by
+	 * passing {@link KeysetPage#getNextToken()} to {@link LambdaFlexibleSearchQuery#after(ContinuationToken)}, which adds
+	 * seek predicate on sort keys and PK, so every page costs the same regardless of its depth.
+	 *
+	 * @param query the query, it has to be ordered with {@link LambdaFlexibleSearchQuery#orderBy} by non null keys
+	 * @param pageSize maximum number of items on the page (overrides limit of the query)
+	 * @return page of results with token of the next page
+	 */
+	<T extends ItemModel> KeysetPage<T> getPage(LambdaFlexibleSearchQuery<T> query, int pageSize);
+
+	/**
+	 * Executes given query and returns lazy stream of results. PKs are fetched in keyset batches (ordered by sort keys
+	 * and PK) and models are loaded batch by batch while the stream is consumed.
+	 *
+	 * @param query the query
+	 * @return stream of results
+	 */
+	<T extends ItemModel> Stream<T> stream(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Executes given query and passes its results to consumer page by page, each page is fetched by a separate keyset
+	 * query
+	 *
+	 * @param query the query
+	 * @param pageSize number of models loaded at once
+	 * @param consumer consumer of each page
+	 */
+	<T extends ItemModel> void forEachPage(LambdaFlexibleSearchQuery<T> query, int pageSize,
+					Consumer<List<T>> consumer);
+
+	/**
+	 * Executes given query and passes its results to consumer page by page
+	 *
+	 * @param query the query
+	 * @param pageSize number of models loaded at once
+	 * @param detach if true models of each page are detached after the page is consumed
+	 * @param consumer consumer of each page
+	 */
+	<T extends ItemModel> void forEachPage(LambdaFlexibleSearchQuery<T> query, int pageSize, boolean detach,
+					Consumer<List<T>> consumer);
 }
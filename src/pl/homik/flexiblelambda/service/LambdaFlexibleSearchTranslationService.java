@@ -1,9 +1,19 @@
 package pl.homik.flexiblelambda.service;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import de.hybris.platform.core.PK;
 import de.hybris.platform.core.model.ItemModel;
 import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
 
+import pl.homik.flexiblelambda.function.SerializableFunction;
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+import pl.homik.flexiblelambda.pojo.IncludeQuery;
 import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.pojo.LambdaProjectionQuery;
+import pl.homik.flexiblelambda.pojo.TranslatedQuery;
 
 /**
  * Service designed to translate {@link LambdaFlexibleSearchQuery} to {@link FlexibleSearchQuery}
@@ -16,4 +26,74 @@ public interface LambdaFlexibleSearchTranslationService {
 	 * @return flexible search query
 	 */
 	<T extends ItemModel> FlexibleSearchQuery translate(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Translates given query to {@link FlexibleSearchQuery} and returns it with its residual filters and queried types,
+	 * use it instead of {@link #translate(LambdaFlexibleSearchQuery)} followed by {@link #getResidualFilters} or
+	 * {@link #getQueriedTypes}, which translate the query again
+	 * @param query to translate
+	 * @return flexible search query with details of translation
+	 */
+	<T extends ItemModel> TranslatedQuery<T> translateWithDetails(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Translates given query like {@link #translateWithDetails(LambdaFlexibleSearchQuery)}, but the query is always
+	 * ordered by PK (after sort keys of the query), so its results can be fetched in keyset batches continuing after
+	 * the last fetched item (see {@link LambdaFlexibleSearchQuery#after})
+	 * @param query to translate
+	 * @return flexible search query with details of translation
+	 */
+	<T extends ItemModel> TranslatedQuery<T> translateForBatches(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Translates given projection query to {@link FlexibleSearchQuery} selecting only chosen columns. Result class list
+	 * of returned query is set, columns referencing items are returned as PKs.
+	 * @param query to translate
+	 * @return flexible search query
+	 */
+	<T extends ItemModel, R> FlexibleSearchQuery translate(LambdaProjectionQuery<T, R> query);
+
+	/**
+	 * Translates given query to {@link FlexibleSearchQuery} counting matching items (limit and residual filters of the
+	 * query are ignored)
+	 * @param query to translate
+	 * @return flexible search query returning single Long value
+	 */
+	<T extends ItemModel> FlexibleSearchQuery translateCount(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Returns types whose items are read by given query
+	 * @param query lambda query
+	 * @return type codes of the queried type and all types joined by the query
+	 */
+	<T extends ItemModel> Set<String> getQueriedTypes(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Returns filters of hybrid query which could not be translated, they are not part of translated flexible search
+	 * and have to be evaluated in memory on its results (see {@link LambdaFlexibleSearchQuery#hybrid()})
+	 * @param query lambda query
+	 * @return residual filters in query order, empty if whole query was translated or query is not hybrid
+	 */
+	<T extends ItemModel> List<SerializablePredicate<T>> getResidualFilters(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Translates include path to query selecting PKs of items referenced on the path by given items, e.g. for
+	 * e -> e.getDeliveryAddress().getCountry() PKs of addresses and their countries are selected
+	 * @param itemClass type of given items
+	 * @param path getter of related item
+	 * @param pks PKs of items whose related items are selected
+	 * @return query with PK column per relation on the path
+	 */
+	<T extends ItemModel> IncludeQuery translateInclude(Class<T> itemClass, SerializableFunction<T, ?> path,
+					Collection<PK> pks);
+
+	/**
+	 * Resolves attribute read by given getter
+	 * @param itemClass type which declares the attribute
+	 * @param getter getter of attribute (e.g. e -> e.getStatus())
+	 * @return qualifier of the attribute
+	 * @throws IllegalArgumentException if getter does not read an attribute of the item itself (e.g. it reads
+	 * attribute of related item)
+	 */
+	<T extends ItemModel> String getQualifier(Class<T> itemClass, SerializableFunction<T, ?> getter);
 }
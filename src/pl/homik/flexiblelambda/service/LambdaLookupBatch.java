@@ -0,0 +1,57 @@
+package pl.homik.flexiblelambda.service;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import de.hybris.platform.core.model.ItemModel;
+import de.hybris.platform.servicelayer.exceptions.AmbiguousIdentifierException;
+import de.hybris.platform.servicelayer.exceptions.UnknownIdentifierException;
+
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+
+/**
+ * Scope collecting lambda queries which are executed together on {@link #dispatch()} (or {@link #close()}). Queries
+ * which differ only in a value compared with '=' are combined into single query with 'IN' condition, so many lookups
+ * by key (e.g. product by code in a loop) cost one round trip.
+ *
+ * Batch is not thread safe, it should be used by single thread.
+ */
+public interface LambdaLookupBatch extends AutoCloseable {
+
+	/**
+	 * Registers query in the batch
+	 *
+	 * @param query the query
+	 * @return future list of results, completed on dispatch
+	 */
+	<T extends ItemModel> CompletableFuture<List<T>> getList(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Registers query in the batch
+	 *
+	 * @param query the query
+	 * @return future first found result or empty, completed on dispatch
+	 */
+	<T extends ItemModel> CompletableFuture<Optional<T>> getFirst(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Registers query in the batch
+	 *
+	 * @param query the query
+	 * @return future single result, completed on dispatch exceptionally with {@link UnknownIdentifierException} or
+	 * {@link AmbiguousIdentifierException} if query did not return exactly one result
+	 */
+	<T extends ItemModel> CompletableFuture<T> getSingleResult(LambdaFlexibleSearchQuery<T> query);
+
+	/**
+	 * Executes all registered queries and completes their futures
+	 */
+	void dispatch();
+
+	/**
+	 * Dispatches queries registered since last dispatch
+	 */
+	@Override
+	void close();
+}
@@ -0,0 +1,19 @@
+package pl.homik.flexiblelambda.service;
+
+import de.hybris.platform.core.model.ItemModel;
+
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+
+/**
+ * Factory of a lambda query used by the application, every bean implementing it is warmed up by
+ * {@link LambdaQueryWarmUpService} under its bean name. Created query should have the shape of the real one (the same
+ * lambdas), captured values can be any representative values.
+ */
+@FunctionalInterface
+public interface LambdaQueryPrototype {
+
+	/**
+	 * @return new query
+	 */
+	LambdaFlexibleSearchQuery<? extends ItemModel> create();
+}
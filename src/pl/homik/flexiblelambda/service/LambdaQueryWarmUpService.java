@@ -0,0 +1,16 @@
+package pl.homik.flexiblelambda.service;
+
+/**
+ * Warms up lambda queries on startup, so the first users of a fresh node don't pay for parsing of lambdas, class
+ * loading and JIT compilation of the translation
+ */
+public interface LambdaQueryWarmUpService {
+
+	/**
+	 * Translates queries of all {@link LambdaQueryPrototype} beans in parallel and (if enabled) executes them once to
+	 * warm up model and database caches. Failure of single query is logged and doesn't stop the others.
+	 *
+	 * @return duration of the warm-up in milliseconds
+	 */
+	long warmUp();
+}
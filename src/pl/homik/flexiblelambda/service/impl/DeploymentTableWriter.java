@@ -0,0 +1,143 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import de.hybris.platform.core.PK;
+import de.hybris.platform.core.Registry;
+import de.hybris.platform.jalo.type.AttributeDescriptor;
+import de.hybris.platform.jalo.type.ComposedType;
+import de.hybris.platform.jalo.type.TypeManager;
+import de.hybris.platform.servicelayer.exceptions.SystemException;
+import de.hybris.platform.util.Utilities;
+
+/**
+ * Executes set based statements on deployment tables of items, one statement per table. Model service is bypassed, so
+ * interceptors are not called and part-of items, relations and localized values of removed items are not removed.
+ * Entity cache of modified items is invalidated.
+ */
+public class DeploymentTableWriter {
+
+	private static final String PK_COLUMN = "PK";
+	private static final String MODIFIED_COLUMN = "modifiedTS";
+	private static final String VERSION_COLUMN = "hjmpTS";
+
+	/**
+	 * Deletes rows of given items
+	 *
+	 * @return number of deleted rows
+	 */
+	public int delete(final Collection<PK> pks) {
+		int result = 0;
+		for (final Map.Entry<ComposedType, List<PK>> table : groupByDeployment(pks).entrySet()) {
+			result += execute("DELETE FROM " + table.getKey().getTable() + " WHERE " + inCondition(table.getValue()),
+							Collections.emptyList(), table.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Sets value of given attribute of given items, modification time and version of the items are updated too
+	 *
+	 * @param qualifier qualifier of not localized attribute stored in deployment table
+	 * @param value value ready to be stored in the column (e.g. PK of referenced item as long)
+	 * @return number of updated rows
+	 */
+	public int update(final Collection<PK> pks, final String qualifier, final Object value) {
+		int result = 0;
+		for (final Map.Entry<ComposedType, List<PK>> table : groupByDeployment(pks).entrySet()) {
+			final String column = getColumn(table.getKey(), qualifier);
+			final String sql = "UPDATE " + table.getKey().getTable() + " SET " + column + " = ?, " + MODIFIED_COLUMN
+							+ " = ?, " + VERSION_COLUMN + " = COALESCE(" + VERSION_COLUMN + ", 0) + 1 WHERE " + inCondition(
+							table.getValue());
+			result += execute(sql, Arrays.asList(value, new Timestamp(System.currentTimeMillis())),
+							table.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Items of subtypes with own deployment are stored in other tables, items are grouped by root type of their type
+	 * code
+	 */
+	private Map<ComposedType, List<PK>> groupByDeployment(final Collection<PK> pks) {
+		final Map<Integer, List<PK>> byTypeCode = new LinkedHashMap<>();
+		for (final PK pk : pks) {
+			byTypeCode.computeIfAbsent(pk.getTypeCode(), t -> new ArrayList<>()).add(pk);
+		}
+		final Map<ComposedType, List<PK>> result = new LinkedHashMap<>();
+		for (final Map.Entry<Integer, List<PK>> entry : byTypeCode.entrySet()) {
+			result.computeIfAbsent(getType(entry.getKey()), t -> new ArrayList<>()).addAll(entry.getValue());
+		}
+		return result;
+	}
+
+	private String getColumn(final ComposedType type, final String qualifier) {
+		final AttributeDescriptor attribute = type.getAttributeDescriptorIncludingPrivate(qualifier);
+		if (attribute == null || attribute.isLocalized() || attribute.getDatabaseColumn() == null) {
+			throw new IllegalArgumentException(
+							"Attribute " + qualifier + " of " + type.getCode() + " is not stored in its deployment table");
+		}
+		return attribute.getDatabaseColumn();
+	}
+
+	private String inCondition(final List<PK> pks) {
+		return PK_COLUMN + " IN (" + String.join(", ", Collections.nCopies(pks.size(), "?")) + ")";
+	}
+
+	private int execute(final String sql, final List<Object> values, final List<PK> pks) {
+		try (final Connection connection = getDataSource().getConnection();
+						final PreparedStatement statement = connection.prepareStatement(sql)) {
+			int index = 1;
+			for (final Object value : values) {
+				if (value == null) {
+					setNull(statement, index++);
+				} else {
+					statement.setObject(index++, value);
+				}
+			}
+			for (final PK pk : pks) {
+				statement.setLong(index++, pk.getLongValue());
+			}
+			return statement.executeUpdate();
+		} catch (final SQLException e) {
+			throw new SystemException("Cannot execute " + sql, e);
+		} finally {
+			pks.forEach(Utilities::invalidateCache);
+		}
+	}
+
+	/**
+	 * Some drivers reject null without SQL type, type of the column is taken from parameter metadata (drivers not
+	 * providing it accept untyped null)
+	 */
+	private void setNull(final PreparedStatement statement, final int index) throws SQLException {
+		int sqlType;
+		try {
+			sqlType = statement.getParameterMetaData().getParameterType(index);
+		} catch (final SQLException e) {
+			sqlType = Types.NULL;
+		}
+		statement.setNull(index, sqlType);
+	}
+
+	protected ComposedType getType(final int typeCode) {
+		return TypeManager.getInstance().getRootComposedType(typeCode);
+	}
+
+	protected DataSource getDataSource() {
+		return Registry.getCurrentTenant().getDataSource();
+	}
+}
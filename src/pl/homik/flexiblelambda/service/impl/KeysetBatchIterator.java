@@ -0,0 +1,98 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import de.hybris.platform.core.PK;
+import de.hybris.platform.servicelayer.model.ModelService;
+
+import pl.homik.flexiblelambda.pojo.ContinuationToken;
+
+/**
+ * Iterator over pages of models fetched with keyset pagination. Every page is fetched by a separate query placed after
+ * the last item of the previous page, so only rows which are actually iterated are read from the database. When the
+ * last item has no position (a sort key is null, which can't be compared by a seek predicate) remaining pages are
+ * fetched by offset of already fetched items.
+ */
+class KeysetBatchIterator<T> implements Iterator<List<T>> {
+
+	private final BiFunction<ContinuationToken, Integer, List<PK>> batches;
+	private final BiFunction<Integer, Integer, List<PK>> offsetBatches;
+	private final Function<T, Optional<ContinuationToken>> positions;
+	private final int batchSize;
+	private final int limit;
+	private final ModelService modelService;
+	private ContinuationToken after;
+	private int fetched;
+	private boolean byOffset;
+	private List<T> next;
+	private boolean finished;
+
+	/**
+	 * @param batches returns PKs of at most given number of items placed after given token (null for the first batch)
+	 * @param offsetBatches returns PKs of at most given number (the second argument) of items of the first batch query
+	 * skipping given number (the first argument) of items
+	 * @param positions returns token of given item or empty if it has null sort key
+	 * @param batchSize number of PKs fetched by single query
+	 * @param limit maximal number of fetched items, 0 for no limit
+	 * @param modelService service used to load models
+	 */
+	KeysetBatchIterator(final BiFunction<ContinuationToken, Integer, List<PK>> batches,
+					final BiFunction<Integer, Integer, List<PK>> offsetBatches,
+					final Function<T, Optional<ContinuationToken>> positions, final int batchSize, final int limit,
+					final ModelService modelService) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batch size has to be positive");
+		}
+		this.batches = batches;
+		this.offsetBatches = offsetBatches;
+		this.positions = positions;
+		this.batchSize = batchSize;
+		this.limit = limit;
+		this.modelService = modelService;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !finished) {
+			fetch();
+		}
+		return next != null;
+	}
+
+	@Override
+	public List<T> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final List<T> page = next;
+		next = null;
+		return page;
+	}
+
+	private void fetch() {
+		final int count = limit > 0 ? Math.min(batchSize, limit - fetched) : batchSize;
+		final List<PK> pks = byOffset ? offsetBatches.apply(fetched, count) : batches.apply(after, count);
+		// shorter batch is the last one, so no query returning nothing is executed after it
+		fetched += pks.size();
+		finished = pks.size() < count || limit > 0 && fetched >= limit;
+		if (pks.isEmpty()) {
+			return;
+		}
+		final List<T> page = new ArrayList<>(pks.size());
+		for (final PK pk : pks) {
+			page.add(modelService.get(pk));
+		}
+		if (!finished && !byOffset) {
+			final Optional<ContinuationToken> position = positions.apply(page.get(page.size() - 1));
+			after = position.orElse(null);
+			byOffset = !position.isPresent();
+		}
+		next = page;
+	}
+}
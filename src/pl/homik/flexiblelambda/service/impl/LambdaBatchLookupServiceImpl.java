@@ -0,0 +1,72 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import de.hybris.platform.core.model.ItemModel;
+import de.hybris.platform.servicelayer.model.ModelService;
+import de.hybris.platform.servicelayer.search.FlexibleSearchService;
+
+import org.springframework.beans.factory.annotation.Required;
+
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.service.LambdaBatchLookupService;
+import pl.homik.flexiblelambda.service.LambdaFlexibleSearchTranslationService;
+import pl.homik.flexiblelambda.service.LambdaLookupBatch;
+
+public class LambdaBatchLookupServiceImpl implements LambdaBatchLookupService {
+
+	private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+	private FlexibleSearchService flexibleSearchService;
+	private LambdaFlexibleSearchTranslationService lambdaFlexibleSearchTranslationService;
+	private ModelService modelService;
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+	@Override
+	public LambdaLookupBatch newBatch() {
+		return new LambdaLookupBatchImpl(lambdaFlexibleSearchTranslationService, flexibleSearchService, modelService,
+						maxBatchSize);
+	}
+
+	@Override
+	public <K, T extends ItemModel> Map<K, Optional<T>> getFirstByKeys(final Collection<K> keys,
+					final Function<K, LambdaFlexibleSearchQuery<T>> queryFactory) {
+		final Map<K, CompletableFuture<Optional<T>>> futures = new LinkedHashMap<>();
+		try (LambdaLookupBatch batch = newBatch()) {
+			for (final K key : keys) {
+				futures.put(key, batch.getFirst(queryFactory.apply(key)));
+			}
+		}
+		final Map<K, Optional<T>> result = new LinkedHashMap<>();
+		futures.forEach((key, future) -> result.put(key, future.join()));
+		return result;
+	}
+
+	@Required
+	public void setFlexibleSearchService(final FlexibleSearchService flexibleSearchService) {
+		this.flexibleSearchService = flexibleSearchService;
+	}
+
+	@Required
+	public void setLambdaFlexibleSearchTranslationService(
+					final LambdaFlexibleSearchTranslationService lambdaFlexibleSearchTranslationService) {
+		this.lambdaFlexibleSearchTranslationService = lambdaFlexibleSearchTranslationService;
+	}
+
+	@Required
+	public void setModelService(final ModelService modelService) {
+		this.modelService = modelService;
+	}
+
+	/**
+	 * @param maxBatchSize maximal number of keys passed to single IN condition
+	 */
+	public void setMaxBatchSize(final int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+}
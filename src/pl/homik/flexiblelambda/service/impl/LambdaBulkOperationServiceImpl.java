@@ -0,0 +1,172 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import de.hybris.platform.core.HybrisEnumValue;
+import de.hybris.platform.core.PK;
+import de.hybris.platform.core.model.ItemModel;
+import de.hybris.platform.core.model.type.AttributeDescriptorModel;
+import de.hybris.platform.core.model.type.CollectionTypeModel;
+import de.hybris.platform.core.model.type.ComposedTypeModel;
+import de.hybris.platform.core.model.type.RelationDescriptorModel;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+import de.hybris.platform.servicelayer.search.FlexibleSearchService;
+import de.hybris.platform.servicelayer.type.TypeService;
+
+import org.springframework.beans.factory.annotation.Required;
+
+import pl.homik.flexiblelambda.cache.QueryResultCache;
+import pl.homik.flexiblelambda.function.SerializableFunction;
+import pl.homik.flexiblelambda.pojo.ContinuationToken;
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.service.LambdaBulkOperationService;
+import pl.homik.flexiblelambda.service.LambdaFlexibleSearchTranslationService;
+
+/**
+ * Matching items are processed in batches of PKs selected in PK order (each batch continues after the last PK of the
+ * previous one), so neither models nor all PKs are held in memory and each statement locks limited number of rows.
+ */
+public class LambdaBulkOperationServiceImpl implements LambdaBulkOperationService {
+
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private LambdaFlexibleSearchTranslationService lambdaFlexibleSearchTranslationService;
+	private FlexibleSearchService flexibleSearchService;
+	private TypeService typeService;
+	private DeploymentTableWriter deploymentTableWriter;
+	private QueryResultCache queryResultCache;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	@Override
+	public <T extends ItemModel> long deleteWhere(final LambdaFlexibleSearchQuery<T> query) {
+		checkDeletable(typeService.getComposedTypeForClass(query.getItemClass()));
+		return execute(query, deploymentTableWriter::delete);
+	}
+
+	/**
+	 * Rows of part-of items and relation links are not removed with the item, so items having such attributes (in
+	 * queried type or any of its subtypes) cannot be removed in bulk
+	 */
+	private void checkDeletable(final ComposedTypeModel type) {
+		final List<ComposedTypeModel> types = new ArrayList<>();
+		types.add(type);
+		types.addAll(type.getAllSubTypes());
+		for (final ComposedTypeModel checked : types) {
+			for (final AttributeDescriptorModel attribute : typeService.getAttributeDescriptorsForType(checked)) {
+				final boolean collectionRelation = attribute instanceof RelationDescriptorModel
+								&& attribute.getAttributeType() instanceof CollectionTypeModel;
+				if (Boolean.TRUE.equals(attribute.getPartOf()) || collectionRelation) {
+					throw new IllegalArgumentException("Items of " + checked.getCode() + " cannot be removed in bulk, "
+									+ "their " + attribute.getQualifier() + " would be left behind");
+				}
+			}
+		}
+	}
+
+	@Override
+	public <T extends ItemModel, V> long updateWhere(final LambdaFlexibleSearchQuery<T> query,
+					final SerializableFunction<T, V> attribute, final V value) {
+		final String qualifier = lambdaFlexibleSearchTranslationService.getQualifier(query.getItemClass(), attribute);
+		final Object columnValue = toColumnValue(value);
+		return execute(query, pks -> deploymentTableWriter.update(pks, qualifier, columnValue));
+	}
+
+	private <T extends ItemModel> long execute(final LambdaFlexibleSearchQuery<T> query,
+					final ToIntFunction<List<PK>> operation) {
+		if (!query.getOrderBy().isEmpty() || query.getAfter() != null) {
+			throw new IllegalArgumentException("Bulk operation query cannot be ordered nor continued");
+		}
+		if (!lambdaFlexibleSearchTranslationService.getResidualFilters(query).isEmpty()) {
+			throw new IllegalArgumentException("All filters of bulk operation query have to be translated");
+		}
+		final int limit = query.getLimit();
+		// batches are selected by a copy, so the query of the caller is never modified
+		final LambdaFlexibleSearchQuery<T> batchQuery = query.copy();
+		long result = 0;
+		long selected = 0;
+		PK last = PK.fromLong(0);
+		while (limit <= 0 || selected < limit) {
+			final int size = limit > 0 ? (int) Math.min(batchSize, limit - selected) : batchSize;
+			batchQuery.limit(size).after(new ContinuationToken(Collections.emptyList(), last));
+			final FlexibleSearchQuery translated = lambdaFlexibleSearchTranslationService.translate(batchQuery);
+			translated.setResultClassList(Collections.singletonList(PK.class));
+			final List<PK> pks = flexibleSearchService.<PK>search(translated).getResult();
+			if (pks.isEmpty()) {
+				break;
+			}
+			result += operation.applyAsInt(pks);
+			invalidateResults(pks);
+			selected += pks.size();
+			last = pks.get(pks.size() - 1);
+			if (pks.size() < size) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Model service events are not published, so cached query results are invalidated here
+	 */
+	private void invalidateResults(final List<PK> pks) {
+		if (queryResultCache != null) {
+			pks.stream().mapToInt(PK::getTypeCode).distinct().forEach(queryResultCache::invalidate);
+		}
+	}
+
+	/**
+	 * Converts value to the form stored in deployment table
+	 */
+	private Object toColumnValue(final Object value) {
+		if (value instanceof ItemModel) {
+			return ((ItemModel) value).getPk().getLongValue();
+		}
+		if (value instanceof HybrisEnumValue) {
+			return typeService.getEnumerationValue((HybrisEnumValue) value).getPk().getLongValue();
+		}
+		if (value instanceof Date) {
+			return new Timestamp(((Date) value).getTime());
+		}
+		return value;
+	}
+
+	@Required
+	public void setLambdaFlexibleSearchTranslationService(
+					final LambdaFlexibleSearchTranslationService lambdaFlexibleSearchTranslationService) {
+		this.lambdaFlexibleSearchTranslationService = lambdaFlexibleSearchTranslationService;
+	}
+
+	@Required
+	public void setFlexibleSearchService(final FlexibleSearchService flexibleSearchService) {
+		this.flexibleSearchService = flexibleSearchService;
+	}
+
+	@Required
+	public void setTypeService(final TypeService typeService) {
+		this.typeService = typeService;
+	}
+
+	@Required
+	public void setDeploymentTableWriter(final DeploymentTableWriter deploymentTableWriter) {
+		this.deploymentTableWriter = deploymentTableWriter;
+	}
+
+	/**
+	 * @param queryResultCache cache of query results invalidated after each batch, when not set nothing is invalidated
+	 */
+	public void setQueryResultCache(final QueryResultCache queryResultCache) {
+		this.queryResultCache = queryResultCache;
+	}
+
+	/**
+	 * @param batchSize maximal number of items modified by single statement
+	 */
+	public void setBatchSize(final int batchSize) {
+		this.batchSize = batchSize;
+	}
+}
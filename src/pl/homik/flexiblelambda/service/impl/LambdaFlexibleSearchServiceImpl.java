@@ -1,29 +1,167 @@
 package pl.homik.flexiblelambda.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import de.hybris.platform.core.PK;
 import de.hybris.platform.core.model.ItemModel;
 import de.hybris.platform.servicelayer.exceptions.AmbiguousIdentifierException;
 import de.hybris.platform.servicelayer.exceptions.UnknownIdentifierException;
+import de.hybris.platform.servicelayer.model.ModelService;
 import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
 import de.hybris.platform.servicelayer.search.FlexibleSearchService;
 
 import org.springframework.beans.factory.annotation.Required;
 
+import pl.homik.flexiblelambda.cache.QueryResultCache;
+import pl.homik.flexiblelambda.function.SerializableFunction;
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+import pl.homik.flexiblelambda.metrics.LambdaQueryMetrics;
+import pl.homik.flexiblelambda.metrics.QueryPhase;
+import pl.homik.flexiblelambda.metrics.SlowQueryLog;
+import pl.homik.flexiblelambda.pojo.ContinuationToken;
+import pl.homik.flexiblelambda.pojo.KeysetPage;
 import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.pojo.LambdaProjectionQuery;
+import pl.homik.flexiblelambda.pojo.TranslatedQuery;
 import pl.homik.flexiblelambda.service.LambdaFlexibleSearchService;
 import pl.homik.flexiblelambda.service.LambdaFlexibleSearchTranslationService;
 
 public class LambdaFlexibleSearchServiceImpl implements LambdaFlexibleSearchService {
 
+	private static final int DEFAULT_STREAM_PAGE_SIZE = 100;
+	private static final int DEFAULT_INCLUDE_BATCH_SIZE = 100;
+
 	private FlexibleSearchService flexibleSearchService;
 	private LambdaFlexibleSearchTranslationService lambdaFlexibleSearchTranslationService;
+	private ModelService modelService;
+	private SessionContextPropagator sessionContextPropagator;
+	private Executor asyncExecutor;
+	private QueryResultCache queryResultCache;
+	private LambdaQueryMetrics queryMetrics;
+	private SlowQueryLog slowQueryLog;
+	private int streamPageSize = DEFAULT_STREAM_PAGE_SIZE;
+	private int includeBatchSize = DEFAULT_INCLUDE_BATCH_SIZE;
 
 	@Override
 	public <T extends ItemModel> List<T> getList(final LambdaFlexibleSearchQuery<T> query) {
+		final long start = System.nanoTime();
+		final TranslatedQuery<T> translated = lambdaFlexibleSearchTranslationService.translateWithDetails(query);
+		if (!translated.getResidualFilters().isEmpty()) {
+			// the first page is not larger than the limit, so only missing items are loaded later
+			final int pageSize = query.getLimit() > 0 ? Math.min(query.getLimit(), streamPageSize) : streamPageSize;
+			return limit(query, getPages(query, translated, start, pageSize, false).flatMap(List::stream))
+							.collect(Collectors.toList());
+		}
+		final List<T> result = query.isCacheable() && queryResultCache != null ?
+						getCachedList(query, translated, start) :
+						execute(query, translated.getQuery(), start);
+		return prefetch(query, translated.getQuery(), result);
+	}
+
+	/**
+	 * Items referenced on include paths of the query are loaded for given results, time spent is recorded as model
+	 * loading
+	 */
+	private <T extends ItemModel> List<T> prefetch(final LambdaFlexibleSearchQuery<T> query,
+					final FlexibleSearchQuery translated, final List<T> items) {
+		if (!query.getIncludes().isEmpty()) {
+			final long start = System.nanoTime();
+			new RelationPrefetcher(lambdaFlexibleSearchTranslationService, flexibleSearchService, includeBatchSize)
+							.prefetch(query, items);
+			recordPhase(translated, QueryPhase.MODEL_LOADING, start);
+		}
+		return items;
+	}
+
+	/**
+	 * Only PKs are cached, models are loaded by model service (which serves them from its own cache)
+	 */
+	private <T extends ItemModel> List<T> getCachedList(final LambdaFlexibleSearchQuery<T> query,
+					final TranslatedQuery<T> translatedQuery, final long translationStart) {
+		final FlexibleSearchQuery translated = translatedQuery.getQuery();
+		final List<Object> searchContext = sessionContextPropagator.getSearchContext();
+		List<PK> pks = queryResultCache.get(translated, searchContext);
+		if (pks == null) {
+			final long version = queryResultCache.getVersion();
+			translated.setResultClassList(Collections.singletonList(PK.class));
+			pks = execute(query, translated, translationStart);
+			queryResultCache.put(translated, searchContext, translatedQuery.getQueriedTypes(), pks, version);
+		}
+		final long loadStart = System.nanoTime();
+		final List<T> result = new ArrayList<>(pks.size());
+		for (final PK pk : pks) {
+			result.add(modelService.get(pk));
+		}
+		recordPhase(translated, QueryPhase.MODEL_LOADING, loadStart);
+		return result;
+	}
+
+	/**
+	 * Executes translated query, its execution time and number of returned rows are recorded in query metrics and
+	 * slow query log
+	 *
+	 * @param translationStart time when translation of the query started
+	 */
+	private <R> List<R> execute(final LambdaFlexibleSearchQuery<?> query, final FlexibleSearchQuery translated,
+					final long translationStart) {
+		final long start = System.nanoTime();
+		final List<R> result = flexibleSearchService.<R>search(translated).getResult();
+		if (queryMetrics != null) {
+			recordPhase(translated, QueryPhase.EXECUTION, start);
+			queryMetrics.recordRows(translated.getQuery(), result.size());
+		}
+		if (slowQueryLog != null) {
+			slowQueryLog.record(query.getFilters(), translated, start - translationStart, System.nanoTime() - start,
+							result.size());
+		}
+		return result;
+	}
+
+	private void recordPhase(final FlexibleSearchQuery translated, final QueryPhase phase, final long start) {
+		if (queryMetrics != null) {
+			queryMetrics.recordPhase(translated.getQuery(), phase, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public <T extends ItemModel, R> List<R> getList(final LambdaProjectionQuery<T, R> query) {
+		final long start = System.nanoTime();
 		final FlexibleSearchQuery translated = lambdaFlexibleSearchTranslationService.translate(query);
-		return flexibleSearchService.<T>search(translated).getResult();
+		final boolean singleColumn = translated.getResultClassList().size() == 1;
+		final List<Object> rows = execute(query.getQuery(), translated, start);
+		final long loadStart = System.nanoTime();
+		final List<R> result = new ArrayList<>(rows.size());
+		for (final Object row : rows) {
+			result.add(query.getRowMapper().apply(toColumnValues(row, singleColumn)));
+		}
+		recordPhase(translated, QueryPhase.MODEL_LOADING, loadStart);
+		return result;
+	}
+
+	/**
+	 * Flexible search returns single value for single column and list of values for more columns. Selected items are
+	 * returned as PKs and have to be converted to models.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Object> toColumnValues(final Object row, final boolean singleColumn) {
+		final List<Object> values = singleColumn ? Collections.singletonList(row) : (List<Object>) row;
+		final List<Object> result = new ArrayList<>(values.size());
+		for (final Object value : values) {
+			result.add(value instanceof PK ? modelService.get((PK) value) : value);
+		}
+		return result;
 	}
 
 	@Override
@@ -48,6 +186,199 @@ public class LambdaFlexibleSearchServiceImpl implements LambdaFlexibleSearchServ
 		return resList.get(0);
 	}
 
+	@Override
+	public <T extends ItemModel> CompletableFuture<List<T>> getListAsync(final LambdaFlexibleSearchQuery<T> query) {
+		return CompletableFuture.supplyAsync(sessionContextPropagator.propagate(() -> getList(query)), asyncExecutor);
+	}
+
+	@Override
+	public <T extends ItemModel> CompletableFuture<Optional<T>> getFirstAsync(final LambdaFlexibleSearchQuery<T> query) {
+		return CompletableFuture.supplyAsync(sessionContextPropagator.propagate(() -> getFirst(query)), asyncExecutor);
+	}
+
+	@Override
+	public <T extends ItemModel> long count(final LambdaFlexibleSearchQuery<T> query) {
+		final long start = System.nanoTime();
+		// only hybrid queries can have residual filters, others are translated to count query at once
+		if (query.isHybrid()) {
+			final TranslatedQuery<T> translated = lambdaFlexibleSearchTranslationService.translateWithDetails(query);
+			if (!translated.getResidualFilters().isEmpty()) {
+				return limit(query, getPages(query, translated, start, streamPageSize, false).flatMap(List::stream))
+								.count();
+			}
+		}
+		final FlexibleSearchQuery translated = lambdaFlexibleSearchTranslationService.translateCount(query);
+		final List<Long> result = execute(query, translated, start);
+		final long count = result.isEmpty() || result.get(0) == null ? 0 : result.get(0);
+		return query.getLimit() > 0 ? Math.min(count, query.getLimit()) : count;
+	}
+
+	@Override
+	public <T extends ItemModel> boolean exists(final LambdaFlexibleSearchQuery<T> query) {
+		// only PK of the first matching item is fetched
+		final long start = System.nanoTime();
+		final TranslatedQuery<T> translatedQuery = lambdaFlexibleSearchTranslationService.translateWithDetails(query);
+		if (!translatedQuery.getResidualFilters().isEmpty()) {
+			return getPages(query, translatedQuery, start, streamPageSize, false).findFirst().isPresent();
+		}
+		final FlexibleSearchQuery translated = translatedQuery.getQuery();
+		translated.setResultClassList(Collections.singletonList(PK.class));
+		translated.setCount(1);
+		return !execute(query, translated, start).isEmpty();
+	}
+
+	@Override
+	public <T extends ItemModel> KeysetPage<T> getPage(final LambdaFlexibleSearchQuery<T> query, final int pageSize) {
+		if (query.getOrderBy().isEmpty()) {
+			throw new IllegalArgumentException("Keyset pagination requires query ordered with orderBy");
+		}
+		// copy, so limit of the caller's query is not changed
+		final LambdaFlexibleSearchQuery<T> pageQuery = query.copy().limit(pageSize);
+		final List<T> items = getList(pageQuery);
+		final ContinuationToken nextToken = items.isEmpty() || items.size() < pageSize ?
+						null :
+						createContinuationToken(pageQuery, items.get(items.size() - 1));
+		return new KeysetPage<>(items, nextToken);
+	}
+
+	private <T extends ItemModel> ContinuationToken createContinuationToken(final LambdaFlexibleSearchQuery<T> query,
+					final T lastItem) {
+		// null is not comparable in seek predicate, items after it would be lost
+		return findContinuationToken(query, lastItem).orElseThrow(() -> new IllegalStateException(
+						"Keyset pagination requires non null sort keys, got null for " + lastItem));
+	}
+
+	/**
+	 * @return token of given item or empty if any of its sort keys is null
+	 */
+	private <T extends ItemModel> Optional<ContinuationToken> findContinuationToken(
+					final LambdaFlexibleSearchQuery<T> query, final T item) {
+		final List<Object> keyValues = new ArrayList<>(query.getOrderBy().size());
+		for (final SerializableFunction<T, ?> key : query.getOrderBy()) {
+			final Object value = key.apply(item);
+			if (value == null) {
+				return Optional.empty();
+			}
+			keyValues.add(value instanceof ItemModel ? ((ItemModel) value).getPk() : value);
+		}
+		return Optional.of(new ContinuationToken(keyValues, item.getPk()));
+	}
+
+	@Override
+	public <T extends ItemModel> Stream<T> stream(final LambdaFlexibleSearchQuery<T> query) {
+		return limit(query, getPages(query, streamPageSize, false).flatMap(List::stream));
+	}
+
+	@Override
+	public <T extends ItemModel> void forEachPage(final LambdaFlexibleSearchQuery<T> query, final int pageSize,
+					final Consumer<List<T>> consumer) {
+		forEachPage(query, pageSize, false, consumer);
+	}
+
+	@Override
+	public <T extends ItemModel> void forEachPage(final LambdaFlexibleSearchQuery<T> query, final int pageSize,
+					final boolean detach, final Consumer<List<T>> consumer) {
+		final Iterator<List<T>> pages = getPages(query, pageSize, detach).iterator();
+		int remaining = query.getLimit() > 0 ? query.getLimit() : Integer.MAX_VALUE;
+		while (remaining > 0 && pages.hasNext()) {
+			final List<T> loaded = pages.next();
+			final List<T> page = loaded.size() > remaining ? loaded.subList(0, remaining) : loaded;
+			remaining -= page.size();
+			consumer.accept(page);
+			if (detach) {
+				loaded.forEach(modelService::detach);
+			}
+		}
+	}
+
+	private <T extends ItemModel> Stream<List<T>> getPages(final LambdaFlexibleSearchQuery<T> query, final int pageSize,
+					final boolean detach) {
+		final long start = System.nanoTime();
+		return getPages(query, lambdaFlexibleSearchTranslationService.translateForBatches(query), start, pageSize,
+						detach);
+	}
+
+	/**
+	 * PKs are fetched in keyset batches of page size ordered by sort keys and PK, so only pages which are actually
+	 * iterated are read from the database and a query with limit reads only batches needed to find limit of matching
+	 * items. Residual filters of hybrid query are applied on each loaded page, pages left empty are skipped. Included
+	 * relations are prefetched for each page.
+	 *
+	 * @param translatedQuery translated query ordered by PK (see
+	 * {@link LambdaFlexibleSearchTranslationService#translateForBatches}), query with residual filters always is
+	 * @param detach if true models rejected by residual filters are detached
+	 */
+	private <T extends ItemModel> Stream<List<T>> getPages(final LambdaFlexibleSearchQuery<T> query,
+					final TranslatedQuery<T> translatedQuery, final long translationStart, final int pageSize,
+					final boolean detach) {
+		final FlexibleSearchQuery translated = translatedQuery.getQuery();
+		final List<SerializablePredicate<T>> residualFilters = translatedQuery.getResidualFilters();
+		translated.setResultClassList(Collections.singletonList(PK.class));
+		// limit of query with residual filters counts matching items, not fetched ones
+		final Iterator<List<T>> pages = new KeysetBatchIterator<>(
+						(after, count) -> getBatch(query, translated, translationStart, after, count),
+						(offset, count) -> getOffsetBatch(query, translated, offset, count),
+						item -> findContinuationToken(query, item), pageSize,
+						residualFilters.isEmpty() ? query.getLimit() : 0, modelService);
+		final Stream<List<T>> result = StreamSupport.stream(
+						Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false);
+		final Stream<List<T>> filtered = residualFilters.isEmpty() ?
+						result :
+						result.map(page -> filterInMemory(page, residualFilters, detach)).filter(page -> !page.isEmpty());
+		return query.getIncludes().isEmpty() ? filtered : filtered.map(page -> prefetch(query, translated, page));
+	}
+
+	/**
+	 * The first batch is fetched by already translated query (placed after the token of the query, if any), next
+	 * batches by its copy placed after the last fetched item. Batched query is always ordered by PK (after its own sort
+	 * keys), so batches don't overlap.
+	 */
+	private <T extends ItemModel> List<PK> getBatch(final LambdaFlexibleSearchQuery<T> query,
+					final FlexibleSearchQuery firstBatch, final long translationStart, final ContinuationToken after,
+					final int batchSize) {
+		if (after == null) {
+			firstBatch.setCount(batchSize);
+			return execute(query, firstBatch, translationStart);
+		}
+		final long start = System.nanoTime();
+		final FlexibleSearchQuery batch = lambdaFlexibleSearchTranslationService.translate(query.copy().after(after));
+		batch.setResultClassList(Collections.singletonList(PK.class));
+		batch.setCount(batchSize);
+		return execute(query, batch, start);
+	}
+
+	/**
+	 * Batches after an item with null sort key can't be found by seek predicate, they are fetched by the first batch
+	 * query with offset of already fetched items
+	 */
+	private <T extends ItemModel> List<PK> getOffsetBatch(final LambdaFlexibleSearchQuery<T> query,
+					final FlexibleSearchQuery firstBatch, final int offset, final int batchSize) {
+		final long start = System.nanoTime();
+		firstBatch.setStart(offset);
+		firstBatch.setCount(batchSize);
+		return execute(query, firstBatch, start);
+	}
+
+	private <T extends ItemModel> List<T> filterInMemory(final List<T> page,
+					final List<SerializablePredicate<T>> residualFilters, final boolean detach) {
+		final List<T> result = new ArrayList<>(page.size());
+		for (final T item : page) {
+			if (residualFilters.stream().allMatch(filter -> filter.test(item))) {
+				result.add(item);
+			} else if (detach) {
+				modelService.detach(item);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Limit of query with residual filters is not part of flexible search, it has to be applied on the stream
+	 */
+	private <T extends ItemModel> Stream<T> limit(final LambdaFlexibleSearchQuery<T> query, final Stream<T> items) {
+		return query.getLimit() > 0 ? items.limit(query.getLimit()) : items;
+	}
+
 	@Required
 	public void setFlexibleSearchService(final FlexibleSearchService flexibleSearchService) {
 		this.flexibleSearchService = flexibleSearchService;
@@ -58,4 +389,58 @@ public class LambdaFlexibleSearchServiceImpl implements LambdaFlexibleSearchServ
 					final LambdaFlexibleSearchTranslationService lambdaFlexibleSearchTranslationService) {
 		this.lambdaFlexibleSearchTranslationService = lambdaFlexibleSearchTranslationService;
 	}
+
+	@Required
+	public void setModelService(final ModelService modelService) {
+		this.modelService = modelService;
+	}
+
+	@Required
+	public void setSessionContextPropagator(final SessionContextPropagator sessionContextPropagator) {
+		this.sessionContextPropagator = sessionContextPropagator;
+	}
+
+	/**
+	 * @param asyncExecutor executor of asynchronous queries
+	 */
+	@Required
+	public void setAsyncExecutor(final Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	/**
+	 * @param queryResultCache cache of results of cacheable queries, when not set cacheable queries are always executed
+	 */
+	public void setQueryResultCache(final QueryResultCache queryResultCache) {
+		this.queryResultCache = queryResultCache;
+	}
+
+	/**
+	 * @param queryMetrics metrics of executed queries, when not set execution is not measured
+	 */
+	public void setQueryMetrics(final LambdaQueryMetrics queryMetrics) {
+		this.queryMetrics = queryMetrics;
+	}
+
+	/**
+	 * @param slowQueryLog log of slow queries, when not set slow queries are not logged
+	 */
+	public void setSlowQueryLog(final SlowQueryLog slowQueryLog) {
+		this.slowQueryLog = slowQueryLog;
+	}
+
+	/**
+	 * @param streamPageSize number of models loaded at once by {@link #stream(LambdaFlexibleSearchQuery)}
+	 */
+	public void setStreamPageSize(final int streamPageSize) {
+		this.streamPageSize = streamPageSize;
+	}
+
+	/**
+	 * @param includeBatchSize maximal number of related items loaded by single query when included relations are
+	 * prefetched
+	 */
+	public void setIncludeBatchSize(final int includeBatchSize) {
+		this.includeBatchSize = includeBatchSize;
+	}
 }
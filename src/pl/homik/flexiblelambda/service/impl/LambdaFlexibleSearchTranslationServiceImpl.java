@@ -1,67 +1,791 @@
 package pl.homik.flexiblelambda.service.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import de.hybris.platform.core.PK;
 import de.hybris.platform.core.model.ItemModel;
 import de.hybris.platform.servicelayer.model.ModelService;
 import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
 
+import org.apache.commons.lang3.ClassUtils;
 import org.springframework.beans.factory.annotation.Required;
 
+import com.trigersoft.jaque.expression.ConstantExpression;
+import com.trigersoft.jaque.expression.Expression;
 import com.trigersoft.jaque.expression.LambdaExpression;
 
+import pl.homik.flexiblelambda.cache.ParameterBinding;
+import pl.homik.flexiblelambda.cache.TranslationPlan;
+import pl.homik.flexiblelambda.cache.TranslationPlanCache;
+import pl.homik.flexiblelambda.cache.TranslationPlanKey;
 import pl.homik.flexiblelambda.constants.FlexiblelambdaConstants;
+import pl.homik.flexiblelambda.function.SerializableFunction;
 import pl.homik.flexiblelambda.function.SerializablePredicate;
+import pl.homik.flexiblelambda.metrics.LambdaQueryMetrics;
+import pl.homik.flexiblelambda.metrics.QueryPhase;
+import pl.homik.flexiblelambda.metrics.QueryTimings;
+import pl.homik.flexiblelambda.pojo.AggregateFunction;
+import pl.homik.flexiblelambda.pojo.CollectionRelation;
+import pl.homik.flexiblelambda.pojo.ContinuationToken;
+import pl.homik.flexiblelambda.pojo.IncludeQuery;
 import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.pojo.LambdaProjectionQuery;
+import pl.homik.flexiblelambda.pojo.ParameterSource;
 import pl.homik.flexiblelambda.pojo.PredicateTranslationResult;
+import pl.homik.flexiblelambda.pojo.RelationMatch;
+import pl.homik.flexiblelambda.pojo.TranslatedQuery;
 import pl.homik.flexiblelambda.service.LambdaFlexibleSearchTranslationService;
+import pl.homik.flexiblelambda.tools.InListParameters;
 import pl.homik.flexiblelambda.tools.ParametersNameGenerator;
+import pl.homik.flexiblelambda.tools.PrecompiledLambdaRegistry;
+import pl.homik.flexiblelambda.tools.PrecompiledTranslation;
+import pl.homik.flexiblelambda.tools.RelationResolver;
+import pl.homik.flexiblelambda.visitor.CapturedArgumentsVisitor;
 import pl.homik.flexiblelambda.visitor.ToFlexibleSearchVisitor;
+import pl.homik.flexiblelambda.visitor.UnsupportedExpressionException;
 
 public class LambdaFlexibleSearchTranslationServiceImpl implements LambdaFlexibleSearchTranslationService {
 
+	private static final int DEFAULT_MAX_IN_LIST_SIZE = 1000;
+	private static final String LEFT_JOIN = "LEFT JOIN ";
+	private static final String INNER_JOIN = "JOIN ";
+	private static final String SEEK_PARAM_PREFIX = "seek";
+	private static final String SEEK_PK_PARAM = "seekPk";
+	private static final String PK_COLUMN = "{" + FlexiblelambdaConstants.FS_MAIN_ALIAS + ".PK}";
+	private static final String SUBQUERY_ALIAS = "sub";
+	private static final String LINK_ALIAS = "link";
+	private static final String INCLUDED_PKS_PARAM = "pks";
+	private static final String CONJUNCTION = " AND ";
+	private static final String JOIN_ALIAS = " as ";
+	private static final String LITERAL_PARAM = "literal";
+	private static final String CAPTURED_PARAM = "captured";
+	private static final Pattern PARAMETER = Pattern.compile("\\?([a-zA-Z0-9_]+)");
+
 	private ModelService modelService;
+	private RelationResolver relationResolver;
+	private TranslationPlanCache translationPlanCache;
+	private int maxInListSize = DEFAULT_MAX_IN_LIST_SIZE;
+	private LambdaQueryMetrics queryMetrics;
+	private PrecompiledLambdaRegistry precompiledLambdaRegistry;
 
 	@Override
 	public <T extends ItemModel> FlexibleSearchQuery translate(final LambdaFlexibleSearchQuery<T> query) {
+		return translate(query, Collections.emptyList(), Collections.emptyList(), false).getQuery();
+	}
 
-		final List<SerializablePredicate<T>> filters = query.getFilters();
+	@Override
+	public <T extends ItemModel> TranslatedQuery<T> translateWithDetails(final LambdaFlexibleSearchQuery<T> query) {
+		return translate(query, Collections.emptyList(), Collections.emptyList(), false);
+	}
+
+	@Override
+	public <T extends ItemModel> TranslatedQuery<T> translateForBatches(final LambdaFlexibleSearchQuery<T> query) {
+		return translate(query, Collections.emptyList(), Collections.emptyList(), true);
+	}
+
+	@Override
+	public <T extends ItemModel, R> FlexibleSearchQuery translate(final LambdaProjectionQuery<T, R> query) {
+		return translate(query.getQuery(), query.getColumns(), query.getAggregates(), false).getQuery();
+	}
+
+	@Override
+	public <T extends ItemModel> FlexibleSearchQuery translateCount(final LambdaFlexibleSearchQuery<T> query) {
+		final long start = System.nanoTime();
+		final QueryTimings timings = new QueryTimings();
+		final List<Object[]> capturedArgs = new ArrayList<>(query.getFilters().size());
+		final TranslationPlan plan = getPlan(query, Collections.emptyList(), Collections.emptyList(), false,
+						capturedArgs, timings);
+
+		final Map<String, Object> parameters = bindParameters(query, plan, capturedArgs);
+		final FlexibleSearchQuery result = new FlexibleSearchQuery(
+						InListParameters.expand("SELECT COUNT(" + PK_COLUMN + ") " + plan.getFromClause(), parameters,
+										maxInListSize), parameters);
+		result.setResultClassList(Collections.singletonList(Long.class));
+		recordTranslation(result, start, timings);
+		return result;
+	}
+
+	@Override
+	public <T extends ItemModel> Set<String> getQueriedTypes(final LambdaFlexibleSearchQuery<T> query) {
+		return getPlan(query, Collections.emptyList(), Collections.emptyList(), false,
+						new ArrayList<>(query.getFilters().size()), new QueryTimings()).getQueriedTypes();
+	}
+
+	@Override
+	public <T extends ItemModel> List<SerializablePredicate<T>> getResidualFilters(
+					final LambdaFlexibleSearchQuery<T> query) {
+		if (!query.isHybrid()) {
+			return Collections.emptyList();
+		}
+		return getResidualFilters(query, getPlan(query, Collections.emptyList(), Collections.emptyList(), false,
+						new ArrayList<>(query.getFilters().size()), new QueryTimings()));
+	}
+
+	private <T extends ItemModel> List<SerializablePredicate<T>> getResidualFilters(
+					final LambdaFlexibleSearchQuery<T> query, final TranslationPlan plan) {
+		if (plan.getResidualFilters().isEmpty()) {
+			return Collections.emptyList();
+		}
+		final List<SerializablePredicate<T>> result = new ArrayList<>(plan.getResidualFilters().size());
+		for (final Integer index : plan.getResidualFilters()) {
+			result.add(query.getFilters().get(index));
+		}
+		return result;
+	}
+
+	/**
+	 * Intermediate items of nested path are joined, so their columns are known from the joins, the last item is only
+	 * referenced by the last column
+	 */
+	@Override
+	public <T extends ItemModel> IncludeQuery translateInclude(final Class<T> itemClass,
+					final SerializableFunction<T, ?> path, final Collection<PK> pks) {
+		final ToFlexibleSearchVisitor visitor = new ToFlexibleSearchVisitor(new ParametersNameGenerator(), modelService,
+						false);
+		final PredicateTranslationResult result = LambdaExpression.parse(path).accept(visitor);
+		final String column = result.getWhere().toString().trim();
+		if (visitor.getColumnType() == null || !ItemModel.class.isAssignableFrom(visitor.getColumnType()) || !result
+						.getParameters().isEmpty()) {
+			throw new IllegalArgumentException("Include path has to be a getter of related item, got: " + column);
+		}
+		final List<String> columns = new ArrayList<>(result.getRelationColumns().keySet());
+		columns.add(column);
+		final List<String> types = new ArrayList<>(result.getRelationColumns().values());
+		types.add(modelService.getModelType(visitor.getColumnType()));
+
+		result.getWhere().setLength(0);
+		result.getWhere().append(PK_COLUMN).append(" IN (?").append(INCLUDED_PKS_PARAM).append(')');
+		final Map<String, Object> parameters = new HashMap<>();
+		parameters.put(INCLUDED_PKS_PARAM, pks);
+		final FlexibleSearchQuery query = new FlexibleSearchQuery(InListParameters.expand(
+						"SELECT " + String.join(", ", columns) + " " + createFromClause(result,
+										modelService.getModelType(itemClass)), parameters, maxInListSize), parameters);
+		query.setResultClassList(new ArrayList<>(Collections.nCopies(columns.size(), PK.class)));
+		return new IncludeQuery(query, types);
+	}
+
+	@Override
+	public <T extends ItemModel> String getQualifier(final Class<T> itemClass,
+					final SerializableFunction<T, ?> getter) {
+		return translateQualifier(getter, new QueryTimings()).orElseThrow(() -> new IllegalArgumentException(
+						"Getter has to read attribute of " + itemClass.getSimpleName()));
+	}
+
+	/**
+	 * @return qualifier of attribute read by given getter or empty if it reads attribute of related item
+	 */
+	private <T extends ItemModel> Optional<String> translateQualifier(final SerializableFunction<T, ?> getter,
+					final QueryTimings timings) {
+		final PredicateTranslationResult result = new PredicateTranslationResult();
+		final String column = translateColumn(getter, new ParametersNameGenerator(), result, null, timings);
+		final String prefix = "{" + FlexiblelambdaConstants.FS_MAIN_ALIAS + ".";
+		if (!result.getJoins().isEmpty() || !column.startsWith(prefix)) {
+			return Optional.empty();
+		}
+		return Optional.of(column.substring(prefix.length(), column.length() - 1));
+	}
+
+	/**
+	 * @param batched true if query is fetched in keyset batches, it is then ordered at least by PK
+	 */
+	private <T extends ItemModel> TranslatedQuery<T> translate(final LambdaFlexibleSearchQuery<T> query,
+					final List<SerializableFunction<T, ?>> columns, final List<AggregateFunction> aggregates,
+					final boolean batched) {
+
+		final long start = System.nanoTime();
+		final QueryTimings timings = new QueryTimings();
+		final List<Object[]> capturedArgs = new ArrayList<>(query.getFilters().size());
+		final TranslationPlan plan = getPlan(query, columns, aggregates, batched, capturedArgs, timings);
+
+		final Map<String, Object> parameters = bindParameters(query, plan, capturedArgs);
+		final FlexibleSearchQuery result = new FlexibleSearchQuery(
+						InListParameters.expand(plan.getQuery(), parameters, maxInListSize), parameters);
+		if (!plan.getResultClasses().isEmpty()) {
+			result.setResultClassList(new ArrayList<>(plan.getResultClasses()));
+		}
+		// with residual filters the limit is applied after in memory filtering
+		if (query.getLimit() > 0 && plan.getResidualFilters().isEmpty()) {
+			result.setCount(query.getLimit());
+		}
+		recordTranslation(result, start, timings);
+		return new TranslatedQuery<>(result, getResidualFilters(query, plan), plan.getQueriedTypes());
+	}
+
+	private void recordTranslation(final FlexibleSearchQuery result, final long start, final QueryTimings timings) {
+		if (queryMetrics != null) {
+			timings.add(QueryPhase.TRANSLATION, System.nanoTime() - start);
+			queryMetrics.record(result.getQuery(), timings);
+		}
+	}
+
+	private <T extends ItemModel> Map<String, Object> bindParameters(final LambdaFlexibleSearchQuery<T> query,
+					final TranslationPlan plan, final List<Object[]> capturedArgs) {
+		final Map<String, Object> parameters = plan.bind(capturedArgs);
+		final ContinuationToken after = query.getAfter();
+		if (after != null) {
+			// values of the seek predicate come from the token, not from lambdas
+			for (int i = 0; i < after.getKeyValues().size(); i++) {
+				parameters.put(SEEK_PARAM_PREFIX + i, after.getKeyValues().get(i));
+			}
+			parameters.put(SEEK_PK_PARAM, after.getPk());
+		}
+		return parameters;
+	}
+
+	/**
+	 * Returns cached plan of given query or creates it
+	 *
+	 * @param aggregates aggregate functions of columns, null for grouped column
+	 * @param batched true if query is fetched in keyset batches, it is then ordered at least by PK
+	 * @param capturedArgs list which will be filled with arguments captured by query filters
+	 * @param timings durations of translation phases
+	 */
+	private <T extends ItemModel> TranslationPlan getPlan(final LambdaFlexibleSearchQuery<T> query,
+					final List<SerializableFunction<T, ?>> columns, final List<AggregateFunction> aggregates,
+					final boolean batched, final List<Object[]> capturedArgs, final QueryTimings timings) {
+
+		// key is created even without cache, captured arguments have to be bound from lambdas because JaQue caches
+		// parsed expressions (with values captured by the first parsed instance) per lambda class
+		final Optional<TranslationPlanKey> key = TranslationPlanKey.of(query.getItemClass(), columns, aggregates,
+						query.getOrderBy(), query.getOrderDescending(), query.getAfter() != null, batched,
+						isHybrid(query, columns), query.getFilters(), capturedArgs);
+
+		TranslationPlan plan = key.isPresent() && translationPlanCache != null ?
+						translationPlanCache.get(key.get()) :
+						null;
+		if (plan == null) {
+			// without a key captured arguments are unknown so all parameters are bound as constants
+			try {
+				plan = createPlan(query, columns, aggregates, batched, key.isPresent() ? capturedArgs : null,
+								timings);
+			} catch (final RuntimeException e) {
+				if (queryMetrics != null) {
+					queryMetrics.recordTranslationFailure(e instanceof UnsupportedExpressionException ?
+									((UnsupportedExpressionException) e).getExpressionType() :
+									e.getClass().getSimpleName());
+				}
+				throw e;
+			}
+			if (key.isPresent() && translationPlanCache != null) {
+				translationPlanCache.put(key.get(), plan);
+			}
+		}
+		return plan;
+	}
+
+	private <T extends ItemModel> TranslationPlan createPlan(final LambdaFlexibleSearchQuery<T> query,
+					final List<SerializableFunction<T, ?>> columns, final List<AggregateFunction> aggregates,
+					final boolean batched, final List<Object[]> capturedArgs, final QueryTimings timings) {
 
 		final ParametersNameGenerator generator = new ParametersNameGenerator();
 		final PredicateTranslationResult allFiltersResult = new PredicateTranslationResult();
+		final Map<String, ParameterBinding> bindings = new HashMap<>();
+		final Map<String, Object> parameterIdentities = new HashMap<>();
 
-		for (final Predicate<T> filter : filters) {
+		final List<String> selectColumns = new ArrayList<>(columns.size());
+		final List<String> groupColumns = new ArrayList<>(columns.size());
+		final List<Class<?>> resultClasses = new ArrayList<>(columns.size());
+		for (int i = 0; i < columns.size(); i++) {
+			final String column = translateColumn(columns.get(i), generator, allFiltersResult, resultClasses, timings);
+			final AggregateFunction aggregate = aggregates.get(i);
+			if (aggregate == null) {
+				selectColumns.add(column);
+				groupColumns.add(column);
+			} else {
+				selectColumns.add(aggregate(aggregate, column, resultClasses));
+			}
+		}
+		final boolean grouped = groupColumns.size() < columns.size();
+		if (grouped && query.getAfter() != null) {
+			throw new IllegalArgumentException("Keyset pagination is not supported by aggregation queries");
+		}
+
+		final List<String> orderColumns = new ArrayList<>(query.getOrderBy().size());
+		for (final SerializableFunction<T, ?> key : query.getOrderBy()) {
+			orderColumns.add(translateColumn(key, generator, allFiltersResult, null, timings));
+		}
+
+		final List<Integer> residualFilters = new ArrayList<>();
+		final Set<List<Object>> addedConjuncts = new HashSet<>();
+		final List<SerializablePredicate<T>> filters = query.getFilters();
+		for (int i = 0; i < filters.size(); i++) {
 
-			final PredicateTranslationResult singleResult = LambdaExpression.parse(filter)
-							.accept(new ToFlexibleSearchVisitor(generator, modelService));
+			// relation match is translated from its predicate on related items, which is placed in a subquery
+			final RelationMatch<T, ?> match = filters.get(i) instanceof RelationMatch ?
+							(RelationMatch<T, ?>) filters.get(i) :
+							null;
+			final SerializablePredicate<?> predicate = match == null ? filters.get(i) : match.getPredicate();
+			// build-time result was computed with sample captured values, so only hybrid queries (which can
+			// evaluate the filter in memory anyway) rely on it, other queries are always parsed
+			if (isHybrid(query, columns) && precompiledLambdaRegistry != null && precompiledLambdaRegistry
+							.getFailure(predicate).isPresent()) {
+				residualFilters.add(i);
+				continue;
+			}
+			final Object[] filterCapturedArgs = capturedArgs == null ? null : capturedArgs.get(i);
+			final Optional<PrecompiledTranslation> precompiled = getPrecompiledTranslation(match, predicate,
+							filterCapturedArgs);
+			final PredicateTranslationResult singleResult;
+			final Map<Expression, Integer> capturedArguments;
+			if (precompiled.isPresent()) {
+				// filter translated at build time for the same shape of captured values, it is bound like parsed one
+				capturedArguments = new IdentityHashMap<>();
+				singleResult = precompiled.get().toResult(generator, filterCapturedArgs, capturedArguments);
+			} else {
+				final ToFlexibleSearchVisitor visitor = match == null ?
+								new ToFlexibleSearchVisitor(generator, modelService) :
+								new ToFlexibleSearchVisitor(generator, modelService, true, SUBQUERY_ALIAS + i);
+				visitor.setCapturedArgs(filterCapturedArgs);
+				LambdaExpression<?> lambda = null;
+				long traversalStart = 0;
+				try {
+					final long parseStart = System.nanoTime();
+					lambda = LambdaExpression.parse(predicate);
+					traversalStart = System.nanoTime();
+					timings.add(QueryPhase.PARSING, traversalStart - parseStart);
+					singleResult = lambda.accept(visitor);
+					if (match != null) {
+						toSubquery(query.getItemClass(), match, i, singleResult, timings);
+					}
+				} catch (final RuntimeException e) {
+					// JaQue fails with various exceptions on lambdas it cannot parse, e.g. calls of default methods
+					final boolean parsed = lambda != null;
+					if (!isHybrid(query, columns) || parsed && !(e instanceof UnsupportedOperationException)) {
+						throw e;
+					}
+					// whole filter is evaluated in memory, the remaining filters still narrow the query
+					if (parsed) {
+						addTraversal(timings, traversalStart, visitor);
+					}
+					residualFilters.add(i);
+					continue;
+				}
+				addTraversal(timings, traversalStart, visitor);
+				capturedArguments = CapturedArgumentsVisitor.getCapturedArguments(lambda, filterCapturedArgs);
+			}
 
 			allFiltersResult.getJoins().addAll(singleResult.getJoins());
+			allFiltersResult.getNullRejectedTables().addAll(singleResult.getNullRejectedTables());
+			allFiltersResult.getJoinedTypes().addAll(singleResult.getJoinedTypes());
+			final String filterWhere = removeAddedConjuncts(singleResult, capturedArguments, addedConjuncts);
 			allFiltersResult.getParameters().putAll(singleResult.getParameters());
 			final StringBuilder allWhere = allFiltersResult.getWhere();
-			final String filterWhere = singleResult.getWhere().toString().trim();
 			if (!filterWhere.isEmpty()) {
 				if (allWhere.length() > 0) {
-					allWhere.append(" AND ");
+					allWhere.append(CONJUNCTION);
 				}
 				allWhere.append('(').append(filterWhere).append(')');
 			}
+
+			bindings.putAll(createBindings(i, capturedArguments, filterCapturedArgs, singleResult,
+							parameterIdentities));
 		}
+		canonicalizeParameters(allFiltersResult.getWhere(), bindings, parameterIdentities);
 
-		final FlexibleSearchQuery result = createQuery(allFiltersResult, query.getItemClass());
-		if (query.getLimit() > 0) {
-			result.setCount(query.getLimit());
+		if (query.getAfter() != null) {
+			appendSeekPredicate(allFiltersResult.getWhere(), orderColumns, query.getOrderDescending(),
+							query.getAfter());
+		}
+
+		final long typeLookupStart = System.nanoTime();
+		final String typeCode = modelService.getModelType(query.getItemClass());
+		timings.add(QueryPhase.TYPE_LOOKUP, System.nanoTime() - typeLookupStart);
+		final Set<String> queriedTypes = new LinkedHashSet<>();
+		queriedTypes.add(typeCode);
+		queriedTypes.addAll(allFiltersResult.getJoinedTypes());
+
+		final String select = selectColumns.isEmpty() ? PK_COLUMN : String.join(", ", selectColumns);
+		final String groupByClause = grouped && !groupColumns.isEmpty() ?
+						" GROUP BY " + String.join(", ", groupColumns) :
+						"";
+		// query with residual filters is executed in keyset batches, so it is ordered like a paginated one
+		final boolean paged = batched || query.getAfter() != null || !residualFilters.isEmpty();
+		return new TranslationPlan(select, createFromClause(allFiltersResult, typeCode), groupByClause,
+						createOrderByClause(orderColumns, query.getOrderDescending(), paged, grouped),
+						allFiltersResult.getJoins(), bindings, resultClasses, queriedTypes, residualFilters);
+	}
+
+	/**
+	 * @param match relation match of the filter or null, relation matches are always parsed
+	 * @param capturedArgs values captured by the filter or null when they are unknown
+	 * @return translation of the filter created at build time if it is valid for the captured values
+	 */
+	private Optional<PrecompiledTranslation> getPrecompiledTranslation(final RelationMatch<?, ?> match,
+					final SerializablePredicate<?> predicate, final Object[] capturedArgs) {
+		if (match != null || capturedArgs == null || precompiledLambdaRegistry == null) {
+			return Optional.empty();
+		}
+		return precompiledLambdaRegistry.getTranslation(predicate).filter(translation -> translation
+						.matches(capturedArgs));
+	}
+
+	/**
+	 * Removes conditions (top level AND operands) of translated filter which were already added by previous filters,
+	 * together with their parameters. Conditions with parameters bound from captured values are always kept, because
+	 * their values can differ for the next query using the same plan.
+	 *
+	 * @param addedConjuncts keys of conditions added by previous filters, conditions of this filter are added
+	 * @return where clause of the filter
+	 */
+	private String removeAddedConjuncts(final PredicateTranslationResult filterResult,
+					final Map<Expression, Integer> capturedArguments, final Set<List<Object>> addedConjuncts) {
+		final List<String> conjuncts = new ArrayList<>();
+		for (final String conjunct : splitConjuncts(filterResult.getWhere().toString().trim())) {
+			final Matcher matcher = PARAMETER.matcher(conjunct);
+			final List<Object> key = new ArrayList<>();
+			key.add(matcher.replaceAll("?"));
+			matcher.reset();
+			boolean literal = true;
+			while (matcher.find()) {
+				final ParameterSource source = filterResult.getParameterSources().get(matcher.group(1));
+				literal &= source == null || source.getExpression() == null || (source
+								.getExpression() instanceof ConstantExpression && !capturedArguments
+								.containsKey(source.getExpression()));
+				key.add(filterResult.getParameters().get(matcher.group(1)));
+			}
+			if (!literal || addedConjuncts.add(key)) {
+				conjuncts.add(conjunct);
+				continue;
+			}
+			matcher.reset();
+			while (matcher.find()) {
+				filterResult.getParameters().remove(matcher.group(1));
+				filterResult.getParameterSources().remove(matcher.group(1));
+			}
+		}
+		return String.join(CONJUNCTION, conjuncts);
+	}
+
+	/**
+	 * Splits where clause by ANDs which are not nested in parentheses
+	 */
+	private List<String> splitConjuncts(final String where) {
+		final List<String> result = new ArrayList<>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < where.length(); i++) {
+			final char c = where.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (depth == 0 && where.startsWith(CONJUNCTION, i)) {
+				result.add(where.substring(start, i));
+				start = i + CONJUNCTION.length();
+			}
+		}
+		if (start < where.length()) {
+			result.add(where.substring(start));
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces translated predicate on related items with correlated subquery, e.g. for one to many relation:
+	 * EXISTS ({{SELECT {sub0.PK} FROM {OrderEntry AS sub0} WHERE {sub0.order} = {this.PK} AND (predicate)}}), many to
+	 * many relations are joined through their link table. Joins of the predicate are moved to the subquery.
+	 *
+	 * @param index index of the filter, it makes aliases of the subquery unique
+	 */
+	private <T extends ItemModel> void toSubquery(final Class<T> itemClass, final RelationMatch<T, ?> match,
+					final int index, final PredicateTranslationResult predicateResult, final QueryTimings timings) {
+		final String qualifier = translateQualifier(match.getRelation(), timings).orElseThrow(
+						() -> new UnsupportedExpressionException("Relation", "Only collection attributes of "
+										+ itemClass.getSimpleName() + " can be matched"));
+		final long typeLookupStart = System.nanoTime();
+		final CollectionRelation relation = relationResolver.resolve(modelService.getModelType(itemClass), qualifier);
+		timings.add(QueryPhase.TYPE_LOOKUP, System.nanoTime() - typeLookupStart);
+
+		final String alias = SUBQUERY_ALIAS + index;
+		final StringBuilder subquery = new StringBuilder("{{SELECT {").append(alias).append(".PK} FROM {");
+		final String correlation;
+		if (relation.isManyToMany()) {
+			final String link = LINK_ALIAS + index;
+			subquery.append(relation.getLinkType()).append(" AS ").append(link).append(" JOIN ")
+							.append(relation.getElementType()).append(" AS ").append(alias).append(" ON {").append(link)
+							.append('.').append(relation.getElementEnd()).append("} = {").append(alias).append(".PK}");
+			correlation = "{" + link + "." + relation.getOwnerEnd() + "} = " + PK_COLUMN;
+			predicateResult.getJoinedTypes().add(relation.getLinkType());
+		} else {
+			subquery.append(relation.getElementType()).append(" AS ").append(alias);
+			correlation = "{" + alias + "." + relation.getBackReference() + "} = " + PK_COLUMN;
+		}
+		for (final String join : sortJoins(predicateResult.getJoins())) {
+			subquery.append(' ').append(toInnerJoinIfNullRejected(join, predicateResult.getNullRejectedTables()));
+		}
+		subquery.append("} WHERE ").append(correlation);
+		final String predicate = predicateResult.getWhere().toString().trim();
+		if (!predicate.isEmpty()) {
+			subquery.append(" AND ").append(match.getQuantifier() == RelationMatch.Quantifier.ALL ? "NOT(" : "(")
+							.append(predicate).append(')');
+		}
+		subquery.append("}}");
+		predicateResult.getJoinedTypes().add(relation.getElementType());
+
+		final StringBuilder where = predicateResult.getWhere();
+		where.setLength(0);
+		where.append(match.getQuantifier() == RelationMatch.Quantifier.ANY ? "EXISTS (" : "NOT EXISTS (")
+						.append(subquery).append(')');
+		predicateResult.getJoins().clear();
+		predicateResult.getNullRejectedTables().clear();
+	}
+
+	/**
+	 * Wraps column in aggregate function and replaces result class of the column with result class of the function.
+	 * Average is computed on decimal values, because some databases return integer average of integer columns.
+	 */
+	private String aggregate(final AggregateFunction aggregate, final String column,
+					final List<Class<?>> resultClasses) {
+		final int last = resultClasses.size() - 1;
+		switch (aggregate) {
+		case COUNT:
+			resultClasses.set(last, Long.class);
+			return "COUNT(" + column + ")";
+		case AVG:
+			resultClasses.set(last, Double.class);
+			return "AVG(" + column + " * 1.0)";
+		case SUM:
+			resultClasses.set(last, getSumClass(resultClasses.get(last)));
+			return "SUM(" + column + ")";
+		default:
+			return aggregate.name() + "(" + column + ")";
+		}
+	}
+
+	/**
+	 * Sum may not fit in the type of summed attribute, so integral sums are returned as Long and floating point sums as
+	 * Double (like the database computes them), BigDecimal sums keep their type
+	 */
+	private static Class<?> getSumClass(final Class<?> attributeClass) {
+		final Class<?> type = ClassUtils.primitiveToWrapper(attributeClass);
+		if (type == Byte.class || type == Short.class || type == Integer.class || type == Long.class) {
+			return Long.class;
+		}
+		if (type == Float.class || type == Double.class) {
+			return Double.class;
+		}
+		return type;
+	}
+
+	/**
+	 * Filters of projection queries can't be evaluated in memory, because models are not loaded
+	 */
+	private boolean isHybrid(final LambdaFlexibleSearchQuery<?> query, final List<?> columns) {
+		return query.isHybrid() && columns.isEmpty();
+	}
+
+	/**
+	 * Time spent by the visitor in type lookups is measured separately
+	 */
+	private void addTraversal(final QueryTimings timings, final long traversalStart,
+					final ToFlexibleSearchVisitor visitor) {
+		timings.add(QueryPhase.TRAVERSAL, System.nanoTime() - traversalStart - visitor.getTypeLookupNanos());
+		timings.add(QueryPhase.TYPE_LOOKUP, visitor.getTypeLookupNanos());
+	}
+
+	/**
+	 * Appends predicate selecting items placed after the token in (sort keys, PK) order, e.g. for single key:
+	 * ({key} > ?seek0 OR ({key} = ?seek0 AND {this.PK} > ?seekPk)), descending keys are compared with &lt;
+	 */
+	private void appendSeekPredicate(final StringBuilder where, final List<String> orderColumns,
+					final List<Boolean> orderDescending, final ContinuationToken after) {
+		if (after.getKeyValues().size() != orderColumns.size()) {
+			throw new IllegalArgumentException("Continuation token has " + after.getKeyValues().size()
+							+ " sort key values but query is ordered by " + orderColumns.size() + " keys");
+		}
+		final List<String> columns = new ArrayList<>(orderColumns);
+		columns.add(PK_COLUMN);
+		final List<String> params = new ArrayList<>(columns.size());
+		for (int i = 0; i < orderColumns.size(); i++) {
+			params.add(SEEK_PARAM_PREFIX + i);
+		}
+		params.add(SEEK_PK_PARAM);
+
+		final List<String> alternatives = new ArrayList<>(columns.size());
+		for (int i = 0; i < columns.size(); i++) {
+			final List<String> conditions = new ArrayList<>(i + 1);
+			for (int j = 0; j < i; j++) {
+				conditions.add(columns.get(j) + " = ?" + params.get(j));
+			}
+			final boolean descending = i < orderColumns.size() && orderDescending.get(i);
+			conditions.add(columns.get(i) + (descending ? " < ?" : " > ?") + params.get(i));
+			final String alternative = String.join(" AND ", conditions);
+			alternatives.add(conditions.size() > 1 ? "(" + alternative + ")" : alternative);
+		}
+
+		if (where.length() > 0) {
+			where.append(" AND ");
+		}
+		where.append('(').append(String.join(" OR ", alternatives)).append(')');
+	}
+
+	/**
+	 * PK is added as the last (ascending) sort key so order of items with equal keys is stable between pages, grouped
+	 * rows have no PK so they are ordered only by given keys
+	 *
+	 * @param paged true if query is fetched page by page, it is then ordered at least by PK
+	 */
+	private String createOrderByClause(final List<String> orderColumns, final List<Boolean> orderDescending,
+					final boolean paged, final boolean grouped) {
+		if (orderColumns.isEmpty() && !paged) {
+			return "";
+		}
+		final List<String> columns = new ArrayList<>(orderColumns.size() + 1);
+		for (int i = 0; i < orderColumns.size(); i++) {
+			columns.add(orderDescending.get(i) ? orderColumns.get(i) + " DESC" : orderColumns.get(i));
+		}
+		if (!grouped) {
+			columns.add(PK_COLUMN);
+		}
+		return " ORDER BY " + String.join(", ", columns);
+	}
+
+	/**
+	 * Translates getter lambda to a column expression
+	 *
+	 * @param resultClasses list to which result class of the column is added, null if it is not selected
+	 */
+	private <T extends ItemModel> String translateColumn(final SerializableFunction<T, ?> column,
+					final ParametersNameGenerator generator, final PredicateTranslationResult allFiltersResult,
+					final List<Class<?>> resultClasses, final QueryTimings timings) {
+		final long parseStart = System.nanoTime();
+		final LambdaExpression<?> lambda = LambdaExpression.parse(column);
+		final long traversalStart = System.nanoTime();
+		timings.add(QueryPhase.PARSING, traversalStart - parseStart);
+		final ToFlexibleSearchVisitor visitor = new ToFlexibleSearchVisitor(generator, modelService, false);
+		final PredicateTranslationResult columnResult = lambda.accept(visitor);
+		addTraversal(timings, traversalStart, visitor);
+		final String columnExpression = columnResult.getWhere().toString().trim();
+		if (visitor.getColumnType() == null || !columnResult.getParameters().isEmpty() || !columnExpression
+						.startsWith("{") || columnExpression.indexOf('}') != columnExpression.length() - 1) {
+			throw new UnsupportedExpressionException("Select",
+							"Only attribute getters can be selected, got: " + columnExpression);
+		}
+		allFiltersResult.getJoins().addAll(columnResult.getJoins());
+		allFiltersResult.getJoinedTypes().addAll(columnResult.getJoinedTypes());
+		if (resultClasses != null) {
+			resultClasses.add(toResultClass(visitor.getColumnType()));
+		}
+		return columnExpression;
+	}
+
+	/**
+	 * Items are selected as PKs, primitives as their wrappers
+	 */
+	private Class<?> toResultClass(final Class<?> columnType) {
+		if (ItemModel.class.isAssignableFrom(columnType)) {
+			return PK.class;
+		}
+		return ClassUtils.primitiveToWrapper(columnType);
+	}
+
+	/**
+	 * @param identities map which will be filled with identities of parameters which always have equal values (see
+	 * {@link #canonicalizeParameters(StringBuilder, Map, Map)})
+	 */
+	private Map<String, ParameterBinding> createBindings(final int filterIndex,
+					final Map<Expression, Integer> capturedArguments, final Object[] capturedArgs,
+					final PredicateTranslationResult singleResult, final Map<String, Object> identities) {
+		final Map<String, ParameterBinding> result = new HashMap<>();
+		for (final Map.Entry<String, ParameterSource> entry : singleResult.getParameterSources().entrySet()) {
+			final String paramName = entry.getKey();
+			final ParameterSource source = entry.getValue();
+			final Expression expression = source.getExpression();
+			final Object value = singleResult.getParameters().get(paramName);
+
+			final ParameterBinding binding;
+			final Integer argIndex = expression instanceof ConstantExpression && capturedArgs != null ?
+							capturedArguments.get(expression) :
+							null;
+			if (expression == null || capturedArgs == null || (expression instanceof ConstantExpression
+							&& argIndex == null)) {
+				binding = ParameterBinding.constant(value);
+				// collections are expanded to IN lists per parameter occurrence, so they are never shared
+				if (!(value instanceof Collection)) {
+					identities.put(paramName, Arrays.asList(LITERAL_PARAM, value));
+				}
+			} else if (argIndex != null) {
+				binding = ParameterBinding.capturedArgument(filterIndex, argIndex, source.getModifier());
+				if (source.getModifier() == UnaryOperator.identity() && !(((ConstantExpression) expression)
+								.getValue() instanceof Collection)) {
+					identities.put(paramName, Arrays.asList(CAPTURED_PARAM, filterIndex, argIndex));
+				}
+			} else {
+				// value computed from an expression - it has to be evaluated again for every query
+				binding = ParameterBinding.expression(filterIndex,
+								CapturedArgumentsVisitor.toTemplate(expression, capturedArguments),
+								source.getModifier());
+			}
+			result.put(paramName, binding);
 		}
 		return result;
 	}
 
-	private FlexibleSearchQuery createQuery(final PredicateTranslationResult allFiltersResult,
-					final Class<?> itemClass) {
-		final String typeCode = modelService.getModelType(itemClass);
-		final StringBuilder query = new StringBuilder("SELECT {").append(FlexiblelambdaConstants.FS_MAIN_ALIAS)
-						.append(".PK} from {").append(typeCode).append(" AS ")
+	/**
+	 * Renames parameters in order of their first occurrence and merges parameters which always have equal values (the
+	 * same literal or the same captured argument of a filter), so queries of the same shape always have the same text
+	 *
+	 * @param where where clause, parameters are renamed in place
+	 * @param bindings bindings of parameters, replaced with bindings of renamed parameters
+	 * @param identities identities of parameters which can be merged
+	 */
+	private void canonicalizeParameters(final StringBuilder where, final Map<String, ParameterBinding> bindings,
+					final Map<String, Object> identities) {
+		final ParametersNameGenerator generator = new ParametersNameGenerator();
+		final Map<String, String> names = new HashMap<>();
+		final Map<Object, String> namesByIdentity = new HashMap<>();
+		final Map<String, ParameterBinding> canonicalBindings = new HashMap<>();
+		final StringBuffer result = new StringBuffer(where.length());
+		final Matcher matcher = PARAMETER.matcher(where);
+		while (matcher.find()) {
+			final String name = matcher.group(1);
+			String canonicalName = names.get(name);
+			if (canonicalName == null && bindings.containsKey(name)) {
+				final Object identity = identities.get(name);
+				canonicalName = identity == null ? null : namesByIdentity.get(identity);
+				if (canonicalName == null) {
+					canonicalName = generator.next();
+					canonicalBindings.put(canonicalName, bindings.get(name));
+					if (identity != null) {
+						namesByIdentity.put(identity, canonicalName);
+					}
+				}
+				names.put(name, canonicalName);
+			}
+			if (canonicalName != null) {
+				matcher.appendReplacement(result, "?" + canonicalName);
+			}
+		}
+		matcher.appendTail(result);
+		where.setLength(0);
+		where.append(result);
+		bindings.clear();
+		bindings.putAll(canonicalBindings);
+	}
+
+	private String createFromClause(final PredicateTranslationResult allFiltersResult, final String typeCode) {
+		final StringBuilder query = new StringBuilder("from {").append(typeCode).append(" AS ")
 						.append(FlexiblelambdaConstants.FS_MAIN_ALIAS);
-		final String joins = String.join(" ", allFiltersResult.getJoins());
+		final List<String> joinList = new ArrayList<>(allFiltersResult.getJoins().size());
+		for (final String join : sortJoins(allFiltersResult.getJoins())) {
+			joinList.add(toInnerJoinIfNullRejected(join, allFiltersResult.getNullRejectedTables()));
+		}
+		final String joins = String.join(" ", joinList);
 		if (!joins.isEmpty()) {
 			query.append(" ").append(joins);
 		}
@@ -73,12 +797,72 @@ public class LambdaFlexibleSearchTranslationServiceImpl implements LambdaFlexibl
 			query.append(" WHERE ").append(where);
 		}
 
-		return new FlexibleSearchQuery(query.toString(), allFiltersResult.getParameters());
+		return query.toString();
+
+	}
+
+	/**
+	 * Joins are ordered by alias, so they don't depend on order of filters. Alias of joined relation starts with alias
+	 * of its parent, so the parent is always joined first.
+	 */
+	private List<String> sortJoins(final Collection<String> joins) {
+		final List<String> result = new ArrayList<>(joins);
+		result.sort(Comparator.comparing(join -> join.substring(join.indexOf(JOIN_ALIAS) + JOIN_ALIAS.length())));
+		return result;
+	}
 
+	/**
+	 * Filters are joined with AND, so if any of them rejects missing rows of joined table, LEFT JOIN gives the same
+	 * result as INNER JOIN, which gives database optimizer more freedom
+	 */
+	private String toInnerJoinIfNullRejected(final String join, final Set<String> nullRejectedTables) {
+		if (join.startsWith(LEFT_JOIN)) {
+			for (final String table : nullRejectedTables) {
+				if (join.contains(" as " + table + " on ")) {
+					return INNER_JOIN + join.substring(LEFT_JOIN.length());
+				}
+			}
+		}
+		return join;
 	}
 
 	@Required
 	public void setModelService(final ModelService modelService) {
 		this.modelService = modelService;
 	}
+
+	@Required
+	public void setRelationResolver(final RelationResolver relationResolver) {
+		this.relationResolver = relationResolver;
+	}
+
+	/**
+	 * @param translationPlanCache cache of translated queries, when not set every query is translated from scratch
+	 */
+	public void setTranslationPlanCache(final TranslationPlanCache translationPlanCache) {
+		this.translationPlanCache = translationPlanCache;
+	}
+
+	/**
+	 * @param queryMetrics metrics of translated queries, when not set translation is not measured
+	 */
+	public void setQueryMetrics(final LambdaQueryMetrics queryMetrics) {
+		this.queryMetrics = queryMetrics;
+	}
+
+	/**
+	 * @param precompiledLambdaRegistry results of build-time translation, when not set every filter is parsed (even if
+	 * it was translated at build time or it is known to be untranslatable)
+	 */
+	public void setPrecompiledLambdaRegistry(final PrecompiledLambdaRegistry precompiledLambdaRegistry) {
+		this.precompiledLambdaRegistry = precompiledLambdaRegistry;
+	}
+
+	/**
+	 * @param maxInListSize maximal number of values in single IN list generated from collection.contains (larger
+	 * collections are split)
+	 */
+	public void setMaxInListSize(final int maxInListSize) {
+		this.maxInListSize = maxInListSize;
+	}
 }
@@ -0,0 +1,258 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.hybris.platform.core.PK;
+import de.hybris.platform.core.model.ItemModel;
+import de.hybris.platform.servicelayer.exceptions.AmbiguousIdentifierException;
+import de.hybris.platform.servicelayer.exceptions.UnknownIdentifierException;
+import de.hybris.platform.servicelayer.model.ModelService;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+import de.hybris.platform.servicelayer.search.FlexibleSearchService;
+
+import pl.homik.flexiblelambda.constants.FlexiblelambdaConstants;
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.pojo.TranslatedQuery;
+import pl.homik.flexiblelambda.service.LambdaFlexibleSearchTranslationService;
+import pl.homik.flexiblelambda.service.LambdaLookupBatch;
+
+/**
+ * Batch created by {@link LambdaBatchLookupServiceImpl}.
+ *
+ * Registered queries are translated immediately and grouped by generated flexible search on dispatch. If queries of a
+ * group differ only in value of one parameter used in top level equality ({column} = ?param, without OR, NOT and
+ * subqueries in the query) they are executed as single query with {column} IN (?param) which also selects the column,
+ * so results can be assigned back to their queries. Text keys are not combined, because database collation can match
+ * values which are not equal in Java. Other queries are executed one by one, so are hybrid queries with residual
+ * filters, which are applied before the limit.
+ */
+class LambdaLookupBatchImpl implements LambdaLookupBatch {
+
+	private static final String MODEL_SELECT = "SELECT {" + FlexiblelambdaConstants.FS_MAIN_ALIAS + ".PK} from ";
+
+	private final LambdaFlexibleSearchTranslationService translationService;
+	private final FlexibleSearchService flexibleSearchService;
+	private final ModelService modelService;
+	private final int maxBatchSize;
+	private final List<Lookup<?>> pending = new ArrayList<>();
+
+	LambdaLookupBatchImpl(final LambdaFlexibleSearchTranslationService translationService,
+					final FlexibleSearchService flexibleSearchService, final ModelService modelService,
+					final int maxBatchSize) {
+		this.translationService = translationService;
+		this.flexibleSearchService = flexibleSearchService;
+		this.modelService = modelService;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	@Override
+	public <T extends ItemModel> CompletableFuture<List<T>> getList(final LambdaFlexibleSearchQuery<T> query) {
+		return register(query, query.getLimit());
+	}
+
+	@Override
+	public <T extends ItemModel> CompletableFuture<Optional<T>> getFirst(final LambdaFlexibleSearchQuery<T> query) {
+		return register(query, 1).thenApply(list -> list.stream().findFirst());
+	}
+
+	@Override
+	public <T extends ItemModel> CompletableFuture<T> getSingleResult(final LambdaFlexibleSearchQuery<T> query) {
+		return register(query, 2).thenApply(list -> {
+			if (list.isEmpty()) {
+				throw new UnknownIdentifierException("Cannot find item");
+			}
+			if (list.size() > 1) {
+				throw new AmbiguousIdentifierException("Found more than 1 result");
+			}
+			return list.get(0);
+		});
+	}
+
+	/**
+	 * Limit is kept by the lookup, so the caller's query is not modified
+	 */
+	private <T extends ItemModel> CompletableFuture<List<T>> register(final LambdaFlexibleSearchQuery<T> query,
+					final int limit) {
+		final TranslatedQuery<T> translated = translationService.translateWithDetails(query);
+		if (limit > 0 && translated.getResidualFilters().isEmpty()) {
+			translated.getQuery().setCount(limit);
+		}
+		final Lookup<T> lookup = new Lookup<>(translated.getQuery(), limit, translated.getResidualFilters());
+		pending.add(lookup);
+		return lookup.future;
+	}
+
+	@Override
+	public void dispatch() {
+		final Map<String, List<Lookup<?>>> groups = new LinkedHashMap<>();
+		for (final Lookup<?> lookup : pending) {
+			groups.computeIfAbsent(lookup.query.getQuery(), q -> new ArrayList<>()).add(lookup);
+		}
+		pending.clear();
+
+		for (final List<Lookup<?>> group : groups.values()) {
+			try {
+				execute(group);
+			} catch (final RuntimeException e) {
+				group.forEach(lookup -> lookup.future.completeExceptionally(e));
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		dispatch();
+	}
+
+	private void execute(final List<Lookup<?>> group) {
+		if (group.size() > 1 && group.get(0).residualFilters.isEmpty()) {
+			final Set<String> differentParams = getDifferentParameters(group);
+			if (differentParams.isEmpty()) {
+				executeOnce(group);
+				return;
+			}
+			if (differentParams.size() == 1 && tryExecuteAsIn(group, differentParams.iterator().next())) {
+				return;
+			}
+		}
+		for (final Lookup<?> lookup : group) {
+			lookup.complete(flexibleSearchService.<ItemModel>search(lookup.query).getResult());
+		}
+	}
+
+	private Set<String> getDifferentParameters(final List<Lookup<?>> group) {
+		final Set<String> result = new LinkedHashSet<>();
+		final Map<String, Object> first = group.get(0).query.getQueryParameters();
+		for (final Lookup<?> lookup : group) {
+			final Map<String, Object> params = lookup.query.getQueryParameters();
+			for (final Map.Entry<String, Object> param : params.entrySet()) {
+				if (!Objects.equals(param.getValue(), first.get(param.getKey()))) {
+					result.add(param.getKey());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Identical queries (possibly with different limits) are executed once
+	 */
+	private void executeOnce(final List<Lookup<?>> group) {
+		final FlexibleSearchQuery query = group.get(0).query;
+		final boolean unlimited = group.stream().anyMatch(lookup -> lookup.limit <= 0);
+		query.setCount(unlimited ? -1 : group.stream().mapToInt(lookup -> lookup.limit).max().getAsInt());
+		final List<ItemModel> result = flexibleSearchService.<ItemModel>search(query).getResult();
+		group.forEach(lookup -> lookup.complete(result));
+	}
+
+	private boolean tryExecuteAsIn(final List<Lookup<?>> group, final String keyParam) {
+		final String queryText = group.get(0).query.getQuery();
+		if (!queryText.startsWith(MODEL_SELECT) || queryText.contains(" OR ") || queryText.contains("NOT(") || queryText
+						.contains("{{")) {
+			return false;
+		}
+		final Pattern paramPattern = Pattern.compile("\\?" + Pattern.quote(keyParam) + "(?![a-zA-Z0-9])");
+		final Matcher paramMatcher = paramPattern.matcher(queryText);
+		int occurrences = 0;
+		while (paramMatcher.find()) {
+			occurrences++;
+		}
+		final Matcher equality = Pattern.compile("(\\{[^{}]+\\}) = " + paramPattern.pattern()).matcher(queryText);
+		if (occurrences != 1 || !equality.find()) {
+			return false;
+		}
+
+		final Map<Object, List<Lookup<?>>> lookupsByKey = new LinkedHashMap<>();
+		Class<?> keyClass = null;
+		for (final Lookup<?> lookup : group) {
+			final Object key = toKey(lookup.query.getQueryParameters().get(keyParam));
+			if (key == null || (keyClass != null && !keyClass.equals(key.getClass()))) {
+				return false;
+			}
+			keyClass = key.getClass();
+			// database can compare texts differently than equals (case insensitive or trailing spaces ignoring
+			// collations), so rows could not be assigned back to their lookups
+			if (key instanceof CharSequence || key instanceof Character) {
+				return false;
+			}
+			lookupsByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(lookup);
+		}
+
+		final String column = equality.group(1);
+		final String batchQueryText = MODEL_SELECT.replace("PK} from ", "PK}, " + column + " from ") + queryText
+						.substring(MODEL_SELECT.length(), equality.start()) + column + " IN (?" + keyParam + ")" + queryText
+						.substring(equality.end());
+
+		final List<Object> keys = new ArrayList<>(lookupsByKey.keySet());
+		final Map<Object, List<PK>> pksByKey = new HashMap<>();
+		for (int from = 0; from < keys.size(); from += maxBatchSize) {
+			final Map<String, Object> params = new HashMap<>(group.get(0).query.getQueryParameters());
+			params.put(keyParam, keys.subList(from, Math.min(from + maxBatchSize, keys.size())));
+			final FlexibleSearchQuery batchQuery = new FlexibleSearchQuery(batchQueryText, params);
+			batchQuery.setResultClassList(Arrays.asList(PK.class, keyClass));
+			for (final List<Object> row : flexibleSearchService.<List<Object>>search(batchQuery).getResult()) {
+				pksByKey.computeIfAbsent(row.get(1), k -> new ArrayList<>()).add((PK) row.get(0));
+			}
+		}
+
+		for (final Map.Entry<Object, List<Lookup<?>>> entry : lookupsByKey.entrySet()) {
+			final List<PK> pks = pksByKey.getOrDefault(entry.getKey(), Collections.emptyList());
+			for (final Lookup<?> lookup : entry.getValue()) {
+				final List<PK> limited = lookup.limit > 0 && pks.size() > lookup.limit ? pks.subList(0, lookup.limit) : pks;
+				final List<ItemModel> models = new ArrayList<>(limited.size());
+				for (final PK pk : limited) {
+					models.add(modelService.get(pk));
+				}
+				lookup.complete(models);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Items are selected as PKs so keys are compared by PK
+	 */
+	private Object toKey(final Object paramValue) {
+		return paramValue instanceof ItemModel ? ((ItemModel) paramValue).getPk() : paramValue;
+	}
+
+	private static final class Lookup<T extends ItemModel> {
+
+		private final FlexibleSearchQuery query;
+		private final int limit;
+		private final List<SerializablePredicate<T>> residualFilters;
+		private final CompletableFuture<List<T>> future = new CompletableFuture<>();
+
+		private Lookup(final FlexibleSearchQuery query, final int limit,
+						final List<SerializablePredicate<T>> residualFilters) {
+			this.query = query;
+			this.limit = limit;
+			this.residualFilters = residualFilters;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void complete(final List<? extends ItemModel> result) {
+			final List<T> matching = new ArrayList<>(result.size());
+			for (final ItemModel item : result) {
+				if (residualFilters.stream().allMatch(filter -> filter.test((T) item))) {
+					matching.add((T) item);
+				}
+			}
+			future.complete(limit > 0 && matching.size() > limit ? new ArrayList<>(matching.subList(0, limit)) : matching);
+		}
+	}
+}
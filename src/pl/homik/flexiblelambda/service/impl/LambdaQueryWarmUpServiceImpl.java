@@ -0,0 +1,130 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import de.hybris.platform.core.model.ItemModel;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.service.LambdaFlexibleSearchService;
+import pl.homik.flexiblelambda.service.LambdaFlexibleSearchTranslationService;
+import pl.homik.flexiblelambda.service.LambdaQueryPrototype;
+import pl.homik.flexiblelambda.service.LambdaQueryWarmUpService;
+
+public class LambdaQueryWarmUpServiceImpl implements LambdaQueryWarmUpService, ApplicationContextAware {
+
+	private static final Logger LOG = Logger.getLogger(LambdaQueryWarmUpServiceImpl.class.getName());
+
+	private ApplicationContext applicationContext;
+	private LambdaFlexibleSearchTranslationService lambdaFlexibleSearchTranslationService;
+	private LambdaFlexibleSearchService lambdaFlexibleSearchService;
+	private SessionContextPropagator sessionContextPropagator;
+	private boolean enabled = true;
+	private boolean execute = false;
+	private int parallelism = 0;
+
+	@Override
+	public long warmUp() {
+		if (!enabled) {
+			return 0;
+		}
+		final long start = System.nanoTime();
+		final Map<String, LambdaQueryPrototype> prototypes = applicationContext
+						.getBeansOfType(LambdaQueryPrototype.class);
+		if (prototypes.isEmpty()) {
+			return 0;
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(prototypes.size(),
+						parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors()));
+		int failures = 0;
+		try {
+			final Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+			prototypes.forEach((name, prototype) -> futures.put(name,
+							CompletableFuture.supplyAsync(inContext(() -> warmUp(prototype.create())), executor)));
+			for (final Map.Entry<String, CompletableFuture<Void>> future : futures.entrySet()) {
+				try {
+					future.getValue().join();
+				} catch (final CompletionException e) {
+					failures++;
+					LOG.warn("Warm-up of lambda query " + future.getKey() + " failed", e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		LOG.info("Warmed up " + (prototypes.size() - failures) + " of " + prototypes.size() + " lambda queries " + (
+						execute ? "(translated and executed)" : "(translated)") + " in " + millis + " ms");
+		return millis;
+	}
+
+	private <T extends ItemModel> Void warmUp(final LambdaFlexibleSearchQuery<T> query) {
+		if (execute) {
+			lambdaFlexibleSearchService.getFirst(query);
+		} else {
+			lambdaFlexibleSearchTranslationService.translate(query);
+		}
+		return null;
+	}
+
+	private <R> Supplier<R> inContext(final Supplier<R> task) {
+		return sessionContextPropagator == null ? task : sessionContextPropagator.propagate(task);
+	}
+
+	@Override
+	public void setApplicationContext(final ApplicationContext applicationContext) {
+		this.applicationContext = applicationContext;
+	}
+
+	@Required
+	public void setLambdaFlexibleSearchTranslationService(
+					final LambdaFlexibleSearchTranslationService lambdaFlexibleSearchTranslationService) {
+		this.lambdaFlexibleSearchTranslationService = lambdaFlexibleSearchTranslationService;
+	}
+
+	@Required
+	public void setLambdaFlexibleSearchService(final LambdaFlexibleSearchService lambdaFlexibleSearchService) {
+		this.lambdaFlexibleSearchService = lambdaFlexibleSearchService;
+	}
+
+	/**
+	 * @param sessionContextPropagator moves tenant and session of the calling thread to warm-up threads, when not set
+	 * queries are warmed up without hybris context
+	 */
+	public void setSessionContextPropagator(final SessionContextPropagator sessionContextPropagator) {
+		this.sessionContextPropagator = sessionContextPropagator;
+	}
+
+	/**
+	 * @param enabled false to skip the warm-up
+	 */
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param execute true to execute each query once (with the first result only), otherwise queries are only
+	 * translated
+	 */
+	public void setExecute(final boolean execute) {
+		this.execute = execute;
+	}
+
+	/**
+	 * @param parallelism number of queries warmed up at once, 0 for number of processors
+	 */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = parallelism;
+	}
+}
@@ -0,0 +1,84 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.hybris.platform.core.PK;
+import de.hybris.platform.core.model.ItemModel;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+import de.hybris.platform.servicelayer.search.FlexibleSearchService;
+
+import pl.homik.flexiblelambda.function.SerializableFunction;
+import pl.homik.flexiblelambda.pojo.IncludeQuery;
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.service.LambdaFlexibleSearchTranslationService;
+
+/**
+ * Loads items referenced on include paths of a query (see {@link LambdaFlexibleSearchQuery#include}) for loaded
+ * page of its results. PKs of referenced items are selected by one query per path, then items of each type are loaded
+ * by queries with at most batch size PKs, so later calls of getters are served from the cache. Number of executed
+ * queries depends on number of paths and related types, not on number of items.
+ */
+class RelationPrefetcher {
+
+	private final LambdaFlexibleSearchTranslationService translationService;
+	private final FlexibleSearchService flexibleSearchService;
+	private final int batchSize;
+
+	RelationPrefetcher(final LambdaFlexibleSearchTranslationService translationService,
+					final FlexibleSearchService flexibleSearchService, final int batchSize) {
+		this.translationService = translationService;
+		this.flexibleSearchService = flexibleSearchService;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param query query with include paths
+	 * @param items loaded results of the query
+	 */
+	<T extends ItemModel> void prefetch(final LambdaFlexibleSearchQuery<T> query, final List<T> items) {
+		if (items.isEmpty()) {
+			return;
+		}
+		final List<PK> pks = new ArrayList<>(items.size());
+		for (final T item : items) {
+			pks.add(item.getPk());
+		}
+		final Map<String, Set<PK>> referencedByType = new LinkedHashMap<>();
+		for (final SerializableFunction<T, ? extends ItemModel> path : query.getIncludes()) {
+			final IncludeQuery include = translationService.translateInclude(query.getItemClass(), path, pks);
+			for (final Object row : flexibleSearchService.search(include.getQuery()).getResult()) {
+				final List<?> values = include.getTypes().size() == 1 ? Collections.singletonList(row) : (List<?>) row;
+				for (int i = 0; i < values.size(); i++) {
+					if (values.get(i) != null) {
+						referencedByType.computeIfAbsent(include.getTypes().get(i), t -> new LinkedHashSet<>())
+										.add((PK) values.get(i));
+					}
+				}
+			}
+		}
+		referencedByType.forEach(this::load);
+	}
+
+	/**
+	 * Result models are converted on access, so they are read to make sure all of them are loaded
+	 */
+	private void load(final String type, final Collection<PK> pks) {
+		final List<PK> remaining = new ArrayList<>(pks);
+		for (int from = 0; from < remaining.size(); from += batchSize) {
+			final Map<String, Object> params = new HashMap<>();
+			params.put("pks", remaining.subList(from, Math.min(from + batchSize, remaining.size())));
+			final List<ItemModel> models = flexibleSearchService.<ItemModel>search(
+							new FlexibleSearchQuery("SELECT {PK} FROM {" + type + "} WHERE {PK} IN (?pks)", params))
+							.getResult();
+			models.forEach(ItemModel::getPk);
+		}
+	}
+}
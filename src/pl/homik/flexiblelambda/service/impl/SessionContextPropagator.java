@@ -0,0 +1,127 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import de.hybris.platform.core.Registry;
+import de.hybris.platform.core.Tenant;
+import de.hybris.platform.core.model.ItemModel;
+import de.hybris.platform.core.model.user.UserModel;
+import de.hybris.platform.search.restriction.SearchRestrictionService;
+import de.hybris.platform.servicelayer.session.Session;
+import de.hybris.platform.servicelayer.session.SessionService;
+import de.hybris.platform.servicelayer.user.UserService;
+
+import org.springframework.beans.factory.annotation.Required;
+
+/**
+ * Moves hybris context of calling thread (tenant, session user, search restrictions, catalog versions, language and
+ * currency) to tasks executed by other threads.
+ */
+public class SessionContextPropagator {
+
+	/**
+	 * Session attribute holding session catalog versions (CatalogConstants.SESSION_CATALOG_VERSIONS, referenced by
+	 * name to avoid dependency on catalog extension)
+	 */
+	static final String CATALOG_VERSIONS_ATTRIBUTE = "catalogversions";
+	/**
+	 * Session attribute holding session language (I18NConstants.LANGUAGE_SESSION_ATTR_KEY)
+	 */
+	static final String LANGUAGE_ATTRIBUTE = "language";
+	/**
+	 * Session attribute holding session currency (I18NConstants.CURRENCY_SESSION_ATTR_KEY)
+	 */
+	static final String CURRENCY_ATTRIBUTE = "currency";
+
+	private static final List<String> PROPAGATED_ATTRIBUTES = Arrays.asList(CATALOG_VERSIONS_ATTRIBUTE,
+					LANGUAGE_ATTRIBUTE, CURRENCY_ATTRIBUTE);
+
+	private SessionService sessionService;
+	private UserService userService;
+	private SearchRestrictionService searchRestrictionService;
+
+	/**
+	 * Captures context of the current thread and wraps given task, so it is executed in the same context in a new
+	 * session of the worker thread. Has to be called in the calling thread.
+	 *
+	 * @param task task to wrap
+	 * @return task which can be executed by any thread
+	 */
+	public <R> Supplier<R> propagate(final Supplier<R> task) {
+		final Tenant tenant = Registry.getCurrentTenantNoFallback();
+		final UserModel user = userService.getCurrentUser();
+		final boolean searchRestrictionsEnabled = searchRestrictionService.isSearchRestrictionsEnabled();
+		final Map<String, Object> attributes = new LinkedHashMap<>();
+		for (final String attribute : PROPAGATED_ATTRIBUTES) {
+			final Object value = sessionService.getAttribute(attribute);
+			if (value != null) {
+				attributes.put(attribute, value);
+			}
+		}
+
+		return () -> {
+			if (tenant != null) {
+				Registry.setCurrentTenant(tenant);
+			}
+			final Session session = sessionService.createNewSession();
+			try {
+				userService.setCurrentUser(user);
+				attributes.forEach(sessionService::setAttribute);
+				if (!searchRestrictionsEnabled) {
+					searchRestrictionService.disableSearchRestrictions();
+				}
+				return task.get();
+			} finally {
+				sessionService.closeSession(session);
+				if (tenant != null) {
+					Registry.unsetCurrentTenant();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Values of the current session which may change results of flexible search queries: session user, language,
+	 * catalog versions and search restrictions flag. Models are replaced with their PKs, so values of different
+	 * sessions can be compared.
+	 *
+	 * @return search context of the current session
+	 */
+	public List<Object> getSearchContext() {
+		final UserModel user = userService.getCurrentUser();
+		return Arrays.asList(user == null ? null : user.getPk(), toPks(sessionService.getAttribute(LANGUAGE_ATTRIBUTE)),
+						toPks(sessionService.getAttribute(CATALOG_VERSIONS_ATTRIBUTE)),
+						searchRestrictionService.isSearchRestrictionsEnabled());
+	}
+
+	private static Object toPks(final Object value) {
+		if (value instanceof ItemModel) {
+			return ((ItemModel) value).getPk();
+		}
+		if (value instanceof Collection) {
+			return ((Collection<?>) value).stream().map(SessionContextPropagator::toPks).collect(Collectors.toSet());
+		}
+		return value;
+	}
+
+	@Required
+	public void setSessionService(final SessionService sessionService) {
+		this.sessionService = sessionService;
+	}
+
+	@Required
+	public void setUserService(final UserService userService) {
+		this.userService = userService;
+	}
+
+	@Required
+	public void setSearchRestrictionService(final SearchRestrictionService searchRestrictionService) {
+		this.searchRestrictionService = searchRestrictionService;
+	}
+}
@@ -0,0 +1,91 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes collections bound to '{column} IN (?param)' conditions before query execution:
+ * <ul>
+ * <li>values are deduplicated and padded (by repeating the last value) to the next power of two, so the database
+ * sees only a few statement shapes instead of one per collection size</li>
+ * <li>collections larger than the limit are split into several IN lists joined with OR</li>
+ * <li>IN with empty collection (invalid SQL) is replaced with a condition which is never true</li>
+ * </ul>
+ */
+public final class InListParameters {
+
+	private static final Pattern IN_CONDITION = Pattern.compile("(\\{[^{}]+\\}) IN \\(\\?([a-zA-Z0-9_]+)\\)");
+	private static final String ALWAYS_FALSE = "1=0";
+
+	private InListParameters() {
+	}
+
+	/**
+	 * Normalizes IN conditions of given query
+	 *
+	 * @param query flexible search query
+	 * @param parameters parameters of the query, modified in place
+	 * @param maxSize maximal number of values in single IN list
+	 * @return query with IN conditions adjusted to parameters
+	 */
+	public static String expand(final String query, final Map<String, Object> parameters, final int maxSize) {
+		final Matcher matcher = IN_CONDITION.matcher(query);
+		StringBuffer result = null;
+		while (matcher.find()) {
+			final Object value = parameters.get(matcher.group(2));
+			if (value instanceof Collection) {
+				if (result == null) {
+					result = new StringBuffer(query.length());
+				}
+				final String condition = expand(matcher.group(1), matcher.group(2), (Collection<?>) value, parameters,
+								maxSize);
+				matcher.appendReplacement(result, Matcher.quoteReplacement(condition));
+			}
+		}
+		if (result == null) {
+			return query;
+		}
+		matcher.appendTail(result);
+		return result.toString();
+	}
+
+	private static String expand(final String column, final String param, final Collection<?> values,
+					final Map<String, Object> parameters, final int maxSize) {
+		final List<Object> distinct = new ArrayList<>(new LinkedHashSet<>(values));
+		if (distinct.isEmpty()) {
+			return ALWAYS_FALSE;
+		}
+		if (distinct.size() <= maxSize) {
+			parameters.put(param, pad(distinct, Math.min(nextPowerOfTwo(distinct.size()), maxSize)));
+			return column + " IN (?" + param + ")";
+		}
+
+		final List<String> conditions = new ArrayList<>();
+		for (int from = 0; from < distinct.size(); from += maxSize) {
+			final String chunkParam = from == 0 ? param : param + "_" + conditions.size();
+			final List<Object> chunk = distinct.subList(from, Math.min(from + maxSize, distinct.size()));
+			parameters.put(chunkParam, pad(chunk, maxSize));
+			conditions.add(column + " IN (?" + chunkParam + ")");
+		}
+		return "(" + String.join(" OR ", conditions) + ")";
+	}
+
+	private static List<Object> pad(final List<Object> values, final int size) {
+		final List<Object> result = new ArrayList<>(size);
+		result.addAll(values);
+		final Object last = values.get(values.size() - 1);
+		while (result.size() < size) {
+			result.add(last);
+		}
+		return result;
+	}
+
+	private static int nextPowerOfTwo(final int value) {
+		return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+	}
+}
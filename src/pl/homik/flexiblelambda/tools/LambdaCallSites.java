@@ -0,0 +1,126 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.SerializedLambda;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Resolves source location of serializable lambdas, e.g. com.example.OrderDao.findOrders(OrderDao.java:42). Class and
+ * method come from {@link SerializedLambda}, line is read from debug information of lambda implementation method.
+ * Locations are resolved once per lambda class.
+ */
+public final class LambdaCallSites {
+
+	private static final String LAMBDA_METHOD_PREFIX = "lambda$";
+
+	// location can be resolved only from lambda instance, so it is stored in holder created for its class
+	private static final ClassValue<AtomicReference<Optional<String>>> CALL_SITES =
+					new ClassValue<AtomicReference<Optional<String>>>() {
+
+						@Override
+						protected AtomicReference<Optional<String>> computeValue(final Class<?> type) {
+							return new AtomicReference<>();
+						}
+					};
+
+	private LambdaCallSites() {
+	}
+
+	/**
+	 * @param lambda serializable lambda
+	 * @return location of the lambda in source code or empty if given object is not a serializable lambda
+	 */
+	public static Optional<String> describe(final Object lambda) {
+		if (lambda == null || !lambda.getClass().isSynthetic()) {
+			return Optional.empty();
+		}
+		final AtomicReference<Optional<String>> callSite = CALL_SITES.get(lambda.getClass());
+		Optional<String> result = callSite.get();
+		if (result == null) {
+			result = resolve(lambda);
+			callSite.set(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Lambda implementation method is named lambda$enclosingMethod$index, method references point to referenced
+	 * method, so only class which created the reference is known
+	 */
+	private static Optional<String> resolve(final Object lambda) {
+		final Optional<SerializedLambda> serialized = SerializedLambdas.extract(lambda);
+		if (!serialized.isPresent()) {
+			return Optional.empty();
+		}
+		final SerializedLambda info = serialized.get();
+		final String className = info.getCapturingClass().replace('/', '.');
+		final String implMethod = info.getImplMethodName();
+		if (!implMethod.startsWith(LAMBDA_METHOD_PREFIX) || !info.getImplClass().equals(info.getCapturingClass())) {
+			return Optional.of(className + "(method reference " + info.getImplClass().replace('/', '.') + "::"
+							+ implMethod + ")");
+		}
+		final int nameEnd = implMethod.indexOf('$', LAMBDA_METHOD_PREFIX.length());
+		final String enclosingMethod = implMethod
+						.substring(LAMBDA_METHOD_PREFIX.length(), nameEnd < 0 ? implMethod.length() : nameEnd);
+		final LineFinder lineFinder = new LineFinder(implMethod, info.getImplMethodSignature());
+		try (final InputStream classFile = lambda.getClass().getClassLoader()
+						.getResourceAsStream(info.getImplClass() + ".class")) {
+			if (classFile != null) {
+				new ClassReader(classFile).accept(lineFinder, ClassReader.SKIP_FRAMES);
+			}
+		} catch (final IOException | RuntimeException e) {
+			// location without line is still useful
+		}
+		final String source = lineFinder.sourceFile == null ? "Unknown Source" : lineFinder.sourceFile;
+		return Optional.of(className + "." + enclosingMethod + "(" + source + (lineFinder.line > 0 ?
+						":" + lineFinder.line :
+						"") + ")");
+	}
+
+	/**
+	 * Finds source file of the class and the first line of given method
+	 */
+	private static final class LineFinder extends ClassVisitor {
+
+		private final String methodName;
+		private final String methodDescriptor;
+		private String sourceFile;
+		private int line;
+
+		private LineFinder(final String methodName, final String methodDescriptor) {
+			super(Opcodes.ASM5);
+			this.methodName = methodName;
+			this.methodDescriptor = methodDescriptor;
+		}
+
+		@Override
+		public void visitSource(final String source, final String debug) {
+			sourceFile = source;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(final int access, final String name, final String desc, final String signature,
+						final String[] exceptions) {
+			if (!methodName.equals(name) || !methodDescriptor.equals(desc)) {
+				return null;
+			}
+			return new MethodVisitor(Opcodes.ASM5) {
+
+				@Override
+				public void visitLineNumber(final int lineNumber, final Label start) {
+					if (line == 0 || lineNumber < line) {
+						line = lineNumber;
+					}
+				}
+			};
+		}
+	}
+}
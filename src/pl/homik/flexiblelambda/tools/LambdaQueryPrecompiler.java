@@ -0,0 +1,349 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import de.hybris.platform.servicelayer.model.ModelService;
+
+import org.apache.commons.lang3.ClassUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import com.trigersoft.jaque.expression.LambdaExpression;
+
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+import pl.homik.flexiblelambda.pojo.PredicateTranslationResult;
+import pl.homik.flexiblelambda.visitor.CapturedArgumentsVisitor;
+import pl.homik.flexiblelambda.visitor.ToFlexibleSearchVisitor;
+import pl.homik.flexiblelambda.visitor.UnsupportedExpressionException;
+
+/**
+ * Build step which translates lambda predicates of compiled classes ahead of time, so untranslatable lambdas fail the
+ * build instead of the first execution and translated ones are not parsed at runtime (see
+ * {@link PrecompiledTranslation}). Lambda predicates are found as serializable invokedynamic call sites of
+ * {@link SerializablePredicate}, recreated through $deserializeLambda$ of their class (which initializes the class)
+ * with sample captured values (non-null defaults) and translated as if they were captured. Results are written to
+ * {@link PrecompiledLambdaRegistry#RESOURCE} of the scanned directory.
+ * <p>
+ * Usage: LambdaQueryPrecompiler &lt;classes directory&gt; [failOnUnsupported, default true]
+ */
+public final class LambdaQueryPrecompiler {
+
+	private static final String PREDICATE_TYPE = Type.getInternalName(SerializablePredicate.class);
+	private static final String METAFACTORY_TYPE = "java/lang/invoke/LambdaMetafactory";
+	private static final String ALT_METAFACTORY = "altMetafactory";
+	private static final String DESERIALIZE_METHOD = "$deserializeLambda$";
+	private static final String TYPECODE_FIELD = "_TYPECODE";
+	private static final String MODEL_SUFFIX = "Model";
+	private static final String CLASS_SUFFIX = ".class";
+	private static final String PARSE_FAILURE = "Parse";
+
+	private final ClassLoader classLoader;
+	private final ModelService modelService;
+
+	/**
+	 * @param classLoader class loader of scanned classes and their dependencies
+	 */
+	public LambdaQueryPrecompiler(final ClassLoader classLoader) {
+		this.classLoader = classLoader;
+		// only types of joined models are needed, they are resolved from generated models without the platform
+		this.modelService = (ModelService) Proxy.newProxyInstance(ModelService.class.getClassLoader(),
+						new Class<?>[] { ModelService.class }, (proxy, method, args) -> {
+							if ("getModelType".equals(method.getName()) && args[0] instanceof Class) {
+								return getTypeCode((Class<?>) args[0]);
+							}
+							throw new UnsupportedOperationException(
+											method.getName() + " is not available at build time");
+						});
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: LambdaQueryPrecompiler <classes directory> [failOnUnsupported]");
+			System.exit(2);
+		}
+		final Path classes = Paths.get(args[0]);
+		final boolean failOnUnsupported = args.length < 2 || Boolean.parseBoolean(args[1]);
+		final Map<String, String> results;
+		try (final URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() },
+						LambdaQueryPrecompiler.class.getClassLoader())) {
+			Thread.currentThread().setContextClassLoader(loader);
+			results = new LambdaQueryPrecompiler(loader).precompileDirectory(classes);
+		}
+		write(classes.resolve(PrecompiledLambdaRegistry.RESOURCE), results);
+
+		int unsupported = 0;
+		for (final Map.Entry<String, String> result : results.entrySet()) {
+			if (result.getValue().startsWith(PrecompiledLambdaRegistry.UNSUPPORTED)) {
+				unsupported++;
+				System.err.println(result.getKey() + ": " + result.getValue());
+			} else if (result.getValue().startsWith(PrecompiledLambdaRegistry.UNVERIFIED)) {
+				System.out.println(result.getKey() + ": " + result.getValue());
+			}
+		}
+		System.out.println("Precompiled " + results.size() + " lambda queries of " + classes + ", " + unsupported
+						+ " unsupported");
+		if (unsupported > 0 && failOnUnsupported) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param classes root directory of compiled classes
+	 * @return results of all lambda predicates of the classes keyed by {@link PrecompiledLambdaRegistry#getKey}
+	 */
+	public Map<String, String> precompileDirectory(final Path classes) throws IOException {
+		final List<Path> classFiles;
+		try (final Stream<Path> files = Files.walk(classes)) {
+			classFiles = files.filter(file -> file.toString().endsWith(CLASS_SUFFIX)).sorted()
+							.collect(Collectors.toList());
+		}
+		final Map<String, String> results = new TreeMap<>();
+		for (final Path classFile : classFiles) {
+			try (final InputStream input = Files.newInputStream(classFile)) {
+				results.putAll(precompile(input));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @param classFile bytecode of a class
+	 * @return results of lambda predicates created by the class, values start with
+	 * {@link PrecompiledLambdaRegistry#TRANSLATED} (followed by where template and {@link PrecompiledTranslation}
+	 * bindings when the filter can be used without parsing),
+	 * {@link PrecompiledLambdaRegistry#UNSUPPORTED} (followed by expression type and message) or
+	 * {@link PrecompiledLambdaRegistry#UNVERIFIED} when lambda cant be translated without real captured values or
+	 * initialized class
+	 */
+	public Map<String, String> precompile(final InputStream classFile) throws IOException {
+		final ClassReader reader = new ClassReader(classFile);
+		final CallSiteFinder finder = new CallSiteFinder();
+		reader.accept(finder, ClassReader.SKIP_FRAMES);
+		final Map<String, String> results = new TreeMap<>();
+		if (finder.callSites.isEmpty()) {
+			return results;
+		}
+		final Class<?> capturingClass;
+		try {
+			capturingClass = Class.forName(reader.getClassName().replace('/', '.'), false, classLoader);
+		} catch (final ClassNotFoundException | LinkageError e) {
+			throw new IllegalStateException("cant load " + reader.getClassName() + ", is it on the classpath?", e);
+		}
+		for (final CallSite callSite : finder.callSites) {
+			final SerializedLambda serialized = callSite.toSerializedLambda(capturingClass, this::getSampleValue);
+			results.put(PrecompiledLambdaRegistry.getKey(serialized,
+							PrecompiledLambdaRegistry.getImplementationHash(serialized, classLoader)),
+							translate(capturingClass, serialized));
+		}
+		return results;
+	}
+
+	private String translate(final Class<?> capturingClass, final SerializedLambda serialized) {
+		final LambdaExpression<?> expression;
+		try {
+			final Method deserialize = capturingClass.getDeclaredMethod(DESERIALIZE_METHOD, SerializedLambda.class);
+			deserialize.setAccessible(true);
+			expression = LambdaExpression.parse(deserialize.invoke(null, serialized));
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			final Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+			// JaQue cant parse null captured values, so failure with missing sample value says nothing about the lambda
+			return Arrays.asList(SerializedLambdas.getCapturedArgs(serialized)).contains(null) ?
+							PrecompiledLambdaRegistry.UNVERIFIED + cause :
+							PrecompiledLambdaRegistry.UNSUPPORTED + PARSE_FAILURE + ":" + cause;
+		} catch (final LinkageError e) {
+			// e.g. static initializer which needs the platform, failure says nothing about the lambda
+			return PrecompiledLambdaRegistry.UNVERIFIED + e;
+		}
+
+		final Object[] capturedArgs = SerializedLambdas.getCapturedArgs(serialized);
+		final ToFlexibleSearchVisitor visitor = new ToFlexibleSearchVisitor(new ParametersNameGenerator(),
+						modelService);
+		// JaQue caches parsed lambdas, so the tree can hold values of another instance
+		visitor.setCapturedArgs(capturedArgs);
+		try {
+			final PredicateTranslationResult result = expression.accept(visitor);
+			// filters with parameters computed from expressions have to be parsed at runtime, only where is recorded
+			return PrecompiledTranslation.of(result,
+							CapturedArgumentsVisitor.getCapturedArguments(expression, capturedArgs), capturedArgs)
+							.map(PrecompiledTranslation::toString)
+							.orElse(PrecompiledLambdaRegistry.TRANSLATED + result.getWhere());
+		} catch (final UnsupportedExpressionException e) {
+			return PrecompiledLambdaRegistry.UNSUPPORTED + e.getExpressionType() + ":" + e.getMessage();
+		} catch (final UnsupportedOperationException e) {
+			return PrecompiledLambdaRegistry.UNSUPPORTED + e.getClass().getSimpleName() + ":" + e.getMessage();
+		} catch (final RuntimeException e) {
+			// e.g. evaluation of captured variable, which is known only at runtime
+			return PrecompiledLambdaRegistry.UNVERIFIED + e;
+		}
+	}
+
+	private static String getTypeCode(final Class<?> modelClass) {
+		try {
+			return (String) modelClass.getField(TYPECODE_FIELD).get(null);
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			final String name = modelClass.getSimpleName();
+			return name.endsWith(MODEL_SUFFIX) ? name.substring(0, name.length() - MODEL_SUFFIX.length()) : name;
+		}
+	}
+
+	private static void write(final Path file, final Map<String, String> results) throws IOException {
+		final Properties properties = new Properties();
+		properties.putAll(results);
+		Files.createDirectories(file.getParent());
+		try (final OutputStream output = Files.newOutputStream(file)) {
+			properties.store(output, "Generated by " + LambdaQueryPrecompiler.class.getSimpleName());
+		}
+	}
+
+	/**
+	 * @return sample value of captured variable of given type or null when it cant be created
+	 */
+	private Object getSampleValue(final Type type) {
+		if (type.getSort() != Type.OBJECT && type.getSort() != Type.ARRAY) {
+			return getDefaultValue(type);
+		}
+		try {
+			final Class<?> valueClass = Class.forName(type.getClassName(), false, classLoader);
+			if (valueClass.isArray()) {
+				return Array.newInstance(valueClass.getComponentType(), 0);
+			}
+			if (ClassUtils.isPrimitiveWrapper(valueClass)) {
+				return getDefaultValue(Type.getType(ClassUtils.wrapperToPrimitive(valueClass)));
+			}
+			if (valueClass == String.class) {
+				return "";
+			}
+			if (valueClass.isEnum()) {
+				final Object[] constants = valueClass.getEnumConstants();
+				return constants.length == 0 ? null : constants[0];
+			}
+			if (valueClass.isInterface()) {
+				return Proxy.newProxyInstance(valueClass.getClassLoader(), new Class<?>[] { valueClass },
+								new SampleInvocationHandler());
+			}
+			return valueClass.newInstance();
+		} catch (final ReflectiveOperationException | LinkageError | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static Object getDefaultValue(final Type type) {
+		switch (type.getSort()) {
+		case Type.BOOLEAN:
+			return Boolean.FALSE;
+		case Type.CHAR:
+			return '\0';
+		case Type.BYTE:
+			return (byte) 0;
+		case Type.SHORT:
+			return (short) 0;
+		case Type.INT:
+			return 0;
+		case Type.LONG:
+			return 0L;
+		case Type.FLOAT:
+			return 0f;
+		case Type.DOUBLE:
+			return 0d;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns default values, JaQue serializes captured values so it has to be serializable
+	 */
+	private static final class SampleInvocationHandler implements InvocationHandler, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) {
+			return method.getReturnType().isPrimitive() ? getDefaultValue(Type.getType(method.getReturnType())) : null;
+		}
+	}
+
+	/**
+	 * Serializable lambda creation site, arguments of altMetafactory are: erased functional method type,
+	 * implementation method, instantiated method type, flags
+	 */
+	private static final class CallSite {
+
+		private final String methodName;
+		private final String descriptor;
+		private final Object[] bootstrapArguments;
+
+		private CallSite(final String methodName, final String descriptor, final Object[] bootstrapArguments) {
+			this.methodName = methodName;
+			this.descriptor = descriptor;
+			this.bootstrapArguments = bootstrapArguments;
+		}
+
+		private SerializedLambda toSerializedLambda(final Class<?> capturingClass,
+						final Function<Type, Object> samples) {
+			final Handle implementation = (Handle) bootstrapArguments[1];
+			final Type[] capturedTypes = Type.getArgumentTypes(descriptor);
+			final Object[] capturedArgs = new Object[capturedTypes.length];
+			for (int i = 0; i < capturedTypes.length; i++) {
+				capturedArgs[i] = samples.apply(capturedTypes[i]);
+			}
+			return new SerializedLambda(capturingClass, PREDICATE_TYPE, methodName,
+							((Type) bootstrapArguments[0]).getDescriptor(), implementation.getTag(),
+							implementation.getOwner(), implementation.getName(), implementation.getDesc(),
+							((Type) bootstrapArguments[2]).getDescriptor(), capturedArgs);
+		}
+	}
+
+	private static final class CallSiteFinder extends ClassVisitor {
+
+		private final List<CallSite> callSites = new ArrayList<>();
+
+		private CallSiteFinder() {
+			super(Opcodes.ASM5);
+		}
+
+		@Override
+		public MethodVisitor visitMethod(final int access, final String name, final String desc, final String signature,
+						final String[] exceptions) {
+			return new MethodVisitor(Opcodes.ASM5) {
+
+				@Override
+				public void visitInvokeDynamicInsn(final String methodName, final String descriptor,
+								final Handle bootstrapMethod, final Object... bootstrapArguments) {
+					if (METAFACTORY_TYPE.equals(bootstrapMethod.getOwner()) && ALT_METAFACTORY
+									.equals(bootstrapMethod.getName()) && PREDICATE_TYPE
+									.equals(Type.getReturnType(descriptor).getInternalName())) {
+						callSites.add(new CallSite(methodName, descriptor, bootstrapArguments));
+					}
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.SerializedLambda;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import pl.homik.flexiblelambda.visitor.UnsupportedExpressionException;
+
+/**
+ * Results of build-time translation of lambda predicates written by {@link LambdaQueryPrecompiler}. Every extension
+ * which runs the precompiler contributes its own {@link #RESOURCE}, all of them are merged. Lambdas are identified by
+ * their implementation method, so results do not depend on captured values. Keys contain hash of bytecode of the
+ * implementation method, so results of changed lambdas (or other lambdas which got the same synthetic name) are
+ * ignored until the precompiler is run again. Translated lambdas are not parsed at runtime, their
+ * {@link PrecompiledTranslation} is used instead.
+ */
+public class PrecompiledLambdaRegistry {
+
+	public static final String RESOURCE = "META-INF/flexiblelambda/precompiled-lambdas.properties";
+	public static final String TRANSLATED = "translated:";
+	public static final String UNSUPPORTED = "unsupported:";
+	public static final String UNVERIFIED = "unverified:";
+	public static final String HASH_SEPARATOR = "@";
+
+	private static final Logger LOG = Logger.getLogger(PrecompiledLambdaRegistry.class.getName());
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final int HASH_BYTES = 12;
+
+	private final Properties entries;
+	private final Map<String, String> failureHashes = new HashMap<>();
+	private final Map<String, String> translationHashes = new HashMap<>();
+	private final Map<String, PrecompiledTranslation> translations = new HashMap<>();
+	private final Map<String, String> implementationHashes = new ConcurrentHashMap<>();
+
+	/**
+	 * Loads results of all extensions visible to context class loader
+	 */
+	public PrecompiledLambdaRegistry() {
+		this(load(Thread.currentThread().getContextClassLoader() == null ?
+						PrecompiledLambdaRegistry.class.getClassLoader() :
+						Thread.currentThread().getContextClassLoader()));
+	}
+
+	/**
+	 * @param entries results keyed by {@link #getKey(SerializedLambda, String)}
+	 */
+	public PrecompiledLambdaRegistry(final Properties entries) {
+		this.entries = entries;
+		for (final String key : entries.stringPropertyNames()) {
+			final String entry = entries.getProperty(key);
+			final int separator = key.lastIndexOf(HASH_SEPARATOR);
+			final String id = separator < 0 ? key : key.substring(0, separator);
+			final String hash = separator < 0 ? "" : key.substring(separator + HASH_SEPARATOR.length());
+			if (entry.startsWith(UNSUPPORTED)) {
+				failureHashes.put(id, hash);
+			} else if (entry.startsWith(TRANSLATED)) {
+				PrecompiledTranslation.parse(entry).ifPresent(translation -> {
+					translations.put(id, translation);
+					translationHashes.put(id, hash);
+				});
+			}
+		}
+	}
+
+	/**
+	 * @param classLoader class loader used to find results of extensions
+	 * @return merged results
+	 */
+	public static Properties load(final ClassLoader classLoader) {
+		final Properties result = new Properties();
+		try {
+			final Enumeration<URL> resources = classLoader.getResources(RESOURCE);
+			while (resources.hasMoreElements()) {
+				final URL resource = resources.nextElement();
+				try (final InputStream input = resource.openStream()) {
+					result.load(input);
+				}
+			}
+		} catch (final IOException e) {
+			LOG.warn("cant load precompiled lambdas, lambdas are translated at runtime only", e);
+		}
+		return result;
+	}
+
+	/**
+	 * @param lambda serialized lambda
+	 * @return identifier of lambda implementation method, e.g. com/example/OrderDao#lambda$find$0(Ljava/lang/String;)Z
+	 */
+	public static String getId(final SerializedLambda lambda) {
+		return lambda.getImplClass() + "#" + lambda.getImplMethodName() + lambda.getImplMethodSignature();
+	}
+
+	/**
+	 * @param lambda serialized lambda
+	 * @param hash hash of the implementation method, see {@link #getImplementationHash}
+	 * @return key of results of given lambda, e.g. com/example/OrderDao#lambda$find$0(Ljava/lang/String;)Z@hash
+	 */
+	public static String getKey(final SerializedLambda lambda, final String hash) {
+		return hash.isEmpty() ? getId(lambda) : getId(lambda) + HASH_SEPARATOR + hash;
+	}
+
+	/**
+	 * Hashes bytecode of lambda implementation method without debug information, so moving the lambda within its
+	 * source file does not change the hash
+	 *
+	 * @param lambda serialized lambda
+	 * @param classLoader class loader of the implementation class
+	 * @return hash or empty string when bytecode of the implementation method cant be read
+	 */
+	public static String getImplementationHash(final SerializedLambda lambda, final ClassLoader classLoader) {
+		final String classFile = lambda.getImplClass() + ".class";
+		try (final InputStream input = classLoader == null ? ClassLoader.getSystemResourceAsStream(classFile) :
+						classLoader.getResourceAsStream(classFile)) {
+			if (input == null) {
+				return "";
+			}
+			final ClassWriter writer = new ClassWriter(0);
+			final MethodCopier copier = new MethodCopier(writer, lambda.getImplMethodName(),
+							lambda.getImplMethodSignature());
+			new ClassReader(input).accept(copier, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			if (!copier.found) {
+				return "";
+			}
+			final byte[] digest = MessageDigest.getInstance(HASH_ALGORITHM).digest(writer.toByteArray());
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, HASH_BYTES));
+		} catch (final IOException | NoSuchAlgorithmException | RuntimeException e) {
+			LOG.warn("cant hash implementation of lambda " + getId(lambda), e);
+			return "";
+		}
+	}
+
+	/**
+	 * @param predicate serializable lambda predicate
+	 * @return failure recorded for the predicate at build time or empty if it was translated, not verified, not
+	 * precompiled at all or its implementation changed since the build
+	 */
+	public Optional<UnsupportedExpressionException> getFailure(final Object predicate) {
+		final Optional<SerializedLambda> serialized = getRecorded(predicate, failureHashes);
+		if (!serialized.isPresent()) {
+			return Optional.empty();
+		}
+		final String entry = entries.getProperty(getKey(serialized.get(), failureHashes.get(getId(serialized.get()))));
+		final int typeEnd = entry.indexOf(':', UNSUPPORTED.length());
+		return Optional.of(typeEnd < 0 ?
+						new UnsupportedExpressionException(entry.substring(UNSUPPORTED.length()), entry) :
+						new UnsupportedExpressionException(entry.substring(UNSUPPORTED.length(), typeEnd),
+										entry.substring(typeEnd + 1)));
+	}
+
+	/**
+	 * @param predicate serializable lambda predicate
+	 * @return translation of the predicate created at build time or empty if it was not translated, it has to be
+	 * parsed at runtime (see {@link PrecompiledTranslation}), it was not precompiled at all or its implementation
+	 * changed since the build
+	 */
+	public Optional<PrecompiledTranslation> getTranslation(final Object predicate) {
+		return getRecorded(predicate, translationHashes).map(serialized -> translations.get(getId(serialized)));
+	}
+
+	/**
+	 * @param recordedHashes hashes of implementations of recorded lambdas by their id
+	 * @return serialized form of given predicate if its result was recorded for its current implementation
+	 */
+	private Optional<SerializedLambda> getRecorded(final Object predicate, final Map<String, String> recordedHashes) {
+		if (recordedHashes.isEmpty()) {
+			return Optional.empty();
+		}
+		final Optional<SerializedLambda> serialized = SerializedLambdas.extract(predicate);
+		if (!serialized.isPresent()) {
+			return Optional.empty();
+		}
+		final String id = getId(serialized.get());
+		final String recordedHash = recordedHashes.get(id);
+		if (recordedHash == null) {
+			return Optional.empty();
+		}
+		final String hash = implementationHashes.computeIfAbsent(id,
+						key -> getImplementationHash(serialized.get(), predicate.getClass().getClassLoader()));
+		return recordedHash.equals(hash) ? serialized : Optional.empty();
+	}
+
+	/**
+	 * @return number of precompiled lambdas
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Copies only header of the class and given method, so other members do not change the hash
+	 */
+	private static final class MethodCopier extends ClassVisitor {
+
+		private final String name;
+		private final String descriptor;
+		private boolean found;
+
+		private MethodCopier(final ClassWriter writer, final String name, final String descriptor) {
+			super(Opcodes.ASM5, writer);
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+			return null;
+		}
+
+		@Override
+		public void visitAttribute(final Attribute attribute) {
+			// skipped
+		}
+
+		@Override
+		public void visitOuterClass(final String owner, final String methodName, final String desc) {
+			// skipped
+		}
+
+		@Override
+		public void visitInnerClass(final String innerName, final String outerName, final String simpleName,
+						final int access) {
+			// skipped
+		}
+
+		@Override
+		public FieldVisitor visitField(final int access, final String fieldName, final String desc,
+						final String signature, final Object value) {
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(final int access, final String methodName, final String desc,
+						final String signature, final String[] exceptions) {
+			if (!name.equals(methodName) || !descriptor.equals(desc)) {
+				return null;
+			}
+			found = true;
+			return super.visitMethod(access, methodName, desc, signature, exceptions);
+		}
+	}
+}
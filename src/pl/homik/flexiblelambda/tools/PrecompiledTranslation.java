@@ -0,0 +1,282 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.trigersoft.jaque.expression.ConstantExpression;
+import com.trigersoft.jaque.expression.Expression;
+
+import pl.homik.flexiblelambda.pojo.ParameterSource;
+import pl.homik.flexiblelambda.pojo.PredicateTranslationResult;
+import pl.homik.flexiblelambda.visitor.LikePattern;
+
+/**
+ * Filter translated at build time: its where template with joins and bindings of its parameters, which are literals
+ * of the lambda or its captured arguments (optionally modified by {@link LikePattern}). Filters with parameters
+ * computed from expressions are not stored, they have to be parsed at runtime.
+ * <p>
+ * The translation was created with sample captured values, so it is valid only for captured values which are folded
+ * the same way (see {@link #matches(Object[])}). It is stored in {@link PrecompiledLambdaRegistry#RESOURCE} as lines
+ * of the {@link PrecompiledLambdaRegistry#TRANSLATED} entry, e.g.:
+ *
+ * <pre>
+ * translated:{thisuser.uid} LIKE ?a AND {this.active} = ?b
+ * join:LEFT JOIN User as thisuser on {this.user}={thisuser.PK}
+ * rejected:thisuser
+ * type:User
+ * captured:a:0:STARTS_WITH
+ * literal:b:java.lang.Boolean:true
+ * args:v
+ * </pre>
+ */
+public final class PrecompiledTranslation {
+
+	private static final String LINE_SEPARATOR = "\n";
+	private static final String FIELD_SEPARATOR = ":";
+	private static final String JOIN = "join:";
+	private static final String REJECTED = "rejected:";
+	private static final String TYPE = "type:";
+	private static final String LITERAL = "literal:";
+	private static final String CAPTURED = "captured:";
+	private static final String ARGS = "args:";
+	private static final char BOOLEAN_ARG = 'b';
+	private static final char VALUE_ARG = 'v';
+	private static final Pattern PARAMETER = Pattern.compile("\\?([a-zA-Z0-9_]+)");
+	private static final Map<String, Function<String, Object>> LITERAL_PARSERS = new HashMap<>();
+
+	static {
+		LITERAL_PARSERS.put(String.class.getName(), value -> value);
+		LITERAL_PARSERS.put(Boolean.class.getName(), Boolean::valueOf);
+		LITERAL_PARSERS.put(Character.class.getName(), value -> value.charAt(0));
+		LITERAL_PARSERS.put(Byte.class.getName(), Byte::valueOf);
+		LITERAL_PARSERS.put(Short.class.getName(), Short::valueOf);
+		LITERAL_PARSERS.put(Integer.class.getName(), Integer::valueOf);
+		LITERAL_PARSERS.put(Long.class.getName(), Long::valueOf);
+		LITERAL_PARSERS.put(Float.class.getName(), Float::valueOf);
+		LITERAL_PARSERS.put(Double.class.getName(), Double::valueOf);
+	}
+
+	private final String where;
+	private final List<String> joins = new ArrayList<>();
+	private final Set<String> nullRejectedTables = new LinkedHashSet<>();
+	private final Set<String> joinedTypes = new LinkedHashSet<>();
+	private final Map<String, Object> literals = new LinkedHashMap<>();
+	private final Map<String, Integer> capturedIndexes = new LinkedHashMap<>();
+	private final Map<String, LikePattern> patterns = new HashMap<>();
+	private String capturedArgs = "";
+
+	private PrecompiledTranslation(final String where) {
+		this.where = where;
+	}
+
+	/**
+	 * @param result translated filter
+	 * @param capturedArguments captured constants of the filter with their index, see
+	 * {@link pl.homik.flexiblelambda.visitor.CapturedArgumentsVisitor#getCapturedArguments}
+	 * @param capturedArgs sample values captured by the filter
+	 * @return translation or empty if a parameter is computed from an expression or a literal cant be stored
+	 */
+	public static Optional<PrecompiledTranslation> of(final PredicateTranslationResult result,
+					final Map<Expression, Integer> capturedArguments, final Object[] capturedArgs) {
+		final PrecompiledTranslation translation = new PrecompiledTranslation(result.getWhere().toString());
+		translation.joins.addAll(result.getJoins());
+		translation.nullRejectedTables.addAll(result.getNullRejectedTables());
+		translation.joinedTypes.addAll(result.getJoinedTypes());
+		for (final Map.Entry<String, ParameterSource> entry : new TreeMap<>(result.getParameterSources())
+						.entrySet()) {
+			final Expression expression = entry.getValue().getExpression();
+			final Integer argIndex = capturedArguments.get(expression);
+			final UnaryOperator<Object> modifier = entry.getValue().getModifier();
+			if (argIndex != null && (modifier == UnaryOperator.identity() || modifier instanceof LikePattern)) {
+				translation.capturedIndexes.put(entry.getKey(), argIndex);
+				if (modifier instanceof LikePattern) {
+					translation.patterns.put(entry.getKey(), (LikePattern) modifier);
+				}
+			} else if ((expression == null || expression instanceof ConstantExpression && argIndex == null)
+							&& isStorable(result.getParameters().get(entry.getKey()))) {
+				translation.literals.put(entry.getKey(), result.getParameters().get(entry.getKey()));
+			} else {
+				return Optional.empty();
+			}
+		}
+		final StringBuilder args = new StringBuilder();
+		for (final Object arg : capturedArgs) {
+			args.append(arg instanceof Boolean ? BOOLEAN_ARG : VALUE_ARG);
+		}
+		translation.capturedArgs = args.toString();
+		return Optional.of(translation);
+	}
+
+	/**
+	 * @param entry value of {@link PrecompiledLambdaRegistry#TRANSLATED} entry
+	 * @return translation or empty if the entry has only the where clause (filter has to be parsed at runtime)
+	 */
+	public static Optional<PrecompiledTranslation> parse(final String entry) {
+		final String[] lines = entry.split(LINE_SEPARATOR);
+		if (!lines[0].startsWith(PrecompiledLambdaRegistry.TRANSLATED)) {
+			return Optional.empty();
+		}
+		final PrecompiledTranslation translation = new PrecompiledTranslation(
+						lines[0].substring(PrecompiledLambdaRegistry.TRANSLATED.length()));
+		boolean complete = false;
+		try {
+			for (int i = 1; i < lines.length; i++) {
+				final String line = lines[i];
+				if (line.startsWith(JOIN)) {
+					translation.joins.add(line.substring(JOIN.length()));
+				} else if (line.startsWith(REJECTED)) {
+					translation.nullRejectedTables.add(line.substring(REJECTED.length()));
+				} else if (line.startsWith(TYPE)) {
+					translation.joinedTypes.add(line.substring(TYPE.length()));
+				} else if (line.startsWith(LITERAL)) {
+					final String[] fields = line.substring(LITERAL.length()).split(FIELD_SEPARATOR, 3);
+					final Function<String, Object> parser = LITERAL_PARSERS.get(fields[1]);
+					if (parser == null) {
+						return Optional.empty();
+					}
+					translation.literals.put(fields[0],
+									parser.apply(URLDecoder.decode(fields[2], StandardCharsets.UTF_8.name())));
+				} else if (line.startsWith(CAPTURED)) {
+					final String[] fields = line.substring(CAPTURED.length()).split(FIELD_SEPARATOR);
+					translation.capturedIndexes.put(fields[0], Integer.valueOf(fields[1]));
+					if (fields.length > 2) {
+						translation.patterns.put(fields[0], LikePattern.valueOf(fields[2]));
+					}
+				} else if (line.startsWith(ARGS)) {
+					translation.capturedArgs = line.substring(ARGS.length());
+					complete = true;
+				}
+			}
+		} catch (final UnsupportedEncodingException | RuntimeException e) {
+			// entry written by another version of the precompiler, the filter is parsed at runtime
+			return Optional.empty();
+		}
+		return complete && translation.isBound() ? Optional.of(translation) : Optional.empty();
+	}
+
+	/**
+	 * Captured values are folded by their null-ness and boolean values (see
+	 * {@link pl.homik.flexiblelambda.visitor.PredicateOptimizer}), so the translation is valid only for non-null
+	 * values which are booleans where the samples were (all boolean samples are false)
+	 *
+	 * @param values values captured by the filter
+	 * @return true if the translation is valid for given values
+	 */
+	public boolean matches(final Object[] values) {
+		if (values == null || values.length != capturedArgs.length()) {
+			return false;
+		}
+		for (int i = 0; i < values.length; i++) {
+			final boolean sampleBoolean = capturedArgs.charAt(i) == BOOLEAN_ARG;
+			if (values[i] == null || values[i] instanceof Boolean != sampleBoolean || sampleBoolean
+							&& (Boolean) values[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates translation result like the one of parsed filter, parameters are renamed by given generator
+	 *
+	 * @param generator generator of parameter names of the query
+	 * @param values values captured by the filter, they must {@link #matches(Object[])} the translation
+	 * @param capturedArguments map which will be filled with constants holding captured values (sources of parameters
+	 * bound from them) and their index
+	 * @return translated filter
+	 */
+	public PredicateTranslationResult toResult(final ParametersNameGenerator generator, final Object[] values,
+					final Map<Expression, Integer> capturedArguments) {
+		final PredicateTranslationResult result = new PredicateTranslationResult();
+		result.getJoins().addAll(joins);
+		result.getNullRejectedTables().addAll(nullRejectedTables);
+		result.getJoinedTypes().addAll(joinedTypes);
+
+		final Map<Integer, ConstantExpression> constants = new HashMap<>();
+		final Map<String, String> names = new HashMap<>();
+		final StringBuffer renamed = new StringBuffer(where.length());
+		final Matcher matcher = PARAMETER.matcher(where);
+		while (matcher.find()) {
+			final String name = matcher.group(1);
+			final String newName = names.computeIfAbsent(name, key -> generator.next());
+			matcher.appendReplacement(renamed, "?" + newName);
+			final Integer argIndex = capturedIndexes.get(name);
+			if (argIndex == null) {
+				result.getParameters().put(newName, literals.get(name));
+				result.getParameterSources().put(newName, new ParameterSource(null, null));
+				continue;
+			}
+			final ConstantExpression constant = constants.computeIfAbsent(argIndex,
+							index -> Expression.constant(values[index]));
+			capturedArguments.put(constant, argIndex);
+			final UnaryOperator<Object> modifier = patterns.get(name);
+			result.getParameters().put(newName, modifier == null ? values[argIndex] : modifier.apply(values[argIndex]));
+			result.getParameterSources().put(newName, new ParameterSource(constant, modifier));
+		}
+		matcher.appendTail(renamed);
+		result.getWhere().append(renamed);
+		return result;
+	}
+
+	/**
+	 * @return value of {@link PrecompiledLambdaRegistry#TRANSLATED} entry
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder entry = new StringBuilder(PrecompiledLambdaRegistry.TRANSLATED).append(where);
+		joins.forEach(join -> entry.append(LINE_SEPARATOR).append(JOIN).append(join));
+		nullRejectedTables.forEach(table -> entry.append(LINE_SEPARATOR).append(REJECTED).append(table));
+		joinedTypes.forEach(type -> entry.append(LINE_SEPARATOR).append(TYPE).append(type));
+		capturedIndexes.forEach((name, index) -> {
+			entry.append(LINE_SEPARATOR).append(CAPTURED).append(name).append(FIELD_SEPARATOR).append(index);
+			if (patterns.containsKey(name)) {
+				entry.append(FIELD_SEPARATOR).append(patterns.get(name).name());
+			}
+		});
+		literals.forEach((name, value) -> {
+			try {
+				entry.append(LINE_SEPARATOR).append(LITERAL).append(name).append(FIELD_SEPARATOR)
+								.append(value.getClass().getName()).append(FIELD_SEPARATOR)
+								.append(URLEncoder.encode(value.toString(), StandardCharsets.UTF_8.name()));
+			} catch (final UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		return entry.append(LINE_SEPARATOR).append(ARGS).append(capturedArgs).toString();
+	}
+
+	/**
+	 * @return true if every parameter of the where clause has a binding and captured indexes are in range
+	 */
+	private boolean isBound() {
+		if (capturedIndexes.values().stream().anyMatch(index -> index < 0 || index >= capturedArgs.length())) {
+			return false;
+		}
+		final Matcher matcher = PARAMETER.matcher(where);
+		while (matcher.find()) {
+			if (!literals.containsKey(matcher.group(1)) && !capturedIndexes.containsKey(matcher.group(1))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isStorable(final Object value) {
+		return value != null && LITERAL_PARSERS.containsKey(value.getClass().getName());
+	}
+}
@@ -0,0 +1,85 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+
+/**
+ * Creates executor of asynchronous lambda queries - fixed thread pool or, if enabled and supported by the JVM (Java
+ * 21+), executor starting virtual thread per query. Executor is shut down with application context.
+ */
+public class QueryExecutorFactoryBean implements FactoryBean<ExecutorService>, DisposableBean {
+
+	private static final Logger LOG = Logger.getLogger(QueryExecutorFactoryBean.class.getName());
+	private static final String THREAD_NAME_PREFIX = "flexiblelambda-async-";
+
+	private int poolSize = Runtime.getRuntime().availableProcessors();
+	private boolean virtualThreads;
+	private ExecutorService executor;
+
+	@Override
+	public synchronized ExecutorService getObject() {
+		if (executor == null) {
+			executor = virtualThreads ? createVirtualThreadExecutor() : createThreadPool();
+		}
+		return executor;
+	}
+
+	private ExecutorService createVirtualThreadExecutor() {
+		try {
+			// called reflectively because extension is compiled for Java 8
+			final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (final ReflectiveOperationException e) {
+			LOG.warn("Virtual threads are not supported by this JVM, using pool of " + poolSize + " threads");
+			return createThreadPool();
+		}
+	}
+
+	private ExecutorService createThreadPool() {
+		final AtomicInteger counter = new AtomicInteger();
+		final ThreadFactory threadFactory = runnable -> {
+			final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return Executors.newFixedThreadPool(poolSize, threadFactory);
+	}
+
+	@Override
+	public Class<?> getObjectType() {
+		return ExecutorService.class;
+	}
+
+	@Override
+	public boolean isSingleton() {
+		return true;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @param poolSize number of threads of the pool (not used by virtual thread executor)
+	 */
+	public void setPoolSize(final int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * @param virtualThreads true to run each query on its own virtual thread when JVM supports it
+	 */
+	public void setVirtualThreads(final boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+}
@@ -0,0 +1,64 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.hybris.platform.jalo.type.AttributeDescriptor;
+import de.hybris.platform.jalo.type.CollectionType;
+import de.hybris.platform.jalo.type.ComposedType;
+import de.hybris.platform.jalo.type.RelationDescriptor;
+import de.hybris.platform.jalo.type.RelationType;
+import de.hybris.platform.jalo.type.TypeManager;
+
+import pl.homik.flexiblelambda.pojo.CollectionRelation;
+import pl.homik.flexiblelambda.visitor.UnsupportedExpressionException;
+
+/**
+ * Resolves how collection attribute of a type is stored using the type system. Resolved relations are memoized.
+ */
+public class RelationResolver {
+
+	private static final String SOURCE = "source";
+	private static final String TARGET = "target";
+
+	private final Map<String, CollectionRelation> relations = new ConcurrentHashMap<>();
+
+	/**
+	 * @param type type code of the owner, e.g. Order
+	 * @param qualifier qualifier of collection attribute, e.g. entries
+	 * @return storage of the relation
+	 * @throws UnsupportedExpressionException if the attribute is not a relation
+	 */
+	public CollectionRelation resolve(final String type, final String qualifier) {
+		return relations.computeIfAbsent(type + "." + qualifier, k -> lookup(type, qualifier));
+	}
+
+	/**
+	 * Descriptor of the source type (e.g. Order.entries) is the source end of its relation. In one to many relation
+	 * related items reference the owner by the attribute of the opposite end.
+	 */
+	protected CollectionRelation lookup(final String type, final String qualifier) {
+		final ComposedType composedType = TypeManager.getInstance().getComposedType(type);
+		final AttributeDescriptor attribute = composedType.getAttributeDescriptorIncludingPrivate(qualifier);
+		if (!(attribute instanceof RelationDescriptor) || !(attribute.getAttributeType() instanceof CollectionType)) {
+			throw new UnsupportedExpressionException("Relation",
+							"Attribute " + qualifier + " of " + type + " is not a collection relation");
+		}
+		final RelationDescriptor descriptor = (RelationDescriptor) attribute;
+		final RelationType relationType = descriptor.getRelationType();
+		final String elementType = ((CollectionType) descriptor.getAttributeType()).getElementType().getCode();
+		if (!relationType.isOneToMany()) {
+			return descriptor.isSource() ?
+							CollectionRelation.manyToMany(elementType, relationType.getCode(), SOURCE, TARGET) :
+							CollectionRelation.manyToMany(elementType, relationType.getCode(), TARGET, SOURCE);
+		}
+		final RelationDescriptor opposite = descriptor.isSource() ?
+						relationType.getSourceAttributeDescriptor() :
+						relationType.getTargetAttributeDescriptor();
+		if (opposite == null || opposite.getQualifier() == null) {
+			throw new UnsupportedExpressionException("Relation",
+							"Related items of " + qualifier + " of " + type + " have no reference to the owner");
+		}
+		return CollectionRelation.oneToMany(elementType, opposite.getQualifier());
+	}
+}
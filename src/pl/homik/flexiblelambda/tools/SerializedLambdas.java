@@ -0,0 +1,72 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+/**
+ * Utility class which gives access to {@link SerializedLambda} form of serializable lambdas (implementation method,
+ * captured arguments, etc.)
+ */
+public final class SerializedLambdas {
+
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private static final ClassValue<Optional<Method>> WRITE_REPLACE = new ClassValue<Optional<Method>>() {
+
+		@Override
+		protected Optional<Method> computeValue(final Class<?> type) {
+			try {
+				final Method method = type.getDeclaredMethod("writeReplace");
+				method.setAccessible(true);
+				return Optional.of(method);
+			} catch (final NoSuchMethodException | SecurityException e) {
+				return Optional.empty();
+			}
+		}
+	};
+
+	private SerializedLambdas() {
+	}
+
+	/**
+	 * Extracts {@link SerializedLambda} from given object
+	 *
+	 * @param lambda serializable lambda
+	 * @return serialized form or empty if given object is not a serializable lambda
+	 */
+	public static Optional<SerializedLambda> extract(final Object lambda) {
+		if (lambda == null || !lambda.getClass().isSynthetic()) {
+			return Optional.empty();
+		}
+		final Optional<Method> writeReplace = WRITE_REPLACE.get(lambda.getClass());
+		if (!writeReplace.isPresent()) {
+			return Optional.empty();
+		}
+		try {
+			final Object replacement = writeReplace.get().invoke(lambda);
+			if (replacement instanceof SerializedLambda) {
+				return Optional.of((SerializedLambda) replacement);
+			}
+			return Optional.empty();
+		} catch (final ReflectiveOperationException e) {
+			throw new IllegalStateException("cant extract serialized lambda", e);
+		}
+	}
+
+	/**
+	 * @param lambda serialized lambda
+	 * @return values captured by given lambda in order of declaration
+	 */
+	public static Object[] getCapturedArgs(final SerializedLambda lambda) {
+		final int count = lambda.getCapturedArgCount();
+		if (count == 0) {
+			return NO_ARGS;
+		}
+		final Object[] result = new Object[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = lambda.getCapturedArg(i);
+		}
+		return result;
+	}
+}
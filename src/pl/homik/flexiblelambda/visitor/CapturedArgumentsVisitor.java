@@ -0,0 +1,106 @@
+package pl.homik.flexiblelambda.visitor;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.trigersoft.jaque.expression.ConstantExpression;
+import com.trigersoft.jaque.expression.Expression;
+import com.trigersoft.jaque.expression.InvocationExpression;
+import com.trigersoft.jaque.expression.LambdaExpression;
+import com.trigersoft.jaque.expression.SimpleExpressionVisitor;
+
+/**
+ * Visitor which replaces constants captured by lambda with placeholders and placeholders back with values.
+ *
+ * Thanks to that expression evaluated to flexible search parameter can be stored (without holding references to
+ * captured objects) and evaluated again for other values captured by the same lambda.
+ */
+public class CapturedArgumentsVisitor extends SimpleExpressionVisitor {
+
+	private final Function<ConstantExpression, Expression> replacement;
+
+	private CapturedArgumentsVisitor(final Function<ConstantExpression, Expression> replacement) {
+		this.replacement = replacement;
+	}
+
+	/**
+	 * Replaces captured constants with placeholders
+	 *
+	 * @param e expression to change
+	 * @param capturedArguments captured constants (compared by identity) with their index in captured arguments
+	 * @return expression without captured values
+	 */
+	public static Expression toTemplate(final Expression e, final Map<Expression, Integer> capturedArguments) {
+		return e.accept(new CapturedArgumentsVisitor(c -> {
+			final Integer index = capturedArguments.get(c);
+			return index == null ? c : Expression.constant(new CapturedArgument(index), c.getResultType());
+		}));
+	}
+
+	/**
+	 * Replaces placeholders created by {@link #toTemplate(Expression, Map)} with given values
+	 *
+	 * @param template expression with placeholders
+	 * @param capturedArgs values captured by lambda
+	 * @return expression ready to be evaluated
+	 */
+	public static Expression bind(final Expression template, final Object[] capturedArgs) {
+		return template.accept(new CapturedArgumentsVisitor(c -> {
+			if (c.getValue() instanceof CapturedArgument) {
+				return Expression.constant(capturedArgs[((CapturedArgument) c.getValue()).index], c.getResultType());
+			}
+			return c;
+		}));
+	}
+
+	/**
+	 * Captured arguments are passed as leading constant arguments of lambda body invocation (JaQue passes their
+	 * deserialized copies so they have to be matched by position)
+	 *
+	 * @param lambda parsed lambda
+	 * @param capturedArgs values captured by the lambda
+	 * @return captured constants of the lambda (compared by identity) with their index in captured arguments
+	 */
+	public static Map<Expression, Integer> getCapturedArguments(final LambdaExpression<?> lambda,
+					final Object[] capturedArgs) {
+		final Map<Expression, Integer> result = new IdentityHashMap<>();
+		if (capturedArgs != null && capturedArgs.length > 0 && lambda.getBody() instanceof InvocationExpression) {
+			final List<Expression> arguments = ((InvocationExpression) lambda.getBody()).getArguments();
+			for (int i = 0; i < capturedArgs.length && i < arguments.size(); i++) {
+				if (arguments.get(i) instanceof ConstantExpression) {
+					result.put(arguments.get(i), i);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param e constant of template created by {@link #toTemplate(Expression, Map)}
+	 * @return index of captured argument replaced by given constant or null if it is not a placeholder
+	 */
+	static Integer getCapturedIndex(final ConstantExpression e) {
+		return e.getValue() instanceof CapturedArgument ? ((CapturedArgument) e.getValue()).index : null;
+	}
+
+	@Override
+	public Expression visit(final ConstantExpression e) {
+		return replacement.apply(e);
+	}
+
+	private static final class CapturedArgument {
+
+		private final int index;
+
+		private CapturedArgument(final int index) {
+			this.index = index;
+		}
+
+		@Override
+		public String toString() {
+			return "captured[" + index + "]";
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package pl.homik.flexiblelambda.visitor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import com.trigersoft.jaque.expression.BinaryExpression;
+import com.trigersoft.jaque.expression.ConstantExpression;
+import com.trigersoft.jaque.expression.Expression;
+import com.trigersoft.jaque.expression.ExpressionType;
+import com.trigersoft.jaque.expression.ExpressionVisitor;
+import com.trigersoft.jaque.expression.InvocationExpression;
+import com.trigersoft.jaque.expression.LambdaExpression;
+import com.trigersoft.jaque.expression.MemberExpression;
+import com.trigersoft.jaque.expression.ParameterExpression;
+import com.trigersoft.jaque.expression.UnaryExpression;
+
+/**
+ * Compiles expression template created by {@link CapturedArgumentsVisitor#toTemplate(Expression, java.util.Map)} to
+ * {@link MethodHandle} of type (Object[])Object taking values captured by lambda. It supports the same expressions as
+ * {@link ToConstantExpressionVisitor} but methods are bound once, so evaluation does not walk the tree nor use
+ * reflection.
+ */
+public class CapturedExpressionCompiler implements ExpressionVisitor<MethodHandle> {
+
+	private static final MethodType EVALUATOR_TYPE = MethodType.methodType(Object.class, Object[].class);
+	private static final MethodHandle CAPTURED_ARGUMENT = MethodHandles.arrayElementGetter(Object[].class);
+
+	private final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+	private List<MethodHandle> arguments = Collections.emptyList();
+
+	private CapturedExpressionCompiler() {
+	}
+
+	/**
+	 * @param template expression with placeholders of captured arguments
+	 * @return handle evaluating given template for captured arguments or empty if the expression can't be compiled
+	 * (e.g. it calls method of not public class)
+	 */
+	public static Optional<MethodHandle> compile(final Expression template) {
+		try {
+			return Optional.of(template.accept(new CapturedExpressionCompiler()));
+		} catch (final UnsupportedOperationException | IllegalStateException e) {
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * @param evaluator handle created by {@link #compile(Expression)}
+	 * @param capturedArgs values captured by lambda
+	 * @return value of compiled expression
+	 */
+	public static Object evaluate(final MethodHandle evaluator, final Object[] capturedArgs) {
+		try {
+			return (Object) evaluator.invokeExact(capturedArgs);
+		} catch (final Error e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new IllegalStateException("cant evaluate captured expression", e);
+		}
+	}
+
+	@Override
+	public MethodHandle visit(final BinaryExpression e) {
+		throw new UnsupportedExpressionException(ExpressionType.toString(e.getExpressionType()),
+						"Binary expression unsupported " + e);
+	}
+
+	@Override
+	public MethodHandle visit(final ConstantExpression e) {
+		final Integer index = CapturedArgumentsVisitor.getCapturedIndex(e);
+		if (index != null) {
+			return MethodHandles.insertArguments(CAPTURED_ARGUMENT, 1, index);
+		}
+		return MethodHandles.dropArguments(MethodHandles.constant(Object.class, e.getValue()), 0, Object[].class);
+	}
+
+	@Override
+	public MethodHandle visit(final InvocationExpression e) {
+		final List<MethodHandle> compiledArguments = new ArrayList<>(e.getArguments().size());
+		for (final Expression argument : e.getArguments()) {
+			compiledArguments.add(argument.accept(this));
+		}
+		final List<MethodHandle> oldArguments = arguments;
+		arguments = compiledArguments;
+		final MethodHandle result = e.getTarget().accept(this);
+		arguments = oldArguments;
+		return result;
+	}
+
+	@Override
+	public MethodHandle visit(final LambdaExpression<?> e) {
+		return e.getBody().accept(this);
+	}
+
+	@Override
+	public MethodHandle visit(final MemberExpression e) {
+		final Member member = e.getMember();
+		if (!(member instanceof Method)) {
+			throw new UnsupportedExpressionException(ExpressionType.toString(e.getExpressionType()),
+							"member unsupported" + member);
+		}
+		final List<MethodHandle> operands = new ArrayList<>();
+		if (!Modifier.isStatic(member.getModifiers())) {
+			operands.add(e.getInstance().accept(this));
+		}
+		for (final ParameterExpression parameter : e.getParameters()) {
+			operands.add(arguments.get(parameter.getIndex()));
+		}
+
+		final MethodHandle method = unreflect((Method) member).asFixedArity()
+						.asType(MethodType.genericMethodType(operands.size()));
+		if (operands.isEmpty()) {
+			return MethodHandles.dropArguments(method, 0, Object[].class);
+		}
+		// every operand is computed from the same captured arguments
+		final MethodHandle filtered = MethodHandles.filterArguments(method, 0,
+						operands.toArray(new MethodHandle[operands.size()]));
+		return MethodHandles.permuteArguments(filtered, EVALUATOR_TYPE, new int[operands.size()]);
+	}
+
+	@Override
+	public MethodHandle visit(final ParameterExpression e) {
+		return arguments.get(e.getIndex());
+	}
+
+	@Override
+	public MethodHandle visit(final UnaryExpression e) {
+		throw new UnsupportedExpressionException(ExpressionType.toString(e.getExpressionType()),
+						"unaryExpression unsupported" + e);
+	}
+
+	private MethodHandle unreflect(final Method method) {
+		try {
+			return lookup.unreflect(method);
+		} catch (final IllegalAccessException e) {
+			throw new IllegalStateException("cant access " + method, e);
+		}
+	}
+}
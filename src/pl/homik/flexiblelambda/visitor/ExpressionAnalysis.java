@@ -0,0 +1,131 @@
+package pl.homik.flexiblelambda.visitor;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.trigersoft.jaque.expression.BinaryExpression;
+import com.trigersoft.jaque.expression.ConstantExpression;
+import com.trigersoft.jaque.expression.Expression;
+import com.trigersoft.jaque.expression.ExpressionVisitor;
+import com.trigersoft.jaque.expression.InvocationExpression;
+import com.trigersoft.jaque.expression.LambdaExpression;
+import com.trigersoft.jaque.expression.MemberExpression;
+import com.trigersoft.jaque.expression.ParameterExpression;
+import com.trigersoft.jaque.expression.UnaryExpression;
+
+/**
+ * Side table with numbers of constant and parameter expressions in every analyzed sub-tree. Each node is analyzed
+ * once, results of its children are reused, so repeated questions about nested expressions do not walk them again.
+ * Nodes are compared by identity, rewritten trees (e.g. by {@link ArgumentsFixVisitor}) share unchanged sub-trees.
+ */
+public class ExpressionAnalysis {
+
+	private static final Counts CONSTANT = new Counts(1, 0);
+	private static final Counts PARAMETER = new Counts(0, 1);
+	private static final Counts EMPTY = new Counts(0, 0);
+
+	private final Map<Expression, Counts> counts = new IdentityHashMap<>();
+	private final ExpressionVisitor<Counts> counter = new Counter();
+
+	/**
+	 * @return number of constant expressions in given expression tree
+	 */
+	public int getConstantCount(final Expression expression) {
+		return analyze(expression).constants;
+	}
+
+	/**
+	 * @return number of parameter expressions in given expression tree
+	 */
+	public int getParameterCount(final Expression expression) {
+		return analyze(expression).parameters;
+	}
+
+	/**
+	 * @return true if given expression uses constants (e.g. captured variables) so it can be evaluated before query
+	 * execution
+	 */
+	public boolean isExecutable(final Expression expression) {
+		return getConstantCount(expression) > 0;
+	}
+
+	private Counts analyze(final Expression expression) {
+		if (expression == null) {
+			return EMPTY;
+		}
+		Counts result = counts.get(expression);
+		if (result == null) {
+			result = expression.accept(counter);
+			counts.put(expression, result);
+		}
+		return result;
+	}
+
+	private static final class Counts {
+
+		private final int constants;
+		private final int parameters;
+
+		private Counts(final int constants, final int parameters) {
+			this.constants = constants;
+			this.parameters = parameters;
+		}
+
+		private Counts plus(final Counts other) {
+			if (other == EMPTY) {
+				return this;
+			}
+			return this == EMPTY ? other : new Counts(constants + other.constants, parameters + other.parameters);
+		}
+	}
+
+	/**
+	 * Visits the same children as {@link com.trigersoft.jaque.expression.SimpleExpressionVisitor}
+	 */
+	private final class Counter implements ExpressionVisitor<Counts> {
+
+		@Override
+		public Counts visit(final BinaryExpression e) {
+			return analyze(e.getFirst()).plus(analyze(e.getSecond())).plus(analyze(e.getOperator()));
+		}
+
+		@Override
+		public Counts visit(final ConstantExpression e) {
+			return CONSTANT;
+		}
+
+		@Override
+		public Counts visit(final InvocationExpression e) {
+			return analyze(e.getTarget()).plus(analyzeAll(e.getArguments()));
+		}
+
+		@Override
+		public Counts visit(final LambdaExpression<?> e) {
+			return analyze(e.getBody());
+		}
+
+		@Override
+		public Counts visit(final MemberExpression e) {
+			return analyze(e.getInstance());
+		}
+
+		@Override
+		public Counts visit(final ParameterExpression e) {
+			return PARAMETER;
+		}
+
+		@Override
+		public Counts visit(final UnaryExpression e) {
+			return analyze(e.getFirst());
+		}
+
+		private Counts analyzeAll(final List<Expression> expressions) {
+			Counts result = EMPTY;
+			for (final Expression expression : expressions) {
+				result = result.plus(analyze(expression));
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package pl.homik.flexiblelambda.visitor;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Modifiers of LIKE parameters translated from String methods, they are named so build-time translations can refer to
+ * them
+ */
+public enum LikePattern implements UnaryOperator<Object> {
+
+	/**
+	 * String.startsWith
+	 */
+	STARTS_WITH {
+		@Override
+		public Object apply(final Object value) {
+			return value + "%";
+		}
+	},
+
+	/**
+	 * String.endsWith
+	 */
+	ENDS_WITH {
+		@Override
+		public Object apply(final Object value) {
+			return "%" + value;
+		}
+	},
+
+	/**
+	 * String.contains
+	 */
+	CONTAINS {
+		@Override
+		public Object apply(final Object value) {
+			return "%" + value + "%";
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package pl.homik.flexiblelambda.visitor;
+
+import static com.trigersoft.jaque.expression.ExpressionType.Convert;
+import static com.trigersoft.jaque.expression.ExpressionType.Equal;
+import static com.trigersoft.jaque.expression.ExpressionType.GreaterThan;
+import static com.trigersoft.jaque.expression.ExpressionType.GreaterThanOrEqual;
+import static com.trigersoft.jaque.expression.ExpressionType.IsNull;
+import static com.trigersoft.jaque.expression.ExpressionType.LessThan;
+import static com.trigersoft.jaque.expression.ExpressionType.LessThanOrEqual;
+import static com.trigersoft.jaque.expression.ExpressionType.LogicalAnd;
+import static com.trigersoft.jaque.expression.ExpressionType.LogicalNot;
+import static com.trigersoft.jaque.expression.ExpressionType.LogicalOr;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import com.trigersoft.jaque.expression.BinaryExpression;
+import com.trigersoft.jaque.expression.ConstantExpression;
+import com.trigersoft.jaque.expression.Expression;
+import com.trigersoft.jaque.expression.InvocationExpression;
+import com.trigersoft.jaque.expression.LambdaExpression;
+import com.trigersoft.jaque.expression.MemberExpression;
+import com.trigersoft.jaque.expression.ParameterExpression;
+import com.trigersoft.jaque.expression.UnaryExpression;
+
+/**
+ * Simplifies predicate before it is translated by {@link ToFlexibleSearchVisitor}:
+ * <ul>
+ * <li>boolean constants are folded, e.g. optional filter code == null || e.getCode().equals(code)</li>
+ * <li>nested AND / OR are flattened and repeated operands are removed</li>
+ * <li>bounds of the same column compared with literals are merged, e.g. x > 1 &amp;&amp; x > 3 to x > 3</li>
+ * <li>negations of AND / OR are pushed down to their operands</li>
+ * </ul>
+ * Captured values are folded only by their null-ness and boolean values, which are part of the translation plan key.
+ * Other captured values stay query parameters, so the plan can be reused for other values. Captured constants are kept
+ * in the rewritten tree (by identity), so parameters bound from them are still recognized.
+ */
+public class PredicateOptimizer {
+
+	private final Map<Expression, Object> capturedValues;
+	private final Map<Expression, Integer> capturedIds = new IdentityHashMap<>();
+	private final ExpressionAnalysis analysis = new ExpressionAnalysis();
+
+	/**
+	 * @param capturedValues constants captured by the lambda (compared by identity) with their current values, JaQue
+	 * caches parsed lambdas so values in the tree can come from another instance of the lambda
+	 */
+	public PredicateOptimizer(final Map<Expression, Object> capturedValues) {
+		this.capturedValues = capturedValues;
+	}
+
+	/**
+	 * @return simplified predicate, it is a boolean constant if the predicate is always true or false
+	 */
+	public Expression optimize(final Expression e) {
+		final int type = e.getExpressionType();
+		if (type == LogicalAnd || type == LogicalOr) {
+			return optimizeLogical(e, type);
+		}
+		if (type == LogicalNot) {
+			final Expression operand = optimize(((UnaryExpression) e).getFirst());
+			final int operandType = operand.getExpressionType();
+			final boolean leaf = operandType != LogicalAnd && operandType != LogicalOr && operandType != LogicalNot;
+			return leaf && operand == ((UnaryExpression) e).getFirst() && !getBooleanValue(operand).isPresent() ?
+							e :
+							negate(operand);
+		}
+		final Optional<Boolean> value = getBooleanValue(e);
+		return value.isPresent() && !(e instanceof ConstantExpression) ? toConstant(value.get()) : e;
+	}
+
+	/**
+	 * @return value of given predicate if it doesn't depend on the item
+	 */
+	public Optional<Boolean> getBooleanValue(final Expression e) {
+		if (e instanceof ConstantExpression) {
+			final Object value = getValue((ConstantExpression) e);
+			return value instanceof Boolean ? Optional.of((Boolean) value) : Optional.empty();
+		}
+		if (e.getExpressionType() == Convert) {
+			return getBooleanValue(((UnaryExpression) e).getFirst());
+		}
+		if (e.getExpressionType() == LogicalNot) {
+			return getBooleanValue(((UnaryExpression) e).getFirst()).map(value -> !value);
+		}
+		if (e.getExpressionType() == IsNull) {
+			final Expression operand = unwrapConvert(((UnaryExpression) e).getFirst());
+			if (operand instanceof ConstantExpression) {
+				return Optional.of(getValue((ConstantExpression) operand) == null);
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * @return operands of nested operations of given type, e.g. [a, b, c] for a || (b || c)
+	 */
+	public static List<Expression> flatten(final Expression e, final int type) {
+		final List<Expression> result = new ArrayList<>();
+		addOperands(e, type, result);
+		return result;
+	}
+
+	/**
+	 * @return given predicate as comparison of a column with a constant (e.g. e.getCode().equals(code)) or empty
+	 */
+	Optional<ColumnEquality> toColumnEquality(final Expression e) {
+		Expression column = null;
+		Expression value = null;
+		if (e.getExpressionType() == Equal) {
+			final BinaryExpression binary = (BinaryExpression) e;
+			final boolean constantFirst = binary.getFirst() instanceof ConstantExpression;
+			column = constantFirst ? binary.getSecond() : binary.getFirst();
+			value = constantFirst ? binary.getFirst() : binary.getSecond();
+		} else if (e instanceof InvocationExpression && ((InvocationExpression) e).getArguments().size() == 1) {
+			final InvocationExpression invocation = (InvocationExpression) e;
+			if (invocation.getTarget() instanceof MemberExpression && isEquals((MemberExpression) invocation.getTarget())) {
+				column = ((MemberExpression) invocation.getTarget()).getInstance();
+				value = invocation.getArguments().get(0);
+			}
+		}
+		// boolean getters are translated to comparison with true
+		if (!(value instanceof ConstantExpression) || column == null || !isColumn(column) || column.getResultType()
+						.equals(Boolean.class) || column.getResultType().equals(Boolean.TYPE)) {
+			return Optional.empty();
+		}
+		return Optional.of(new ColumnEquality(column, (ConstantExpression) value, key(column)));
+	}
+
+	private Expression optimizeLogical(final Expression e, final int type) {
+		final List<Expression> operands = new ArrayList<>();
+		final Set<String> keys = new HashSet<>();
+		for (final Expression operand : flatten(e, type)) {
+			final Expression optimized = optimize(operand);
+			final Optional<Boolean> value = getBooleanValue(optimized);
+			if (value.isPresent()) {
+				// true is neutral for AND and absorbs OR, false the other way round
+				if (value.get() == (type == LogicalOr)) {
+					return toConstant(value.get());
+				}
+				continue;
+			}
+			for (final Expression part : flatten(optimized, type)) {
+				if (keys.add(key(part))) {
+					operands.add(part);
+				}
+			}
+		}
+		final List<Expression> merged = mergeBounds(operands, type == LogicalAnd);
+		if (merged.isEmpty()) {
+			return toConstant(type == LogicalAnd);
+		}
+		Expression result = merged.get(0);
+		for (int i = 1; i < merged.size(); i++) {
+			result = type == LogicalAnd ?
+							Expression.logicalAnd(result, merged.get(i)) :
+							Expression.logicalOr(result, merged.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Negation of AND / OR is pushed down by De Morgan laws, JaQue inverts comparisons, other predicates are wrapped
+	 */
+	private Expression negate(final Expression e) {
+		final Optional<Boolean> value = getBooleanValue(e);
+		if (value.isPresent()) {
+			return toConstant(!value.get());
+		}
+		final int type = e.getExpressionType();
+		if (type == LogicalNot) {
+			return ((UnaryExpression) e).getFirst();
+		}
+		if (type == LogicalAnd || type == LogicalOr) {
+			final List<Expression> negated = new ArrayList<>();
+			for (final Expression operand : flatten(e, type)) {
+				negated.add(negate(operand));
+			}
+			Expression result = negated.get(0);
+			for (int i = 1; i < negated.size(); i++) {
+				result = type == LogicalAnd ?
+								Expression.logicalOr(result, negated.get(i)) :
+								Expression.logicalAnd(result, negated.get(i));
+			}
+			return optimize(result);
+		}
+		return Expression.logicalNot(e);
+	}
+
+	/**
+	 * Keeps only the tightest (for AND) or the loosest (for OR) lower and upper bound of each column compared with
+	 * literals of the same type
+	 */
+	private List<Expression> mergeBounds(final List<Expression> operands, final boolean conjunction) {
+		final List<Expression> result = new ArrayList<>(operands);
+		final Map<String, Integer> boundIndexes = new HashMap<>();
+		for (int i = 0; i < operands.size(); i++) {
+			final Optional<Bound> bound = toBound(operands.get(i));
+			if (!bound.isPresent()) {
+				continue;
+			}
+			final Integer previousIndex = boundIndexes.get(bound.get().key);
+			if (previousIndex == null) {
+				boundIndexes.put(bound.get().key, i);
+				continue;
+			}
+			final Bound previous = toBound(result.get(previousIndex)).get();
+			if (bound.get().isTighterThan(previous) == conjunction) {
+				result.set(previousIndex, operands.get(i));
+			}
+			result.set(i, null);
+		}
+		result.removeIf(operand -> operand == null);
+		return result;
+	}
+
+	private Optional<Bound> toBound(final Expression e) {
+		final int type = e.getExpressionType();
+		if (type != LessThan && type != LessThanOrEqual && type != GreaterThan && type != GreaterThanOrEqual) {
+			return Optional.empty();
+		}
+		final BinaryExpression binary = (BinaryExpression) e;
+		final boolean constantFirst = binary.getFirst() instanceof ConstantExpression;
+		final Expression column = constantFirst ? binary.getSecond() : binary.getFirst();
+		final Expression constant = constantFirst ? binary.getFirst() : binary.getSecond();
+		if (!(constant instanceof ConstantExpression) || capturedValues.containsKey(constant) || !isColumn(column)
+						|| !(((ConstantExpression) constant).getValue() instanceof Comparable)) {
+			return Optional.empty();
+		}
+		// constant < column is a lower bound
+		final boolean lower = (type == GreaterThan || type == GreaterThanOrEqual) != constantFirst;
+		final boolean strict = type == GreaterThan || type == LessThan;
+		final Object value = ((ConstantExpression) constant).getValue();
+		return Optional.of(new Bound(key(column) + (lower ? ">" : "<") + value.getClass().getName(), lower, strict,
+						(Comparable<?>) value));
+	}
+
+	private boolean isColumn(final Expression e) {
+		return analysis.getParameterCount(e) > 0 && analysis.getConstantCount(e) == 0;
+	}
+
+	private boolean isEquals(final MemberExpression e) {
+		return e.getMember() instanceof Method && e.getMember().getName().equals("equals")
+						&& ((Method) e.getMember()).getParameterCount() == 1 && ((Method) e.getMember())
+						.getParameterTypes()[0].equals(Object.class);
+	}
+
+	private Object getValue(final ConstantExpression e) {
+		return capturedValues.containsKey(e) ? capturedValues.get(e) : e.getValue();
+	}
+
+	private Expression unwrapConvert(final Expression e) {
+		return e.getExpressionType() == Convert ? unwrapConvert(((UnaryExpression) e).getFirst()) : e;
+	}
+
+	private Expression toConstant(final boolean value) {
+		return Expression.constant(value, Boolean.TYPE);
+	}
+
+	/**
+	 * Structural key of expression, literals are compared by value and captured constants by identity
+	 */
+	private String key(final Expression e) {
+		if (e == null) {
+			return "";
+		}
+		if (e instanceof ConstantExpression) {
+			final Object value = ((ConstantExpression) e).getValue();
+			return capturedValues.containsKey(e) ?
+							"#" + capturedIds.computeIfAbsent(e, c -> capturedIds.size()) :
+							"'" + value + "':" + (value == null ? e.getResultType() : value.getClass()).getName();
+		}
+		if (e instanceof ParameterExpression) {
+			return "P" + ((ParameterExpression) e).getIndex();
+		}
+		if (e instanceof BinaryExpression) {
+			return "(" + key(((BinaryExpression) e).getFirst()) + " " + e.getExpressionType() + " " + key(
+							((BinaryExpression) e).getSecond()) + ")";
+		}
+		if (e instanceof UnaryExpression) {
+			return e.getExpressionType() + ":" + e.getResultType().getName() + "(" + key(((UnaryExpression) e).getFirst())
+							+ ")";
+		}
+		if (e instanceof MemberExpression) {
+			return key(((MemberExpression) e).getInstance()) + "." + ((MemberExpression) e).getMember();
+		}
+		if (e instanceof InvocationExpression) {
+			final StringBuilder result = new StringBuilder(key(((InvocationExpression) e).getTarget())).append('(');
+			for (final Expression argument : ((InvocationExpression) e).getArguments()) {
+				result.append(key(argument)).append(',');
+			}
+			return result.append(')').toString();
+		}
+		if (e instanceof LambdaExpression) {
+			return "{" + key(((LambdaExpression<?>) e).getBody()) + "}";
+		}
+		return e.toString();
+	}
+
+	private static void addOperands(final Expression e, final int type, final List<Expression> result) {
+		if (e.getExpressionType() == type) {
+			addOperands(((BinaryExpression) e).getFirst(), type, result);
+			addOperands(((BinaryExpression) e).getSecond(), type, result);
+		} else {
+			result.add(e);
+		}
+	}
+
+	/**
+	 * Comparison of a column with a constant value
+	 */
+	static final class ColumnEquality {
+
+		private final Expression column;
+		private final ConstantExpression value;
+		private final String columnKey;
+
+		private ColumnEquality(final Expression column, final ConstantExpression value, final String columnKey) {
+			this.column = column;
+			this.value = value;
+			this.columnKey = columnKey;
+		}
+
+		Expression getColumn() {
+			return column;
+		}
+
+		ConstantExpression getValue() {
+			return value;
+		}
+
+		String getColumnKey() {
+			return columnKey;
+		}
+	}
+
+	private static final class Bound {
+
+		private final String key;
+		private final boolean lower;
+		private final boolean strict;
+		private final Comparable<?> value;
+
+		private Bound(final String key, final boolean lower, final boolean strict, final Comparable<?> value) {
+			this.key = key;
+			this.lower = lower;
+			this.strict = strict;
+			this.value = value;
+		}
+
+		@SuppressWarnings("unchecked")
+		private boolean isTighterThan(final Bound other) {
+			final int comparison = ((Comparable<Object>) value).compareTo(other.value);
+			if (comparison == 0) {
+				return strict && !other.strict;
+			}
+			return lower == comparison > 0;
+		}
+	}
+}
@@ -9,6 +9,7 @@ import java.util.stream.Collectors;
 import com.trigersoft.jaque.expression.BinaryExpression;
 import com.trigersoft.jaque.expression.ConstantExpression;
 import com.trigersoft.jaque.expression.Expression;
+import com.trigersoft.jaque.expression.ExpressionType;
 import com.trigersoft.jaque.expression.ExpressionVisitor;
 import com.trigersoft.jaque.expression.InvocationExpression;
 import com.trigersoft.jaque.expression.LambdaExpression;
@@ -25,7 +26,8 @@ public class ToConstantExpressionVisitor implements ExpressionVisitor<ConstantEx
 
 	@Override
 	public ConstantExpression visit(final BinaryExpression binaryExpression) {
-		throw new UnsupportedOperationException("Binary expression unsupported " + binaryExpression);
+		throw new UnsupportedExpressionException(ExpressionType.toString(binaryExpression.getExpressionType()),
+						"Binary expression unsupported " + binaryExpression);
 	}
 
 	@Override
@@ -66,7 +68,8 @@ public class ToConstantExpressionVisitor implements ExpressionVisitor<ConstantEx
 			}
 		}
 
-		throw new UnsupportedOperationException("member unsupported" + member);
+		throw new UnsupportedExpressionException(ExpressionType.toString(memberExpression.getExpressionType()),
+						"member unsupported" + member);
 	}
 
 	@Override
@@ -77,7 +80,8 @@ public class ToConstantExpressionVisitor implements ExpressionVisitor<ConstantEx
 
 	@Override
 	public ConstantExpression visit(final UnaryExpression unaryExpression) {
-		throw new UnsupportedOperationException("unaryExpression unsupported" + unaryExpression);
+		throw new UnsupportedExpressionException(ExpressionType.toString(unaryExpression.getExpressionType()),
+						"unaryExpression unsupported" + unaryExpression);
 	}
 
 }
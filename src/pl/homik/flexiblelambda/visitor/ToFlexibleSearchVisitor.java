@@ -12,14 +12,23 @@ import static com.trigersoft.jaque.expression.ExpressionType.NotEqual;
 
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import de.hybris.bootstrap.annotations.Accessor;
+import de.hybris.platform.core.PK;
 import de.hybris.platform.core.model.ItemModel;
 import de.hybris.platform.servicelayer.model.ModelService;
 
@@ -36,6 +45,7 @@ import com.trigersoft.jaque.expression.ParameterExpression;
 import com.trigersoft.jaque.expression.UnaryExpression;
 
 import pl.homik.flexiblelambda.constants.FlexiblelambdaConstants;
+import pl.homik.flexiblelambda.pojo.ParameterSource;
 import pl.homik.flexiblelambda.pojo.PredicateTranslationResult;
 import pl.homik.flexiblelambda.tools.ParametersNameGenerator;
 
@@ -45,15 +55,74 @@ import pl.homik.flexiblelambda.tools.ParametersNameGenerator;
 public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTranslationResult> {
 
 	private static final String SQL_LIKE = "LIKE";
+	private static final String SQL_IN = "IN";
+	private static final String SQL_NOT = "NOT ";
+	private static final String SQL_ALWAYS_FALSE = "1=0";
+	private static final String PK_COLUMN = "PK";
 	private final PredicateTranslationResult sb = new PredicateTranslationResult();
 	private final ParametersNameGenerator paramGenerator;
 	private final ModelService modelService;
 	private final Deque<UnaryOperator<Object>> parameterModifiers = new LinkedList<>();
+	private final boolean predicate;
+	private final String mainAlias;
+	private final Map<String, String> parentTables = new HashMap<>();
+	private final ExpressionAnalysis analysis = new ExpressionAnalysis();
+	private final Map<Expression, Object> capturedValues = new IdentityHashMap<>();
+	private final PredicateOptimizer optimizer = new PredicateOptimizer(capturedValues);
+	private Object[] capturedArgs;
+	private boolean negated = false;
+	private Set<String> nullRejectedTables = sb.getNullRejectedTables();
 	private boolean columnBlock = false;
+	private Class<?> columnType;
+	private long typeLookupNanos;
 
 	public ToFlexibleSearchVisitor(final ParametersNameGenerator paramGenerator, final ModelService modelService) {
+		this(paramGenerator, modelService, true);
+	}
+
+	/**
+	 * @param paramGenerator generator of parameter names
+	 * @param modelService model service
+	 * @param predicate false if translated lambda is a getter of selected column, then boolean getters are not
+	 * compared with true
+	 */
+	public ToFlexibleSearchVisitor(final ParametersNameGenerator paramGenerator, final ModelService modelService,
+					final boolean predicate) {
+		this(paramGenerator, modelService, predicate, FlexiblelambdaConstants.FS_MAIN_ALIAS);
+	}
+
+	/**
+	 * @param mainAlias alias of the item passed to translated lambda, aliases of its joined relations are derived from
+	 * it (subqueries use their own alias so they don't clash with the outer query)
+	 */
+	public ToFlexibleSearchVisitor(final ParametersNameGenerator paramGenerator, final ModelService modelService,
+					final boolean predicate, final String mainAlias) {
 		this.paramGenerator = paramGenerator;
 		this.modelService = modelService;
+		this.predicate = predicate;
+		this.mainAlias = mainAlias;
+	}
+
+	/**
+	 * @param capturedArgs values captured by translated lambda, when not set values of parsed lambda are used (JaQue
+	 * caches parsed lambdas, so they can come from another instance of the lambda)
+	 */
+	public void setCapturedArgs(final Object[] capturedArgs) {
+		this.capturedArgs = capturedArgs;
+	}
+
+	/**
+	 * @return time spent in lookups of types of joined models
+	 */
+	public long getTypeLookupNanos() {
+		return typeLookupNanos;
+	}
+
+	/**
+	 * @return return type of the last getter translated to a column or null if there was none
+	 */
+	public Class<?> getColumnType() {
+		return columnType;
 	}
 
 	private String toSqlOp(final int expressionType) {
@@ -77,7 +146,7 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 		case NotEqual:
 			return "<>";
 		default:
-			throw new UnsupportedOperationException(
+			throw new UnsupportedExpressionException(ExpressionType.toString(expressionType),
 							"unsupported expression type: " + expressionType + " " + ExpressionType
 											.toString(expressionType));
 		}
@@ -85,13 +154,27 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 
 	@Override
 	public PredicateTranslationResult visit(final LambdaExpression<?> e) {
-		final Expression body = e.getBody();
+		if (!predicate) {
+			return e.getBody().accept(this);
+		}
+		final Expression body = optimizer.optimize(e.getBody());
+		final Optional<Boolean> value = optimizer.getBooleanValue(body);
+		if (value.isPresent()) {
+			// predicate which is always true has no condition
+			if (!value.get()) {
+				sb.getWhere().append(SQL_ALWAYS_FALSE);
+			}
+			return sb;
+		}
 		return body.accept(this);
 	}
 
 	@Override
 	public PredicateTranslationResult visit(final BinaryExpression e) {
 
+		if (e.getExpressionType() == LogicalAnd || e.getExpressionType() == LogicalOr) {
+			return visitLogical(e);
+		}
 		e.getFirst().accept(this);
 		final int expressionType = e.getExpressionType();
 		addSqlOperator(expressionType);
@@ -100,6 +183,77 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 		return sb;
 	}
 
+	/**
+	 * Table is null rejected by AND if it is rejected by any of its operands and by OR if it is rejected by all of
+	 * them. Nested operations are parenthesized, equalities of the same column under OR are translated to single IN.
+	 */
+	private PredicateTranslationResult visitLogical(final BinaryExpression e) {
+		final Set<String> outerRejected = nullRejectedTables;
+		final int type = e.getExpressionType();
+
+		Set<String> rejected = null;
+		for (final List<Expression> group : groupOperands(PredicateOptimizer.flatten(e, type), type)) {
+			if (rejected != null) {
+				addSqlOperator(type);
+			}
+			final Set<String> operandRejected = nullRejectedTables = new HashSet<>();
+			if (group.size() > 1) {
+				visitIn(group);
+			} else if (group.get(0).getExpressionType() == LogicalAnd || group.get(0).getExpressionType() == LogicalOr) {
+				sb.getWhere().append('(');
+				group.get(0).accept(this);
+				sb.getWhere().append(')');
+			} else {
+				group.get(0).accept(this);
+			}
+			if (rejected == null) {
+				rejected = operandRejected;
+			} else if (type == LogicalAnd) {
+				rejected.addAll(operandRejected);
+			} else {
+				rejected.retainAll(operandRejected);
+			}
+		}
+		outerRejected.addAll(rejected);
+		nullRejectedTables = outerRejected;
+		return sb;
+	}
+
+	/**
+	 * Operands of OR comparing the same column with constants are grouped (at position of the first of them)
+	 */
+	private List<List<Expression>> groupOperands(final List<Expression> operands, final int type) {
+		final Map<Object, List<Expression>> groups = new LinkedHashMap<>();
+		for (final Expression operand : operands) {
+			final Optional<PredicateOptimizer.ColumnEquality> equality = type == LogicalOr ?
+							optimizer.toColumnEquality(operand) :
+							Optional.empty();
+			groups.computeIfAbsent(equality.isPresent() ? equality.get().getColumnKey() : operand,
+							k -> new ArrayList<>()).add(operand);
+		}
+		return new ArrayList<>(groups.values());
+	}
+
+	/**
+	 * Translates e.getAttr() == a || e.getAttr() == b to {attr} IN (?a, ?b), every value keeps its own parameter
+	 */
+	private void visitIn(final List<Expression> equalities) {
+		boolean first = true;
+		for (final Expression operand : equalities) {
+			final PredicateOptimizer.ColumnEquality equality = optimizer.toColumnEquality(operand).get();
+			if (first) {
+				equality.getColumn().accept(this);
+				addSqlOperator(SQL_IN);
+				sb.getWhere().append('(');
+			} else {
+				sb.getWhere().append(", ");
+			}
+			equality.getValue().accept(this);
+			first = false;
+		}
+		sb.getWhere().append(')');
+	}
+
 	private void addSqlOperator(final int expressionType) {
 		final String operator = toSqlOp(expressionType);
 		addSqlOperator(operator);
@@ -112,35 +266,44 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 	@Override
 	public PredicateTranslationResult visit(final ConstantExpression e) {
 		final Object value = e.getValue();
-		addSqlParam(value);
+		addSqlParam(value, e);
 		return sb;
 	}
 
-	private void addSqlParam(final Object value) {
+	private void addSqlParam(final Object value, final Expression source) {
 		final String paramName = paramGenerator.next();
 		sb.getWhere().append('?').append(paramName);
 		final Object param;
+		final UnaryOperator<Object> modifier;
 		if (!parameterModifiers.isEmpty()) {
-			final UnaryOperator<Object> modifier = parameterModifiers.pop();
+			modifier = parameterModifiers.pop();
 			param = modifier.apply(value);
 		} else {
+			modifier = null;
 			param = value;
 		}
 		sb.getParameters().put(paramName, param);
+		sb.getParameterSources().put(paramName, new ParameterSource(source, modifier));
 	}
 
 	@Override
 	public PredicateTranslationResult visit(final InvocationExpression e) {
 		final InvocableExpression fixedExpression = ArgumentsFixVisitor.fixArguments(e.getTarget(), e.getArguments());
+		if (fixedExpression instanceof LambdaExpression) {
+			recordCapturedValues(e.getArguments());
+		}
+		if (isCollectionContains(fixedExpression)) {
+			return visitContains((MemberExpression) fixedExpression, e.getArguments());
+		}
 		fixedExpression.accept(this);
 		if (shouldExecuteParameters(fixedExpression)) {
 
 			final List<Expression> arguments = filterArgumentExpressions(fixedExpression, e.getArguments());
 			for (final Expression arg : arguments) {
-				if (canBeExecuted(arg)) {
+				if (analysis.isExecutable(arg)) {
 					final ToConstantExpressionVisitor visitor = new ToConstantExpressionVisitor();
 					final ConstantExpression constantExpression = arg.accept(visitor);
-					constantExpression.accept(this);
+					addSqlParam(constantExpression.getValue(), arg);
 				} else {
 					arg.accept(this);
 				}
@@ -151,9 +314,56 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 		return sb;
 	}
 
+	/**
+	 * Constant arguments of lambda body invocation are values captured by the lambda
+	 */
+	private void recordCapturedValues(final List<Expression> arguments) {
+		for (int i = 0; i < arguments.size(); i++) {
+			final Expression argument = arguments.get(i);
+			if (argument instanceof ConstantExpression) {
+				capturedValues.put(argument, capturedArgs != null && i < capturedArgs.length ?
+								capturedArgs[i] :
+								((ConstantExpression) argument).getValue());
+			}
+		}
+	}
+
+	/**
+	 * Translates collection.contains(e.getAttr()) to {attr} IN (?collection), collection has to be computable before
+	 * query execution (e.g. captured variable)
+	 */
+	private PredicateTranslationResult visitContains(final MemberExpression contains, final List<Expression> arguments) {
+		final Expression collection = contains.getInstance();
+		if (!(collection instanceof ConstantExpression) && (analysis.getParameterCount(collection) > 0 || !analysis
+						.isExecutable(collection))) {
+			throw new UnsupportedExpressionException("Collection.contains",
+							"contains is supported only on captured collections (assign it to a variable): " + contains);
+		}
+		// method argument goes first, then the instance of invoked method
+		arguments.get(0).accept(this);
+		addSqlOperator(SQL_IN);
+		sb.getWhere().append('(');
+		if (collection instanceof ConstantExpression) {
+			collection.accept(this);
+		} else {
+			addSqlParam(collection.accept(new ToConstantExpressionVisitor()).getValue(), collection);
+		}
+		sb.getWhere().append(')');
+		return sb;
+	}
+
+	private boolean isCollectionContains(final InvocableExpression expression) {
+		if (!(expression instanceof MemberExpression)) {
+			return false;
+		}
+		final Member member = ((MemberExpression) expression).getMember();
+		return member instanceof Method && Collection.class.isAssignableFrom(member.getDeclaringClass()) && member
+						.getName().equals("contains") && ((Method) member).getParameterCount() == 1;
+	}
+
 	private List<Expression> filterArgumentExpressions(final InvocableExpression expression,
 					final List<Expression> arguments) {
-		if (getParametersCount(expression) == 0) {
+		if (analysis.getParameterCount(expression) == 0) {
 			// if after arguments fix this expression has no parameters we have to remove all constant expression
 			// from its parameters because they are already inlined
 			return arguments.stream().filter(e -> !(e instanceof ConstantExpression)).collect(Collectors.toList());
@@ -165,25 +375,6 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 		return !(normalizedTarget instanceof LambdaExpression);
 	}
 
-	private int getParametersCount(final InvocableExpression expression) {
-		return getCounts(expression).getParameterExpressionsCount();
-	}
-
-	private boolean canBeExecuted(final Expression arg) {
-		final int expressionsCount = getExpressionsCount(arg);
-		return expressionsCount > 0;
-	}
-
-	private int getExpressionsCount(final Expression arg) {
-		return getCounts(arg).getConstantExpressionsCount();
-	}
-
-	private CountingVisitor getCounts(final Expression arg) {
-		final CountingVisitor vistor = new CountingVisitor();
-		arg.accept(vistor);
-		return vistor;
-	}
-
 	@Override
 	public PredicateTranslationResult visit(final ParameterExpression e) {
 		return sb;
@@ -193,16 +384,30 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 	public PredicateTranslationResult visit(final UnaryExpression e) {
 
 		if (e.getExpressionType() == ExpressionType.IsNull) {
-			e.getFirst().accept(this);
-			addSqlOperator(e.getExpressionType());
+			// IS NOT NULL is never true for missing row
+			final boolean negate = consumeNegation();
+			if (negate) {
+				e.getFirst().accept(this);
+			} else {
+				visitNotNullRejecting(e.getFirst());
+			}
+			addSqlOperator(negate ? "IS NOT NULL" : toSqlOp(e.getExpressionType()));
 			return sb;
 		} else if (e.getExpressionType() == ExpressionType.Convert) {
 			// if its cast then we don do operation (its probable Integer to int or something like that)
 			return e.getFirst().accept(this);
 		} else if (e.getExpressionType() == ExpressionType.LogicalNot) {
+			if (isNegatable(e.getFirst())) {
+				// single condition is negated by its operator (e.g. <> instead of =), which is null rejecting like
+				// the condition itself
+				negated = true;
+				e.getFirst().accept(this);
+				negated = false;
+				return sb;
+			}
 			// if negate -> negate whole statement
 			sb.getWhere().append("NOT(");
-			e.getFirst().accept(this);
+			visitNotNullRejecting(e.getFirst());
 			sb.getWhere().append(")");
 			return sb;
 		} else {
@@ -211,6 +416,44 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 		}
 	}
 
+	/**
+	 * @return true if given condition is translated with single operator which has negated variant
+	 */
+	private boolean isNegatable(final Expression e) {
+		if (e.getExpressionType() == ExpressionType.Convert) {
+			return isNegatable(((UnaryExpression) e).getFirst());
+		}
+		if (e.getExpressionType() == IsNull) {
+			return true;
+		}
+		if (!(e instanceof InvocationExpression) || !(((InvocationExpression) e)
+						.getTarget() instanceof MemberExpression)) {
+			return false;
+		}
+		final MemberExpression target = (MemberExpression) ((InvocationExpression) e).getTarget();
+		return isEquals(target.getMember()) || isStringFunction(target.getMember()) || (isBoolean(target.getMember())
+						&& getColumnName(target).isPresent());
+	}
+
+	/**
+	 * Negation applies to the first condition visited after it is requested
+	 */
+	private boolean consumeNegation() {
+		final boolean result = negated;
+		negated = false;
+		return result;
+	}
+
+	/**
+	 * Visits expression which can be true for missing (null) rows of joined tables
+	 */
+	private void visitNotNullRejecting(final Expression e) {
+		final Set<String> outerRejected = nullRejectedTables;
+		nullRejectedTables = new HashSet<>();
+		e.accept(this);
+		nullRejectedTables = outerRejected;
+	}
+
 	private String getTableAlias(final MemberExpression e) {
 
 		if (isFromRelation(e)) {
@@ -220,12 +463,16 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 			return getTableAlias(parentMember) + columnName;
 		}
 		// by default normal
-		return FlexiblelambdaConstants.FS_MAIN_ALIAS;
+		return mainAlias;
 	}
 
 	@Override
 	public PredicateTranslationResult visit(final MemberExpression e) {
 
+		if (isPk(e.getMember())) {
+			return visitPk(e);
+		}
+		final boolean negate = consumeNegation();
 		final Optional<String> colName = getColumnName(e);
 		final boolean isGetter = colName.isPresent();
 		final boolean relation = isGetter && isFromRelation(e);
@@ -245,52 +492,81 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 			final String parentTable = getTableAlias(parentMember);
 			final String table = getTableAlias(e);
 
+			final long typeLookupStart = System.nanoTime();
 			final String typeCode = modelService.getModelType(instance.getResultType());
+			typeLookupNanos += System.nanoTime() - typeLookupStart;
 			final String join =
 							"LEFT JOIN " + typeCode + " as " + table + " on {" + parentTable + "." + columnName + "}={"
 											+ table + ".PK}";
 			sb.getJoins().add(join);
+			sb.getJoinedTypes().add(typeCode);
+			sb.getRelationColumns().put("{" + parentTable + "." + columnName + "}", typeCode);
+			parentTables.put(table, parentTable);
 		}
 		columnBlock = oldColumnBlock;
 
 		if (isGetter) {
 			if (!columnBlock) {
 				addColumn(colName.get(), getTableAlias(e));
+				columnType = ((Method) e.getMember()).getReturnType();
 
-				if (isBoolean(e.getMember())) {
+				if (predicate && isBoolean(e.getMember())) {
 					// for boolean  methods invocation we have to add '= true'
-					addSqlOperator(Equal);
-					addSqlParam(Boolean.TRUE);
+					addSqlOperator(negate ? NotEqual : Equal);
+					addSqlParam(Boolean.TRUE, null);
 				}
 			}
 		} else if (isEquals(e.getMember())) {
 			// if method is equals we use '=' operator for sql
-			addSqlOperator(ExpressionType.Equal);
+			addSqlOperator(negate ? NotEqual : Equal);
 		} else {
-			tryHandleStringFunctions(e.getMember());
+			tryHandleStringFunctions(e.getMember(), negate);
 		}
 
 		return sb;
 	}
 
-	private boolean tryHandleStringFunctions(final Member member) {
-		if (member instanceof Method && member.getDeclaringClass().equals(String.class)
-						&& ((Method) member).getParameters().length == 1) {
+	/**
+	 * PK of related item is the value of its relation attribute so e.getUser().getPk() is {this.user} without join
+	 */
+	private PredicateTranslationResult visitPk(final MemberExpression e) {
+		if (isFromRelation(e)) {
+			e.getInstance().accept(this);
+		} else if (!columnBlock) {
+			addColumn(PK_COLUMN, mainAlias);
+		}
+		if (!columnBlock) {
+			columnType = PK.class;
+		}
+		return sb;
+	}
+
+	private boolean isPk(final Member member) {
+		return member instanceof Method && member.getName().equals("getPk") && ((Method) member).getParameterCount() == 0
+						&& ((Method) member).getReturnType().equals(PK.class);
+	}
+
+	private boolean tryHandleStringFunctions(final Member member, final boolean negate) {
+		if (isStringFunction(member)) {
 			final String methodName = member.getName();
+			addSqlOperator(negate ? SQL_NOT + SQL_LIKE : SQL_LIKE);
 			if (methodName.equals("startsWith")) {
-				addSqlOperator(SQL_LIKE);
-				parameterModifiers.push(e -> e + "%");
-				return true;
+				parameterModifiers.push(LikePattern.STARTS_WITH);
 			} else if (methodName.equals("endsWith")) {
-				addSqlOperator(SQL_LIKE);
-				parameterModifiers.push(e -> "%" + e);
-				return true;
-			} else if (methodName.equals("contains")) {
-				addSqlOperator(SQL_LIKE);
-				parameterModifiers.push(e -> "%" + e + "%");
-				return true;
+				parameterModifiers.push(LikePattern.ENDS_WITH);
+			} else {
+				parameterModifiers.push(LikePattern.CONTAINS);
 			}
+			return true;
+		}
+		return false;
+	}
 
+	private boolean isStringFunction(final Member member) {
+		if (member instanceof Method && member.getDeclaringClass().equals(String.class)
+						&& ((Method) member).getParameters().length == 1) {
+			final String methodName = member.getName();
+			return methodName.equals("startsWith") || methodName.equals("endsWith") || methodName.equals("contains");
 		}
 		return false;
 	}
@@ -303,6 +579,11 @@ public class ToFlexibleSearchVisitor implements ExpressionVisitor<PredicateTrans
 
 	private void addColumn(final String columnName, final String tableAlias) {
 		sb.getWhere().append("{").append(tableAlias).append(".").append(columnName).append("}");
+		// comparison with column of joined table is never true for missing row, so it (and its parents) can be inner
+		// joined - unless it is under OR, NOT or IS NULL which use their own sets
+		for (String table = tableAlias; table != null; table = parentTables.get(table)) {
+			nullRejectedTables.add(table);
+		}
 	}
 
 	private Optional<String> getColumnName(final MemberExpression ex) {
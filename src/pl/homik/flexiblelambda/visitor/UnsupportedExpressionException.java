@@ -0,0 +1,24 @@
+package pl.homik.flexiblelambda.visitor;
+
+/**
+ * Thrown when lambda contains expression which cannot be translated to flexible search
+ */
+public class UnsupportedExpressionException extends UnsupportedOperationException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String expressionType;
+
+	/**
+	 * @param expressionType type of unsupported expression (e.g. Add or Collection.contains), used to group failures
+	 * @param message detailed message
+	 */
+	public UnsupportedExpressionException(final String expressionType, final String message) {
+		super(message);
+		this.expressionType = expressionType;
+	}
+
+	public String getExpressionType() {
+		return expressionType;
+	}
+}
@@ -0,0 +1,129 @@
+package pl.homik.flexiblelambda.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.cache.Cache;
+import de.hybris.platform.core.PK;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+
+import org.fest.assertions.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@UnitTest
+@RunWith(MockitoJUnitRunner.class)
+public class QueryResultCacheUnitTest {
+
+	private static final String ORDER_QUERY = "SELECT {this.PK} from {Order AS this} WHERE ({this.code} = ?a)";
+	private static final String COUNTRY_QUERY = "SELECT {this.PK} from {Country AS this}";
+	private static final int ORDER_TYPE_CODE = 45;
+	private static final int COUNTRY_TYPE_CODE = 34;
+	private static final List<Object> ADMIN_CONTEXT = Arrays.asList(PK.fromLong(10), Boolean.FALSE);
+	private static final List<Object> CUSTOMER_CONTEXT = Arrays.asList(PK.fromLong(11), Boolean.TRUE);
+
+	@Mock
+	private DeploymentTypeCodeResolver typeCodeResolver;
+
+	private QueryResultCache cache;
+	private List<PK> pks;
+
+	@Before
+	public void prepare() {
+		cache = new QueryResultCache();
+		cache.setTypeCodeResolver(typeCodeResolver);
+		Mockito.when(typeCodeResolver.resolve("Order")).thenReturn(Collections.singleton(ORDER_TYPE_CODE));
+		Mockito.when(typeCodeResolver.resolve("Country")).thenReturn(Collections.singleton(COUNTRY_TYPE_CODE));
+		pks = Collections.singletonList(PK.fromLong(1));
+	}
+
+	@Test
+	public void shouldKeyResultsByQueryParameters() {
+
+		// given
+		cache.put(orderQuery("1"), ADMIN_CONTEXT, Collections.singleton("Order"), pks, cache.getVersion());
+
+		// when
+		final List<PK> sameParameters = cache.get(orderQuery("1"), ADMIN_CONTEXT);
+		final List<PK> otherParameters = cache.get(orderQuery("2"), ADMIN_CONTEXT);
+
+		// then
+		Assertions.assertThat(sameParameters).isEqualTo(pks);
+		Assertions.assertThat(otherParameters).isNull();
+	}
+
+	@Test
+	public void shouldKeyResultsBySearchContext() {
+
+		// given
+		cache.put(orderQuery("1"), ADMIN_CONTEXT, Collections.singleton("Order"), pks, cache.getVersion());
+
+		// when
+		final List<PK> otherSession = cache.get(orderQuery("1"), CUSTOMER_CONTEXT);
+
+		// then
+		Assertions.assertThat(otherSession).isNull();
+		Assertions.assertThat(cache.get(orderQuery("1"), ADMIN_CONTEXT)).isEqualTo(pks);
+	}
+
+	@Test
+	public void shouldInvalidateOnlyResultsOfModifiedType() {
+
+		// given
+		cache.put(orderQuery("1"), ADMIN_CONTEXT, Collections.singleton("Order"), pks, cache.getVersion());
+		cache.put(new FlexibleSearchQuery(COUNTRY_QUERY), ADMIN_CONTEXT, Collections.singleton("Country"), pks,
+						cache.getVersion());
+		final QueryResultCacheInvalidationListener listener = new QueryResultCacheInvalidationListener();
+		listener.setQueryResultCache(cache);
+		final PK order = PK.createFixedUUIDPK(ORDER_TYPE_CODE, 1);
+
+		// when
+		listener.keyInvalidated(new Object[] { Cache.CACHEKEY_HJMP, Cache.CACHEKEY_ENTITY,
+						String.valueOf(ORDER_TYPE_CODE), order }, 0, null, null);
+
+		// then
+		Assertions.assertThat(cache.get(orderQuery("1"), ADMIN_CONTEXT)).isNull();
+		Assertions.assertThat(cache.get(new FlexibleSearchQuery(COUNTRY_QUERY), ADMIN_CONTEXT)).isEqualTo(pks);
+		Assertions.assertThat(cache.getInvalidationCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldNotStoreResultReadBeforeInvalidation() {
+
+		// given
+		final long version = cache.getVersion();
+		cache.invalidate(ORDER_TYPE_CODE);
+
+		// when
+		cache.put(orderQuery("1"), ADMIN_CONTEXT, Collections.singleton("Order"), pks, version);
+
+		// then
+		Assertions.assertThat(cache.get(orderQuery("1"), ADMIN_CONTEXT)).isNull();
+	}
+
+	@Test
+	public void shouldEvictOldestResults() {
+
+		// given
+		cache.setMaxSize(1);
+		cache.put(orderQuery("1"), ADMIN_CONTEXT, Collections.singleton("Order"), pks, cache.getVersion());
+
+		// when
+		cache.put(orderQuery("2"), ADMIN_CONTEXT, Collections.singleton("Order"), pks, cache.getVersion());
+
+		// then
+		Assertions.assertThat(cache.get(orderQuery("1"), ADMIN_CONTEXT)).isNull();
+		Assertions.assertThat(cache.get(orderQuery("2"), ADMIN_CONTEXT)).isEqualTo(pks);
+		Assertions.assertThat(cache.getEvictionCount()).isEqualTo(1);
+	}
+
+	private FlexibleSearchQuery orderQuery(final String code) {
+		return new FlexibleSearchQuery(ORDER_QUERY, Collections.singletonMap("a", code));
+	}
+}
@@ -0,0 +1,96 @@
+package pl.homik.flexiblelambda.metrics;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+
+import org.fest.assertions.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@UnitTest
+@RunWith(MockitoJUnitRunner.class)
+public class LambdaQueryMetricsUnitTest {
+
+	private static final String QUERY = "SELECT {this.PK} from {Order AS this}";
+
+	@Mock
+	private MetricsRegistryAdapter adapter;
+
+	private LambdaQueryMetrics metrics;
+
+	@Before
+	public void prepare() {
+		metrics = new LambdaQueryMetrics();
+		metrics.setAdapters(Collections.singletonList(adapter));
+	}
+
+	@Test
+	public void shouldAggregatePhasesPerQuery() {
+
+		// given
+		final QueryTimings timings = new QueryTimings();
+		timings.add(QueryPhase.PARSING, TimeUnit.MICROSECONDS.toNanos(100));
+		timings.add(QueryPhase.PARSING, TimeUnit.MICROSECONDS.toNanos(50));
+
+		// when
+		metrics.record(QUERY, timings);
+		for (int i = 1; i <= 100; i++) {
+			metrics.recordPhase(QUERY, QueryPhase.EXECUTION, TimeUnit.MILLISECONDS.toNanos(i == 100 ? 500 : 1));
+			metrics.recordRows(QUERY, 2);
+		}
+
+		// then
+		final QueryMetrics query = metrics.getQuery(QUERY);
+		Assertions.assertThat(query.getHistogram(QueryPhase.PARSING).getCount()).isEqualTo(1);
+		Assertions.assertThat(query.getHistogram(QueryPhase.PARSING).getTotalNanos())
+						.isEqualTo(TimeUnit.MICROSECONDS.toNanos(150));
+		Assertions.assertThat(query.getHistogram(QueryPhase.TRAVERSAL).getCount()).isZero();
+		Assertions.assertThat(query.getHistogram(QueryPhase.EXECUTION).getPercentileNanos(50))
+						.isLessThanOrEqualTo(TimeUnit.MICROSECONDS.toNanos(1024));
+		Assertions.assertThat(query.getHistogram(QueryPhase.EXECUTION).getPercentileNanos(100))
+						.isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+		Assertions.assertThat(query.getRowCount()).isEqualTo(200);
+		Assertions.assertThat(metrics.getSlowestQueries()).hasSize(1);
+		Assertions.assertThat(metrics.getSlowestQueries().get(0)).startsWith(QUERY + " total=");
+		Mockito.verify(adapter).recordPhase(QUERY, QueryPhase.PARSING, TimeUnit.MICROSECONDS.toNanos(150));
+		Mockito.verify(adapter, Mockito.times(100)).recordRows(QUERY, 2);
+	}
+
+	@Test
+	public void shouldCountTranslationFailuresByExpressionType() {
+
+		// when
+		metrics.recordTranslationFailure("Add");
+		metrics.recordTranslationFailure("Add");
+		metrics.recordTranslationFailure("Collection.contains");
+
+		// then
+		Assertions.assertThat(metrics.getTranslationFailures()).hasSize(2);
+		Assertions.assertThat(metrics.getTranslationFailures().get("Add")).isEqualTo(2L);
+		Assertions.assertThat(metrics.getTranslationFailures().get("Collection.contains")).isEqualTo(1L);
+		Mockito.verify(adapter, Mockito.times(2)).recordTranslationFailure("Add");
+	}
+
+	@Test
+	public void shouldMeasureQueriesOverLimitTogether() {
+
+		// given
+		metrics.setMaxFingerprints(1);
+
+		// when
+		metrics.recordPhase(QUERY, QueryPhase.EXECUTION, 1);
+		metrics.recordPhase("SELECT {this.PK} from {User AS this}", QueryPhase.EXECUTION, 1);
+		metrics.recordPhase("SELECT {this.PK} from {Address AS this}", QueryPhase.EXECUTION, 1);
+
+		// then
+		Assertions.assertThat(metrics.getQueryCount()).isEqualTo(2);
+		Assertions.assertThat(metrics.getQuery(LambdaQueryMetrics.OTHER_QUERIES).getHistogram(QueryPhase.EXECUTION)
+						.getCount()).isEqualTo(2);
+	}
+}
@@ -0,0 +1,119 @@
+package pl.homik.flexiblelambda.metrics;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.model.test.TestItemModel;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+
+import org.fest.assertions.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+
+@UnitTest
+public class SlowQueryLogUnitTest {
+
+	private static final String QUERY = "SELECT {this.PK} from {TestItem AS this} WHERE ({this.string} = ?a)";
+
+	private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+	private final FlexibleSearchQuery query = new FlexibleSearchQuery(QUERY, Collections.singletonMap("a", "secret"));
+	private SlowQueryLog slowQueryLog;
+
+	@Before
+	public void prepare() {
+		slowQueryLog = new SlowQueryLog() {
+
+			@Override
+			protected void write(final String message) {
+				messages.add(message);
+			}
+		};
+		slowQueryLog.setThresholdMillis(100);
+	}
+
+	@After
+	public void cleanUp() throws InterruptedException {
+		slowQueryLog.destroy();
+	}
+
+	@Test
+	public void shouldLogSlowQueryWithLambdaLocation() throws InterruptedException {
+
+		// given
+		slowQueryLog.afterPropertiesSet();
+		final String value = "secret";
+		final SerializablePredicate<TestItemModel> filter = e -> e.getString().equals(value);
+
+		// when
+		slowQueryLog.record(Collections.singletonList(filter), query, TimeUnit.MILLISECONDS.toNanos(1),
+						TimeUnit.MILLISECONDS.toNanos(250), 3);
+
+		// then
+		final String message = messages.poll(5, TimeUnit.SECONDS);
+		Assertions.assertThat(message).contains("translation 1.0 ms, execution 250.0 ms, 3 rows");
+		Assertions.assertThat(message).contains(
+						SlowQueryLogUnitTest.class.getName() + ".shouldLogSlowQueryWithLambdaLocation(SlowQueryLogUnitTest.java:");
+		Assertions.assertThat(message).endsWith(QUERY + " {a=<String>}");
+	}
+
+	@Test
+	public void shouldLogParameterValuesWhenNotRedacted() throws InterruptedException {
+
+		// given
+		slowQueryLog.setRedactParameters(false);
+		slowQueryLog.afterPropertiesSet();
+
+		// when
+		slowQueryLog.record(Collections.emptyList(), query, 0, TimeUnit.SECONDS.toNanos(1), 0);
+
+		// then
+		Assertions.assertThat(messages.poll(5, TimeUnit.SECONDS)).endsWith(QUERY + " {a=secret}");
+	}
+
+	@Test
+	public void shouldKeepLoggingAfterFailureOfEntry() throws InterruptedException {
+
+		// given
+		final AtomicBoolean failed = new AtomicBoolean();
+		slowQueryLog = new SlowQueryLog() {
+
+			@Override
+			protected void write(final String message) {
+				if (failed.compareAndSet(false, true)) {
+					throw new IllegalStateException("appender failure");
+				}
+				messages.add(message);
+			}
+		};
+		slowQueryLog.afterPropertiesSet();
+
+		// when
+		slowQueryLog.record(Collections.emptyList(), query, 0, TimeUnit.SECONDS.toNanos(1), 0);
+		slowQueryLog.record(Collections.emptyList(), query, 0, TimeUnit.SECONDS.toNanos(2), 0);
+
+		// then
+		Assertions.assertThat(messages.poll(5, TimeUnit.SECONDS)).contains("execution 2000.0 ms");
+		Assertions.assertThat(failed.get()).isTrue();
+	}
+
+	@Test
+	public void shouldNotLogFastQueries() throws InterruptedException {
+
+		// given
+		slowQueryLog.afterPropertiesSet();
+
+		// when
+		slowQueryLog.record(Collections.emptyList(), query, TimeUnit.MILLISECONDS.toNanos(10),
+						TimeUnit.MILLISECONDS.toNanos(50), 1);
+
+		// then
+		Assertions.assertThat(messages.poll(100, TimeUnit.MILLISECONDS)).isNull();
+	}
+}
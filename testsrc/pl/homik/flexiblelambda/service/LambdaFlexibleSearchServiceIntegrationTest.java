@@ -1,7 +1,9 @@
 package pl.homik.flexiblelambda.service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 import javax.annotation.Resource;
 
 import de.hybris.bootstrap.annotations.IntegrationTest;
@@ -11,9 +13,12 @@ import de.hybris.platform.core.model.user.UserModel;
 import de.hybris.platform.servicelayer.ServicelayerTransactionalBaseTest;
 import de.hybris.platform.servicelayer.model.ModelService;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.fest.assertions.Assertions;
 import org.junit.Test;
 
+import pl.homik.flexiblelambda.pojo.ContinuationToken;
+import pl.homik.flexiblelambda.pojo.KeysetPage;
 import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
 
 @IntegrationTest
@@ -116,6 +121,90 @@ public class LambdaFlexibleSearchServiceIntegrationTest extends ServicelayerTran
 		Assertions.assertThat(found).isEqualTo(contactInfoModel);
 	}
 
+	@Test
+	public void shouldStreamResults() {
+		//given
+		final UserModel user = createTestUser();
+		final String userUid = user.getUid();
+		final LambdaFlexibleSearchQuery<UserModel> query = new LambdaFlexibleSearchQuery<>(UserModel.class)
+						.filter(e -> e.getUid().equals(userUid));
+
+		//when
+		final List<UserModel> streamed = lambdaFlexibleSearchService.stream(query).collect(Collectors.toList());
+		final List<UserModel> paged = new ArrayList<>();
+		lambdaFlexibleSearchService.forEachPage(query, 1, paged::addAll);
+
+		//then
+		Assertions.assertThat(streamed).containsExactly(user);
+		Assertions.assertThat(paged).containsExactly(user);
+	}
+
+	@Test
+	public void shouldSelectAttributes() {
+		//given
+		final UserModel user = createTestUser();
+		final PhoneContactInfoModel contactInfoModel = createContactInfoModel(user);
+		final String userUid = user.getUid();
+
+		//when
+		final List<Pair<String, String>> rows = lambdaFlexibleSearchService.getList(
+						new LambdaFlexibleSearchQuery<>(PhoneContactInfoModel.class)
+										.filter(e -> e.getUser().getUid().equals(userUid))
+										.select(e -> e.getPhoneNumber(), e -> e.getUser().getName()));
+		final List<UserModel> users = lambdaFlexibleSearchService.getList(
+						new LambdaFlexibleSearchQuery<>(PhoneContactInfoModel.class)
+										.filter(e -> e.getUser().getUid().equals(userUid)).select(e -> e.getUser()));
+
+		//then
+		Assertions.assertThat(rows).containsExactly(Pair.of(contactInfoModel.getPhoneNumber(), user.getName()));
+		Assertions.assertThat(users).containsExactly(user);
+	}
+
+	@Test
+	public void shouldCountAndCheckExistence() {
+		//given
+		final UserModel user = createTestUser();
+		final String userUid = user.getUid();
+		final String missingUid = userUid + "_missing";
+
+		//when
+		final long count = lambdaFlexibleSearchService
+						.count(new LambdaFlexibleSearchQuery<>(UserModel.class).filter(e -> e.getUid().equals(userUid)));
+		final boolean exists = lambdaFlexibleSearchService
+						.exists(new LambdaFlexibleSearchQuery<>(UserModel.class).filter(e -> e.getUid().equals(userUid)));
+		final boolean missingExists = lambdaFlexibleSearchService
+						.exists(new LambdaFlexibleSearchQuery<>(UserModel.class).filter(e -> e.getUid().equals(missingUid)));
+
+		//then
+		Assertions.assertThat(count).isEqualTo(1);
+		Assertions.assertThat(exists).isTrue();
+		Assertions.assertThat(missingExists).isFalse();
+	}
+
+	@Test
+	public void shouldPageWithContinuationToken() {
+		//given
+		final UserModel first = createUser("keyset_uid_1");
+		final UserModel second = createUser("keyset_uid_2");
+		final UserModel third = createUser("keyset_uid_3");
+
+		//when
+		final KeysetPage<UserModel> firstPage = lambdaFlexibleSearchService.getPage(usersByUidPrefix(null), 2);
+		final KeysetPage<UserModel> secondPage = lambdaFlexibleSearchService
+						.getPage(usersByUidPrefix(firstPage.getNextToken()), 2);
+
+		//then
+		Assertions.assertThat(firstPage.getItems()).containsExactly(first, second);
+		Assertions.assertThat(firstPage.hasNext()).isTrue();
+		Assertions.assertThat(secondPage.getItems()).containsExactly(third);
+		Assertions.assertThat(secondPage.hasNext()).isFalse();
+	}
+
+	private LambdaFlexibleSearchQuery<UserModel> usersByUidPrefix(final ContinuationToken token) {
+		return new LambdaFlexibleSearchQuery<>(UserModel.class).filter(e -> e.getUid().startsWith("keyset_uid_"))
+						.orderBy(e -> e.getUid()).after(token);
+	}
+
 	private PhoneContactInfoModel createContactInfoModel(final UserModel user) {
 
 		final PhoneContactInfoModel contactInfoModel = modelService.create(PhoneContactInfoModel.class);
@@ -128,10 +217,14 @@ public class LambdaFlexibleSearchServiceIntegrationTest extends ServicelayerTran
 	}
 
 	private UserModel createTestUser() {
+		return createUser("some_example_uid");
+	}
+
+	private UserModel createUser(final String uid) {
 		final UserModel user = modelService.create(UserModel.class);
 
 		user.setName("test");
-		user.setUid("some_example_uid");
+		user.setUid(uid);
 
 		modelService.save(user);
 		return user;
@@ -0,0 +1,98 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+
+import javax.sql.DataSource;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.PK;
+import de.hybris.platform.jalo.type.AttributeDescriptor;
+import de.hybris.platform.jalo.type.ComposedType;
+
+import org.fest.assertions.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@UnitTest
+@RunWith(MockitoJUnitRunner.class)
+public class DeploymentTableWriterUnitTest {
+
+	private static final PK ITEM = PK.createFixedUUIDPK(1, 1);
+
+	@Mock
+	private DataSource dataSource;
+	@Mock
+	private Connection connection;
+	@Mock
+	private PreparedStatement statement;
+	@Mock
+	private ParameterMetaData parameterMetaData;
+	@Mock
+	private ComposedType type;
+	@Mock
+	private AttributeDescriptor attribute;
+
+	private DeploymentTableWriter writer;
+
+	@Before
+	public void prepare() throws SQLException {
+		writer = new DeploymentTableWriter() {
+
+			@Override
+			protected ComposedType getType(final int typeCode) {
+				return type;
+			}
+
+			@Override
+			protected DataSource getDataSource() {
+				return dataSource;
+			}
+		};
+		Mockito.when(dataSource.getConnection()).thenReturn(connection);
+		Mockito.when(connection.prepareStatement(Mockito.anyString())).thenReturn(statement);
+		Mockito.when(statement.executeUpdate()).thenReturn(1);
+		Mockito.when(type.getTable()).thenReturn("testitems");
+		Mockito.when(type.getAttributeDescriptorIncludingPrivate("string")).thenReturn(attribute);
+		Mockito.when(attribute.getDatabaseColumn()).thenReturn("p_string");
+	}
+
+	@Test
+	public void shouldSetNullWithTypeOfColumn() throws SQLException {
+
+		// given
+		Mockito.when(statement.getParameterMetaData()).thenReturn(parameterMetaData);
+		Mockito.when(parameterMetaData.getParameterType(1)).thenReturn(Types.VARCHAR);
+
+		// when
+		final int updated = writer.update(Collections.singletonList(ITEM), "string", null);
+
+		// then
+		Assertions.assertThat(updated).isEqualTo(1);
+		Mockito.verify(connection).prepareStatement(
+						"UPDATE testitems SET p_string = ?, modifiedTS = ?, hjmpTS = COALESCE(hjmpTS, 0) + 1 WHERE PK IN (?)");
+		Mockito.verify(statement).setNull(1, Types.VARCHAR);
+		Mockito.verify(statement).setLong(3, ITEM.getLongValue());
+	}
+
+	@Test
+	public void shouldSetUntypedNullWhenDriverDoesNotDescribeParameters() throws SQLException {
+
+		// given
+		Mockito.when(statement.getParameterMetaData()).thenThrow(new SQLException("not supported"));
+
+		// when
+		writer.update(Collections.singletonList(ITEM), "string", null);
+
+		// then
+		Mockito.verify(statement).setNull(1, Types.NULL);
+	}
+}
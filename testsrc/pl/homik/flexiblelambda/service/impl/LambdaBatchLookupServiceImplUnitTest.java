@@ -0,0 +1,152 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.PK;
+import de.hybris.platform.core.model.test.TestItemModel;
+import de.hybris.platform.servicelayer.model.ModelService;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+import de.hybris.platform.servicelayer.search.FlexibleSearchService;
+import de.hybris.platform.servicelayer.search.SearchResult;
+
+import org.fest.assertions.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+
+@UnitTest
+@RunWith(MockitoJUnitRunner.class)
+public class LambdaBatchLookupServiceImplUnitTest {
+
+	@Mock
+	private FlexibleSearchService flexibleSearchService;
+	@Mock
+	private ModelService modelService;
+	@Mock
+	private SearchResult<Object> searchResult;
+	@Mock
+	private TestItemModel first;
+	@Mock
+	private TestItemModel second;
+
+	private LambdaBatchLookupServiceImpl service;
+
+	@Before
+	public void prepare() {
+		Mockito.when(modelService.getModelType(Mockito.any())).thenAnswer(invocationOnMock -> {
+			final Class<?> argument = (Class<?>) invocationOnMock.getArguments()[0];
+			return argument.getSimpleName().replace("Model", "");
+		});
+		final LambdaFlexibleSearchTranslationServiceImpl translationService = new LambdaFlexibleSearchTranslationServiceImpl();
+		translationService.setModelService(modelService);
+
+		service = new LambdaBatchLookupServiceImpl();
+		service.setFlexibleSearchService(flexibleSearchService);
+		service.setLambdaFlexibleSearchTranslationService(translationService);
+		service.setModelService(modelService);
+
+		Mockito.when(flexibleSearchService.search(Mockito.any(FlexibleSearchQuery.class))).thenReturn(searchResult);
+		Mockito.when(modelService.get(PK.fromLong(1))).thenReturn(first);
+		Mockito.when(modelService.get(PK.fromLong(2))).thenReturn(second);
+	}
+
+	@Test
+	public void shouldCombineLookupsIntoSingleInQuery() {
+
+		// given
+		Mockito.when(searchResult.getResult()).thenReturn(
+						Arrays.asList(Arrays.asList(PK.fromLong(2), 3L), Arrays.asList(PK.fromLong(1), 1L)));
+
+		// when
+		final Map<Long, Optional<TestItemModel>> result = service.getFirstByKeys(Arrays.asList(1L, 2L, 3L),
+						value -> new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+										.filter(e -> e.getLongValue().equals(value)));
+
+		// then
+		Assertions.assertThat(result.get(1L)).isEqualTo(Optional.of(first));
+		Assertions.assertThat(result.get(2L)).isEqualTo(Optional.empty());
+		Assertions.assertThat(result.get(3L)).isEqualTo(Optional.of(second));
+
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService).search(captor.capture());
+		final FlexibleSearchQuery executed = captor.getValue();
+		Assertions.assertThat(executed.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK}, {this.longValue} from {TestItem AS this} WHERE ({this.longValue} IN (?a))");
+		Assertions.assertThat(executed.getQueryParameters().get("a")).isEqualTo(Arrays.asList(1L, 2L, 3L));
+		Assertions.assertThat(executed.getResultClassList()).containsExactly(PK.class, Long.class);
+	}
+
+	@Test
+	public void shouldSplitKeysIntoBatches() {
+
+		// given
+		service.setMaxBatchSize(2);
+		Mockito.when(searchResult.getResult()).thenReturn(Collections.emptyList());
+
+		// when
+		service.getFirstByKeys(Arrays.asList(1, 2, 3), value -> new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(e -> e.getString().equals("abc")).filter(e -> e.getInteger().equals(value)));
+
+		// then
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService, Mockito.times(2)).search(captor.capture());
+		final List<FlexibleSearchQuery> executed = captor.getAllValues();
+		Assertions.assertThat(executed.get(0).getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK}, {this.integer} from {TestItem AS this} WHERE ({this.string} = ?a) AND ({this.integer} IN (?b))");
+		Assertions.assertThat(executed.get(0).getQueryParameters().get("b")).isEqualTo(Arrays.asList(1, 2));
+		Assertions.assertThat(executed.get(1).getQueryParameters().get("b")).isEqualTo(Collections.singletonList(3));
+		Assertions.assertThat(executed.get(1).getQueryParameters().get("a")).isEqualTo("abc");
+	}
+
+	@Test
+	public void shouldLookUpTextKeysSeparately() {
+
+		// given
+		Mockito.when(searchResult.getResult()).thenReturn(Collections.singletonList(first));
+		final LambdaFlexibleSearchQuery<TestItemModel> query = new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(e -> e.getString().equals("abc"));
+
+		// when
+		final Map<String, Optional<TestItemModel>> result = service.getFirstByKeys(Arrays.asList("abc", "ABC"),
+						code -> new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> e.getString().equals(code)));
+		service.newBatch().getFirst(query);
+
+		// then
+		Assertions.assertThat(result.get("abc")).isEqualTo(Optional.of(first));
+		Assertions.assertThat(result.get("ABC")).isEqualTo(Optional.of(first));
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService, Mockito.times(2)).search(captor.capture());
+		Assertions.assertThat(captor.getAllValues().get(0).getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {TestItem AS this} WHERE ({this.string} = ?a)");
+		Assertions.assertThat(captor.getAllValues().get(0).getCount()).isEqualTo(1);
+		Assertions.assertThat(query.getLimit()).isEqualTo(0);
+	}
+
+	@Test
+	public void shouldExecuteSeparatelyWhenKeyIsNotInConjunction() {
+
+		// given
+		Mockito.when(searchResult.getResult()).thenReturn(Collections.singletonList(first));
+
+		// when
+		final Map<String, Optional<TestItemModel>> result = service.getFirstByKeys(Arrays.asList("a", "b"),
+						code -> new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+										.filter(e -> e.getString().equals(code) || e.getInteger() == 1));
+
+		// then
+		Assertions.assertThat(result.get("a")).isEqualTo(Optional.of(first));
+		Assertions.assertThat(result.get("b")).isEqualTo(Optional.of(first));
+		Mockito.verify(flexibleSearchService, Mockito.times(2)).search(Mockito.any(FlexibleSearchQuery.class));
+	}
+}
@@ -0,0 +1,165 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.PK;
+import de.hybris.platform.core.model.test.TestItemModel;
+import de.hybris.platform.core.model.type.AttributeDescriptorModel;
+import de.hybris.platform.core.model.type.ComposedTypeModel;
+import de.hybris.platform.servicelayer.model.ModelService;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+import de.hybris.platform.servicelayer.search.FlexibleSearchService;
+import de.hybris.platform.servicelayer.search.SearchResult;
+import de.hybris.platform.servicelayer.type.TypeService;
+
+import org.fest.assertions.Assertions;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import pl.homik.flexiblelambda.cache.QueryResultCache;
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+
+@UnitTest
+@RunWith(MockitoJUnitRunner.class)
+public class LambdaBulkOperationServiceImplUnitTest {
+
+	private static final PK FIRST = PK.createFixedUUIDPK(1, 1);
+	private static final PK SECOND = PK.createFixedUUIDPK(1, 2);
+	private static final PK THIRD = PK.createFixedUUIDPK(2, 3);
+
+	@Mock
+	private FlexibleSearchService flexibleSearchService;
+	@Mock
+	private ModelService modelService;
+	@Mock
+	private DeploymentTableWriter deploymentTableWriter;
+	@Mock
+	private QueryResultCache queryResultCache;
+	@Mock
+	private SearchResult<Object> firstBatch;
+	@Mock
+	private SearchResult<Object> secondBatch;
+	@Mock
+	private TypeService typeService;
+	@Mock
+	private ComposedTypeModel composedType;
+
+	private LambdaBulkOperationServiceImpl service;
+
+	@Before
+	public void prepare() {
+		Mockito.when(modelService.getModelType(Mockito.any())).thenAnswer(invocationOnMock -> {
+			final Class<?> argument = (Class<?>) invocationOnMock.getArguments()[0];
+			return argument.getSimpleName().replace("Model", "");
+		});
+		final LambdaFlexibleSearchTranslationServiceImpl translationService =
+						new LambdaFlexibleSearchTranslationServiceImpl();
+		translationService.setModelService(modelService);
+
+		service = new LambdaBulkOperationServiceImpl();
+		service.setLambdaFlexibleSearchTranslationService(translationService);
+		service.setFlexibleSearchService(flexibleSearchService);
+		service.setDeploymentTableWriter(deploymentTableWriter);
+		service.setQueryResultCache(queryResultCache);
+		service.setTypeService(typeService);
+		service.setBatchSize(2);
+		Mockito.when(typeService.getComposedTypeForClass(TestItemModel.class)).thenReturn(composedType);
+		Mockito.when(composedType.getCode()).thenReturn("TestItem");
+
+		Mockito.when(flexibleSearchService.search(Mockito.any(FlexibleSearchQuery.class))).thenReturn(firstBatch)
+						.thenReturn(secondBatch);
+		Mockito.when(firstBatch.getResult()).thenReturn(Arrays.asList(FIRST, SECOND));
+		Mockito.when(secondBatch.getResult()).thenReturn(Collections.singletonList(THIRD));
+	}
+
+	@Test
+	public void shouldDeleteInBatchesContinuingAfterLastPk() {
+
+		// given
+		Mockito.when(deploymentTableWriter.delete(Mockito.anyCollectionOf(PK.class))).thenReturn(2, 1);
+		final LambdaFlexibleSearchQuery<TestItemModel> query = new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(e -> e.getInteger() == 1);
+
+		// when
+		final long deleted = service.deleteWhere(query);
+
+		// then
+		Assertions.assertThat(deleted).isEqualTo(3);
+		Mockito.verify(deploymentTableWriter).delete(Arrays.asList(FIRST, SECOND));
+		Mockito.verify(deploymentTableWriter).delete(Collections.singletonList(THIRD));
+
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService, Mockito.times(2)).search(captor.capture());
+		final List<FlexibleSearchQuery> queries = captor.getAllValues();
+		Assertions.assertThat(queries.get(0).getCount()).isEqualTo(2);
+		Assertions.assertThat(queries.get(1).getQuery()).contains("{this.PK} > ?seekPk");
+		Assertions.assertThat(queries.get(1).getQueryParameters().get("seekPk")).isEqualTo(SECOND);
+
+		Mockito.verify(queryResultCache).invalidate(1);
+		Mockito.verify(queryResultCache).invalidate(2);
+		Assertions.assertThat(query.getAfter()).isNull();
+		Assertions.assertThat(query.getLimit()).isEqualTo(0);
+	}
+
+	@Test
+	public void shouldUpdateAttributeWithColumnValue() {
+
+		// given
+		final Date date = new Date();
+		Mockito.when(deploymentTableWriter.update(Mockito.anyCollectionOf(PK.class), Mockito.anyString(), Mockito.any()))
+						.thenReturn(2);
+
+		// when
+		final long updated = service.updateWhere(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> e.getInteger() == 1).limit(2),
+						e -> e.getModifiedtime(), date);
+
+		// then
+		Assertions.assertThat(updated).isEqualTo(2);
+		Mockito.verify(deploymentTableWriter)
+						.update(Arrays.asList(FIRST, SECOND), "modifiedtime", new Timestamp(date.getTime()));
+		Mockito.verify(flexibleSearchService, Mockito.times(1)).search(Mockito.any(FlexibleSearchQuery.class));
+	}
+
+	@Test
+	public void shouldRejectDeleteOfSubtypeWithPartOfAttribute() {
+
+		// given
+		final ComposedTypeModel subtype = Mockito.mock(ComposedTypeModel.class);
+		final AttributeDescriptorModel entries = Mockito.mock(AttributeDescriptorModel.class);
+		Mockito.when(composedType.getAllSubTypes()).thenReturn(Collections.singletonList(subtype));
+		Mockito.when(subtype.getCode()).thenReturn("TestItemType2");
+		Mockito.when(entries.getQualifier()).thenReturn("entries");
+		Mockito.when(entries.getPartOf()).thenReturn(Boolean.TRUE);
+		Mockito.when(typeService.getAttributeDescriptorsForType(subtype)).thenReturn(Collections.singleton(entries));
+
+		// when
+		try {
+			service.deleteWhere(new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> e.getInteger() == 1));
+			Assert.fail("part-of items would be left behind");
+		} catch (final IllegalArgumentException e) {
+			Assertions.assertThat(e.getMessage()).contains("TestItemType2").contains("entries");
+		}
+
+		// then
+		Mockito.verifyZeroInteractions(flexibleSearchService, deploymentTableWriter);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectOrderedQuery() {
+
+		// when
+		service.deleteWhere(new LambdaFlexibleSearchQuery<>(TestItemModel.class).orderBy(e -> e.getString()));
+	}
+}
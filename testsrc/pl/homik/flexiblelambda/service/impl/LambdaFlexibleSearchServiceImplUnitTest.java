@@ -0,0 +1,491 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.PK;
+import de.hybris.platform.core.model.test.TestItemModel;
+import de.hybris.platform.servicelayer.model.ModelService;
+import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
+import de.hybris.platform.servicelayer.search.FlexibleSearchService;
+import de.hybris.platform.servicelayer.search.SearchResult;
+
+import org.fest.assertions.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import pl.homik.flexiblelambda.cache.DeploymentTypeCodeResolver;
+import pl.homik.flexiblelambda.cache.QueryResultCache;
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+import pl.homik.flexiblelambda.pojo.IncludeQuery;
+import pl.homik.flexiblelambda.pojo.KeysetPage;
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.pojo.LambdaProjectionQuery;
+import pl.homik.flexiblelambda.pojo.TranslatedQuery;
+import pl.homik.flexiblelambda.service.LambdaFlexibleSearchTranslationService;
+
+@UnitTest
+@RunWith(MockitoJUnitRunner.class)
+public class LambdaFlexibleSearchServiceImplUnitTest {
+
+	private static final String SEEK_PK_PARAM = "seekPk";
+
+	@Mock
+	private FlexibleSearchService flexibleSearchService;
+	@Mock
+	private LambdaFlexibleSearchTranslationService translationService;
+	@Mock
+	private ModelService modelService;
+	@Mock
+	private SearchResult<Object> searchResult;
+
+	private LambdaFlexibleSearchServiceImpl service;
+	private LambdaFlexibleSearchQuery<TestItemModel> query;
+	private List<TestItemModel> models;
+	private List<SerializablePredicate<TestItemModel>> residualFilters = Collections.emptyList();
+
+	@Before
+	public void prepare() {
+		service = new LambdaFlexibleSearchServiceImpl();
+		service.setFlexibleSearchService(flexibleSearchService);
+		service.setLambdaFlexibleSearchTranslationService(translationService);
+		service.setModelService(modelService);
+
+		query = new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> e.getInteger() > 0);
+		final Answer<TranslatedQuery<TestItemModel>> translation = invocation -> {
+			final FlexibleSearchQuery translated = new FlexibleSearchQuery("SELECT {this.PK} from {TestItem AS this}");
+			final int limit = ((LambdaFlexibleSearchQuery<?>) invocation.getArguments()[0]).getLimit();
+			if (limit > 0) {
+				translated.setCount(limit);
+			}
+			return new TranslatedQuery<>(translated, residualFilters, Collections.singleton("TestItem"));
+		};
+		Mockito.when(translationService.translateWithDetails(Mockito.<LambdaFlexibleSearchQuery<TestItemModel>>any()))
+						.thenAnswer(translation);
+		Mockito.when(translationService.translateForBatches(Mockito.<LambdaFlexibleSearchQuery<TestItemModel>>any()))
+						.thenAnswer(translation);
+		Mockito.when(flexibleSearchService.search(Mockito.any(FlexibleSearchQuery.class))).thenReturn(searchResult);
+
+		final List<Object> pks = new ArrayList<>();
+		models = new ArrayList<>();
+		for (long i = 1; i <= 5; i++) {
+			final PK pk = PK.fromLong(i);
+			final TestItemModel model = Mockito.mock(TestItemModel.class);
+			pks.add(pk);
+			models.add(model);
+			Mockito.when(model.getPk()).thenReturn(pk);
+			Mockito.when(modelService.get(pk)).thenReturn(model);
+		}
+		Mockito.when(searchResult.getResult()).thenReturn(pks);
+	}
+
+	@Test
+	public void shouldStreamModelsLoadedLazily() {
+
+		// given
+		mockBatches();
+		service.setStreamPageSize(2);
+
+		// when
+		final List<TestItemModel> firstThree = service.stream(query).limit(3).collect(Collectors.toList());
+
+		// then
+		Assertions.assertThat(firstThree).containsExactly(models.get(0), models.get(1), models.get(2));
+		Mockito.verify(translationService, Mockito.times(1)).translateForBatches(query);
+		// batches are fetched only when they are iterated
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService, Mockito.times(2)).search(captor.capture());
+		Assertions.assertThat(captor.getValue().getCount()).isEqualTo(2);
+		Assertions.assertThat(captor.getValue().getQueryParameters().get(SEEK_PK_PARAM)).isEqualTo(PK.fromLong(2));
+		Mockito.verify(modelService, Mockito.never()).get(PK.fromLong(5));
+	}
+
+	@Test
+	public void shouldPassPagesToConsumerAndDetachThem() {
+
+		// given
+		mockBatches();
+		final List<List<TestItemModel>> pages = new ArrayList<>();
+
+		// when
+		service.forEachPage(query, 2, true, pages::add);
+
+		// then
+		Assertions.assertThat(pages).hasSize(3);
+		Assertions.assertThat(pages.get(0)).containsExactly(models.get(0), models.get(1));
+		Assertions.assertThat(pages.get(2)).containsExactly(models.get(4));
+		Mockito.verify(translationService, Mockito.times(1)).translateForBatches(query);
+		for (final TestItemModel model : models) {
+			Mockito.verify(modelService).detach(model);
+		}
+	}
+
+	@Test
+	public void shouldNotFetchItemsBeyondLimit() {
+
+		// given
+		mockBatches();
+		final List<List<TestItemModel>> pages = new ArrayList<>();
+
+		// when
+		service.forEachPage(query.limit(3), 2, pages::add);
+
+		// then
+		Assertions.assertThat(pages).hasSize(2);
+		Assertions.assertThat(pages.get(1)).containsExactly(models.get(2));
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService, Mockito.times(2)).search(captor.capture());
+		Assertions.assertThat(captor.getValue().getCount()).isEqualTo(1);
+		Mockito.verify(modelService, Mockito.never()).get(PK.fromLong(4));
+	}
+
+	@Test
+	public void shouldNotDetachByDefault() {
+
+		// when
+		service.forEachPage(query, 10, page -> Assertions.assertThat(page).isEqualTo(models));
+
+		// then
+		Mockito.verify(modelService, Mockito.never()).detach(Mockito.any());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldPrefetchIncludedRelationsInBatches() {
+
+		// given
+		service.setIncludeBatchSize(2);
+		query.include(e -> e.getTestDumpProperty());
+		Mockito.when(models.get(0).getPk()).thenReturn(PK.fromLong(1));
+		Mockito.when(models.get(1).getPk()).thenReturn(PK.fromLong(2));
+		Mockito.when(translationService.translateInclude(Mockito.eq(TestItemModel.class), Mockito.any(),
+						Mockito.eq(Arrays.asList(PK.fromLong(1), PK.fromLong(2))))).thenReturn(new IncludeQuery(
+						new FlexibleSearchQuery("SELECT {this.testDumpProperty} from {TestItem AS this}"),
+						Collections.singletonList("Item")));
+		final SearchResult<Object> mainResult = Mockito.mock(SearchResult.class);
+		final SearchResult<Object> includeResult = Mockito.mock(SearchResult.class);
+		Mockito.when(mainResult.getResult()).thenReturn(Arrays.asList(models.get(0), models.get(1)));
+		Mockito.when(includeResult.getResult())
+						.thenReturn(Arrays.asList(PK.fromLong(11), null, PK.fromLong(12), PK.fromLong(13), PK.fromLong(11)));
+		Mockito.when(searchResult.getResult()).thenReturn(Collections.emptyList());
+		Mockito.when(flexibleSearchService.search(Mockito.any(FlexibleSearchQuery.class)))
+						.thenReturn(mainResult, includeResult, searchResult);
+
+		// when
+		final List<TestItemModel> result = service.getList(query);
+
+		// then
+		Assertions.assertThat(result).containsExactly(models.get(0), models.get(1));
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService, Mockito.times(4)).search(captor.capture());
+		final FlexibleSearchQuery firstBatch = captor.getAllValues().get(2);
+		Assertions.assertThat(firstBatch.getQuery()).isEqualTo("SELECT {PK} FROM {Item} WHERE {PK} IN (?pks)");
+		Assertions.assertThat((List<?>) firstBatch.getQueryParameters().get("pks"))
+						.containsExactly(PK.fromLong(11), PK.fromLong(12));
+		Assertions.assertThat((List<?>) captor.getAllValues().get(3).getQueryParameters().get("pks"))
+						.containsExactly(PK.fromLong(13));
+	}
+
+	@Test
+	public void shouldMapProjectionRows() {
+
+		// given
+		final LambdaProjectionQuery<TestItemModel, String> projection = query
+						.selectAs((string, item) -> string + ":" + models.indexOf(item), TestItemModel::getString,
+										TestItemModel::getTestDumpProperty);
+		final FlexibleSearchQuery translated = new FlexibleSearchQuery("SELECT {this.string}, {this.testDumpProperty}");
+		translated.setResultClassList(Arrays.asList(String.class, PK.class));
+		Mockito.when(translationService.translate(projection)).thenReturn(translated);
+		Mockito.when(searchResult.getResult())
+						.thenReturn(Arrays.asList(Arrays.asList("a", PK.fromLong(1)), Arrays.asList("b", PK.fromLong(2))));
+
+		// when
+		final List<String> rows = service.getList(projection);
+
+		// then
+		Assertions.assertThat(rows).containsExactly("a:0", "b:1");
+		Mockito.verify(modelService).get(PK.fromLong(1));
+		Mockito.verify(modelService).get(PK.fromLong(2));
+	}
+
+	@Test
+	public void shouldReturnSingleColumnValues() {
+
+		// given
+		final LambdaProjectionQuery<TestItemModel, String> projection = query.select(TestItemModel::getString);
+		final FlexibleSearchQuery translated = new FlexibleSearchQuery("SELECT {this.string}");
+		translated.setResultClassList(Collections.singletonList(String.class));
+		Mockito.when(translationService.translate(projection)).thenReturn(translated);
+		Mockito.when(searchResult.getResult()).thenReturn(Arrays.asList("a", "b"));
+
+		// when
+		final List<String> rows = service.getList(projection);
+
+		// then
+		Assertions.assertThat(rows).containsExactly("a", "b");
+		Mockito.verify(modelService, Mockito.never()).get(Mockito.any(PK.class));
+	}
+
+	@Test
+	public void shouldCountWithoutLoadingModels() {
+
+		// given
+		Mockito.when(translationService.translateCount(query))
+						.thenReturn(new FlexibleSearchQuery("SELECT COUNT({this.PK}) from {TestItem AS this}"));
+		Mockito.when(searchResult.getResult()).thenReturn(Collections.singletonList(7L));
+
+		// when
+		final long count = service.count(query);
+		final long limitedCount = service.count(query.limit(5));
+
+		// then
+		Assertions.assertThat(count).isEqualTo(7);
+		Assertions.assertThat(limitedCount).isEqualTo(5);
+		Mockito.verify(modelService, Mockito.never()).get(Mockito.any(PK.class));
+	}
+
+	@Test
+	public void shouldCheckExistenceFetchingSinglePk() {
+
+		// when
+		final boolean exists = service.exists(query);
+
+		// then
+		Assertions.assertThat(exists).isTrue();
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService).search(captor.capture());
+		Assertions.assertThat(captor.getValue().getCount()).isEqualTo(1);
+		Assertions.assertThat(captor.getValue().getResultClassList()).containsExactly(PK.class);
+		Mockito.verify(modelService, Mockito.never()).get(Mockito.any(PK.class));
+	}
+
+	@Test
+	public void shouldNotExistWhenNothingFound() {
+
+		// given
+		Mockito.when(searchResult.getResult()).thenReturn(Collections.emptyList());
+
+		// when
+		final boolean exists = service.exists(query);
+
+		// then
+		Assertions.assertThat(exists).isFalse();
+	}
+
+	@Test
+	public void shouldReturnPageWithTokenOfLastItem() {
+
+		// given
+		query.orderBy(TestItemModel::getString);
+		final TestItemModel last = models.get(4);
+		Mockito.when(last.getString()).thenReturn("e");
+		Mockito.when(last.getPk()).thenReturn(PK.fromLong(5));
+		Mockito.when(searchResult.getResult()).thenReturn(new ArrayList<>(models));
+
+		// when
+		final KeysetPage<TestItemModel> page = service.getPage(query, 5);
+
+		// then
+		Assertions.assertThat(page.getItems()).isEqualTo(models);
+		Assertions.assertThat(page.hasNext()).isTrue();
+		Assertions.assertThat(page.getNextToken().getKeyValues()).containsExactly("e");
+		Assertions.assertThat(page.getNextToken().getPk()).isEqualTo(PK.fromLong(5));
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService).search(captor.capture());
+		Assertions.assertThat(captor.getValue().getCount()).isEqualTo(5);
+		Assertions.assertThat(query.getLimit()).isEqualTo(0);
+	}
+
+	@Test
+	public void shouldNotReturnTokenOfLastPage() {
+
+		// given
+		query.orderBy(TestItemModel::getString);
+		Mockito.when(searchResult.getResult()).thenReturn(new ArrayList<>(models));
+
+		// when
+		final KeysetPage<TestItemModel> page = service.getPage(query, 10);
+
+		// then
+		Assertions.assertThat(page.getItems()).hasSize(5);
+		Assertions.assertThat(page.hasNext()).isFalse();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRequireOrderForPagination() {
+		service.getPage(query, 10);
+	}
+
+	@Test
+	public void shouldExecuteQueryAsynchronouslyInCallerContext() throws Exception {
+
+		// given
+		final SessionContextPropagator propagator = Mockito.mock(SessionContextPropagator.class);
+		Mockito.when(propagator.propagate(Mockito.any())).thenAnswer(invocation -> invocation.getArguments()[0]);
+		service.setSessionContextPropagator(propagator);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		service.setAsyncExecutor(executor);
+		Mockito.when(searchResult.getResult()).thenReturn(new ArrayList<>(models));
+
+		// when
+		final List<TestItemModel> result;
+		try {
+			result = service.getListAsync(query).get(10, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdown();
+		}
+
+		// then
+		Assertions.assertThat(result).isEqualTo(models);
+		Mockito.verify(propagator).propagate(Mockito.any());
+	}
+
+	@Test
+	public void shouldServeCacheableQueryFromResultCacheUntilInvalidated() {
+
+		// given
+		final int typeCode = PK.fromLong(1).getTypeCode();
+		final DeploymentTypeCodeResolver typeCodeResolver = Mockito.mock(DeploymentTypeCodeResolver.class);
+		Mockito.when(typeCodeResolver.resolve("TestItem")).thenReturn(Collections.singleton(typeCode));
+		final QueryResultCache cache = new QueryResultCache();
+		cache.setTypeCodeResolver(typeCodeResolver);
+		final SessionContextPropagator propagator = Mockito.mock(SessionContextPropagator.class);
+		Mockito.when(propagator.getSearchContext()).thenReturn(Collections.singletonList(PK.fromLong(10)));
+		service.setSessionContextPropagator(propagator);
+		service.setQueryResultCache(cache);
+		query.cacheable();
+
+		// when
+		final List<TestItemModel> first = service.getList(query);
+		final List<TestItemModel> cached = service.getList(query);
+		cache.invalidate(typeCode);
+		final List<TestItemModel> afterInvalidation = service.getList(query);
+
+		// then
+		Assertions.assertThat(first).isEqualTo(models);
+		Assertions.assertThat(cached).isEqualTo(models);
+		Assertions.assertThat(afterInvalidation).isEqualTo(models);
+		Mockito.verify(flexibleSearchService, Mockito.times(2)).search(Mockito.any(FlexibleSearchQuery.class));
+		Assertions.assertThat(cache.getHitCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldApplyResidualFiltersInMemoryBeforeLimit() {
+
+		// given
+		final SerializablePredicate<TestItemModel> even = e -> e.getInteger() % 2 == 0;
+		mockResidualFilter(even);
+
+		// when
+		final List<TestItemModel> result = service.getList(query.limit(1));
+
+		// then
+		Assertions.assertThat(result).containsExactly(models.get(1));
+		// batches of limit size are fetched after the last item of previous batch until limit is reached
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService, Mockito.times(2)).search(captor.capture());
+		Assertions.assertThat(captor.getAllValues().get(0).getCount()).isEqualTo(1);
+		Assertions.assertThat(captor.getAllValues().get(1).getQueryParameters().get(SEEK_PK_PARAM))
+						.isEqualTo(PK.fromLong(1));
+		Assertions.assertThat(captor.getValue().getResultClassList()).containsExactly(PK.class);
+		Mockito.verify(modelService, Mockito.never()).get(PK.fromLong(3));
+		Assertions.assertThat(query.getAfter()).isNull();
+	}
+
+	@Test
+	public void shouldStreamResidualMatchesFromAllBatches() {
+
+		// given
+		final SerializablePredicate<TestItemModel> even = e -> e.getInteger() % 2 == 0;
+		mockResidualFilter(even);
+		service.setStreamPageSize(2);
+
+		// when
+		final List<TestItemModel> result = service.stream(query).collect(Collectors.toList());
+
+		// then
+		Assertions.assertThat(result).containsExactly(models.get(1), models.get(3));
+		Mockito.verify(flexibleSearchService, Mockito.times(3)).search(Mockito.any(FlexibleSearchQuery.class));
+	}
+
+	@Test
+	public void shouldFetchBatchesByOffsetAfterItemWithNullSortKey() {
+
+		// given
+		final SerializablePredicate<TestItemModel> even = e -> e.getInteger() % 2 == 0;
+		mockResidualFilter(even);
+		service.setStreamPageSize(2);
+		query.orderBy(TestItemModel::getString);
+		Mockito.when(models.get(1).getString()).thenReturn(null);
+
+		// when
+		final List<TestItemModel> result = service.stream(query).collect(Collectors.toList());
+
+		// then
+		Assertions.assertThat(result).containsExactly(models.get(1), models.get(3));
+		final ArgumentCaptor<FlexibleSearchQuery> captor = ArgumentCaptor.forClass(FlexibleSearchQuery.class);
+		Mockito.verify(flexibleSearchService, Mockito.times(3)).search(captor.capture());
+		Assertions.assertThat(captor.getValue().getStart()).isEqualTo(4);
+		Mockito.verify(translationService, Mockito.never()).translate(Mockito.<LambdaFlexibleSearchQuery<?>>any());
+	}
+
+	@Test
+	public void shouldCountAndCheckExistenceOfResidualMatchesInMemory() {
+
+		// given
+		final SerializablePredicate<TestItemModel> even = e -> e.getInteger() % 2 == 0;
+		mockResidualFilter(even);
+
+		// when
+		final long count = service.count(query);
+		final boolean exists = service.exists(query);
+
+		// then
+		Assertions.assertThat(count).isEqualTo(2);
+		Assertions.assertThat(exists).isTrue();
+		Mockito.verify(translationService, Mockito.never()).translateCount(query);
+	}
+
+	private void mockResidualFilter(final SerializablePredicate<TestItemModel> filter) {
+		for (int i = 0; i < models.size(); i++) {
+			Mockito.when(models.get(i).getInteger()).thenReturn(i + 1);
+		}
+		query.hybrid();
+		residualFilters = Collections.singletonList(filter);
+		mockBatches();
+	}
+
+	/**
+	 * Query is fetched in batches, search returns at most count PKs greater than the seek PK, skipping start PKs
+	 */
+	@SuppressWarnings("unchecked")
+	private void mockBatches() {
+		Mockito.when(translationService.translate(Mockito.any(LambdaFlexibleSearchQuery.class))).thenAnswer(
+						invocation -> new FlexibleSearchQuery("SELECT {this.PK} from {TestItem AS this}",
+										Collections.singletonMap(SEEK_PK_PARAM,
+														((LambdaFlexibleSearchQuery<?>) invocation.getArguments()[0]).getAfter().getPk())));
+		Mockito.when(flexibleSearchService.search(Mockito.any(FlexibleSearchQuery.class))).thenAnswer(invocation -> {
+			final FlexibleSearchQuery batch = (FlexibleSearchQuery) invocation.getArguments()[0];
+			final PK after = (PK) batch.getQueryParameters().get(SEEK_PK_PARAM);
+			final List<Object> pks = models.stream().map(TestItemModel::getPk)
+							.filter(pk -> after == null || pk.compareTo(after) > 0).skip(batch.getStart())
+							.limit(batch.getCount() < 0 ? Long.MAX_VALUE : batch.getCount()).collect(Collectors.toList());
+			final SearchResult<Object> result = Mockito.mock(SearchResult.class);
+			Mockito.when(result.getResult()).thenReturn(pks);
+			return result;
+		});
+	}
+}
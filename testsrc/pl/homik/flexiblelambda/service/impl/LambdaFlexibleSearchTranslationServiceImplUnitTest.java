@@ -1,24 +1,49 @@
 package pl.homik.flexiblelambda.service.impl;
 
+import java.lang.invoke.SerializedLambda;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
 import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.PK;
 import de.hybris.platform.core.model.order.OrderModel;
+import de.hybris.platform.core.model.product.ProductModel;
 import de.hybris.platform.core.model.test.TestItemModel;
+import de.hybris.platform.core.model.user.UserModel;
 import de.hybris.platform.servicelayer.model.ModelService;
 import de.hybris.platform.servicelayer.search.FlexibleSearchQuery;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Triple;
 import org.fest.assertions.Assertions;
+import org.fest.assertions.MapAssert;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import pl.homik.flexiblelambda.cache.TranslationPlanCache;
+import pl.homik.flexiblelambda.function.SerializableFunction;
 import pl.homik.flexiblelambda.function.SerializablePredicate;
+import pl.homik.flexiblelambda.metrics.LambdaQueryMetrics;
+import pl.homik.flexiblelambda.metrics.QueryMetrics;
+import pl.homik.flexiblelambda.metrics.QueryPhase;
+import pl.homik.flexiblelambda.pojo.CollectionRelation;
+import pl.homik.flexiblelambda.pojo.ContinuationToken;
+import pl.homik.flexiblelambda.pojo.IncludeQuery;
 import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.pojo.LambdaProjectionQuery;
+import pl.homik.flexiblelambda.pojo.TranslatedQuery;
+import pl.homik.flexiblelambda.tools.PrecompiledLambdaRegistry;
+import pl.homik.flexiblelambda.tools.RelationResolver;
+import pl.homik.flexiblelambda.tools.SerializedLambdas;
+import pl.homik.flexiblelambda.visitor.UnsupportedExpressionException;
 
 @UnitTest
 @RunWith(MockitoJUnitRunner.class)
@@ -65,7 +90,7 @@ public class LambdaFlexibleSearchTranslationServiceImplUnitTest {
 
 	@Test
 	public void shouldGeneratoreCorrectNotEqualExpression() {
-		checkWhere(e -> !e.getString().equals("test"), "NOT({this.string} = ?a)", "test");
+		checkWhere(e -> !e.getString().equals("test"), "{this.string} <> ?a", "test");
 
 	}
 
@@ -84,7 +109,7 @@ public class LambdaFlexibleSearchTranslationServiceImplUnitTest {
 		final Integer intVar = 0;
 		final SerializablePredicate<TestItemModel> lambda = e -> e.getInteger().equals(intVar)
 						&& e.getPrimitiveInteger() == intVar;
-		checkWhere(lambda, "{this.integer} = ?a AND {this.primitiveInteger} = ?b", intVar, intVar);
+		checkWhere(lambda, "{this.integer} = ?a AND {this.primitiveInteger} = ?a", intVar);
 	}
 
 	@Test
@@ -93,7 +118,7 @@ public class LambdaFlexibleSearchTranslationServiceImplUnitTest {
 		final Integer intVar = 0;
 		final SerializablePredicate<TestItemModel> lambda = e -> intVar.equals(e.getInteger()) && intVar == e
 						.getPrimitiveInteger();
-		checkWhere(lambda, "?a = {this.integer} AND ?b = {this.primitiveInteger}", intVar, intVar);
+		checkWhere(lambda, "?a = {this.integer} AND ?a = {this.primitiveInteger}", intVar);
 	}
 
 	@Test
@@ -119,7 +144,7 @@ public class LambdaFlexibleSearchTranslationServiceImplUnitTest {
 	public void shouldWorkWithNullComparison() {
 
 		checkWhere(e -> e.getString() == null, "{this.string} is null");
-		checkWhere(e -> e.getString() != null, "NOT({this.string} is null )");
+		checkWhere(e -> e.getString() != null, "{this.string} IS NOT NULL");
 
 	}
 
@@ -127,14 +152,14 @@ public class LambdaFlexibleSearchTranslationServiceImplUnitTest {
 	public void shouldWorkWithThreeExpression() {
 
 		checkWhere(e -> e.getBoolean() && e.getString().equals("a") || e.getString().equals("b"),
-						"{this.boolean} = ?a and {this.string} = ?b or {this.string} = ?c", true, "a", "b");
+						"({this.boolean} = ?a AND {this.string} = ?b) OR {this.string} = ?c", true, "a", "b");
 	}
 
 	@Test
 	public void shouldWorkWithBooleanFields() {
 
 		checkWhere(e -> e.getBoolean(), "{this.boolean} = ?a", true);
-		checkWhere(e -> !e.getBoolean(), "NOT({this.boolean} = ?a)", true);
+		checkWhere(e -> !e.getBoolean(), "{this.boolean} <> ?a", true);
 		checkWhere(TestItemModel::getBoolean, "{this.boolean} = ?a", true);
 	}
 
@@ -165,7 +190,7 @@ public class LambdaFlexibleSearchTranslationServiceImplUnitTest {
 
 		// then
 		final String expectedQuery = "SELECT {this.PK} from {Order AS this"
-						+ " LEFT JOIN User as thisuser on {this.user}={thisuser.PK}}" + " WHERE ({thisuser.name} = "
+						+ " JOIN User as thisuser on {this.user}={thisuser.PK}}" + " WHERE ({thisuser.name} = "
 						+ "{this.statusDisplay})";
 		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(expectedQuery);
 		Assertions.assertThat(flex.getQueryParameters().values()).isEmpty();
@@ -185,12 +210,27 @@ public class LambdaFlexibleSearchTranslationServiceImplUnitTest {
 
 		// then
 		final String expectedQuery = "SELECT {this.PK} from {Order AS this"
-						+ " LEFT JOIN User as thisuser on {this.user}={thisuser.PK}}" + " WHERE ({thisuser.name} = ?a)";
+						+ " JOIN User as thisuser on {this.user}={thisuser.PK}}" + " WHERE ({thisuser.name} = ?a)";
 		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(expectedQuery);
 		Assertions.assertThat(flex.getQueryParameters().values()).containsOnly("Darek");
 
 	}
 
+	@Test
+	public void shouldReturnQueriedAndJoinedTypes() {
+
+		// given
+		final LambdaFlexibleSearchQuery<OrderModel> query = new LambdaFlexibleSearchQuery<>(OrderModel.class)
+						.filter(e -> e.getDeliveryAddress().getCountry().getIsocode().equals("pl"))
+						.orderBy(e -> e.getUser().getUid());
+
+		// when
+		final Set<String> types = translationService.getQueriedTypes(query);
+
+		// then
+		Assertions.assertThat(types).containsOnly("Order", "Address", "Country", "User");
+	}
+
 	@Test
 	public void shouldDoubleJoinWhenNeeded() {
 
@@ -214,16 +254,16 @@ public class LambdaFlexibleSearchTranslationServiceImplUnitTest {
 
 		// then
 		final String expectedQuery = "SELECT {this.PK} from {Order AS this"
-						+ " LEFT JOIN Address as thisdeliveryAddress on {this.deliveryAddress}={thisdeliveryAddress.PK}"
-						+ " LEFT JOIN Country as thisdeliveryAddresscountry on {thisdeliveryAddress.country}={thisdeliveryAddresscountry.PK}}"
+						+ " JOIN Address as thisdeliveryAddress on {this.deliveryAddress}={thisdeliveryAddress.PK}"
+						+ " JOIN Country as thisdeliveryAddresscountry on {thisdeliveryAddress.country}={thisdeliveryAddresscountry.PK}}"
 						+ " WHERE ({thisdeliveryAddresscountry.isocode} = ?a)";
 		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(expectedQuery);
 
 		Assertions.assertThat(flex.getQueryParameters().values()).containsOnly(poland);
 
 		final String expectedQuery2 = "SELECT {this.PK} from {Order AS this"
-						+ " LEFT JOIN Address as thisdeliveryAddress on {this.deliveryAddress}={thisdeliveryAddress.PK}"
-						+ " LEFT JOIN Country as thisdeliveryAddresscountry on {thisdeliveryAddress.country}={thisdeliveryAddresscountry.PK}}"
+						+ " JOIN Address as thisdeliveryAddress on {this.deliveryAddress}={thisdeliveryAddress.PK}"
+						+ " JOIN Country as thisdeliveryAddresscountry on {thisdeliveryAddress.country}={thisdeliveryAddresscountry.PK}}"
 						+ " WHERE ({thisdeliveryAddresscountry.isocode} = ?a AND {thisdeliveryAddress.company} = ?b)";
 		Assertions.assertThat(flex2.getQuery()).isEqualToIgnoringCase(expectedQuery2);
 
@@ -231,6 +271,863 @@ public class LambdaFlexibleSearchTranslationServiceImplUnitTest {
 
 	}
 
+	@Test
+	public void shouldKeepLeftJoinWhenMissingRowCanMatch() {
+
+		// given
+		final SerializablePredicate<OrderModel> pred = e -> e.getUser().getName() == null || e.getCode().equals("A")
+						|| !e.getDeliveryAddress().getCompany().equals("SAP");
+
+		// when
+		final FlexibleSearchQuery flex = translationService
+						.translate(new LambdaFlexibleSearchQuery<>(OrderModel.class).filter(pred));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).contains("LEFT JOIN User as thisuser")
+						.contains("LEFT JOIN Address as thisdeliveryAddress");
+	}
+
+	@Test
+	public void shouldInnerJoinTableRejectedByBothAlternatives() {
+
+		// given
+		final SerializablePredicate<OrderModel> pred = e -> e.getUser().getName().equals("A") || e.getUser().getUid()
+						.equals("B");
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(OrderModel.class).filter(pred).filter(e -> e.getCode() == null));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {Order AS this JOIN User as thisuser on {this.user}={thisuser.PK}}"
+										+ " WHERE ({thisuser.name} = ?a OR {thisuser.uid} = ?b) AND ({this.code} IS NULL)");
+	}
+
+	@Test
+	public void shouldCompareRelationPkWithoutJoin() {
+
+		// given
+		final PK userPk = PK.fromLong(1);
+		final PK orderPk = PK.fromLong(2);
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(new LambdaFlexibleSearchQuery<>(OrderModel.class)
+						.filter(e -> e.getUser().getPk().equals(userPk) && !e.getPk().equals(orderPk)));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {Order AS this} WHERE ({this.user} = ?a AND {this.PK} <> ?b)");
+		Assertions.assertThat(flex.getQueryParameters().values()).containsOnly(userPk, orderPk);
+	}
+
+	@Test
+	public void shouldReuseCachedPlanWithNewCapturedValues() {
+
+		// given
+		final TranslationPlanCache cache = new TranslationPlanCache();
+		translationService.setTranslationPlanCache(cache);
+
+		// when
+		final FlexibleSearchQuery first = translationService.translate(stringQuery("abc"));
+		final FlexibleSearchQuery second = translationService.translate(stringQuery("xyz"));
+
+		// then
+		Assertions.assertThat(second.getQuery()).isEqualTo(first.getQuery());
+		Assertions.assertThat(getWhere(second)).isEqualToIgnoringCase("{this.string} LIKE ?a) AND ({this.integer} = ?b");
+		Assertions.assertThat(first.getQueryParameters().values()).containsOnly("abc%", 1);
+		Assertions.assertThat(second.getQueryParameters().values()).containsOnly("xyz%", 1);
+		Assertions.assertThat(cache.getMissCount()).isEqualTo(1);
+		Assertions.assertThat(cache.getHitCount()).isEqualTo(1);
+		Assertions.assertThat(cache.getSize()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldUseCurrentCapturedValuesWithoutCache() {
+
+		// when
+		final FlexibleSearchQuery first = translationService.translate(stringQuery("abc"));
+		final FlexibleSearchQuery second = translationService.translate(stringQuery("xyz"));
+
+		// then
+		Assertions.assertThat(first.getQueryParameters().values()).containsOnly("abc%", 1);
+		Assertions.assertThat(second.getQueryParameters().values()).containsOnly("xyz%", 1);
+	}
+
+	@Test
+	public void shouldEvaluateExpressionParameterOnCacheHit() {
+
+		// given
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+
+		// when
+		final FlexibleSearchQuery first = translationService.translate(mapQuery(Collections.singletonMap("key", "v1")));
+		final FlexibleSearchQuery second = translationService.translate(mapQuery(Collections.singletonMap("key", "v2")));
+
+		// then
+		Assertions.assertThat(second.getQuery()).isEqualTo(first.getQuery());
+		Assertions.assertThat(first.getQueryParameters().values()).containsOnly("v1");
+		Assertions.assertThat(second.getQueryParameters().values()).containsOnly("v2");
+	}
+
+	@Test
+	public void shouldEvictOldestPlan() {
+
+		// given
+		final TranslationPlanCache cache = new TranslationPlanCache();
+		cache.setMaxSize(1);
+		translationService.setTranslationPlanCache(cache);
+
+		// when
+		translationService.translate(stringQuery("abc"));
+		translationService.translate(mapQuery(Collections.singletonMap("key", "v1")));
+		translationService.translate(stringQuery("abc"));
+
+		// then
+		Assertions.assertThat(cache.getSize()).isEqualTo(1);
+		Assertions.assertThat(cache.getMissCount()).isEqualTo(3);
+		Assertions.assertThat(cache.getEvictionCount()).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldSelectColumnsWithJoins() {
+
+		// given
+		final LambdaProjectionQuery<OrderModel, Triple<String, String, UserModel>> query = new LambdaFlexibleSearchQuery<>(
+						OrderModel.class).filter(e -> e.getDeliveryAddress().getCompany().equals("SAP"))
+						.select(e -> e.getCode(), e -> e.getUser().getName(), e -> e.getUser());
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(query);
+
+		// then
+		final String expectedQuery = "SELECT {this.code}, {thisuser.name}, {this.user} from {Order AS this"
+						+ " JOIN Address as thisdeliveryAddress on {this.deliveryAddress}={thisdeliveryAddress.PK}"
+						+ " LEFT JOIN User as thisuser on {this.user}={thisuser.PK}}"
+						+ " WHERE ({thisdeliveryAddress.company} = ?a)";
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(expectedQuery);
+		Assertions.assertThat(flex.getQueryParameters().values()).containsOnly("SAP");
+		Assertions.assertThat(flex.getResultClassList()).containsExactly(String.class, String.class, PK.class);
+	}
+
+	@Test
+	public void shouldSelectBooleanAndPrimitiveColumns() {
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).select(TestItemModel::getBoolean,
+										TestItemModel::getPrimitiveInteger));
+
+		// then
+		Assertions.assertThat(flex.getQuery())
+						.isEqualToIgnoringCase("SELECT {this.boolean}, {this.primitiveInteger} from {TestItem AS this}");
+		Assertions.assertThat(flex.getQueryParameters()).isEmpty();
+		Assertions.assertThat(flex.getResultClassList()).containsExactly(Boolean.class, Integer.class);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void shouldNotSelectExpressions() {
+		translationService.translate(new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.select(e -> e.getString().equals("abc")));
+	}
+
+	@Test
+	public void shouldTranslateCountSharingCachedPlan() {
+
+		// given
+		final TranslationPlanCache cache = new TranslationPlanCache();
+		translationService.setTranslationPlanCache(cache);
+		translationService.translate(stringQuery("abc").limit(10));
+
+		// when
+		final FlexibleSearchQuery count = translationService.translateCount(stringQuery("xyz").limit(10));
+
+		// then
+		Assertions.assertThat(count.getQuery()).isEqualToIgnoringCase(
+						"SELECT COUNT({this.PK}) from {TestItem AS this} WHERE ({this.string} LIKE ?a) AND ({this.integer} = ?b)");
+		Assertions.assertThat(count.getQueryParameters().values()).containsOnly("xyz%", 1);
+		Assertions.assertThat(count.getResultClassList()).containsExactly(Long.class);
+		Assertions.assertThat(cache.getHitCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldMeasureTranslationPhases() {
+
+		// given
+		final LambdaQueryMetrics metrics = new LambdaQueryMetrics();
+		translationService.setQueryMetrics(metrics);
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(stringQuery("abc"));
+		translationService.translate(stringQuery("xyz"));
+
+		// then
+		final QueryMetrics query = metrics.getQuery(flex.getQuery());
+		Assertions.assertThat(query.getHistogram(QueryPhase.TRANSLATION).getCount()).isEqualTo(2);
+		// second translation uses cached plan
+		Assertions.assertThat(query.getHistogram(QueryPhase.PARSING).getCount()).isEqualTo(1);
+		Assertions.assertThat(query.getHistogram(QueryPhase.TRAVERSAL).getCount()).isEqualTo(1);
+		Assertions.assertThat(query.getHistogram(QueryPhase.TYPE_LOOKUP).getCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldCountTranslationFailuresByExpressionType() {
+
+		// given
+		final LambdaQueryMetrics metrics = new LambdaQueryMetrics();
+		translationService.setQueryMetrics(metrics);
+		final Map<String, List<String>> map = Collections.singletonMap("key", Arrays.asList("a", "b"));
+
+		// when
+		try {
+			translationService.translate(new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+							.filter(e -> map.get("key").contains(e.getString())));
+			Assert.fail("unsupported expression translated");
+		} catch (final UnsupportedExpressionException e) {
+			// expected
+		}
+
+		// then
+		Assertions.assertThat(metrics.getTranslationFailures()).isEqualTo(
+						Collections.singletonMap("Collection.contains", 1L));
+	}
+
+	@Test
+	public void shouldAddSeekPredicateForKeysetPagination() {
+
+		// given
+		final ContinuationToken token = new ContinuationToken(Collections.singletonList("abc"), PK.fromLong(5));
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> e.getInteger() == 1)
+										.orderBy(e -> e.getString()).after(token));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {TestItem AS this} WHERE ({this.integer} = ?a) AND ({this.string} > ?seek0"
+										+ " OR ({this.string} = ?seek0 AND {this.PK} > ?seekPk)) ORDER BY {this.string}, {this.PK}");
+		Assertions.assertThat(flex.getQueryParameters()).hasSize(3).includes(MapAssert.entry("a", 1),
+						MapAssert.entry("seek0", "abc"), MapAssert.entry("seekPk", PK.fromLong(5)));
+	}
+
+	@Test
+	public void shouldOrderByRelationAttribute() {
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(OrderModel.class).orderBy(e -> e.getUser().getName())
+										.orderBy(e -> e.getCode()));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {Order AS this LEFT JOIN User as thisuser on {this.user}={thisuser.PK}}"
+										+ " ORDER BY {thisuser.name}, {this.code}, {this.PK}");
+	}
+
+	@Test
+	public void shouldSelectTopItemsOrderedDescending() {
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(OrderModel.class).orderByDesc(e -> e.getUser().getName())
+										.orderBy(e -> e.getCode()).limit(20));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {Order AS this LEFT JOIN User as thisuser on {this.user}={thisuser.PK}}"
+										+ " ORDER BY {thisuser.name} DESC, {this.code}, {this.PK}");
+		Assertions.assertThat(flex.getCount()).isEqualTo(20);
+	}
+
+	@Test
+	public void shouldSeekBackwardsOnDescendingKey() {
+
+		// given
+		final ContinuationToken token = new ContinuationToken(Collections.singletonList("abc"), PK.fromLong(5));
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).orderByDesc(e -> e.getString()).after(token));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {TestItem AS this} WHERE ({this.string} < ?seek0"
+										+ " OR ({this.string} = ?seek0 AND {this.PK} > ?seekPk)) ORDER BY {this.string} DESC, {this.PK}");
+	}
+
+	@Test
+	public void shouldNotShareCachedPlanBetweenSortDirections() {
+
+		// given
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+		final SerializableFunction<TestItemModel, String> key = e -> e.getString();
+
+		// when
+		final FlexibleSearchQuery ascending = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).orderBy(key));
+		final FlexibleSearchQuery descending = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).orderByDesc(key));
+
+		// then
+		Assertions.assertThat(ascending.getQuery()).endsWith("ORDER BY {this.string}, {this.PK}");
+		Assertions.assertThat(descending.getQuery()).endsWith("ORDER BY {this.string} DESC, {this.PK}");
+	}
+
+	@Test
+	public void shouldOrderBatchedQueryByPkWithoutSharingCachedPlan() {
+
+		// given
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+		final LambdaFlexibleSearchQuery<TestItemModel> query = new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(e -> e.getInteger() == 1);
+
+		// when
+		final FlexibleSearchQuery batched = translationService.translateForBatches(query).getQuery();
+		final FlexibleSearchQuery plain = translationService.translate(query);
+
+		// then
+		Assertions.assertThat(batched.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {TestItem AS this} WHERE ({this.integer} = ?a) ORDER BY {this.PK}");
+		Assertions.assertThat(plain.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {TestItem AS this} WHERE ({this.integer} = ?a)");
+	}
+
+	@Test
+	public void shouldSumGroupedByRelation() {
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(OrderModel.class).filter(e -> e.getCalculated())
+										.groupBy(e -> e.getUser()).sum(e -> e.getTotalPrice()));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.user}, SUM({this.totalPrice}) from {Order AS this} WHERE ({this.calculated} = ?a)"
+										+ " GROUP BY {this.user}");
+		Assertions.assertThat(flex.getResultClassList()).containsExactly(PK.class, Double.class);
+	}
+
+	@Test
+	public void shouldSumIntegralAttributeAsLong() {
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).groupBy(e -> e.getString())
+										.sum(e -> e.getInteger()));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.string}, SUM({this.integer}) from {TestItem AS this} GROUP BY {this.string}");
+		Assertions.assertThat(flex.getResultClassList()).containsExactly(String.class, Long.class);
+	}
+
+	@Test
+	public void shouldCountAndAverageGroupedByJoinedAttribute() {
+
+		// given
+		final LambdaFlexibleSearchQuery<OrderModel> query = new LambdaFlexibleSearchQuery<>(OrderModel.class)
+						.orderBy(e -> e.getUser().getName());
+
+		// when
+		final FlexibleSearchQuery count = translationService.translate(query.groupBy(e -> e.getUser().getName()).count());
+		final FlexibleSearchQuery avg = translationService.translate(
+						query.groupBy(e -> e.getUser().getName()).avg(e -> e.getTotalPrice()));
+
+		// then
+		Assertions.assertThat(count.getQuery()).isEqualToIgnoringCase(
+						"SELECT {thisuser.name}, COUNT({this.PK}) from {Order AS this LEFT JOIN User as thisuser on"
+										+ " {this.user}={thisuser.PK}} GROUP BY {thisuser.name} ORDER BY {thisuser.name}");
+		Assertions.assertThat(count.getResultClassList()).containsExactly(String.class, Long.class);
+		Assertions.assertThat(avg.getQuery()).contains("AVG({this.totalPrice} * 1.0)");
+		Assertions.assertThat(avg.getResultClassList()).containsExactly(String.class, Double.class);
+	}
+
+	@Test
+	public void shouldNotShareCachedPlanBetweenAggregateFunctions() {
+
+		// given
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+		final SerializableFunction<OrderModel, String> code = e -> e.getCode();
+		final SerializableFunction<OrderModel, Double> price = e -> e.getTotalPrice();
+		final LambdaFlexibleSearchQuery<OrderModel> query = new LambdaFlexibleSearchQuery<>(OrderModel.class);
+
+		// when
+		final FlexibleSearchQuery min = translationService.translate(query.groupBy(code).min(price));
+		final FlexibleSearchQuery max = translationService.translate(query.groupBy(code).max(price));
+
+		// then
+		Assertions.assertThat(min.getQuery()).contains("MIN({this.totalPrice})");
+		Assertions.assertThat(max.getQuery()).contains("MAX({this.totalPrice})");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectTokenOfDifferentOrder() {
+		translationService.translate(new LambdaFlexibleSearchQuery<>(TestItemModel.class).orderBy(e -> e.getString())
+						.after(new ContinuationToken(Arrays.asList("abc", 1), PK.fromLong(5))));
+	}
+
+	@Test
+	public void shouldTranslateCollectionContainsToPaddedInList() {
+		final List<String> codes = Arrays.asList("a", "b", "c");
+		checkWhere(e -> codes.contains(e.getString()), "{this.string} IN (?a)", Arrays.asList("a", "b", "c", "c"));
+	}
+
+	@Test
+	public void shouldTranslateNegatedContainsOnRelation() {
+
+		// given
+		final Set<String> uids = Collections.singleton("uid");
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(OrderModel.class).filter(e -> !uids.contains(e.getUser().getUid())));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {Order AS this LEFT JOIN User as thisuser on {this.user}={thisuser.PK}}"
+										+ " WHERE (NOT({thisuser.uid} IN (?a)))");
+		Assertions.assertThat(flex.getQueryParameters().values()).containsOnly(Collections.singletonList("uid"));
+	}
+
+	@Test
+	public void shouldSplitLargeCollectionIntoInLists() {
+		translationService.setMaxInListSize(2);
+		final List<Integer> values = Arrays.asList(1, 2, 3);
+		checkWhere(e -> values.contains(e.getInteger()), "({this.integer} IN (?a) OR {this.integer} IN (?a_1))",
+						Arrays.asList(1, 2), Arrays.asList(3, 3));
+	}
+
+	@Test
+	public void shouldReplaceContainsOfEmptyCollection() {
+		final List<Integer> values = Collections.emptyList();
+		checkWhere(e -> values.contains(e.getInteger()), "1=0", Collections.emptyList());
+	}
+
+	@Test
+	public void shouldBindCollectionOnCacheHit() {
+
+		// given
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+
+		// when
+		final FlexibleSearchQuery first = translationService.translate(containsQuery(Arrays.asList(1, 2)));
+		final FlexibleSearchQuery second = translationService.translate(containsQuery(Arrays.asList(3, 4, 5)));
+
+		// then
+		Assertions.assertThat(second.getQuery()).isEqualTo(first.getQuery());
+		Assertions.assertThat(first.getQueryParameters().values()).containsOnly(Arrays.asList(1, 2));
+		Assertions.assertThat(second.getQueryParameters().values()).containsOnly(Arrays.asList(3, 4, 5, 5));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void shouldNotTranslateContainsOfComputedCollection() {
+		final Map<String, List<String>> map = Collections.singletonMap("key", Arrays.asList("a", "b"));
+		translationService.translate(new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(e -> map.get("key").contains(e.getString())));
+	}
+
+	private LambdaFlexibleSearchQuery<TestItemModel> containsQuery(final List<Integer> values) {
+		return new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> values.contains(e.getInteger()));
+	}
+
+	@Test
+	public void shouldLeaveUntranslatableFilterOfHybridQueryForInMemoryEvaluation() {
+
+		// given
+		final Map<String, List<String>> map = Collections.singletonMap("key", Arrays.asList("a", "b"));
+		final SerializablePredicate<TestItemModel> untranslatable = e -> map.get("key").contains(e.getString());
+		final LambdaFlexibleSearchQuery<TestItemModel> query = new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(untranslatable).filter(e -> e.getInteger() == 1).limit(5).hybrid();
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(query);
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {TestItem AS this} WHERE ({this.integer} = ?a) ORDER BY {this.PK}");
+		Assertions.assertThat(flex.getCount()).isEqualTo(-1);
+		Assertions.assertThat(translationService.getResidualFilters(query)).containsExactly(untranslatable);
+	}
+
+	@Test
+	public void shouldLeaveUnparsableFilterOfHybridQueryForInMemoryEvaluation() {
+
+		// given
+		final SerializablePredicate<OrderModel> unparsable = o -> o.getEntries().stream()
+						.anyMatch(e -> e.getQuantity() > 1);
+		final LambdaFlexibleSearchQuery<OrderModel> query = new LambdaFlexibleSearchQuery<>(OrderModel.class)
+						.filter(unparsable).filter(e -> e.getCode().equals("a")).hybrid();
+
+		// when
+		final TranslatedQuery<OrderModel> translated = translationService.translateWithDetails(query);
+
+		// then
+		Assertions.assertThat(translated.getQuery().getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {Order AS this} WHERE ({this.code} = ?a) ORDER BY {this.PK}");
+		Assertions.assertThat(translated.getResidualFilters()).containsExactly(unparsable);
+	}
+
+	@Test
+	public void shouldReturnDetailsOfTranslationFromSinglePlanLookup() {
+
+		// given
+		final TranslationPlanCache cache = new TranslationPlanCache();
+		translationService.setTranslationPlanCache(cache);
+		final Map<String, List<String>> map = Collections.singletonMap("key", Arrays.asList("a", "b"));
+		final SerializablePredicate<OrderModel> untranslatable = e -> map.get("key").contains(e.getCode());
+		final LambdaFlexibleSearchQuery<OrderModel> query = new LambdaFlexibleSearchQuery<>(OrderModel.class)
+						.filter(untranslatable).filter(e -> e.getUser().getUid().equals("a")).hybrid();
+
+		// when
+		final TranslatedQuery<OrderModel> translated = translationService.translateWithDetails(query);
+
+		// then
+		Assertions.assertThat(translated.getQuery().getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {Order AS this JOIN User as thisuser on {this.user}={thisuser.PK}}"
+										+ " WHERE ({thisuser.uid} = ?a) ORDER BY {this.PK}");
+		Assertions.assertThat(translated.getResidualFilters()).containsExactly(untranslatable);
+		Assertions.assertThat(translated.getQueriedTypes()).containsOnly("Order", "User");
+		Assertions.assertThat(cache.getMissCount() + cache.getHitCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldResolveQualifierOfGetter() {
+
+		// when
+		final String qualifier = translationService.getQualifier(TestItemModel.class, e -> e.getString());
+
+		// then
+		Assertions.assertThat(qualifier).isEqualTo("string");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectQualifierOfRelatedItem() {
+
+		// when
+		translationService.getQualifier(TestItemModel.class, e -> e.getTestDumpProperty().getModifiedtime());
+	}
+
+	@Test
+	public void shouldSelectPksOfAllItemsOnIncludePath() {
+
+		// when
+		final IncludeQuery include = translationService.translateInclude(OrderModel.class,
+						e -> e.getDeliveryAddress().getCountry(), Arrays.asList(PK.fromLong(1), PK.fromLong(2)));
+
+		// then
+		Assertions.assertThat(include.getQuery().getQuery()).isEqualTo(
+						"SELECT {this.deliveryAddress}, {thisdeliveryAddress.country} from {Order AS this JOIN Address as "
+										+ "thisdeliveryAddress on {this.deliveryAddress}={thisdeliveryAddress.PK}} WHERE {this.PK} IN (?pks)");
+		Assertions.assertThat(include.getQuery().getResultClassList()).containsExactly(PK.class, PK.class);
+		Assertions.assertThat(include.getTypes()).containsExactly("Address", "Country");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectIncludePathNotReturningItem() {
+
+		// when
+		translationService.translateInclude(OrderModel.class, e -> e.getDeliveryAddress().getCompany(),
+						Collections.singletonList(PK.fromLong(1)));
+	}
+
+	@Test
+	public void shouldTranslateAnyMatchOfOneToManyRelationToExistsSubquery() {
+
+		// given
+		final RelationResolver relationResolver = Mockito.mock(RelationResolver.class);
+		Mockito.when(relationResolver.resolve("Order", "entries"))
+						.thenReturn(CollectionRelation.oneToMany("AbstractOrderEntry", "order"));
+		translationService.setRelationResolver(relationResolver);
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(OrderModel.class).filter(e -> e.getCode().equals("x"))
+										.anyMatch(e -> e.getEntries(), e -> e.getProduct().getCode().equals("p")));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualTo("SELECT {this.PK} from {Order AS this} WHERE ({this.code} = ?a)"
+						+ " AND (EXISTS ({{SELECT {sub1.PK} FROM {AbstractOrderEntry AS sub1 JOIN Product as sub1product on "
+						+ "{sub1.product}={sub1product.PK}} WHERE {sub1.order} = {this.PK} AND ({sub1product.code} = ?b)}}))");
+		Assertions.assertThat(flex.getQueryParameters()).hasSize(2).includes(MapAssert.entry("a", "x"),
+						MapAssert.entry("b", "p"));
+		Assertions.assertThat(translationService.getQueriedTypes(
+						new LambdaFlexibleSearchQuery<>(OrderModel.class).anyMatch(e -> e.getEntries(), e -> true)))
+						.contains("AbstractOrderEntry");
+	}
+
+	@Test
+	public void shouldTranslateAllMatchOfManyToManyRelationThroughLinkTable() {
+
+		// given
+		final RelationResolver relationResolver = Mockito.mock(RelationResolver.class);
+		Mockito.when(relationResolver.resolve("Product", "supercategories"))
+						.thenReturn(CollectionRelation.manyToMany("Category", "CategoryProductRelation", "target", "source"));
+		translationService.setRelationResolver(relationResolver);
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(new LambdaFlexibleSearchQuery<>(ProductModel.class)
+						.allMatch(e -> e.getSupercategories(), e -> e.getCode().startsWith("c")));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualTo("SELECT {this.PK} from {Product AS this} WHERE (NOT EXISTS ("
+						+ "{{SELECT {sub0.PK} FROM {CategoryProductRelation AS link0 JOIN Category AS sub0 ON {link0.source} = "
+						+ "{sub0.PK}} WHERE {link0.target} = {this.PK} AND NOT({sub0.code} LIKE ?a)}}))");
+		Assertions.assertThat(flex.getQueryParameters().get("a")).isEqualTo("c%");
+	}
+
+	@Test
+	public void shouldBindCapturedArgumentOfRelationPredicateFromCachedPlan() {
+
+		// given
+		final RelationResolver relationResolver = Mockito.mock(RelationResolver.class);
+		Mockito.when(relationResolver.resolve("Order", "entries"))
+						.thenReturn(CollectionRelation.oneToMany("AbstractOrderEntry", "order"));
+		translationService.setRelationResolver(relationResolver);
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+		translationService.translate(noneMatchQuery("first"));
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(noneMatchQuery("second"));
+
+		// then
+		Assertions.assertThat(flex.getQuery()).startsWith("SELECT {this.PK} from {Order AS this} WHERE (NOT EXISTS (");
+		Assertions.assertThat(flex.getQueryParameters().values()).containsOnly("second");
+		Mockito.verify(relationResolver, Mockito.times(1)).resolve("Order", "entries");
+	}
+
+	private LambdaFlexibleSearchQuery<OrderModel> noneMatchQuery(final String code) {
+		return new LambdaFlexibleSearchQuery<>(OrderModel.class).noneMatch(e -> e.getEntries(),
+						e -> e.getProduct().getCode().equals(code));
+	}
+
+	@Test(expected = UnsupportedExpressionException.class)
+	public void shouldNotReuseHybridPlanForStrictQuery() {
+
+		// given
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+		translationService.translate(containsQuery().hybrid());
+
+		// when
+		translationService.translate(containsQuery());
+	}
+
+	@Test
+	public void shouldNotParseFilterRecordedAsUnsupportedAtBuildTime() {
+
+		// given
+		final SerializablePredicate<TestItemModel> recorded = e -> e.getString().equals("a");
+		final SerializedLambda serialized = SerializedLambdas.extract(recorded).get();
+		final Properties entries = new Properties();
+		entries.setProperty(PrecompiledLambdaRegistry.getKey(serialized,
+						PrecompiledLambdaRegistry.getImplementationHash(serialized, getClass().getClassLoader())),
+						PrecompiledLambdaRegistry.UNSUPPORTED + "Collection.contains:not supported");
+		translationService.setPrecompiledLambdaRegistry(new PrecompiledLambdaRegistry(entries));
+		final LambdaFlexibleSearchQuery<TestItemModel> query = new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(recorded).filter(e -> e.getInteger() == 1);
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(query.hybrid());
+
+		// then
+		Assertions.assertThat(flex.getQuery()).isEqualToIgnoringCase(
+						"SELECT {this.PK} from {TestItem AS this} WHERE ({this.integer} = ?a) ORDER BY {this.PK}");
+		Assertions.assertThat(translationService.getResidualFilters(query)).containsExactly(recorded);
+		// captured values of strict query may make the filter translatable, so it is always parsed
+		Assertions.assertThat(translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(recorded)).getQuery())
+						.isEqualToIgnoringCase("SELECT {this.PK} from {TestItem AS this} WHERE ({this.string} = ?a)");
+	}
+
+	@Test
+	public void shouldNotParseFilterTranslatedAtBuildTime() {
+
+		// given
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+		final SerializablePredicate<TestItemModel> recorded = prefixFilter("x");
+		// recorded template differs from the parsed one, so the query shows which of them was used
+		setPrecompiled(recorded, PrecompiledLambdaRegistry.TRANSLATED + "{this.string} LIKE ?a AND {this.integer} = ?b"
+						+ "\nrejected:this\ncaptured:a:0:STARTS_WITH\nliteral:b:java.lang.Integer:1\nargs:v");
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(recorded));
+		final FlexibleSearchQuery other = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(prefixFilter("y")));
+
+		// then
+		Assertions.assertThat(getWhere(flex)).isEqualToIgnoringCase("{this.string} LIKE ?a AND {this.integer} = ?b");
+		Assertions.assertThat(flex.getQueryParameters().values()).containsOnly("x%", 1);
+		Assertions.assertThat(other.getQueryParameters().values()).containsOnly("y%", 1);
+	}
+
+	@Test
+	public void shouldParseFilterTranslatedAtBuildTimeForOtherBooleanValues() {
+
+		// given
+		setPrecompiled(optionalFilter(false, "x"), PrecompiledLambdaRegistry.TRANSLATED + "{this.string} = ?a"
+						+ "\nrejected:this\ncaptured:a:1\nargs:bv");
+
+		// when
+		final FlexibleSearchQuery all = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(optionalFilter(true, "x")));
+		final FlexibleSearchQuery filtered = translationService.translate(
+						new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(optionalFilter(false, "x")));
+
+		// then
+		Assertions.assertThat(all.getQuery()).isEqualToIgnoringCase("SELECT {this.PK} from {TestItem AS this}");
+		Assertions.assertThat(getWhere(filtered)).isEqualToIgnoringCase("{this.string} = ?a");
+		Assertions.assertThat(filtered.getQueryParameters().values()).containsOnly("x");
+	}
+
+	private void setPrecompiled(final SerializablePredicate<TestItemModel> predicate, final String entry) {
+		final SerializedLambda serialized = SerializedLambdas.extract(predicate).get();
+		final Properties entries = new Properties();
+		entries.setProperty(PrecompiledLambdaRegistry.getKey(serialized,
+						PrecompiledLambdaRegistry.getImplementationHash(serialized, getClass().getClassLoader())),
+						entry);
+		translationService.setPrecompiledLambdaRegistry(new PrecompiledLambdaRegistry(entries));
+	}
+
+	private static SerializablePredicate<TestItemModel> prefixFilter(final String prefix) {
+		return e -> e.getString().startsWith(prefix);
+	}
+
+	private static SerializablePredicate<TestItemModel> optionalFilter(final Boolean all, final String value) {
+		return e -> all || e.getString().equals(value);
+	}
+
+	private LambdaFlexibleSearchQuery<TestItemModel> containsQuery() {
+		final Map<String, List<String>> map = Collections.singletonMap("key", Arrays.asList("a", "b"));
+		return new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> map.get("key").contains(e.getString()));
+	}
+
+	private LambdaFlexibleSearchQuery<TestItemModel> stringQuery(final String prefix) {
+		return new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> e.getString().startsWith(prefix))
+						.filter(e -> e.getInteger() == 1);
+	}
+
+	private LambdaFlexibleSearchQuery<TestItemModel> mapQuery(final Map<String, String> map) {
+		return new LambdaFlexibleSearchQuery<>(TestItemModel.class).filter(e -> e.getString().equals(map.get("key")));
+	}
+
+	@Test
+	public void shouldTranslateEqualitiesOfSameColumnToIn() {
+		checkWhere(e -> e.getInteger() == 1 || e.getString().equals("x") || e.getInteger() == 2,
+						"{this.integer} IN (?a, ?b) OR {this.string} = ?c", 1, 2, "x");
+	}
+
+	@Test
+	public void shouldParenthesizeNestedLogicalOperations() {
+		checkWhere(e -> e.getInteger() == 1 && (e.getString().equals("a") || e.getString().startsWith("b")),
+						"{this.integer} = ?a AND ({this.string} = ?b OR {this.string} LIKE ?c)", 1, "a", "b%");
+	}
+
+	@Test
+	public void shouldPushNegationToOperator() {
+		checkWhere(e -> !e.getString().startsWith("a"), "{this.string} NOT LIKE ?a", "a%");
+		checkWhere(e -> !(e.getString().equals("a") || e.getBoolean()), "{this.string} <> ?a AND {this.boolean} <> ?b",
+						"a", true);
+	}
+
+	@Test
+	public void shouldMergeBoundsOfSameColumn() {
+		checkWhere(e -> e.getInteger() > 1 && e.getInteger() <= 10 && e.getInteger() > 3 && e.getInteger() < 20,
+						"{this.integer} > ?a AND {this.integer} <= ?b", 3, 10);
+	}
+
+	@Test
+	public void shouldFoldOptionalFilterByCapturedNull() {
+
+		// given
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+
+		// when
+		final FlexibleSearchQuery withValue = translationService.translate(optionalQuery("a", Boolean.FALSE));
+		final FlexibleSearchQuery withoutValue = translationService.translate(optionalQuery(null, Boolean.FALSE));
+		final FlexibleSearchQuery withFlag = translationService.translate(optionalQuery("b", Boolean.TRUE));
+
+		// then
+		Assertions.assertThat(withValue.getQuery())
+						.isEqualTo("SELECT {this.PK} from {TestItem AS this} WHERE ({this.string} = ?a)");
+		Assertions.assertThat(withValue.getQueryParameters().values()).containsOnly("a");
+		Assertions.assertThat(withoutValue.getQuery()).isEqualTo("SELECT {this.PK} from {TestItem AS this}");
+		Assertions.assertThat(withFlag.getQuery()).isEqualTo("SELECT {this.PK} from {TestItem AS this}");
+	}
+
+	@Test
+	public void shouldRebindCapturedValuesOfInFromCachedPlan() {
+
+		// given
+		translationService.setTranslationPlanCache(new TranslationPlanCache());
+		translationService.translate(anyOfQuery("a", "b"));
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(anyOfQuery("c", "d"));
+
+		// then
+		Assertions.assertThat(getWhere(flex)).isEqualTo("{this.string} IN (?a, ?b)");
+		Assertions.assertThat(flex.getQueryParameters()).includes(MapAssert.entry("a", "c"), MapAssert.entry("b", "d"));
+	}
+
+	@Test
+	public void shouldRemoveConditionsRepeatedInFilters() {
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(repeatedQuery("b"));
+
+		// then
+		Assertions.assertThat(getWhere(flex))
+						.isEqualTo("{this.integer} > ?a AND {this.string} = ?b) AND ({this.string} = ?c");
+		Assertions.assertThat(flex.getQueryParameters().keySet()).containsOnly("a", "b", "c");
+	}
+
+	@Test
+	public void shouldOrderJoinsIndependentlyOfFilters() {
+
+		// when
+		final FlexibleSearchQuery first = translationService.translate(new LambdaFlexibleSearchQuery<>(OrderModel.class)
+						.filter(e -> e.getUser().getName().equals("a"))
+						.filter(e -> e.getDeliveryAddress().getCompany().equals("b")));
+		final FlexibleSearchQuery second = translationService.translate(new LambdaFlexibleSearchQuery<>(OrderModel.class)
+						.filter(e -> e.getDeliveryAddress().getCompany().equals("b"))
+						.filter(e -> e.getUser().getName().equals("a")));
+
+		// then
+		Assertions.assertThat(StringUtils.substringBefore(first.getQuery(), "WHERE"))
+						.isEqualTo(StringUtils.substringBefore(second.getQuery(), "WHERE"))
+						.contains("{Order AS this JOIN Address as thisdeliveryAddress");
+	}
+
+	@Test
+	public void shouldShareParameterOfEqualLiterals() {
+
+		// when
+		final FlexibleSearchQuery flex = translationService.translate(new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(e -> e.getBoolean()).filter(e -> e.getString().equals("a") || e.getBoolean()));
+
+		// then
+		Assertions.assertThat(getWhere(flex)).isEqualTo("{this.boolean} = ?a) AND ({this.string} = ?b OR {this.boolean} = ?a");
+		Assertions.assertThat(flex.getQueryParameters()).hasSize(2);
+	}
+
+	private LambdaFlexibleSearchQuery<TestItemModel> optionalQuery(final String code, final Boolean all) {
+		return new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(e -> all || code == null || e.getString().equals(code));
+	}
+
+	private LambdaFlexibleSearchQuery<TestItemModel> repeatedQuery(final String code) {
+		return new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(e -> e.getInteger() > 1 && e.getString().equals(code))
+						.filter(e -> e.getInteger() > 1 && e.getString().equals(code));
+	}
+
+	private LambdaFlexibleSearchQuery<TestItemModel> anyOfQuery(final String first, final String second) {
+		return new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+						.filter(e -> e.getString().equals(first) || e.getString().equals(second));
+	}
+
 	public void checkWhere(final SerializablePredicate<TestItemModel> pred, final String expectedWhere,
 					final Object... expectedParams) {
 
@@ -0,0 +1,86 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.model.test.TestItemModel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.context.ApplicationContext;
+
+import pl.homik.flexiblelambda.pojo.LambdaFlexibleSearchQuery;
+import pl.homik.flexiblelambda.service.LambdaFlexibleSearchService;
+import pl.homik.flexiblelambda.service.LambdaFlexibleSearchTranslationService;
+import pl.homik.flexiblelambda.service.LambdaQueryPrototype;
+
+@UnitTest
+@RunWith(MockitoJUnitRunner.class)
+public class LambdaQueryWarmUpServiceImplUnitTest {
+
+	@Mock
+	private ApplicationContext applicationContext;
+	@Mock
+	private LambdaFlexibleSearchTranslationService translationService;
+	@Mock
+	private LambdaFlexibleSearchService lambdaFlexibleSearchService;
+
+	private final LambdaFlexibleSearchQuery<TestItemModel> query = new LambdaFlexibleSearchQuery<>(TestItemModel.class)
+					.filter(e -> e.getInteger() == 1);
+
+	private LambdaQueryWarmUpServiceImpl service;
+
+	@Before
+	public void prepare() {
+		final Map<String, LambdaQueryPrototype> prototypes = new LinkedHashMap<>();
+		prototypes.put("failing", () -> {
+			throw new IllegalStateException("broken prototype");
+		});
+		prototypes.put("integerQuery", () -> query);
+		Mockito.when(applicationContext.getBeansOfType(LambdaQueryPrototype.class)).thenReturn(prototypes);
+
+		service = new LambdaQueryWarmUpServiceImpl();
+		service.setApplicationContext(applicationContext);
+		service.setLambdaFlexibleSearchTranslationService(translationService);
+		service.setLambdaFlexibleSearchService(lambdaFlexibleSearchService);
+	}
+
+	@Test
+	public void shouldTranslatePrototypesDespiteFailureOfOther() {
+		// when
+		service.warmUp();
+
+		// then
+		Mockito.verify(translationService).translate(query);
+		Mockito.verifyZeroInteractions(lambdaFlexibleSearchService);
+	}
+
+	@Test
+	public void shouldExecutePrototypesWhenEnabled() {
+		// given
+		service.setExecute(true);
+
+		// when
+		service.warmUp();
+
+		// then
+		Mockito.verify(lambdaFlexibleSearchService).getFirst(query);
+	}
+
+	@Test
+	public void shouldSkipWarmUpWhenDisabled() {
+		// given
+		service.setEnabled(false);
+
+		// when
+		service.warmUp();
+
+		// then
+		Mockito.verifyZeroInteractions(applicationContext, translationService);
+	}
+}
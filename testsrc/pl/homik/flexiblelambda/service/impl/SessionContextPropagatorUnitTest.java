@@ -0,0 +1,104 @@
+package pl.homik.flexiblelambda.service.impl;
+
+import java.util.Collections;
+import java.util.function.Supplier;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.model.c2l.CurrencyModel;
+import de.hybris.platform.core.model.c2l.LanguageModel;
+import de.hybris.platform.core.model.user.UserModel;
+import de.hybris.platform.search.restriction.SearchRestrictionService;
+import de.hybris.platform.servicelayer.session.Session;
+import de.hybris.platform.servicelayer.session.SessionService;
+import de.hybris.platform.servicelayer.user.UserService;
+
+import org.fest.assertions.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@UnitTest
+@RunWith(MockitoJUnitRunner.class)
+public class SessionContextPropagatorUnitTest {
+
+	@Mock
+	private SessionService sessionService;
+	@Mock
+	private UserService userService;
+	@Mock
+	private SearchRestrictionService searchRestrictionService;
+	@Mock
+	private UserModel user;
+	@Mock
+	private Session workerSession;
+	@Mock
+	private LanguageModel language;
+	@Mock
+	private CurrencyModel currency;
+
+	private SessionContextPropagator propagator;
+
+	@Before
+	public void prepare() {
+		propagator = new SessionContextPropagator();
+		propagator.setSessionService(sessionService);
+		propagator.setUserService(userService);
+		propagator.setSearchRestrictionService(searchRestrictionService);
+
+		Mockito.when(userService.getCurrentUser()).thenReturn(user);
+		Mockito.when(sessionService.createNewSession()).thenReturn(workerSession);
+	}
+
+	@Test
+	public void shouldRunTaskInNewSessionWithCallerContext() {
+
+		// given
+		final Object catalogVersions = Collections.singleton("Online");
+		Mockito.when(sessionService.getAttribute(SessionContextPropagator.CATALOG_VERSIONS_ATTRIBUTE))
+						.thenReturn(catalogVersions);
+		Mockito.when(sessionService.getAttribute(SessionContextPropagator.LANGUAGE_ATTRIBUTE)).thenReturn(language);
+		Mockito.when(sessionService.getAttribute(SessionContextPropagator.CURRENCY_ATTRIBUTE)).thenReturn(currency);
+		Mockito.when(searchRestrictionService.isSearchRestrictionsEnabled()).thenReturn(false);
+		final Supplier<String> task = propagator.propagate(() -> "result");
+
+		// when
+		final String result = task.get();
+
+		// then
+		Assertions.assertThat(result).isEqualTo("result");
+		final InOrder inOrder = Mockito.inOrder(sessionService, userService, searchRestrictionService);
+		inOrder.verify(sessionService).createNewSession();
+		inOrder.verify(userService).setCurrentUser(user);
+		inOrder.verify(sessionService).setAttribute(SessionContextPropagator.CATALOG_VERSIONS_ATTRIBUTE, catalogVersions);
+		inOrder.verify(sessionService).setAttribute(SessionContextPropagator.LANGUAGE_ATTRIBUTE, language);
+		inOrder.verify(sessionService).setAttribute(SessionContextPropagator.CURRENCY_ATTRIBUTE, currency);
+		inOrder.verify(searchRestrictionService).disableSearchRestrictions();
+		inOrder.verify(sessionService).closeSession(workerSession);
+	}
+
+	@Test
+	public void shouldCloseSessionWhenTaskFails() {
+
+		// given
+		Mockito.when(searchRestrictionService.isSearchRestrictionsEnabled()).thenReturn(true);
+		final Supplier<String> task = propagator.propagate(() -> {
+			throw new IllegalStateException("failed");
+		});
+
+		// when
+		try {
+			task.get();
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+
+		// then
+		Mockito.verify(sessionService).closeSession(workerSession);
+		Mockito.verify(searchRestrictionService, Mockito.never()).disableSearchRestrictions();
+		Mockito.verify(sessionService, Mockito.never()).setAttribute(Mockito.anyString(), Mockito.any());
+	}
+}
@@ -0,0 +1,150 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.SerializedLambda;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.model.order.OrderModel;
+import de.hybris.platform.core.model.test.TestItemModel;
+
+import org.fest.assertions.Assertions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+
+@UnitTest
+public class LambdaQueryPrecompilerUnitTest {
+
+	private static Map<String, String> results;
+
+	@BeforeClass
+	public static void precompile() throws IOException {
+		try (final InputStream classFile = LambdaQueryPrecompilerUnitTest.class
+						.getResourceAsStream(LambdaQueryPrecompilerUnitTest.class.getSimpleName() + ".class")) {
+			results = new LambdaQueryPrecompiler(LambdaQueryPrecompilerUnitTest.class.getClassLoader())
+							.precompile(classFile);
+		}
+	}
+
+	@Test
+	public void shouldTranslateLambdaWithoutCapturedValues() {
+		// when
+		final String result = results.get(getKey(equalsPredicate("a")));
+
+		// then
+		Assertions.assertThat(result).isEqualTo(PrecompiledLambdaRegistry.TRANSLATED + "{this.string} = ?a"
+						+ "\nrejected:this\ncaptured:a:0\nargs:v");
+	}
+
+	@Test
+	public void shouldRecordLiteralsAndLikePatterns() {
+		// when
+		final String result = results.get(getKey(prefixPredicate("a")));
+
+		// then
+		Assertions.assertThat(result).isEqualTo(PrecompiledLambdaRegistry.TRANSLATED
+						+ "{this.string} LIKE ?a AND {this.integer} = ?b\nrejected:this\ncaptured:a:0:STARTS_WITH"
+						+ "\nliteral:b:java.lang.Integer:1\nargs:v");
+		Assertions.assertThat(PrecompiledTranslation.parse(result).isPresent()).isTrue();
+	}
+
+	@Test
+	public void shouldRecordOnlyWhereOfLambdaWithComputedParameter() {
+		// when
+		final String result = results.get(getKey(trimmedPredicate("a")));
+
+		// then
+		Assertions.assertThat(result).isEqualTo(PrecompiledLambdaRegistry.TRANSLATED + "{this.string} = ?a");
+		Assertions.assertThat(PrecompiledTranslation.parse(result).isPresent()).isFalse();
+	}
+
+	@Test
+	public void shouldTranslateJoins() {
+		// when
+		final String result = results.get(getKey(userPredicate("a")));
+
+		// then
+		Assertions.assertThat(result).startsWith(PrecompiledLambdaRegistry.TRANSLATED + "{thisuser.uid} = ?a"
+						+ "\njoin:LEFT JOIN ").contains("\nrejected:thisuser\n");
+	}
+
+	@Test
+	public void shouldRecordUnsupportedLambda() {
+		// when
+		final String result = results.get(getKey(containsPredicate(null)));
+
+		// then
+		Assertions.assertThat(result).startsWith(PrecompiledLambdaRegistry.UNSUPPORTED + "Collection.contains:");
+	}
+
+	@Test
+	public void shouldNotVerifyLambdaWithoutSampleOfCapturedValue() {
+		// when
+		final String result = results.get(getKey(datePredicate(LocalDate.now())));
+
+		// then
+		Assertions.assertThat(result).startsWith(PrecompiledLambdaRegistry.UNVERIFIED);
+	}
+
+	@Test
+	public void shouldNotVerifyLambdaOfClassWhichCantBeInitialized() throws IOException {
+		// given
+		final Map<String, String> failingResults;
+		try (final InputStream classFile = LambdaQueryPrecompilerUnitTest.class.getResourceAsStream(
+						LambdaQueryPrecompilerUnitTest.class.getSimpleName() + "$FailingInitialization.class")) {
+
+			// when
+			failingResults = new LambdaQueryPrecompiler(LambdaQueryPrecompilerUnitTest.class.getClassLoader())
+							.precompile(classFile);
+		}
+
+		// then
+		Assertions.assertThat(failingResults).hasSize(1);
+		Assertions.assertThat(failingResults.values().iterator().next())
+						.startsWith(PrecompiledLambdaRegistry.UNVERIFIED);
+	}
+
+	private static SerializablePredicate<TestItemModel> equalsPredicate(final String value) {
+		return e -> e.getString().equals(value);
+	}
+
+	private static SerializablePredicate<TestItemModel> prefixPredicate(final String prefix) {
+		return e -> e.getString().startsWith(prefix) && e.getInteger() == 1;
+	}
+
+	private static SerializablePredicate<TestItemModel> trimmedPredicate(final String value) {
+		return e -> e.getString().equals(value.trim());
+	}
+
+	private static SerializablePredicate<TestItemModel> datePredicate(final LocalDate date) {
+		return e -> e.getString().equals(date.toString());
+	}
+
+	private static SerializablePredicate<OrderModel> userPredicate(final String uid) {
+		return e -> e.getUser().getUid().equals(uid);
+	}
+
+	private static SerializablePredicate<TestItemModel> containsPredicate(final Map<String, List<String>> map) {
+		return e -> map.get("key").contains(e.getString());
+	}
+
+	private static final class FailingInitialization {
+
+		private static final int VALUE = Integer.parseInt("not a number");
+
+		private static SerializablePredicate<TestItemModel> predicate() {
+			return e -> e.getInteger() == VALUE;
+		}
+	}
+
+	private static String getKey(final Object lambda) {
+		final SerializedLambda serialized = SerializedLambdas.extract(lambda).get();
+		return PrecompiledLambdaRegistry.getKey(serialized, PrecompiledLambdaRegistry
+						.getImplementationHash(serialized, LambdaQueryPrecompilerUnitTest.class.getClassLoader()));
+	}
+}
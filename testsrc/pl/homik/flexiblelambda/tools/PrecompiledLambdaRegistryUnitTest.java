@@ -0,0 +1,106 @@
+package pl.homik.flexiblelambda.tools;
+
+import java.lang.invoke.SerializedLambda;
+import java.util.Optional;
+import java.util.Properties;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.model.test.TestItemModel;
+
+import org.fest.assertions.Assertions;
+import org.junit.Test;
+
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+import pl.homik.flexiblelambda.visitor.UnsupportedExpressionException;
+
+@UnitTest
+public class PrecompiledLambdaRegistryUnitTest {
+
+	private static final String FAILURE = PrecompiledLambdaRegistry.UNSUPPORTED + "Collection.contains:not supported";
+	private static final String TRANSLATION = PrecompiledLambdaRegistry.TRANSLATED
+					+ "{this.string} = ?a\nrejected:this\nliteral:a:java.lang.String:a\nargs:";
+
+	private final SerializablePredicate<TestItemModel> predicate = e -> e.getString().equals("a");
+	private final SerializedLambda serialized = SerializedLambdas.extract(predicate).get();
+
+	@Test
+	public void shouldReturnFailureRecordedForImplementation() {
+		// given
+		final Properties entries = new Properties();
+		entries.setProperty(PrecompiledLambdaRegistry.getKey(serialized,
+						PrecompiledLambdaRegistry.getImplementationHash(serialized, getClass().getClassLoader())),
+						FAILURE);
+
+		// when
+		final Optional<UnsupportedExpressionException> failure = new PrecompiledLambdaRegistry(entries)
+						.getFailure(predicate);
+
+		// then
+		Assertions.assertThat(failure.isPresent()).isTrue();
+		Assertions.assertThat(failure.get().getExpressionType()).isEqualTo("Collection.contains");
+	}
+
+	@Test
+	public void shouldIgnoreFailureRecordedForChangedImplementation() {
+		// given
+		final Properties entries = new Properties();
+		entries.setProperty(PrecompiledLambdaRegistry.getKey(serialized, "stale"), FAILURE);
+
+		// when
+		final Optional<UnsupportedExpressionException> failure = new PrecompiledLambdaRegistry(entries)
+						.getFailure(predicate);
+
+		// then
+		Assertions.assertThat(failure.isPresent()).isFalse();
+	}
+
+	@Test
+	public void shouldReturnTranslationRecordedForImplementation() {
+		// given
+		final Properties entries = new Properties();
+		entries.setProperty(PrecompiledLambdaRegistry.getKey(serialized,
+						PrecompiledLambdaRegistry.getImplementationHash(serialized, getClass().getClassLoader())),
+						TRANSLATION);
+		final PrecompiledLambdaRegistry registry = new PrecompiledLambdaRegistry(entries);
+
+		// when
+		final Optional<PrecompiledTranslation> translation = registry.getTranslation(predicate);
+
+		// then
+		Assertions.assertThat(translation.isPresent()).isTrue();
+		Assertions.assertThat(translation.get().toString()).isEqualTo(TRANSLATION);
+		Assertions.assertThat(translation.get().matches(new Object[0])).isTrue();
+		Assertions.assertThat(registry.getFailure(predicate).isPresent()).isFalse();
+	}
+
+	@Test
+	public void shouldIgnoreTranslationWithoutBindings() {
+		// given
+		final Properties entries = new Properties();
+		entries.setProperty(PrecompiledLambdaRegistry.getKey(serialized,
+						PrecompiledLambdaRegistry.getImplementationHash(serialized, getClass().getClassLoader())),
+						PrecompiledLambdaRegistry.TRANSLATED + "{this.string} = ?a");
+
+		// when
+		final Optional<PrecompiledTranslation> translation = new PrecompiledLambdaRegistry(entries)
+						.getTranslation(predicate);
+
+		// then
+		Assertions.assertThat(translation.isPresent()).isFalse();
+	}
+
+	@Test
+	public void shouldNotChangeHashOfUnchangedImplementation() {
+		// when
+		final String hash = PrecompiledLambdaRegistry.getImplementationHash(serialized, getClass().getClassLoader());
+		final SerializablePredicate<TestItemModel> other = e -> e.getInteger() == 1;
+		final String otherHash = PrecompiledLambdaRegistry.getImplementationHash(
+						SerializedLambdas.extract(other).get(), getClass().getClassLoader());
+
+		// then
+		Assertions.assertThat(hash).isNotEmpty();
+		Assertions.assertThat(PrecompiledLambdaRegistry.getImplementationHash(serialized, getClass().getClassLoader()))
+						.isEqualTo(hash);
+		Assertions.assertThat(otherHash).isNotEqualTo(hash);
+	}
+}
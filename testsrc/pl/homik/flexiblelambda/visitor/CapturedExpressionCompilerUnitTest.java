@@ -0,0 +1,81 @@
+package pl.homik.flexiblelambda.visitor;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+
+import org.fest.assertions.Assertions;
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.ConstantExpression;
+import com.trigersoft.jaque.expression.Expression;
+
+@UnitTest
+public class CapturedExpressionCompilerUnitTest {
+
+	private final Map<Expression, Integer> captured = new IdentityHashMap<>();
+
+	@Test
+	public void shouldEvaluateNestedMethodCallsForNewCapturedValues() throws NoSuchMethodException {
+		// given map2.get(map1.get("key"))
+		final ConstantExpression map1 = captured(0, Collections.singletonMap("key", "k1"));
+		final ConstantExpression map2 = captured(1, Collections.singletonMap("k1", "v1"));
+		final Expression expression = Expression.invoke(map2, Map.class.getMethod("get", Object.class),
+						Expression.invoke(map1, Map.class.getMethod("get", Object.class), Expression.constant("key")));
+		final Expression template = CapturedArgumentsVisitor.toTemplate(expression, captured);
+
+		// when
+		final Optional<MethodHandle> evaluator = CapturedExpressionCompiler.compile(template);
+
+		// then
+		Assertions.assertThat(evaluator.isPresent()).isTrue();
+		Assertions.assertThat(CapturedExpressionCompiler.evaluate(evaluator.get(),
+						new Object[] { Collections.singletonMap("key", "k2"), Collections.singletonMap("k2", "v2") }))
+						.isEqualTo("v2");
+	}
+
+	@Test
+	public void shouldEvaluateStaticMethodWithPrimitiveArgument() throws NoSuchMethodException {
+		// given String.valueOf(value.length())
+		final ConstantExpression value = captured(0, "abc");
+		final Expression expression = Expression.invoke(String.class, "valueOf", new Class<?>[] { int.class },
+						Expression.invoke(value, String.class.getMethod("length")));
+		final Expression template = CapturedArgumentsVisitor.toTemplate(expression, captured);
+
+		// when
+		final Optional<MethodHandle> evaluator = CapturedExpressionCompiler.compile(template);
+
+		// then
+		Assertions.assertThat(evaluator.isPresent()).isTrue();
+		Assertions.assertThat(CapturedExpressionCompiler.evaluate(evaluator.get(), new Object[] { "abcdef" }))
+						.isEqualTo("6");
+	}
+
+	@Test
+	public void shouldNotCompileUnsupportedExpression() throws NoSuchMethodException {
+		// given String.valueOf(value + 1)
+		final ConstantExpression value = captured(0, Expression.constant(1, int.class));
+		final Expression expression = Expression.invoke(String.class, "valueOf", new Class<?>[] { int.class },
+						Expression.add(value, Expression.constant(1, int.class)));
+		final Expression template = CapturedArgumentsVisitor.toTemplate(expression, captured);
+
+		// when
+		final Optional<MethodHandle> evaluator = CapturedExpressionCompiler.compile(template);
+
+		// then
+		Assertions.assertThat(evaluator.isPresent()).isFalse();
+	}
+
+	private ConstantExpression captured(final int index, final Object value) {
+		return captured(index, Expression.constant(value));
+	}
+
+	private ConstantExpression captured(final int index, final ConstantExpression constant) {
+		captured.put(constant, index);
+		return constant;
+	}
+}
@@ -0,0 +1,68 @@
+package pl.homik.flexiblelambda.visitor;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.model.test.TestItemModel;
+
+import org.fest.assertions.Assertions;
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.BinaryExpression;
+import com.trigersoft.jaque.expression.Expression;
+import com.trigersoft.jaque.expression.ExpressionType;
+import com.trigersoft.jaque.expression.LambdaExpression;
+
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+
+@UnitTest
+public class ExpressionAnalysisUnitTest {
+
+	private final ExpressionAnalysis analysis = new ExpressionAnalysis();
+
+	@Test
+	public void shouldCountParametersOfNotCapturingLambda() {
+		// given
+		final SerializablePredicate<TestItemModel> predicate = t -> t.getString() == null;
+		final LambdaExpression<?> expression = LambdaExpression.parse(predicate);
+
+		// when
+		final int parameters = analysis.getParameterCount(expression);
+		final boolean executable = analysis.isExecutable(expression.getBody());
+
+		// then
+		Assertions.assertThat(parameters).isGreaterThan(0);
+		Assertions.assertThat(executable).isFalse();
+	}
+
+	@Test
+	public void shouldFindCapturedConstants() {
+		// given
+		final String value = "value";
+		final SerializablePredicate<TestItemModel> predicate = t -> value.equals(t.getString());
+		final LambdaExpression<?> expression = LambdaExpression.parse(predicate);
+
+		// when
+		final int constants = analysis.getConstantCount(expression);
+
+		// then
+		Assertions.assertThat(constants).isGreaterThan(0);
+		Assertions.assertThat(analysis.isExecutable(expression)).isTrue();
+		Assertions.assertThat(analysis.getParameterCount(expression)).isGreaterThan(0);
+	}
+
+	@Test
+	public void shouldReuseCountsOfSharedSubtrees() {
+		// given
+		final SerializablePredicate<TestItemModel> predicate = t -> t.getString() == null;
+		final Expression body = LambdaExpression.parse(predicate).getBody();
+		final int bodyParameters = analysis.getParameterCount(body);
+		final Expression rewritten = Expression.logicalAnd(body, body);
+
+		// when
+		final int parameters = analysis.getParameterCount(rewritten);
+
+		// then
+		Assertions.assertThat(rewritten).isInstanceOf(BinaryExpression.class);
+		Assertions.assertThat(rewritten.getExpressionType()).isEqualTo(ExpressionType.LogicalAnd);
+		Assertions.assertThat(parameters).isEqualTo(2 * bodyParameters);
+	}
+}
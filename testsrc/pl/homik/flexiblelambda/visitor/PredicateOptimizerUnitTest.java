@@ -0,0 +1,66 @@
+package pl.homik.flexiblelambda.visitor;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import de.hybris.bootstrap.annotations.UnitTest;
+import de.hybris.platform.core.model.test.TestItemModel;
+
+import org.fest.assertions.Assertions;
+import org.junit.Test;
+
+import com.trigersoft.jaque.expression.ConstantExpression;
+import com.trigersoft.jaque.expression.Expression;
+import com.trigersoft.jaque.expression.ExpressionType;
+import com.trigersoft.jaque.expression.LambdaExpression;
+
+import pl.homik.flexiblelambda.function.SerializablePredicate;
+
+@UnitTest
+public class PredicateOptimizerUnitTest {
+
+	private final PredicateOptimizer optimizer = new PredicateOptimizer(Collections.emptyMap());
+
+	@Test
+	public void shouldKeepLoosestBoundUnderOr() {
+		// given
+		final SerializablePredicate<TestItemModel> predicate = e -> e.getInteger() < 3 || e.getInteger() <= 5;
+		final Expression body = LambdaExpression.parse(predicate).getBody();
+
+		// when
+		final Expression optimized = optimizer.optimize(body);
+
+		// then
+		Assertions.assertThat(optimized.getExpressionType()).isEqualTo(ExpressionType.LessThanOrEqual);
+		Assertions.assertThat(optimized.toString()).contains("5");
+	}
+
+	@Test
+	public void shouldRemoveRepeatedOperands() {
+		// given
+		final SerializablePredicate<TestItemModel> predicate = e -> e.getString().equals("a") && e.getInteger() == 1
+						&& e.getString().equals("a");
+		final Expression body = LambdaExpression.parse(predicate).getBody();
+
+		// when
+		final Expression optimized = optimizer.optimize(body);
+
+		// then
+		Assertions.assertThat(PredicateOptimizer.flatten(optimized, ExpressionType.LogicalAnd)).hasSize(2);
+	}
+
+	@Test
+	public void shouldFoldCapturedNullByCurrentValue() {
+		// given
+		final ConstantExpression captured = Expression.constant("parsed value");
+		final Map<Expression, Object> capturedValues = new IdentityHashMap<>();
+		capturedValues.put(captured, null);
+
+		// when
+		final Expression optimized = new PredicateOptimizer(capturedValues).optimize(Expression.isNull(captured));
+
+		// then
+		Assertions.assertThat(optimizer.getBooleanValue(optimized).get()).isTrue();
+	}
+}